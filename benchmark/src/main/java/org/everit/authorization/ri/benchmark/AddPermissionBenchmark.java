@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri.benchmark;
+
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.everit.authorization.ri.PermissionRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Storing new permissions with the bulk write method. Every call stores <code>batchSize</code>
+ * permission records with a new action, so the tables grow during the measurement like in a real
+ * application.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AddPermissionBenchmark {
+
+  /**
+   * The number of permission records per call.
+   */
+  @State(Scope.Benchmark)
+  public static class BatchState extends AuthorizationBenchmarkState {
+
+    @Param({ "1", "100" })
+    public int batchSize;
+  }
+
+  /**
+   * The records that are stored by the next call of a thread.
+   */
+  @State(Scope.Thread)
+  public static class RecordState {
+
+    private static final AtomicInteger INSTANCE_COUNTER = new AtomicInteger();
+
+    private int actionCounter;
+
+    private final String actionPrefix = "action_" + INSTANCE_COUNTER.incrementAndGet() + "_";
+
+    /**
+     * A set, because the same sample pair can be selected twice for a batch.
+     */
+    public final Set<PermissionRecord> permissions = new LinkedHashSet<>();
+
+    /**
+     * Generates new records with an action that was not used before.
+     */
+    @Setup(Level.Invocation)
+    public void generate(final BatchState state,
+        final AuthorizationBenchmarkState.Cursor cursor) {
+      permissions.clear();
+      String action = actionPrefix + actionCounter++;
+      for (int i = 0; i < state.batchSize; i++) {
+        int index = cursor.next();
+        permissions.add(new PermissionRecord(state.hierarchy.getSampleAuthorizedResourceId(index),
+            state.hierarchy.getSampleTargetResourceId(index), action));
+      }
+    }
+  }
+
+  @Benchmark
+  public void addPermissions(final BatchState state, final RecordState records) {
+    state.authorization.addPermissions(records.permissions);
+  }
+
+  @Benchmark
+  @Threads(Threads.MAX)
+  public void addPermissionsAllThreads(final BatchState state, final RecordState records) {
+    state.authorization.addPermissions(records.permissions);
+  }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri.benchmark;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.everit.authorization.ri.ActionSetPermissionCache;
+import org.everit.authorization.ri.AuthorizationConfiguration;
+import org.everit.authorization.ri.AuthorizationImpl;
+import org.everit.authorization.ri.CompactPermissionCache;
+import org.everit.authorization.ri.CompactPermissionInheritanceCache;
+import org.everit.authorization.ri.ConcurrentMapPermissionCache;
+import org.everit.authorization.ri.ConcurrentMapPermissionInheritanceCache;
+import org.everit.authorization.ri.PermissionCache;
+import org.everit.authorization.ri.PermissionInheritanceCache;
+import org.everit.authorization.ri.TestEnvironment;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * A component instance on a new database with a {@link ResourceHierarchy}. The state is shared by
+ * all threads of a benchmark, so the multi-threaded benchmarks show how the caches scale.
+ */
+@State(Scope.Benchmark)
+public class AuthorizationBenchmarkState {
+
+  /**
+   * The position of a thread in the sample pairs of the hierarchy. Every thread starts at a
+   * different position, but the threads read the same entries of the shared caches.
+   */
+  @State(Scope.Thread)
+  public static class Cursor {
+
+    private int index;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+      index = (int) Thread.currentThread().getId() * 997;
+    }
+
+    public int next() {
+      return index++ & Integer.MAX_VALUE;
+    }
+  }
+
+  public static final String CACHE_ACTION_SET = "actionSet";
+
+  public static final String CACHE_COMPACT = "compact";
+
+  public static final String CACHE_CONCURRENT_MAP = "concurrentMap";
+
+  public AuthorizationImpl authorization;
+
+  /**
+   * The implementation of the permission and permission inheritance caches.
+   */
+  @Param({ CACHE_ACTION_SET, CACHE_COMPACT, CACHE_CONCURRENT_MAP })
+  public String cache;
+
+  /**
+   * The number of levels above the leaf resources.
+   */
+  @Param({ "2", "4" })
+  public int depth;
+
+  public TestEnvironment environment;
+
+  /**
+   * The number of parents of every resource below the top level.
+   */
+  @Param({ "2", "8" })
+  public int fanOut;
+
+  public ResourceHierarchy hierarchy;
+
+  /**
+   * Creates a new instance of the component with empty caches on the database of the
+   * environment. The instances behave like the nodes of a cluster.
+   *
+   * @return the new instance.
+   */
+  public AuthorizationImpl createNode() {
+    PermissionCache permissionCache;
+    PermissionInheritanceCache permissionInheritanceCache;
+    if (CACHE_CONCURRENT_MAP.equals(cache)) {
+      permissionCache = new ConcurrentMapPermissionCache(new ConcurrentHashMap<>());
+      permissionInheritanceCache =
+          new ConcurrentMapPermissionInheritanceCache(new ConcurrentHashMap<>());
+    } else if (CACHE_ACTION_SET.equals(cache)) {
+      permissionCache = new ActionSetPermissionCache();
+      permissionInheritanceCache = new CompactPermissionInheritanceCache();
+    } else {
+      permissionCache = new CompactPermissionCache();
+      permissionInheritanceCache = new CompactPermissionInheritanceCache();
+    }
+
+    return new AuthorizationImpl(environment.getPropertyManager(),
+        environment.getResourceService(), environment.getTransactionPropagator(),
+        environment.getQuerydslSupport(), permissionCache, permissionInheritanceCache,
+        createConfiguration().transactionSynchronizer(environment.getTransactionSynchronizer()));
+  }
+
+  /**
+   * Creates the optional settings of a component instance. Subclasses can override it to
+   * benchmark different strategies.
+   */
+  protected AuthorizationConfiguration createConfiguration() {
+    return new AuthorizationConfiguration();
+  }
+
+  /**
+   * Creates the database, the component and the hierarchy.
+   */
+  @Setup(Level.Trial)
+  public void setUp() {
+    environment = new TestEnvironment();
+    authorization = createNode();
+    hierarchy = new ResourceHierarchy(environment, authorization, depth, fanOut);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() {
+    environment.close();
+  }
+
+  /**
+   * Fills the caches with every sample pair of the hierarchy.
+   */
+  public void warmUpCaches() {
+    for (int i = 0; i < ResourceHierarchy.SAMPLE_COUNT; i++) {
+      authorization.hasPermission(hierarchy.getSampleAuthorizedResourceId(i),
+          hierarchy.getSampleTargetResourceId(i), ResourceHierarchy.ACTION);
+    }
+  }
+}
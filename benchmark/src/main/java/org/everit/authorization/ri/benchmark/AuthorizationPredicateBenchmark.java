@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.everit.authorization.ri.AuthorizationConfiguration;
+import org.everit.authorization.ri.PermissionInheritanceRecord;
+import org.everit.authorization.ri.PermissionRecord;
+import org.everit.resource.ri.schema.qdsl.QResource;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.querydsl.sql.SQLQuery;
+
+/**
+ * Execution of a query that counts the resources on which a resource has permission. The resource
+ * inherits from as many parents as the scope size requires, and one of its parents has a
+ * permission on every target of the hierarchy. The authorization scopes are cached, so the
+ * benchmark measures the generated SQL.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class AuthorizationPredicateBenchmark {
+
+  /**
+   * The component with the selected predicate strategy.
+   */
+  @State(Scope.Benchmark)
+  public static class PredicateState extends AuthorizationBenchmarkState {
+
+    public static final String STRATEGY_IN_LIST = "inList";
+
+    public static final String STRATEGY_RECURSIVE = "recursive";
+
+    /**
+     * The resource whose permitted resources are counted.
+     */
+    public long scopeResourceId;
+
+    /**
+     * The number of resources in the authorization scope, including the resource itself.
+     */
+    @Param({ "1", "50", "500" })
+    public int scopeSize;
+
+    /**
+     * Whether the scope is listed in the query or selected with a recursive common table
+     * expression.
+     */
+    @Param({ STRATEGY_IN_LIST, STRATEGY_RECURSIVE })
+    public String strategy;
+
+    @Override
+    protected AuthorizationConfiguration createConfiguration() {
+      return new AuthorizationConfiguration()
+          .recursiveScopePredicateThreshold(STRATEGY_RECURSIVE.equals(strategy) ? 1 : 0);
+    }
+
+    /**
+     * Creates the parents of the scope resource and grants the permissions on the targets of the
+     * hierarchy to the last parent or to the resource itself if it has no parents.
+     */
+    private void createScope() {
+      long[] resourceIds = environment.createResources(scopeSize);
+      scopeResourceId = resourceIds[0];
+      List<PermissionInheritanceRecord> permissionInheritances = new ArrayList<>();
+      for (int i = 1; i < resourceIds.length; i++) {
+        permissionInheritances.add(new PermissionInheritanceRecord(resourceIds[i],
+            scopeResourceId));
+      }
+      authorization.addPermissionInheritances(permissionInheritances);
+
+      List<PermissionRecord> permissions = new ArrayList<>();
+      for (long targetResourceId : hierarchy.getTargetResourceIds()) {
+        permissions.add(new PermissionRecord(resourceIds[resourceIds.length - 1],
+            targetResourceId, ResourceHierarchy.ACTION));
+      }
+      authorization.addPermissions(permissions);
+    }
+
+    /**
+     * Creates the scope resource in the first iteration and caches its authorization scope.
+     */
+    @Setup(Level.Iteration)
+    public void fillCache() {
+      if (scopeResourceId == 0) {
+        createScope();
+      }
+      authorization.getAuthorizationScope(scopeResourceId);
+    }
+  }
+
+  @Benchmark
+  public long countPermittedResources(final PredicateState state) {
+    long authorizedResourceId = state.scopeResourceId;
+    return state.environment.getQuerydslSupport().execute((connection, configuration) -> {
+      QResource resource = QResource.resource;
+      return new SQLQuery<Long>(connection, configuration)
+          .select(resource.resourceId.count())
+          .from(resource)
+          .where(state.authorization.authorizationPredicate(authorizedResourceId,
+              resource.resourceId, ResourceHierarchy.ACTION))
+          .fetchOne();
+    });
+  }
+}
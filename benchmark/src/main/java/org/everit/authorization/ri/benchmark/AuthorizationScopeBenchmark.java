@@ -0,0 +1,101 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.everit.authorization.ri.AuthorizationConfiguration;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Resolution of the transitive authorization scope of leaf resources.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AuthorizationScopeBenchmark {
+
+  /**
+   * The caches are cleared before every call, so the whole scope is read from the database.
+   */
+  @State(Scope.Benchmark)
+  public static class ColdState extends AuthorizationBenchmarkState {
+
+    /**
+     * Whether the ancestors are read with one recursive query or level by level.
+     */
+    @Param({ "false", "true" })
+    public boolean recursiveScopeResolution;
+
+    @Setup(Level.Invocation)
+    public void clearCache() {
+      authorization.clearCache();
+    }
+
+    @Override
+    protected AuthorizationConfiguration createConfiguration() {
+      return new AuthorizationConfiguration().recursiveScopeResolution(recursiveScopeResolution);
+    }
+  }
+
+  /**
+   * The scopes of all leaf resources are cached.
+   */
+  @State(Scope.Benchmark)
+  public static class HotState extends AuthorizationBenchmarkState {
+
+    @Setup(Level.Iteration)
+    public void fillCache() {
+      for (long leafResourceId : hierarchy.getLeafResourceIds()) {
+        authorization.getAuthorizationScope(leafResourceId);
+      }
+    }
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public long[] getAuthorizationScopeCold(final ColdState state,
+      final AuthorizationBenchmarkState.Cursor cursor) {
+    return getAuthorizationScope(state, cursor);
+  }
+
+  private long[] getAuthorizationScope(final AuthorizationBenchmarkState state,
+      final AuthorizationBenchmarkState.Cursor cursor) {
+    return state.authorization.getAuthorizationScope(
+        state.hierarchy.getSampleAuthorizedResourceId(cursor.next()));
+  }
+
+  @Benchmark
+  public long[] getAuthorizationScopeHot(final HotState state,
+      final AuthorizationBenchmarkState.Cursor cursor) {
+    return getAuthorizationScope(state, cursor);
+  }
+
+  @Benchmark
+  @Threads(Threads.MAX)
+  public long[] getAuthorizationScopeHotAllThreads(final HotState state,
+      final AuthorizationBenchmarkState.Cursor cursor) {
+    return getAuthorizationScope(state, cursor);
+  }
+}
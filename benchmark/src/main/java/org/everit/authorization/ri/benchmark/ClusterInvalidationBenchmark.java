@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.everit.authorization.ri.AuthorizationConfiguration;
+import org.everit.authorization.ri.AuthorizationImpl;
+import org.everit.authorization.ri.AuthorizationMetricsListener.CacheType;
+import org.everit.authorization.ri.InMemoryAuthorizationMetrics;
+import org.everit.authorization.ri.LoopbackCacheInvalidationTransport;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Mixed read and write load on two nodes that share the database. The readers check permissions
+ * on the first node while a writer grants and revokes permissions on the second node. The hit
+ * ratio of the permission cache of the reader node is printed at the end of every iteration.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ClusterInvalidationBenchmark {
+
+  /**
+   * The two nodes and the way the reader node learns about the modifications.
+   */
+  @State(Scope.Benchmark)
+  public static class ClusterState extends AuthorizationBenchmarkState {
+
+    /**
+     * The reader node clears all of its caches after every modification.
+     */
+    public static final String INVALIDATION_CLEAR_CACHE = "clearCache";
+
+    /**
+     * The reader node evicts the modified keys based on the events of the writer node.
+     */
+    public static final String INVALIDATION_EVENTS = "events";
+
+    /**
+     * The action that is granted and revoked by the writer.
+     */
+    public static final String WRITE_ACTION = "write";
+
+    private final boolean[] granted = new boolean[ResourceHierarchy.SAMPLE_COUNT];
+
+    @Param({ INVALIDATION_EVENTS, INVALIDATION_CLEAR_CACHE })
+    public String invalidation;
+
+    private final List<InMemoryAuthorizationMetrics> metrics = new ArrayList<>();
+
+    private final LoopbackCacheInvalidationTransport transport =
+        new LoopbackCacheInvalidationTransport();
+
+    public AuthorizationImpl writerNode;
+
+    @Override
+    protected AuthorizationConfiguration createConfiguration() {
+      InMemoryAuthorizationMetrics nodeMetrics = new InMemoryAuthorizationMetrics();
+      metrics.add(nodeMetrics);
+      AuthorizationConfiguration configuration =
+          new AuthorizationConfiguration().metricsListener(nodeMetrics);
+      if (INVALIDATION_EVENTS.equals(invalidation)) {
+        configuration.cacheInvalidationTransport(transport);
+      }
+      return configuration;
+    }
+
+    /**
+     * Creates the writer node and fills the cache of the reader node.
+     */
+    @Setup(Level.Iteration)
+    public void prepareIteration() {
+      if (writerNode == null) {
+        writerNode = createNode();
+      }
+      for (int i = 0; i < ResourceHierarchy.SAMPLE_COUNT; i++) {
+        authorization.hasPermission(hierarchy.getSampleAuthorizedResourceId(i),
+            hierarchy.getSampleTargetResourceId(i), WRITE_ACTION, ResourceHierarchy.ACTION);
+      }
+      metrics.get(0).reset();
+    }
+
+    /**
+     * Prints the hit ratio of the reader node.
+     */
+    @TearDown(Level.Iteration)
+    public void printHitRatio() {
+      InMemoryAuthorizationMetrics readerMetrics = metrics.get(0);
+      System.out.printf("%nPermission cache hit ratio of the reader node: %.4f (%d lookups)%n",
+          readerMetrics.getCacheHitRatio(CacheType.PERMISSION),
+          readerMetrics.getCacheHitCount(CacheType.PERMISSION)
+              + readerMetrics.getCacheMissCount(CacheType.PERMISSION));
+    }
+
+    /**
+     * Grants the write action on the sample pair if it is not granted yet, revokes it otherwise.
+     * The writers are serialized, so the same permission is not added twice.
+     */
+    public synchronized void toggleWritePermission(final int index) {
+      int sampleIndex = index & (ResourceHierarchy.SAMPLE_COUNT - 1);
+      long authorizedResourceId = hierarchy.getSampleAuthorizedResourceId(sampleIndex);
+      long targetResourceId = hierarchy.getSampleTargetResourceId(sampleIndex);
+      if (granted[sampleIndex]) {
+        writerNode.removePermission(authorizedResourceId, targetResourceId, WRITE_ACTION);
+      } else {
+        writerNode.addPermission(authorizedResourceId, targetResourceId, WRITE_ACTION);
+      }
+      granted[sampleIndex] = !granted[sampleIndex];
+
+      if (INVALIDATION_CLEAR_CACHE.equals(invalidation)) {
+        authorization.clearCache();
+      }
+    }
+  }
+
+  @Benchmark
+  @Group("mixed")
+  @GroupThreads(3)
+  public boolean read(final ClusterState state, final AuthorizationBenchmarkState.Cursor cursor) {
+    int index = cursor.next();
+    return state.authorization.hasPermission(state.hierarchy.getSampleAuthorizedResourceId(index),
+        state.hierarchy.getSampleTargetResourceId(index), ClusterState.WRITE_ACTION,
+        ResourceHierarchy.ACTION);
+  }
+
+  @Benchmark
+  @Group("mixed")
+  @GroupThreads(1)
+  public void write(final ClusterState state, final AuthorizationBenchmarkState.Cursor cursor) {
+    state.toggleWritePermission(cursor.next());
+  }
+}
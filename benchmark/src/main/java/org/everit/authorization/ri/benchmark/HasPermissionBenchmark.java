@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Permission checks of leaf resources with the caches filled or cleared before the call.
+ *
+ * <p>
+ * The allocations of the checks are measured with the GC profiler of JMH. The
+ * <code>gc.alloc.rate.norm</code> result of <code>hasPermissionHot</code> is the number of bytes
+ * that a check allocates, and it is zero with the primitive caches:
+ *
+ * <pre>
+ * java -jar benchmarks.jar HasPermissionBenchmark.hasPermissionHot -prof gc -p cache=compact
+ * </pre>
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class HasPermissionBenchmark {
+
+  /**
+   * The caches are cleared before every call, so the permission check reads the inheritance
+   * records and the permissions from the database.
+   */
+  @State(Scope.Benchmark)
+  public static class ColdState extends AuthorizationBenchmarkState {
+
+    @Setup(Level.Invocation)
+    public void clearCache() {
+      authorization.clearCache();
+    }
+  }
+
+  /**
+   * The caches contain every sample pair of the hierarchy.
+   */
+  @State(Scope.Benchmark)
+  public static class HotState extends AuthorizationBenchmarkState {
+
+    @Setup(Level.Iteration)
+    public void fillCache() {
+      warmUpCaches();
+    }
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public boolean hasPermissionCold(final ColdState state,
+      final AuthorizationBenchmarkState.Cursor cursor) {
+    return hasPermission(state, cursor);
+  }
+
+  private boolean hasPermission(final AuthorizationBenchmarkState state,
+      final AuthorizationBenchmarkState.Cursor cursor) {
+    int index = cursor.next();
+    return state.authorization.hasPermission(state.hierarchy.getSampleAuthorizedResourceId(index),
+        state.hierarchy.getSampleTargetResourceId(index), ResourceHierarchy.ACTION);
+  }
+
+  @Benchmark
+  public boolean hasPermissionHot(final HotState state,
+      final AuthorizationBenchmarkState.Cursor cursor) {
+    return hasPermission(state, cursor);
+  }
+
+  @Benchmark
+  @Threads(Threads.MAX)
+  public boolean hasPermissionHotAllThreads(final HotState state,
+      final AuthorizationBenchmarkState.Cursor cursor) {
+    return hasPermission(state, cursor);
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.everit.authorization.ri.AuthorizationConfiguration;
+import org.everit.authorization.ri.InMemoryAuthorizationImpl;
+import org.everit.authorization.ri.PermissionRecord;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Permission checks and scope calculations of the in-memory implementation. The heap that the
+ * loaded snapshot occupies is printed after the snapshot is loaded.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class InMemoryAuthorizationBenchmark {
+
+  /**
+   * The hierarchy and the additional permissions loaded into an in-memory instance.
+   */
+  @State(Scope.Benchmark)
+  public static class InMemoryState extends AuthorizationBenchmarkState {
+
+    private static final int BATCH_SIZE = 1000;
+
+    private static final String EXTRA_ACTION = "write";
+
+    private static final int EXTRA_AUTHORIZED_RESOURCE_COUNT = 1000;
+
+    public InMemoryAuthorizationImpl engine;
+
+    /**
+     * The number of permissions that are added to the permissions of the hierarchy, so the memory
+     * usage can be measured with a realistic number of grants.
+     */
+    @Param({ "0", "1000000" })
+    public int extraPermissionCount;
+
+    private void addExtraPermissions() {
+      int targetCount = extraPermissionCount / EXTRA_AUTHORIZED_RESOURCE_COUNT;
+      long[] authorizedResourceIds =
+          environment.createResources(EXTRA_AUTHORIZED_RESOURCE_COUNT);
+      long[] targetResourceIds = environment.createResources(targetCount);
+
+      List<PermissionRecord> permissions = new ArrayList<>(BATCH_SIZE);
+      for (long authorizedResourceId : authorizedResourceIds) {
+        for (long targetResourceId : targetResourceIds) {
+          permissions.add(
+              new PermissionRecord(authorizedResourceId, targetResourceId, EXTRA_ACTION));
+          if (permissions.size() == BATCH_SIZE) {
+            authorization.addPermissions(permissions);
+            permissions.clear();
+          }
+        }
+      }
+      if (!permissions.isEmpty()) {
+        authorization.addPermissions(permissions);
+      }
+    }
+
+    @TearDown(Level.Trial)
+    public void closeEngine() {
+      engine.close();
+    }
+
+    /**
+     * Loads the snapshot once, before the first iteration.
+     */
+    @Setup(Level.Iteration)
+    public void loadSnapshot() {
+      if (engine != null) {
+        return;
+      }
+      if (extraPermissionCount > 0) {
+        addExtraPermissions();
+      }
+
+      long usedHeapBefore = usedHeap();
+      engine = new InMemoryAuthorizationImpl(environment.getPropertyManager(),
+          environment.getResourceService(), environment.getTransactionPropagator(),
+          environment.getQuerydslSupport(), new AuthorizationConfiguration()
+              .transactionSynchronizer(environment.getTransactionSynchronizer()));
+      long usedHeap = usedHeap() - usedHeapBefore;
+
+      long permissionCount =
+          ((long) ResourceHierarchy.TARGET_COUNT * ResourceHierarchy.PERMISSIONS_PER_TARGET)
+          + ((long) (extraPermissionCount / EXTRA_AUTHORIZED_RESOURCE_COUNT)
+              * EXTRA_AUTHORIZED_RESOURCE_COUNT);
+      System.out.printf("%nHeap of the in-memory snapshot: %d bytes, %.1f MB per million "
+          + "permissions (%d permissions)%n", usedHeap,
+          (usedHeap * (1_000_000.0 / permissionCount)) / (1024 * 1024), permissionCount);
+    }
+
+    private long usedHeap() {
+      Runtime runtime = Runtime.getRuntime();
+      for (int i = 0; i < 3; i++) {
+        System.gc();
+      }
+      return runtime.totalMemory() - runtime.freeMemory();
+    }
+  }
+
+  @Benchmark
+  public long[] getAuthorizationScope(final InMemoryState state,
+      final AuthorizationBenchmarkState.Cursor cursor) {
+    return state.engine.getAuthorizationScope(
+        state.hierarchy.getSampleAuthorizedResourceId(cursor.next()));
+  }
+
+  @Benchmark
+  public boolean hasPermission(final InMemoryState state,
+      final AuthorizationBenchmarkState.Cursor cursor) {
+    int index = cursor.next();
+    return state.engine.hasPermission(state.hierarchy.getSampleAuthorizedResourceId(index),
+        state.hierarchy.getSampleTargetResourceId(index), ResourceHierarchy.ACTION);
+  }
+
+  @Benchmark
+  @Threads(Threads.MAX)
+  public boolean hasPermissionAllThreads(final InMemoryState state,
+      final AuthorizationBenchmarkState.Cursor cursor) {
+    return hasPermission(state, cursor);
+  }
+}
@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri.benchmark;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.everit.authorization.ri.CompactPermissionInheritanceCache;
+import org.everit.authorization.ri.ConcurrentMapPermissionInheritanceCache;
+import org.everit.authorization.ri.OffHeapPermissionInheritanceCache;
+import org.everit.authorization.ri.PermissionInheritanceCache;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * Memory footprint and garbage collection cost of the permission inheritance cache
+ * implementations with a large inheritance graph that does not need a database. The heap and the
+ * direct memory that the filled cache occupies are printed after the cache is filled, the number
+ * and the time of the garbage collections are printed at the end of every iteration.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class PermissionInheritanceCacheBenchmark {
+
+  /**
+   * A cache that holds the parents of every resource of a generated graph.
+   */
+  @State(Scope.Benchmark)
+  public static class InheritanceCacheState {
+
+    public static final String CACHE_COMPACT = "compact";
+
+    public static final String CACHE_CONCURRENT_MAP = "concurrentMap";
+
+    public static final String CACHE_OFF_HEAP = "offHeap";
+
+    /**
+     * The number of parents of every resource.
+     */
+    public static final int PARENTS_PER_RESOURCE = 4;
+
+    /**
+     * The implementation of the permission inheritance cache.
+     */
+    @Param({ CACHE_OFF_HEAP, CACHE_COMPACT, CACHE_CONCURRENT_MAP })
+    public String cache;
+
+    /**
+     * The number of inheritance records in the cache.
+     */
+    @Param({ "10000000" })
+    public int edgeCount;
+
+    private long garbageCollectionCount;
+
+    private long garbageCollectionMillis;
+
+    public PermissionInheritanceCache permissionInheritanceCache;
+
+    public int resourceCount;
+
+    private PermissionInheritanceCache createCache() {
+      if (CACHE_CONCURRENT_MAP.equals(cache)) {
+        return new ConcurrentMapPermissionInheritanceCache(new ConcurrentHashMap<>());
+      } else if (CACHE_OFF_HEAP.equals(cache)) {
+        return new OffHeapPermissionInheritanceCache();
+      } else {
+        return new CompactPermissionInheritanceCache();
+      }
+    }
+
+    /**
+     * Fills the cache with a graph where the parents of a resource are spread over all resources.
+     */
+    @Setup(Level.Trial)
+    public void fillCache() {
+      resourceCount = edgeCount / PARENTS_PER_RESOURCE;
+
+      long usedHeapBefore = usedHeap();
+      long usedDirectMemoryBefore = usedDirectMemory();
+      permissionInheritanceCache = createCache();
+      for (int i = 0; i < resourceCount; i++) {
+        long[] parentResourceIds = new long[PARENTS_PER_RESOURCE];
+        for (int j = 0; j < PARENTS_PER_RESOURCE; j++) {
+          parentResourceIds[j] = parentResourceId(i, j);
+        }
+        permissionInheritanceCache.put(i, parentResourceIds);
+      }
+      long usedHeap = usedHeap() - usedHeapBefore;
+      long usedDirectMemory = usedDirectMemory() - usedDirectMemoryBefore;
+
+      System.out.printf("%nMemory of %d inheritance records: heap %.1f MB, direct %.1f MB%n",
+          (long) resourceCount * PARENTS_PER_RESOURCE, usedHeap / (1024.0 * 1024),
+          usedDirectMemory / (1024.0 * 1024));
+    }
+
+    private long parentResourceId(final int resourceId, final int parentIndex) {
+      return ((resourceId * 0x9E3779B1L) + parentIndex) % resourceCount;
+    }
+
+    /**
+     * Prints the garbage collections of the iteration.
+     */
+    @TearDown(Level.Iteration)
+    public void printGarbageCollections() {
+      long count = -garbageCollectionCount;
+      long millis = -garbageCollectionMillis;
+      for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+        count += collector.getCollectionCount();
+        millis += collector.getCollectionTime();
+      }
+      System.out.printf("%nGarbage collections of the iteration: %d, %d ms%n", count, millis);
+    }
+
+    /**
+     * Remembers the number and time of the garbage collections before the iteration.
+     */
+    @Setup(Level.Iteration)
+    public void recordGarbageCollections() {
+      garbageCollectionCount = 0;
+      garbageCollectionMillis = 0;
+      for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+        garbageCollectionCount += collector.getCollectionCount();
+        garbageCollectionMillis += collector.getCollectionTime();
+      }
+    }
+
+    private long usedDirectMemory() {
+      long usedDirectMemory = 0;
+      for (BufferPoolMXBean bufferPool : ManagementFactory
+          .getPlatformMXBeans(BufferPoolMXBean.class)) {
+        if ("direct".equals(bufferPool.getName())) {
+          usedDirectMemory += bufferPool.getMemoryUsed();
+        }
+      }
+      return usedDirectMemory;
+    }
+
+    private long usedHeap() {
+      Runtime runtime = Runtime.getRuntime();
+      for (int i = 0; i < 3; i++) {
+        System.gc();
+      }
+      return runtime.totalMemory() - runtime.freeMemory();
+    }
+  }
+
+  /**
+   * A full garbage collection, whose pause grows with the number of objects that the cache keeps
+   * on the heap.
+   */
+  @Benchmark
+  @BenchmarkMode(Mode.SingleShotTime)
+  @OutputTimeUnit(TimeUnit.MILLISECONDS)
+  public void fullGarbageCollection(final InheritanceCacheState state) {
+    System.gc();
+  }
+
+  @Benchmark
+  public long[] get(final InheritanceCacheState state,
+      final AuthorizationBenchmarkState.Cursor cursor) {
+    return state.permissionInheritanceCache.get(cursor.next() % state.resourceCount);
+  }
+
+  @Benchmark
+  @Threads(Threads.MAX)
+  public long[] getAllThreads(final InheritanceCacheState state,
+      final AuthorizationBenchmarkState.Cursor cursor) {
+    return get(state, cursor);
+  }
+
+  /**
+   * Replaces the parents of a resource, so the garbage of the replaced values is measured too.
+   */
+  @Benchmark
+  public void put(final InheritanceCacheState state,
+      final AuthorizationBenchmarkState.Cursor cursor) {
+    int resourceId = cursor.next() % state.resourceCount;
+    long[] parentResourceIds = new long[InheritanceCacheState.PARENTS_PER_RESOURCE];
+    for (int j = 0; j < parentResourceIds.length; j++) {
+      parentResourceIds[j] = state.parentResourceId(resourceId, j);
+    }
+    state.permissionInheritanceCache.put(resourceId, parentResourceIds);
+  }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.everit.authorization.ri.AuthorizationImpl;
+import org.everit.authorization.ri.PermissionInheritanceRecord;
+import org.everit.authorization.ri.PermissionRecord;
+import org.everit.authorization.ri.TestEnvironment;
+
+/**
+ * Synthetic resource hierarchy. The leaf resources are the authorized resources of the benchmarks.
+ * Above them there are <code>depth</code> levels with {@value #LEVEL_WIDTH} resources each, and
+ * every resource below the top level inherits the permissions of <code>fanOut</code> random
+ * resources from the level above it. The permissions on the target resources are granted to random
+ * resources of any level, so a permission check walks a part of the hierarchy.
+ *
+ * <p>
+ * The size of the authorization scope of a leaf grows with the depth and the fan-out until it
+ * saturates at the width of the levels. The data is generated with a fixed seed, so every trial
+ * uses the same hierarchy.
+ */
+public final class ResourceHierarchy {
+
+  public static final String ACTION = "read";
+
+  public static final int LEAF_COUNT = 1024;
+
+  public static final int LEVEL_WIDTH = 256;
+
+  public static final int PERMISSIONS_PER_TARGET = 4;
+
+  /**
+   * The number of sample (authorized, target) pairs. Must be a power of two.
+   */
+  public static final int SAMPLE_COUNT = 4096;
+
+  public static final int TARGET_COUNT = 1024;
+
+  private static final int BATCH_SIZE = 1000;
+
+  private static final long SEED = 42;
+
+  private static void chooseDistinct(final Random random, final long[] source, final int count,
+      final List<Long> result) {
+    if (count >= source.length) {
+      for (long value : source) {
+        result.add(value);
+      }
+      return;
+    }
+    while (result.size() < count) {
+      long value = source[random.nextInt(source.length)];
+      if (!result.contains(value)) {
+        result.add(value);
+      }
+    }
+  }
+
+  private final long[][] levels;
+
+  private final long[] sampleAuthorizedResourceIds = new long[SAMPLE_COUNT];
+
+  private final long[] sampleTargetResourceIds = new long[SAMPLE_COUNT];
+
+  private final long[] targetResourceIds;
+
+  /**
+   * Generates the hierarchy and stores it with the bulk write methods of the component. The
+   * caches of the component are cleared afterwards.
+   *
+   * @param environment
+   *          the environment that creates the resources.
+   * @param authorization
+   *          the component that stores the inheritance and permission records.
+   * @param depth
+   *          the number of levels above the leaf resources.
+   * @param fanOut
+   *          the number of parents of every resource below the top level.
+   */
+  public ResourceHierarchy(final TestEnvironment environment,
+      final AuthorizationImpl authorization, final int depth, final int fanOut) {
+    Random random = new Random(SEED);
+
+    levels = new long[depth + 1][];
+    levels[0] = environment.createResources(LEAF_COUNT);
+    for (int i = 1; i <= depth; i++) {
+      levels[i] = environment.createResources(LEVEL_WIDTH);
+    }
+    targetResourceIds = environment.createResources(TARGET_COUNT);
+
+    List<PermissionInheritanceRecord> inheritances = new ArrayList<>();
+    List<Long> parentResourceIds = new ArrayList<>(fanOut);
+    for (int i = 0; i < depth; i++) {
+      for (long childResourceId : levels[i]) {
+        parentResourceIds.clear();
+        chooseDistinct(random, levels[i + 1], fanOut, parentResourceIds);
+        for (Long parentResourceId : parentResourceIds) {
+          inheritances.add(new PermissionInheritanceRecord(parentResourceId, childResourceId));
+        }
+        if (inheritances.size() >= BATCH_SIZE) {
+          authorization.addPermissionInheritances(inheritances);
+          inheritances.clear();
+        }
+      }
+    }
+    authorization.addPermissionInheritances(inheritances);
+
+    List<PermissionRecord> permissions = new ArrayList<>();
+    List<Long> authorizedResourceIds = new ArrayList<>(PERMISSIONS_PER_TARGET);
+    for (long targetResourceId : targetResourceIds) {
+      authorizedResourceIds.clear();
+      long[] level = levels[random.nextInt(levels.length)];
+      chooseDistinct(random, level, PERMISSIONS_PER_TARGET, authorizedResourceIds);
+      for (Long authorizedResourceId : authorizedResourceIds) {
+        permissions.add(new PermissionRecord(authorizedResourceId, targetResourceId, ACTION));
+      }
+      if (permissions.size() >= BATCH_SIZE) {
+        authorization.addPermissions(permissions);
+        permissions.clear();
+      }
+    }
+    authorization.addPermissions(permissions);
+
+    for (int i = 0; i < SAMPLE_COUNT; i++) {
+      sampleAuthorizedResourceIds[i] = levels[0][random.nextInt(levels[0].length)];
+      sampleTargetResourceIds[i] = targetResourceIds[random.nextInt(targetResourceIds.length)];
+    }
+
+    authorization.clearCache();
+  }
+
+  public long[] getLeafResourceIds() {
+    return levels[0].clone();
+  }
+
+  /**
+   * The authorized resource of a sample pair.
+   *
+   * @param index
+   *          any non-negative number, it is wrapped around {@link #SAMPLE_COUNT}.
+   */
+  public long getSampleAuthorizedResourceId(final int index) {
+    return sampleAuthorizedResourceIds[index & (SAMPLE_COUNT - 1)];
+  }
+
+  /**
+   * The target resource of a sample pair.
+   *
+   * @param index
+   *          any non-negative number, it is wrapped around {@link #SAMPLE_COUNT}.
+   */
+  public long getSampleTargetResourceId(final int index) {
+    return sampleTargetResourceIds[index & (SAMPLE_COUNT - 1)];
+  }
+
+  public long[] getTargetResourceIds() {
+    return targetResourceIds.clone();
+  }
+}
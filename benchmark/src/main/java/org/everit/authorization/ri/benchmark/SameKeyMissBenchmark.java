@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.everit.authorization.ri.AuthorizationConfiguration;
+import org.everit.authorization.ri.AuthorizationMetricsListener.CacheType;
+import org.everit.authorization.ri.AuthorizationMetricsListener.DatabaseOperation;
+import org.everit.authorization.ri.InMemoryAuthorizationMetrics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Concurrent permission checks of the same popular (authorized, target) pair while an evictor
+ * keeps clearing the caches, so the readers miss the same keys at the same time. The checks do
+ * not lock resource rows, so the readers must not serialize behind each other. In the
+ * <code>missUnderWrite</code> group a writer also keeps granting and revoking an unrelated action
+ * of the same authorized resource, so the misses run against the modifications of its keys. The
+ * number of lookups, misses and database reads is printed at the end of every iteration.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SameKeyMissBenchmark {
+
+  /**
+   * The popular pair and a target that the writer grants permissions on to the same authorized
+   * resource.
+   */
+  @State(Scope.Benchmark)
+  public static class SameKeyMissState extends AuthorizationBenchmarkState {
+
+    /**
+     * The action that is granted and revoked by the writer.
+     */
+    public static final String WRITE_ACTION = "write";
+
+    private long authorizedResourceId;
+
+    private boolean granted;
+
+    private final InMemoryAuthorizationMetrics metrics = new InMemoryAuthorizationMetrics();
+
+    private long targetResourceId;
+
+    private long writerTargetResourceId;
+
+    @Override
+    protected AuthorizationConfiguration createConfiguration() {
+      return new AuthorizationConfiguration().metricsListener(metrics);
+    }
+
+    /**
+     * Selects the popular pair and clears the caches.
+     */
+    @Setup(Level.Iteration)
+    public void prepareIteration() {
+      authorizedResourceId = hierarchy.getSampleAuthorizedResourceId(0);
+      targetResourceId = hierarchy.getSampleTargetResourceId(0);
+      long[] targetResourceIds = hierarchy.getTargetResourceIds();
+      writerTargetResourceId = (targetResourceIds[0] != targetResourceId)
+          ? targetResourceIds[0]
+          : targetResourceIds[1];
+      authorization.clearCache();
+      metrics.reset();
+    }
+
+    /**
+     * Prints the lookups and misses of the permission cache and the database reads.
+     */
+    @TearDown(Level.Iteration)
+    public void printDatabaseReads() {
+      System.out.printf("%nPermission cache: %d lookups, %d misses. Database reads: %d permission,"
+          + " %d ancestor, %d parent%n",
+          metrics.getCacheHitCount(CacheType.PERMISSION)
+              + metrics.getCacheMissCount(CacheType.PERMISSION),
+          metrics.getCacheMissCount(CacheType.PERMISSION),
+          metrics.getDatabaseOperationCount(DatabaseOperation.READ_PERMISSIONS),
+          metrics.getDatabaseOperationCount(DatabaseOperation.READ_ANCESTORS),
+          metrics.getDatabaseOperationCount(DatabaseOperation.READ_PARENTS));
+    }
+
+    /**
+     * Grants the write action on the target of the writer if it is not granted yet, revokes it
+     * otherwise. The writers are serialized, so the same permission is not added twice.
+     */
+    public synchronized void toggleWritePermission() {
+      if (granted) {
+        authorization.removePermission(authorizedResourceId, writerTargetResourceId,
+            WRITE_ACTION);
+      } else {
+        authorization.addPermission(authorizedResourceId, writerTargetResourceId, WRITE_ACTION);
+      }
+      granted = !granted;
+    }
+  }
+
+  @Benchmark
+  @Group("miss")
+  @GroupThreads(1)
+  public void evictMiss(final SameKeyMissState state) {
+    state.authorization.clearCache();
+  }
+
+  @Benchmark
+  @Group("missUnderWrite")
+  @GroupThreads(1)
+  public void evictMissUnderWrite(final SameKeyMissState state) {
+    state.authorization.clearCache();
+  }
+
+  private boolean read(final SameKeyMissState state) {
+    return state.authorization.hasPermission(state.authorizedResourceId, state.targetResourceId,
+        ResourceHierarchy.ACTION);
+  }
+
+  @Benchmark
+  @Group("miss")
+  @GroupThreads(4)
+  public boolean readMiss(final SameKeyMissState state) {
+    return read(state);
+  }
+
+  @Benchmark
+  @Group("missUnderWrite")
+  @GroupThreads(4)
+  public boolean readMissUnderWrite(final SameKeyMissState state) {
+    return read(state);
+  }
+
+  @Benchmark
+  @Group("missUnderWrite")
+  @GroupThreads(1)
+  public void writeMissUnderWrite(final SameKeyMissState state) {
+    state.toggleWritePermission();
+  }
+}
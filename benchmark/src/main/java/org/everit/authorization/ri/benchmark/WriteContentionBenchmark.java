@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.everit.authorization.ri.AuthorizationConfiguration;
+import org.everit.authorization.ri.AuthorizationMetricsListener.CacheType;
+import org.everit.authorization.ri.AuthorizationMetricsListener.DatabaseOperation;
+import org.everit.authorization.ri.InMemoryAuthorizationMetrics;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.GroupThreads;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Permission checks that start with empty caches while a writer on the same node keeps granting
+ * and revoking permissions of a resource that is not in the authorization scope of the readers.
+ * A check that misses the cache stores its result only if no modification runs on the keys that
+ * it read, so the hit ratio that is printed at the end of every iteration shows how much the
+ * unrelated writes hold back the filling of the caches.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class WriteContentionBenchmark {
+
+  /**
+   * A node whose caches are cleared before every iteration and a resource that the writer grants
+   * permissions to.
+   */
+  @State(Scope.Benchmark)
+  public static class WriteContentionState extends AuthorizationBenchmarkState {
+
+    /**
+     * The action that is granted and revoked by the writer.
+     */
+    public static final String WRITE_ACTION = "write";
+
+    private final boolean[] granted = new boolean[ResourceHierarchy.SAMPLE_COUNT];
+
+    private final InMemoryAuthorizationMetrics metrics = new InMemoryAuthorizationMetrics();
+
+    private long writerResourceId;
+
+    @Override
+    protected AuthorizationConfiguration createConfiguration() {
+      return new AuthorizationConfiguration().metricsListener(metrics);
+    }
+
+    /**
+     * Clears the caches, so the readers fill them during the iteration.
+     */
+    @Setup(Level.Iteration)
+    public void prepareIteration() {
+      if (writerResourceId == 0) {
+        writerResourceId = environment.createResources(1)[0];
+      }
+      authorization.clearCache();
+      metrics.reset();
+    }
+
+    /**
+     * Prints the hit ratio of the permission cache and the number of permission reads.
+     */
+    @TearDown(Level.Iteration)
+    public void printHitRatio() {
+      System.out.printf("%nPermission cache hit ratio: %.4f (%d lookups, %d permission reads)%n",
+          metrics.getCacheHitRatio(CacheType.PERMISSION),
+          metrics.getCacheHitCount(CacheType.PERMISSION)
+              + metrics.getCacheMissCount(CacheType.PERMISSION),
+          metrics.getDatabaseOperationCount(DatabaseOperation.READ_PERMISSIONS));
+    }
+
+    /**
+     * Grants the write action on the target of the sample pair to the writer resource if it is not
+     * granted yet, revokes it otherwise. The writers are serialized, so the same permission is not
+     * added twice.
+     */
+    public synchronized void toggleWritePermission(final int index) {
+      int sampleIndex = index & (ResourceHierarchy.SAMPLE_COUNT - 1);
+      long targetResourceId = hierarchy.getSampleTargetResourceId(sampleIndex);
+      if (granted[sampleIndex]) {
+        authorization.removePermission(writerResourceId, targetResourceId, WRITE_ACTION);
+      } else {
+        authorization.addPermission(writerResourceId, targetResourceId, WRITE_ACTION);
+      }
+      granted[sampleIndex] = !granted[sampleIndex];
+    }
+  }
+
+  @Benchmark
+  @Group("contention")
+  @GroupThreads(3)
+  public boolean read(final WriteContentionState state,
+      final AuthorizationBenchmarkState.Cursor cursor) {
+    int index = cursor.next();
+    return state.authorization.hasPermission(state.hierarchy.getSampleAuthorizedResourceId(index),
+        state.hierarchy.getSampleTargetResourceId(index), ResourceHierarchy.ACTION);
+  }
+
+  @Benchmark
+  @Group("contention")
+  @GroupThreads(1)
+  public void write(final WriteContentionState state,
+      final AuthorizationBenchmarkState.Cursor cursor) {
+    state.toggleWritePermission(cursor.next());
+  }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Interns the actions into small integer ids, so the caches can store and compare the actions as
+ * primitive numbers instead of strings. The ids are assigned in the order the actions are first
+ * seen, starting from zero, so they can also be used as bit indexes. The same dictionary can be
+ * shared between several caches.
+ *
+ * <p>
+ * The ids are not persisted, the database still stores the actions as text. An action is kept in
+ * the dictionary for its whole lifetime. The actions that exist in the permission records are
+ * always interned with {@link #intern(String)}. The actions that the callers only check are
+ * interned with {@link #tryIntern(String)} until the dictionary reaches its maximum size, so
+ * checking arbitrary actions cannot grow the dictionary without bounds.
+ */
+public final class ActionDictionary {
+
+  /**
+   * The default maximum size of the dictionary for the actions that are only checked.
+   */
+  public static final int DEFAULT_MAXIMUM_SIZE = 1024;
+
+  /**
+   * Returned by {@link #getActionId(String)} if the action is not in the dictionary.
+   */
+  public static final int UNKNOWN_ACTION_ID = -1;
+
+  private final ConcurrentMap<String, Integer> actionIds = new ConcurrentHashMap<>();
+
+  /**
+   * The actions indexed by their ids. The array is replaced on every new action.
+   */
+  private volatile String[] actions = new String[0];
+
+  private final int maximumSize;
+
+  /**
+   * Creates a dictionary with the {@link #DEFAULT_MAXIMUM_SIZE}.
+   */
+  public ActionDictionary() {
+    this(DEFAULT_MAXIMUM_SIZE);
+  }
+
+  /**
+   * Creates a dictionary with a maximum size.
+   *
+   * @param maximumSize
+   *          the size above which {@link #tryIntern(String)} does not add new actions.
+   *
+   * @throws IllegalArgumentException
+   *           if the maximum size is negative.
+   */
+  public ActionDictionary(final int maximumSize) {
+    if (maximumSize < 0) {
+      throw new IllegalArgumentException("maximumSize cannot be negative: " + maximumSize);
+    }
+    this.maximumSize = maximumSize;
+  }
+
+  /**
+   * Returns the action that belongs to the id.
+   *
+   * @param actionId
+   *          the id of the action.
+   * @return the action.
+   *
+   * @throws IllegalArgumentException
+   *           if there is no action with the id.
+   */
+  public String getAction(final int actionId) {
+    String[] tmpActions = actions;
+    if ((actionId < 0) || (actionId >= tmpActions.length)) {
+      throw new IllegalArgumentException("Unknown action id: " + actionId);
+    }
+    return tmpActions[actionId];
+  }
+
+  /**
+   * Returns the id of an action without adding it to the dictionary.
+   *
+   * @param action
+   *          the action.
+   * @return the id of the action or {@link #UNKNOWN_ACTION_ID} if the action is not in the
+   *         dictionary.
+   */
+  public int getActionId(final String action) {
+    Integer actionId = actionIds.get(action);
+    if (actionId == null) {
+      return UNKNOWN_ACTION_ID;
+    }
+    return actionId;
+  }
+
+  /**
+   * Returns the id of an action and adds the action to the dictionary if it is not there yet.
+   *
+   * @param action
+   *          the action.
+   * @return the id of the action.
+   *
+   * @throws NullPointerException
+   *           if the action is <code>null</code>.
+   */
+  public int intern(final String action) {
+    return intern(action, Integer.MAX_VALUE);
+  }
+
+  private int intern(final String action, final int sizeLimit) {
+    Objects.requireNonNull(action, "action cannot be null");
+    Integer actionId = actionIds.get(action);
+    if (actionId != null) {
+      return actionId;
+    }
+    synchronized (this) {
+      actionId = actionIds.get(action);
+      if (actionId != null) {
+        return actionId;
+      }
+      String[] tmpActions = actions;
+      if (tmpActions.length >= sizeLimit) {
+        return UNKNOWN_ACTION_ID;
+      }
+      int newActionId = tmpActions.length;
+      String[] newActions = Arrays.copyOf(tmpActions, newActionId + 1);
+      newActions[newActionId] = action;
+      // The array is published first, so every id that is visible in the map can be resolved
+      actions = newActions;
+      actionIds.put(action, newActionId);
+      return newActionId;
+    }
+  }
+
+  /**
+   * The number of actions in the dictionary.
+   */
+  public int size() {
+    return actions.length;
+  }
+
+  /**
+   * Returns the id of an action and adds the action to the dictionary if it is not there yet and
+   * the dictionary is smaller than its maximum size.
+   *
+   * @param action
+   *          the action.
+   * @return the id of the action or {@link #UNKNOWN_ACTION_ID} if the action is not in the
+   *         dictionary and the dictionary is full.
+   *
+   * @throws NullPointerException
+   *           if the action is <code>null</code>.
+   */
+  public int tryIntern(final String action) {
+    return intern(action, maximumSize);
+  }
+}
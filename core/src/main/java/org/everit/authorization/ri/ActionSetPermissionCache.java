@@ -0,0 +1,447 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Objects;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * {@link PermissionCache} that stores all permitted actions of an authorized resource on a target
+ * resource in one entry, as a bitmask of the ids of an {@link ActionDictionary}. An entry is
+ * always complete: the actions that are not in the bitmask are not permitted. If the component is
+ * configured with this cache, it reads all actions of a (scope member, target) pair with one query
+ * when any of them is missing, so the checks of other actions on the same pair are bit tests.
+ *
+ * <p>
+ * As an entry must be complete, single permissions are only applied to existing entries:
+ * {@link #put(long, long, String, boolean)} updates the bit of an existing entry and
+ * {@link #putIfAbsent(long, long, String, boolean)} never stores anything. New entries are stored
+ * with {@link #putActionsIfAbsent(long, long, Collection)}. Removing any permission of a pair
+ * removes the whole entry.
+ *
+ * <p>
+ * The cache can be bounded by a {@link CacheConfiguration}. If a segment is full, an entry is
+ * evicted with the CLOCK algorithm.
+ */
+public class ActionSetPermissionCache implements PermissionCache {
+
+  /**
+   * One open addressing table with linear probing.
+   */
+  private static final class Segment extends OpenAddressingSegment {
+
+    private long[] authorizedResourceIds;
+
+    /**
+     * The bitmasks of the permitted actions. A <code>null</code> element means an empty slot.
+     */
+    private long[][] masks;
+
+    private long[] targetResourceIds;
+
+    Segment(final long expireAfterWriteNanos, final int maximumSize) {
+      super(expireAfterWriteNanos, maximumSize);
+      reset();
+    }
+
+    @Override
+    void allocateEntries(final int capacity) {
+      authorizedResourceIds = new long[capacity];
+      masks = new long[capacity][];
+      targetResourceIds = new long[capacity];
+    }
+
+    long[] find(final long authorizedResourceId, final long targetResourceId, final long hash,
+        final long now) {
+      long[] tmpAuthorizedResourceIds = authorizedResourceIds;
+      long[] tmpExpirationTimes = expirationTimes;
+      long[][] tmpMasks = masks;
+      byte[] tmpReferenced = referenced;
+      long[] tmpTargetResourceIds = targetResourceIds;
+      int length = tmpMasks.length;
+      if ((tmpAuthorizedResourceIds.length != length) || (tmpReferenced.length != length)
+          || (tmpTargetResourceIds.length != length)
+          || ((tmpExpirationTimes != null) && (tmpExpirationTimes.length != length))) {
+        // Inconsistent state during an optimistic read
+        return null;
+      }
+      int mask = length - 1;
+      int index = (int) hash & mask;
+      for (int i = 0; i < length; i++) {
+        long[] actionMask = tmpMasks[index];
+        if (actionMask == null) {
+          return null;
+        }
+        if ((tmpAuthorizedResourceIds[index] == authorizedResourceId)
+            && (tmpTargetResourceIds[index] == targetResourceId)) {
+          if ((tmpExpirationTimes != null) && ((tmpExpirationTimes[index] - now) < 0)) {
+            return null;
+          }
+          if (tmpReferenced[index] == 0) {
+            tmpReferenced[index] = 1;
+          }
+          return actionMask;
+        }
+        index = (index + 1) & mask;
+      }
+      return null;
+    }
+
+    @Override
+    long hashAt(final int index) {
+      return hash(authorizedResourceIds[index], targetResourceIds[index]);
+    }
+
+    int indexOf(final long authorizedResourceId, final long targetResourceId, final long hash) {
+      int mask = masks.length - 1;
+      int index = (int) hash & mask;
+      while (masks[index] != null) {
+        if ((authorizedResourceIds[index] == authorizedResourceId)
+            && (targetResourceIds[index] == targetResourceId)) {
+          return index;
+        }
+        index = (index + 1) & mask;
+      }
+      return -1 - index;
+    }
+
+    void insert(final long authorizedResourceId, final long targetResourceId, final long hash,
+        final long[] actionMask, final long now) {
+      evictIfFull(now);
+      int freeIndex = -1 - indexOf(authorizedResourceId, targetResourceId, hash);
+      authorizedResourceIds[freeIndex] = authorizedResourceId;
+      targetResourceIds[freeIndex] = targetResourceId;
+      masks[freeIndex] = actionMask;
+      inserted(freeIndex, now);
+    }
+
+    @Override
+    boolean isOccupied(final int index) {
+      return masks[index] != null;
+    }
+
+    @Override
+    void moveEntry(final int fromIndex, final int toIndex) {
+      authorizedResourceIds[toIndex] = authorizedResourceIds[fromIndex];
+      targetResourceIds[toIndex] = targetResourceIds[fromIndex];
+      masks[toIndex] = masks[fromIndex];
+      masks[fromIndex] = null;
+    }
+
+    @Override
+    void relocateEntries(final int capacity, final int[] newIndexes) {
+      long[] oldAuthorizedResourceIds = authorizedResourceIds;
+      long[][] oldMasks = masks;
+      long[] oldTargetResourceIds = targetResourceIds;
+      allocateEntries(capacity);
+      for (int i = 0; i < newIndexes.length; i++) {
+        int index = newIndexes[i];
+        if (index >= 0) {
+          authorizedResourceIds[index] = oldAuthorizedResourceIds[i];
+          targetResourceIds[index] = oldTargetResourceIds[i];
+          masks[index] = oldMasks[i];
+        }
+      }
+    }
+
+    @Override
+    void removeEntry(final int index) {
+      masks[index] = null;
+    }
+  }
+
+  private static final long[] EMPTY_MASK = new long[0];
+
+  static long hash(final long authorizedResourceId, final long targetResourceId) {
+    long hash = (authorizedResourceId * 0x9E3779B97F4A7C15L) + targetResourceId;
+    hash *= 0xC2B2AE3D27D4EB4FL;
+    return hash ^ (hash >>> 29);
+  }
+
+  private static boolean isSet(final long[] actionMask, final int actionId) {
+    int wordIndex = actionId >>> 6;
+    return (wordIndex < actionMask.length) && ((actionMask[wordIndex] & (1L << actionId)) != 0);
+  }
+
+  /**
+   * Returns a copy of the bitmask with the bit of the action set or cleared.
+   */
+  private static long[] withBit(final long[] actionMask, final int actionId,
+      final boolean value) {
+    int wordIndex = actionId >>> 6;
+    long[] result = Arrays.copyOf(actionMask, Math.max(actionMask.length, wordIndex + 1));
+    if (value) {
+      result[wordIndex] |= 1L << actionId;
+    } else {
+      result[wordIndex] &= ~(1L << actionId);
+    }
+    return result;
+  }
+
+  private final ActionDictionary actionDictionary;
+
+  private final Segment[] segments;
+
+  /**
+   * Creates an unbounded cache with its own action dictionary.
+   */
+  public ActionSetPermissionCache() {
+    this(new CacheConfiguration(), new ActionDictionary());
+  }
+
+  /**
+   * Creates a cache that applies the limits of the configuration. The maximum size limits the
+   * number of (authorized resource, target resource) pairs. The maximum negative size is not
+   * applied, as the not permitted actions do not have their own entries.
+   *
+   * @param cacheConfiguration
+   *          the size and expiration policy of the cache.
+   * @param actionDictionary
+   *          the dictionary of the actions.
+   *
+   * @throws NullPointerException
+   *           if one of the parameters is <code>null</code>.
+   */
+  public ActionSetPermissionCache(final CacheConfiguration cacheConfiguration,
+      final ActionDictionary actionDictionary) {
+    Objects.requireNonNull(cacheConfiguration, "cacheConfiguration cannot be null");
+    this.actionDictionary =
+        Objects.requireNonNull(actionDictionary, "actionDictionary cannot be null");
+    long expireAfterWriteNanos = cacheConfiguration.getExpireAfterWriteNanos();
+    int maximumSegmentSize =
+        OpenAddressingSegment.toSegmentSize(cacheConfiguration.getMaximumSize());
+
+    segments = new Segment[OpenAddressingSegment.SEGMENT_COUNT];
+    for (int i = 0; i < segments.length; i++) {
+      segments[i] = new Segment(expireAfterWriteNanos, maximumSegmentSize);
+    }
+  }
+
+  @Override
+  public void clear() {
+    OpenAddressingSegment.clear(segments);
+  }
+
+  private long[] findActionMask(final long authorizedResourceId, final long targetResourceId) {
+    long hash = hash(authorizedResourceId, targetResourceId);
+    Segment segment = segmentFor(hash);
+    StampedLock lock = segment.lock;
+    long now = segment.now();
+
+    long stamp = lock.tryOptimisticRead();
+    if (stamp != 0) {
+      long[] actionMask = segment.find(authorizedResourceId, targetResourceId, hash, now);
+      if (lock.validate(stamp)) {
+        return actionMask;
+      }
+    }
+
+    stamp = lock.readLock();
+    try {
+      return segment.find(authorizedResourceId, targetResourceId, hash, now);
+    } finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  @Override
+  public Boolean get(final long authorizedResourceId, final long targetResourceId,
+      final String action) {
+    long[] actionMask = findActionMask(authorizedResourceId, targetResourceId);
+    if (actionMask == null) {
+      return null;
+    }
+    int actionId = actionDictionary.getActionId(action);
+    return (actionId != ActionDictionary.UNKNOWN_ACTION_ID) && isSet(actionMask, actionId);
+  }
+
+  /**
+   * Checks whether any of the actions is permitted with one lookup.
+   *
+   * @param authorizedResourceId
+   *          the id of the authorized resource.
+   * @param targetResourceId
+   *          the id of the target resource.
+   * @param actions
+   *          the actions.
+   * @return {@link Boolean#TRUE} if at least one of the actions is permitted,
+   *         {@link Boolean#FALSE} if none of them is and <code>null</code> if the actions of the
+   *         pair are not cached.
+   */
+  public Boolean getAny(final long authorizedResourceId, final long targetResourceId,
+      final String... actions) {
+    long[] actionMask = findActionMask(authorizedResourceId, targetResourceId);
+    if (actionMask == null) {
+      return null;
+    }
+    for (String action : actions) {
+      int actionId = actionDictionary.getActionId(action);
+      if ((actionId != ActionDictionary.UNKNOWN_ACTION_ID) && isSet(actionMask, actionId)) {
+        return Boolean.TRUE;
+      }
+    }
+    return Boolean.FALSE;
+  }
+
+  /**
+   * Sets the bit of the action in the cached entry of the pair. Nothing is stored if the actions
+   * of the pair are not cached, as a new entry would be incomplete.
+   */
+  @Override
+  public void put(final long authorizedResourceId, final long targetResourceId,
+      final String action, final boolean permitted) {
+    int actionId =
+        permitted ? actionDictionary.intern(action) : actionDictionary.getActionId(action);
+    if (actionId == ActionDictionary.UNKNOWN_ACTION_ID) {
+      // The bit of an action that is not in the dictionary is not set in any entry
+      return;
+    }
+    long hash = hash(authorizedResourceId, targetResourceId);
+    Segment segment = segmentFor(hash);
+    long now = segment.now();
+    long stamp = segment.lock.writeLock();
+    try {
+      int index = segment.indexOf(authorizedResourceId, targetResourceId, hash);
+      if ((index >= 0) && !segment.isExpired(index, now)) {
+        segment.masks[index] = withBit(segment.masks[index], actionId, permitted);
+      }
+    } finally {
+      segment.lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * Stores all permitted actions of the pair if they are not cached yet.
+   *
+   * @param authorizedResourceId
+   *          the id of the authorized resource.
+   * @param targetResourceId
+   *          the id of the target resource.
+   * @param permittedActions
+   *          all actions that the authorized resource has the permission to run on the target
+   *          resource. All other actions are cached as not permitted.
+   * @return <code>true</code> if the actions were stored.
+   *
+   * @throws NullPointerException
+   *           if the collection or any of its elements is <code>null</code>.
+   */
+  public boolean putActionsIfAbsent(final long authorizedResourceId, final long targetResourceId,
+      final Collection<String> permittedActions) {
+    Objects.requireNonNull(permittedActions, "permittedActions cannot be null");
+    long[] actionMask = EMPTY_MASK;
+    for (String action : permittedActions) {
+      actionMask = withBit(actionMask, actionDictionary.intern(action), true);
+    }
+
+    long hash = hash(authorizedResourceId, targetResourceId);
+    Segment segment = segmentFor(hash);
+    long now = segment.now();
+    long stamp = segment.lock.writeLock();
+    try {
+      int index = segment.indexOf(authorizedResourceId, targetResourceId, hash);
+      if (index < 0) {
+        segment.insert(authorizedResourceId, targetResourceId, hash, actionMask, now);
+        return true;
+      }
+      if (!segment.isExpired(index, now)) {
+        return false;
+      }
+      segment.masks[index] = actionMask;
+      segment.renew(index, now);
+      return true;
+    } finally {
+      segment.lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * Never stores anything, as a single permission is not a complete entry.
+   *
+   * @return always <code>false</code>.
+   */
+  @Override
+  public boolean putIfAbsent(final long authorizedResourceId, final long targetResourceId,
+      final String action, final boolean permitted) {
+    return false;
+  }
+
+  /**
+   * Removes the cached actions of the pair.
+   *
+   * @param authorizedResourceId
+   *          the id of the authorized resource.
+   * @param targetResourceId
+   *          the id of the target resource.
+   * @return <code>true</code> if an entry was removed.
+   */
+  public boolean remove(final long authorizedResourceId, final long targetResourceId) {
+    long hash = hash(authorizedResourceId, targetResourceId);
+    Segment segment = segmentFor(hash);
+    long stamp = segment.lock.writeLock();
+    try {
+      int index = segment.indexOf(authorizedResourceId, targetResourceId, hash);
+      if (index < 0) {
+        return false;
+      }
+      segment.removeAt(index);
+      return true;
+    } finally {
+      segment.lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * Removes the whole entry of the pair if the cached permission of the action is the same as the
+   * passed one.
+   */
+  @Override
+  public boolean remove(final long authorizedResourceId, final long targetResourceId,
+      final String action, final boolean permitted) {
+    int actionId = actionDictionary.getActionId(action);
+    long hash = hash(authorizedResourceId, targetResourceId);
+    Segment segment = segmentFor(hash);
+    long stamp = segment.lock.writeLock();
+    try {
+      int index = segment.indexOf(authorizedResourceId, targetResourceId, hash);
+      if (index < 0) {
+        return false;
+      }
+      boolean cachedPermitted = (actionId != ActionDictionary.UNKNOWN_ACTION_ID)
+          && isSet(segment.masks[index], actionId);
+      if (cachedPermitted != permitted) {
+        return false;
+      }
+      segment.removeAt(index);
+      return true;
+    } finally {
+      segment.lock.unlockWrite(stamp);
+    }
+  }
+
+  private Segment segmentFor(final long hash) {
+    return segments[OpenAddressingSegment.segmentIndex(hash)];
+  }
+
+  /**
+   * The number of cached (authorized resource, target resource) pairs, including the expired ones
+   * that are not removed yet.
+   */
+  public int size() {
+    return OpenAddressingSegment.size(segments);
+  }
+}
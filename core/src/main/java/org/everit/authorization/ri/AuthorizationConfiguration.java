@@ -0,0 +1,401 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri;
+
+import java.util.Objects;
+import java.util.concurrent.Executor;
+
+/**
+ * Optional settings of {@link AuthorizationImpl}. The default values are used when the component
+ * is created without configuration. Without a {@link TransactionSynchronizer} the modifications
+ * cannot be called within an enclosing transaction, see
+ * {@link #transactionSynchronizer(TransactionSynchronizer)}.
+ */
+public class AuthorizationConfiguration {
+
+  public static final int DEFAULT_ASYNC_MAXIMUM_CONCURRENT_LOADS = 16;
+
+  public static final int DEFAULT_REVERSE_LOOKUP_PAGE_SIZE = 1000;
+
+  private Executor asyncExecutor;
+
+  private int asyncMaximumConcurrentLoads = DEFAULT_ASYNC_MAXIMUM_CONCURRENT_LOADS;
+
+  private CacheConfiguration authorizationScopeCacheConfiguration = new CacheConfiguration();
+
+  private CacheInvalidationTransport cacheInvalidationTransport;
+
+  private CacheWarmUpConfiguration cacheWarmUpConfiguration;
+
+  private int maximumScopeDepth;
+
+  private int maximumScopeSize;
+
+  private AuthorizationMetricsListener metricsListener = NoOpAuthorizationMetricsListener.INSTANCE;
+
+  private int recursiveScopePredicateThreshold;
+
+  private boolean recursiveScopeResolution;
+
+  private boolean rejectInheritanceCycles;
+
+  private int reverseLookupPageSize = DEFAULT_REVERSE_LOOKUP_PAGE_SIZE;
+
+  private TransactionSynchronizer transactionSynchronizer;
+
+  /**
+   * Sets the executor that resolves the asynchronous permission checks that missed the cache. By
+   * default a virtual thread is started for every load if the runtime supports virtual threads,
+   * otherwise a cached pool of daemon threads is used. The default executor is shut down by
+   * {@link AuthorizationImpl#close()}, the executor that is set here is not.
+   *
+   * @param asyncExecutor
+   *          the executor.
+   * @return this instance.
+   */
+  public AuthorizationConfiguration asyncExecutor(final Executor asyncExecutor) {
+    this.asyncExecutor = Objects.requireNonNull(asyncExecutor, "asyncExecutor cannot be null");
+    return this;
+  }
+
+  /**
+   * Sets the maximum number of loads that resolve the asynchronous permission checks at the same
+   * time. The checks that miss the cache while all loads are running are queued and resolved
+   * together by the next query of a load. The default is
+   * {@value #DEFAULT_ASYNC_MAXIMUM_CONCURRENT_LOADS}.
+   *
+   * @param asyncMaximumConcurrentLoads
+   *          the maximum number of loads.
+   * @return this instance.
+   *
+   * @throws IllegalArgumentException
+   *           if the number is not positive.
+   */
+  public AuthorizationConfiguration asyncMaximumConcurrentLoads(
+      final int asyncMaximumConcurrentLoads) {
+    if (asyncMaximumConcurrentLoads <= 0) {
+      throw new IllegalArgumentException(
+          "asyncMaximumConcurrentLoads must be positive: " + asyncMaximumConcurrentLoads);
+    }
+    this.asyncMaximumConcurrentLoads = asyncMaximumConcurrentLoads;
+    return this;
+  }
+
+  /**
+   * Sets the size and expiration policy of the cache that holds the transitive authorization scope
+   * of the resources.
+   *
+   * @param authorizationScopeCacheConfiguration
+   *          the cache configuration.
+   * @return this instance.
+   */
+  public AuthorizationConfiguration authorizationScopeCacheConfiguration(
+      final CacheConfiguration authorizationScopeCacheConfiguration) {
+    this.authorizationScopeCacheConfiguration =
+        Objects.requireNonNull(authorizationScopeCacheConfiguration,
+            "authorizationScopeCacheConfiguration cannot be null");
+    return this;
+  }
+
+  /**
+   * Sets the transport that keeps the caches of the nodes of a cluster consistent. The component
+   * publishes the keys that its modifications made stale and evicts the keys that other nodes
+   * publish. The keys are published only after the transaction of the modification committed, so
+   * the other nodes cannot reload the old rows after the eviction. By default there is no
+   * transport, so the caches of other nodes are not updated.
+   *
+   * @param cacheInvalidationTransport
+   *          the transport.
+   * @return this instance.
+   */
+  public AuthorizationConfiguration cacheInvalidationTransport(
+      final CacheInvalidationTransport cacheInvalidationTransport) {
+    this.cacheInvalidationTransport = Objects.requireNonNull(cacheInvalidationTransport,
+        "cacheInvalidationTransport cannot be null");
+    return this;
+  }
+
+  /**
+   * Sets the cache warm-up that is started in the background when the component is created.
+   * Without a warm-up the caches are filled on demand.
+   *
+   * @param cacheWarmUpConfiguration
+   *          the settings of the warm-up.
+   * @return this instance.
+   */
+  public AuthorizationConfiguration cacheWarmUp(
+      final CacheWarmUpConfiguration cacheWarmUpConfiguration) {
+    this.cacheWarmUpConfiguration = Objects.requireNonNull(cacheWarmUpConfiguration,
+        "cacheWarmUpConfiguration cannot be null");
+    return this;
+  }
+
+  /**
+   * Removes the cache warm-up, so the component that is created with the configuration does not
+   * read the database in the background.
+   */
+  void clearCacheWarmUp() {
+    cacheWarmUpConfiguration = null;
+  }
+
+  /**
+   * Creates a new instance with the same settings.
+   */
+  AuthorizationConfiguration copy() {
+    AuthorizationConfiguration copy = new AuthorizationConfiguration();
+    copy.asyncExecutor = asyncExecutor;
+    copy.asyncMaximumConcurrentLoads = asyncMaximumConcurrentLoads;
+    copy.authorizationScopeCacheConfiguration = authorizationScopeCacheConfiguration;
+    copy.cacheInvalidationTransport = cacheInvalidationTransport;
+    copy.cacheWarmUpConfiguration = cacheWarmUpConfiguration;
+    copy.maximumScopeDepth = maximumScopeDepth;
+    copy.maximumScopeSize = maximumScopeSize;
+    copy.metricsListener = metricsListener;
+    copy.recursiveScopePredicateThreshold = recursiveScopePredicateThreshold;
+    copy.recursiveScopeResolution = recursiveScopeResolution;
+    copy.rejectInheritanceCycles = rejectInheritanceCycles;
+    copy.reverseLookupPageSize = reverseLookupPageSize;
+    copy.transactionSynchronizer = transactionSynchronizer;
+    return copy;
+  }
+
+  /**
+   * The executor of the asynchronous permission checks.
+   *
+   * @return the executor or <code>null</code> if the default executor is used.
+   */
+  public Executor getAsyncExecutor() {
+    return asyncExecutor;
+  }
+
+  public int getAsyncMaximumConcurrentLoads() {
+    return asyncMaximumConcurrentLoads;
+  }
+
+  public CacheConfiguration getAuthorizationScopeCacheConfiguration() {
+    return authorizationScopeCacheConfiguration;
+  }
+
+  /**
+   * The transport of the cache invalidation events.
+   *
+   * @return the transport or <code>null</code> if the caches are not synchronized.
+   */
+  public CacheInvalidationTransport getCacheInvalidationTransport() {
+    return cacheInvalidationTransport;
+  }
+
+  /**
+   * The cache warm-up that is started when the component is created.
+   *
+   * @return the settings of the warm-up or <code>null</code> if there is no warm-up on startup.
+   */
+  public CacheWarmUpConfiguration getCacheWarmUpConfiguration() {
+    return cacheWarmUpConfiguration;
+  }
+
+  public int getMaximumScopeDepth() {
+    return maximumScopeDepth;
+  }
+
+  public int getMaximumScopeSize() {
+    return maximumScopeSize;
+  }
+
+  public AuthorizationMetricsListener getMetricsListener() {
+    return metricsListener;
+  }
+
+  public int getRecursiveScopePredicateThreshold() {
+    return recursiveScopePredicateThreshold;
+  }
+
+  public int getReverseLookupPageSize() {
+    return reverseLookupPageSize;
+  }
+
+  /**
+   * The synchronizer that defers the cache updates until the commit of the transaction.
+   *
+   * @return the synchronizer or <code>null</code> if the caches are updated when the propagated
+   *         transaction block of a modification returns.
+   */
+  public TransactionSynchronizer getTransactionSynchronizer() {
+    return transactionSynchronizer;
+  }
+
+  public boolean isRecursiveScopeResolution() {
+    return recursiveScopeResolution;
+  }
+
+  public boolean isRejectInheritanceCycles() {
+    return rejectInheritanceCycles;
+  }
+
+  /**
+   * Sets the maximum number of inheritance levels above a resource in its authorization scope. If
+   * a resource has more levels of ancestors, the permission checks of the resource throw an
+   * {@link IllegalStateException} instead of traversing the whole graph.
+   *
+   * @param maximumScopeDepth
+   *          the maximum depth or zero if the depth is not limited.
+   * @return this instance.
+   */
+  public AuthorizationConfiguration maximumScopeDepth(final int maximumScopeDepth) {
+    if (maximumScopeDepth < 0) {
+      throw new IllegalArgumentException("maximumScopeDepth cannot be negative: "
+          + maximumScopeDepth);
+    }
+    this.maximumScopeDepth = maximumScopeDepth;
+    return this;
+  }
+
+  /**
+   * Sets the maximum number of resources in an authorization scope, including the resource
+   * itself. If the scope of a resource is larger, the permission checks of the resource throw an
+   * {@link IllegalStateException} instead of traversing the whole graph.
+   *
+   * @param maximumScopeSize
+   *          the maximum size or zero if the size is not limited.
+   * @return this instance.
+   */
+  public AuthorizationConfiguration maximumScopeSize(final int maximumScopeSize) {
+    if (maximumScopeSize < 0) {
+      throw new IllegalArgumentException("maximumScopeSize cannot be negative: "
+          + maximumScopeSize);
+    }
+    this.maximumScopeSize = maximumScopeSize;
+    return this;
+  }
+
+  /**
+   * Sets the listener that is notified about the cache lookups, the database operations and the
+   * invalidations of the component. By default the events are ignored.
+   *
+   * @param metricsListener
+   *          the listener, for example an {@link InMemoryAuthorizationMetrics} instance.
+   * @return this instance.
+   */
+  public AuthorizationConfiguration metricsListener(
+      final AuthorizationMetricsListener metricsListener) {
+    this.metricsListener =
+        Objects.requireNonNull(metricsListener, "metricsListener cannot be null");
+    return this;
+  }
+
+  /**
+   * Sets the authorization scope size from which {@link AuthorizationImpl#authorizationPredicate}
+   * selects the ancestors of the authorized resource with a recursive common table expression over
+   * <code>authr_permission_inheritance</code> instead of listing the scope in an IN clause. The
+   * statement text then stays the same for every scope size, so prepared statement caches stay
+   * effective. The component runs the recursive predicate once when a scope reaches the threshold
+   * for the first time, and falls back to the IN list if the database does not support
+   * <code>WITH RECURSIVE</code> in subqueries.
+   *
+   * @param recursiveScopePredicateThreshold
+   *          the minimum scope size or zero if the IN list is always used.
+   * @return this instance.
+   */
+  public AuthorizationConfiguration recursiveScopePredicateThreshold(
+      final int recursiveScopePredicateThreshold) {
+    if (recursiveScopePredicateThreshold < 0) {
+      throw new IllegalArgumentException("recursiveScopePredicateThreshold cannot be negative: "
+          + recursiveScopePredicateThreshold);
+    }
+    this.recursiveScopePredicateThreshold = recursiveScopePredicateThreshold;
+    return this;
+  }
+
+  /**
+   * Sets whether the ancestors of a resource that is missing from the permission inheritance cache
+   * are read with one <code>WITH RECURSIVE</code> query over
+   * <code>authr_permission_inheritance</code>. The parents of every visited resource are stored in
+   * the permission inheritance cache, so resolving a cold authorization scope takes one round trip
+   * up to the depth of 64 levels. The deeper ancestors and the ancestors that are reachable only
+   * through a cycle beyond that depth are read level by level. The database must support recursive
+   * common table expressions.
+   *
+   * @param recursiveScopeResolution
+   *          <code>true</code> to use the recursive query, <code>false</code> to read the parents
+   *          of each ancestor with a separate query.
+   * @return this instance.
+   */
+  public AuthorizationConfiguration recursiveScopeResolution(
+      final boolean recursiveScopeResolution) {
+    this.recursiveScopeResolution = recursiveScopeResolution;
+    return this;
+  }
+
+  /**
+   * Sets whether adding a permission inheritance record that would make a resource its own
+   * ancestor is rejected with an {@link IllegalArgumentException}. The additions of inheritance
+   * records lock the row of the system resource together with the children in one ascending
+   * locking query, so they are serialized and the second of two modifications that would close a
+   * cycle together is rejected. The ancestors of the parents are read without further locks.
+   *
+   * @param rejectInheritanceCycles
+   *          <code>true</code> to reject the cycles.
+   * @return this instance.
+   */
+  public AuthorizationConfiguration rejectInheritanceCycles(
+      final boolean rejectInheritanceCycles) {
+    this.rejectInheritanceCycles = rejectInheritanceCycles;
+    return this;
+  }
+
+  /**
+   * Sets the number of resource ids that the paginated reverse lookups of {@link AuthorizationImpl}
+   * read with one query. The streams read the next page only when the previous one is consumed,
+   * so the memory usage does not depend on the number of results. The default is
+   * {@value #DEFAULT_REVERSE_LOOKUP_PAGE_SIZE}.
+   *
+   * @param reverseLookupPageSize
+   *          the page size.
+   * @return this instance.
+   *
+   * @throws IllegalArgumentException
+   *           if the page size is not positive.
+   */
+  public AuthorizationConfiguration reverseLookupPageSize(final int reverseLookupPageSize) {
+    if (reverseLookupPageSize <= 0) {
+      throw new IllegalArgumentException(
+          "reverseLookupPageSize must be positive: " + reverseLookupPageSize);
+    }
+    this.reverseLookupPageSize = reverseLookupPageSize;
+    return this;
+  }
+
+  /**
+   * Sets the synchronizer that notifies the component about the completion of the transactions.
+   * The modifications evict the affected cache entries immediately, but store the new values in
+   * the caches only after the transaction committed, so rolled back or uncommitted changes are
+   * never served from the cache. Without a synchronizer this happens when the propagated
+   * transaction block of the modification returns and committed its own transaction. The
+   * component cannot know when an enclosing transaction is committed without a synchronizer, so
+   * the modifications that are called within an enclosing transaction throw an
+   * {@link IllegalStateException} before touching the database.
+   *
+   * @param transactionSynchronizer
+   *          the synchronizer, for example a {@link JtaTransactionSynchronizer}.
+   * @return this instance.
+   */
+  public AuthorizationConfiguration transactionSynchronizer(
+      final TransactionSynchronizer transactionSynchronizer) {
+    this.transactionSynchronizer =
+        Objects.requireNonNull(transactionSynchronizer, "transactionSynchronizer cannot be null");
+    return this;
+  }
+}
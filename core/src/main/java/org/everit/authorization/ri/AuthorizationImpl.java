@@ -16,18 +16,44 @@
 package org.everit.authorization.ri;
 
 import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.LongFunction;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.LongStream;
+import java.util.stream.StreamSupport;
 
 import org.everit.authorization.AuthorizationManager;
 import org.everit.authorization.PermissionChecker;
 import org.everit.authorization.qdsl.util.AuthorizationQdslUtil;
+import org.everit.authorization.ri.AuthorizationMetricsListener.CacheType;
+import org.everit.authorization.ri.AuthorizationMetricsListener.DatabaseOperation;
+import org.everit.authorization.ri.CacheWarmUpListener.Phase;
 import org.everit.authorization.ri.schema.qdsl.QPermission;
 import org.everit.authorization.ri.schema.qdsl.QPermissionInheritance;
 import org.everit.persistence.querydsl.support.QuerydslSupport;
@@ -36,12 +62,18 @@ import org.everit.resource.ResourceService;
 import org.everit.resource.ri.schema.qdsl.QResource;
 import org.everit.transaction.propagator.TransactionPropagator;
 
+import com.mysema.commons.lang.CloseableIterator;
+import com.querydsl.core.Tuple;
 import com.querydsl.core.types.Expression;
+import com.querydsl.core.types.Path;
 import com.querydsl.core.types.dsl.BooleanExpression;
 import com.querydsl.core.types.dsl.Expressions;
+import com.querydsl.core.types.dsl.NumberPath;
+import com.querydsl.core.types.dsl.PathBuilder;
 import com.querydsl.sql.Configuration;
 import com.querydsl.sql.SQLExpressions;
 import com.querydsl.sql.SQLQuery;
+import com.querydsl.sql.StatementOptions;
 import com.querydsl.sql.dml.SQLDeleteClause;
 import com.querydsl.sql.dml.SQLInsertClause;
 
@@ -55,6 +87,60 @@ public class AuthorizationImpl
   public static final String PROP_SYSTEM_RESOURCE_ID =
       "org.everit.authorization.ri.SYSTEM_RESOURCE_ID";
 
+  private static final String ENCLOSING_TRANSACTION_WITHOUT_SYNCHRONIZER =
+      "The modification cannot join the enclosing transaction without a TransactionSynchronizer"
+          + " that registers a completion callback to it";
+
+  private static final Logger LOGGER = Logger.getLogger(AuthorizationImpl.class.getName());
+
+  /**
+   * The maximum number of elements in the IN lists of the generated queries.
+   */
+  private static final int MAX_IN_LIST_SIZE = 1000;
+
+  /**
+   * The maximum depth of the recursive query that reads the ancestors of a resource.
+   */
+  private static final int MAX_RECURSIVE_SCOPE_DEPTH = 64;
+
+  private static BooleanExpression createActionPredicate(final QPermission permission,
+      final String... actions) {
+    if (actions.length == 1) {
+      return permission.action.eq(actions[0]);
+    }
+    return permission.action.in(actions);
+  }
+
+  /**
+   * Creates a predicate that matches the authorized resource and all of its ancestors. The
+   * ancestors are selected by a recursive common table expression, so the text of the statement
+   * does not depend on the size of the authorization scope. UNION removes the duplicates, so the
+   * recursion stops even if the inheritance graph contains a cycle.
+   */
+  private static BooleanExpression createRecursiveAuthorizedResourceIdPredicate(
+      final QPermission permission, final long authorizedResourceId) {
+    QPermissionInheritance permissionInheritance = new QPermissionInheritance("authr_scope_pi");
+    PathBuilder<Long> scope = new PathBuilder<>(Long.class, "authr_scope");
+    NumberPath<Long> scopeResourceId = scope.getNumber("resource_id", Long.class);
+
+    SQLQuery<Long> ancestorQuery = SQLExpressions.select(scopeResourceId)
+        // An explicit column array, because a single column would select the overload that takes
+        // the whole common table expression
+        .withRecursive(scope, new Path<?>[] { scopeResourceId })
+        .as(SQLExpressions.union(
+            SQLExpressions.select(permissionInheritance.parentResourceId)
+                .from(permissionInheritance)
+                .where(permissionInheritance.childResourceId.eq(authorizedResourceId)),
+            SQLExpressions.select(permissionInheritance.parentResourceId)
+                .from(permissionInheritance)
+                .innerJoin(scope)
+                .on(permissionInheritance.childResourceId.eq(scopeResourceId))))
+        .from(scope);
+
+    return permission.authorizedResourceId.eq(authorizedResourceId)
+        .or(permission.authorizedResourceId.in(ancestorQuery));
+  }
+
   private static long[] convertCollectionToLongArray(final Collection<Long> collection) {
     long[] result = new long[collection.size()];
     Iterator<Long> iterator = collection.iterator();
@@ -67,16 +153,148 @@ public class AuthorizationImpl
     return result;
   }
 
-  private ConcurrentMap<String, Boolean> permissionCache;
+  /**
+   * Checks whether a resource is the same as another one or one of its ancestors.
+   *
+   * @param parentResourceIdsByChild
+   *          the parents of the resources by the id of the child.
+   */
+  private static boolean isAncestor(final long ancestorResourceId, final long resourceId,
+      final Map<Long, Set<Long>> parentResourceIdsByChild) {
+    Set<Long> visitedResourceIds = new HashSet<>();
+    Deque<Long> queue = new ArrayDeque<>();
+    queue.add(resourceId);
+    while (!queue.isEmpty()) {
+      Long currentResourceId = queue.poll();
+      if (currentResourceId == ancestorResourceId) {
+        return true;
+      }
+      if (visitedResourceIds.add(currentResourceId)) {
+        queue.addAll(parentResourceIdsByChild.getOrDefault(currentResourceId,
+            Collections.emptySet()));
+      }
+    }
+    return false;
+  }
+
+  private static void throwIfWarmUpCancelled(final BooleanSupplier cancelled) {
+    if (cancelled.getAsBoolean()) {
+      throw new CancellationException("The cache warm-up was cancelled");
+    }
+  }
+
+  /**
+   * Checks the actions parameter of the permission checks and reverse lookups.
+   */
+  static void validateActionsParameter(final String... actions) {
+    Objects.requireNonNull(actions, "Parameter actions must not be null");
+    if (actions.length == 0) {
+      throw new IllegalArgumentException("Action collection must contain at least one value");
+    }
+    for (String action : actions) {
+      if (action == null) {
+        throw new NullPointerException(
+            "Null action was passed in actions parameter: " + Arrays.toString(actions));
+      }
+    }
+  }
+
+  /**
+   * The permission cache if it stores the actions of the (authorized, target) pairs together,
+   * otherwise <code>null</code>.
+   */
+  private final ActionSetPermissionCache actionSetPermissionCache;
+
+  /**
+   * Coalesces the concurrent loads of the ancestors of the same resource if the scope is resolved
+   * with one recursive query.
+   */
+  private final SingleFlight<Long, Map<Long, long[]>> ancestorLoads = new SingleFlight<>();
+
+  /**
+   * The transitive authorization scope of the resources. If the parents of a resource change, every
+   * cached scope that contains the resource is invalidated.
+   */
+  private final AuthorizationScopeCache authorizationScopeCache;
+
+  private final SingleFlight<Long, long[]> authorizationScopeLoads = new SingleFlight<>();
+
+  /**
+   * The listener that is registered to {@link #cacheInvalidationTransport}.
+   */
+  private final Consumer<CacheInvalidationEvent> cacheInvalidationListener =
+      this::applyCacheInvalidationEvent;
+
+  private final CacheInvalidationTransport cacheInvalidationTransport;
+
+  /**
+   * The warm-up that was started by the constructor or <code>null</code>. It is cancelled by
+   * {@link #close()}.
+   */
+  private final CompletableFuture<Long> cacheWarmUp;
+
+  private final int maximumScopeDepth;
+
+  private final int maximumScopeSize;
+
+  private final AuthorizationMetricsListener metricsListener;
+
+  /**
+   * The id of this instance in the cache invalidation events.
+   */
+  private final String nodeId = UUID.randomUUID().toString();
+
+  private final SingleFlight<Long, long[]> parentResourceIdLoads = new SingleFlight<>();
+
+  private PermissionCache permissionCache;
+
+  /**
+   * Guards the permission cache. The stripes are selected by the authorized resource ids.
+   */
+  private final CacheModificationGuard permissionModificationGuard =
+      new CacheModificationGuard();
+
+  private final PermissionCheckPipeline permissionCheckPipeline;
+
+  private PermissionInheritanceCache permissionInheritanceCache;
 
-  private ConcurrentMap<Long, long[]> permissionInheritanceCache;
+  /**
+   * Guards the permission inheritance cache and the authorization scope cache. The stripes are
+   * selected by the child resource ids. A scope depends on the parents of all of its members, so
+   * the scope loads read all stripes.
+   */
+  private final CacheModificationGuard permissionInheritanceModificationGuard =
+      new CacheModificationGuard();
+
+  /**
+   * Coalesces the concurrent permission checks that missed the cache with the same authorized
+   * resource, target resource and actions.
+   */
+  private final SingleFlight<List<Object>, Boolean> permissionLoads = new SingleFlight<>();
 
   private QuerydslSupport querydslSupport;
 
+  /**
+   * Whether the database accepts the recursive authorization predicate or <code>null</code> if it
+   * has not been probed yet. The probe runs when a scope reaches the threshold for the first time,
+   * so creating the component does not query the database.
+   */
+  private volatile Boolean recursiveScopePredicateSupported;
+
+  private final int recursiveScopePredicateThreshold;
+
+  private final boolean recursiveScopeResolution;
+
+  private final boolean rejectInheritanceCycles;
+
+  private final int reverseLookupPageSize;
+
   private long systemResourceId;
 
   private TransactionPropagator transactionPropagator;
 
+  private final TransactionSynchronizer transactionSynchronizer;
+
   /**
    * Constructor.
    *
@@ -100,6 +318,39 @@ public class AuthorizationImpl
       final ResourceService resourceService, final TransactionPropagator transactionPropagator,
       final QuerydslSupport querydslSupport, final ConcurrentMap<String, Boolean> permissionCache,
       final ConcurrentMap<Long, long[]> permissionInheritanceCache) {
+    this(propertyManager, resourceService, transactionPropagator, querydslSupport,
+        new ConcurrentMapPermissionCache(permissionCache),
+        new ConcurrentMapPermissionInheritanceCache(permissionInheritanceCache),
+        new AuthorizationConfiguration());
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param propertyManager
+   *          the {@link PropertyManager} instance.
+   * @param resourceService
+   *          the {@link ResourceService} instance.
+   * @param transactionPropagator
+   *          the {@link TransactionPropagator} instance.
+   * @param querydslSupport
+   *          the {@link QuerydslSupport} instance.
+   * @param permissionCache
+   *          the {@link PermissionCache} that stores the permission records.
+   * @param permissionInheritanceCache
+   *          the {@link PermissionInheritanceCache} that stores the permission inheritance
+   *          records.
+   * @param configuration
+   *          the optional settings of the component.
+   *
+   * @throws NullPointerException
+   *           if one of the parameter is <code>null</code>.
+   */
+  public AuthorizationImpl(final PropertyManager propertyManager,
+      final ResourceService resourceService, final TransactionPropagator transactionPropagator,
+      final QuerydslSupport querydslSupport, final PermissionCache permissionCache,
+      final PermissionInheritanceCache permissionInheritanceCache,
+      final AuthorizationConfiguration configuration) {
     Objects.requireNonNull(propertyManager, "propertyManager cannot be null");
     Objects.requireNonNull(resourceService, "resourceService cannot be null");
     this.transactionPropagator =
@@ -108,28 +359,84 @@ public class AuthorizationImpl
         Objects.requireNonNull(querydslSupport, "transactionPropagator cannot be null");
     this.permissionCache =
         Objects.requireNonNull(permissionCache, "permissionCache cannot be null");
+    this.actionSetPermissionCache = (permissionCache instanceof ActionSetPermissionCache)
+        ? (ActionSetPermissionCache) permissionCache
+        : null;
     this.permissionInheritanceCache = Objects.requireNonNull(permissionInheritanceCache,
         "permissionInheritanceCache cannot be null");
+    Objects.requireNonNull(configuration, "configuration cannot be null");
+    this.authorizationScopeCache =
+        new AuthorizationScopeCache(configuration.getAuthorizationScopeCacheConfiguration());
+    this.recursiveScopeResolution = configuration.isRecursiveScopeResolution();
+    this.rejectInheritanceCycles = configuration.isRejectInheritanceCycles();
+    this.maximumScopeDepth = configuration.getMaximumScopeDepth();
+    this.maximumScopeSize = configuration.getMaximumScopeSize();
+    this.permissionCheckPipeline = new PermissionCheckPipeline(configuration.getAsyncExecutor(),
+        configuration.getAsyncMaximumConcurrentLoads(), this::filterPermittedTargets);
+    this.reverseLookupPageSize = configuration.getReverseLookupPageSize();
+    this.metricsListener = configuration.getMetricsListener();
+    this.cacheInvalidationTransport = configuration.getCacheInvalidationTransport();
+    this.transactionSynchronizer = configuration.getTransactionSynchronizer();
+
+    this.recursiveScopePredicateThreshold = configuration.getRecursiveScopePredicateThreshold();
 
     init(propertyManager, resourceService);
-  }
 
-  private void addParentsRecurseToScope(final long resourceId, final Set<Long> authorizationScope) {
-    long[] parentResourceIds = permissionInheritanceCache.get(resourceId);
-    if (parentResourceIds == null) {
-      parentResourceIds = transactionPropagator.required(() -> {
-        lockOnResource(resourceId);
-        long[] tmpParentResourceIds = readParentResourceIdsFromDatabase(resourceId);
-        permissionInheritanceCache.put(resourceId, tmpParentResourceIds);
-        return tmpParentResourceIds;
-      });
+    if (cacheInvalidationTransport != null) {
+      cacheInvalidationTransport.addListener(cacheInvalidationListener);
+    }
 
+    CacheWarmUpConfiguration cacheWarmUpConfiguration =
+        configuration.getCacheWarmUpConfiguration();
+    if (cacheWarmUpConfiguration != null) {
+      // Nobody else observes the result of this warm-up, so its failure is logged
+      cacheWarmUp = warmUpCaches(cacheWarmUpConfiguration);
+      cacheWarmUp.exceptionally(cause -> {
+        if (!(cause instanceof CancellationException)) {
+          LOGGER.log(Level.WARNING, "The cache warm-up of the authorization component failed",
+              cause);
+        }
+        return null;
+      });
+    } else {
+      cacheWarmUp = null;
     }
-    for (Long parentResourceId : parentResourceIds) {
-      if (!authorizationScope.contains(parentResourceId)) {
-        authorizationScope.add(parentResourceId);
-        addParentsRecurseToScope(parentResourceId, authorizationScope);
+  }
+
+  /**
+   * Adds the ancestors of the resource to the scope. The inheritance graph is traversed level by
+   * level with an explicit list instead of recursion, so a deep hierarchy does not consume the
+   * call stack. Every resource is visited once, even if the graph contains a cycle.
+   *
+   * @throws IllegalStateException
+   *           if the scope exceeds the configured maximum depth or size.
+   */
+  private void addAncestorsToScope(final long resourceId, final Set<Long> authorizationScope) {
+    Map<Long, long[]> loadedParentResourceIds = new HashMap<>();
+    List<Long> level = Collections.singletonList(resourceId);
+    int depth = 0;
+    while (!level.isEmpty()) {
+      List<Long> nextLevel = new ArrayList<>();
+      for (Long childResourceId : level) {
+        for (long parentResourceId : findParentResourceIds(childResourceId,
+            loadedParentResourceIds)) {
+          if (authorizationScope.add(parentResourceId)) {
+            if ((maximumScopeSize > 0) && (authorizationScope.size() > maximumScopeSize)) {
+              throw new IllegalStateException("Authorization scope of resource " + resourceId
+                  + " exceeds the maximum size " + maximumScopeSize);
+            }
+            nextLevel.add(parentResourceId);
+          }
+        }
+      }
+      if (!nextLevel.isEmpty()) {
+        depth++;
+        if ((maximumScopeDepth > 0) && (depth > maximumScopeDepth)) {
+          throw new IllegalStateException("Authorization scope of resource " + resourceId
+              + " exceeds the maximum depth " + maximumScopeDepth);
+        }
       }
+      level = nextLevel;
     }
   }
 
@@ -138,47 +445,173 @@ public class AuthorizationImpl
       final String action) {
     Objects.requireNonNull(action);
 
-    transactionPropagator.required(() -> querydslSupport.execute((connection, configuration) -> {
-      boolean authorizedResourceExists =
-          lockOnResource(connection, configuration, authorizedResourceId);
+    addPermissions(Collections.singletonList(
+        new PermissionRecord(authorizedResourceId, targetResourceId, action)));
+  }
 
-      if (!authorizedResourceExists) {
-        throw new IllegalArgumentException("Authorized resource does not exist with id "
-            + authorizedResourceId);
-      }
+  @Override
+  public void addPermissionInheritance(final long parentResourceId, final long childResourceId) {
+    addPermissionInheritances(Collections.singletonList(
+        new PermissionInheritanceRecord(parentResourceId, childResourceId)));
+  }
 
-      QPermission p = QPermission.permission;
-      SQLInsertClause insert = new SQLInsertClause(connection, configuration, p);
+  /**
+   * Adds many permission inheritance records in one transaction. The child resources are locked
+   * once each in ascending id order, together with the system resource if the cycles are rejected,
+   * the records are inserted with one JDBC batch and the caches are invalidated in one pass.
+   *
+   * @param permissionInheritances
+   *          the records to add.
+   * @throws NullPointerException
+   *           if the parameter or any of its elements is <code>null</code>.
+   * @throws IllegalStateException
+   *           if it is called within an enclosing transaction without a
+   *           {@link TransactionSynchronizer}.
+   * @throws IllegalArgumentException
+   *           if {@link AuthorizationConfiguration#rejectInheritanceCycles(boolean)} is enabled
+   *           and a record would create a cycle.
+   */
+  public void addPermissionInheritances(
+      final Collection<PermissionInheritanceRecord> permissionInheritances) {
+    Objects.requireNonNull(permissionInheritances,
+        "Parameter permissionInheritances must not be null");
+    if (permissionInheritances.isEmpty()) {
+      return;
+    }
+
+    Set<Long> childResourceIds = new TreeSet<>();
+    for (PermissionInheritanceRecord record : permissionInheritances) {
+      childResourceIds.add(record.getChildResourceId());
+    }
+    Set<Long> lockedResourceIds = new TreeSet<>(childResourceIds);
+    if (rejectInheritanceCycles) {
+      // The row of the system resource is the lock of all inheritance additions
+      lockedResourceIds.add(systemResourceId);
+    }
 
-      insert
-          .set(p.authorizedResourceId, authorizedResourceId)
-          .set(p.targetResourceId, targetResourceId)
-          .set(p.action, action)
-          .execute();
+    modify(() -> querydslSupport.execute((connection, configuration) -> {
+      lockOnResources(connection, configuration, lockedResourceIds);
+      if (rejectInheritanceCycles) {
+        rejectInheritanceCycles(connection, configuration, permissionInheritances);
+      }
 
-      permissionCache.put(generatePermissionKey(authorizedResourceId, targetResourceId, action),
-          true);
+      QPermissionInheritance permissionInheritance = QPermissionInheritance.permissionInheritance;
+      SQLInsertClause insert =
+          new SQLInsertClause(connection, configuration, permissionInheritance);
+      for (PermissionInheritanceRecord record : permissionInheritances) {
+        insert
+            .set(permissionInheritance.parentResourceId, record.getParentResourceId())
+            .set(permissionInheritance.childResourceId, record.getChildResourceId())
+            .addBatch();
+      }
+      long startNanos = System.nanoTime();
+      insert.execute();
+      metricsListener.databaseOperationCompleted(DatabaseOperation.INSERT,
+          System.nanoTime() - startNanos);
 
+      evictPermissionInheritances(childResourceIds);
       return null;
-    }));
+    }), null, Collections.emptyList(), permissionInheritances);
   }
 
-  @Override
-  public void addPermissionInheritance(final long parentResourceId, final long childResourceId) {
-    transactionPropagator.required(() -> querydslSupport.execute((connection, configuration) -> {
-      lockOnResource(connection, configuration, childResourceId);
+  /**
+   * Adds many permissions in one transaction. The authorized resources are locked once each in
+   * ascending id order, the permissions are inserted with one JDBC batch and the cache is updated
+   * in one pass.
+   *
+   * @param permissions
+   *          the permissions to add.
+   * @throws NullPointerException
+   *           if the parameter or any of its elements is <code>null</code>.
+   * @throws IllegalStateException
+   *           if it is called within an enclosing transaction without a
+   *           {@link TransactionSynchronizer}.
+   * @throws IllegalArgumentException
+   *           if any of the authorized resources does not exist.
+   */
+  public void addPermissions(final Collection<PermissionRecord> permissions) {
+    Objects.requireNonNull(permissions, "Parameter permissions must not be null");
+    if (permissions.isEmpty()) {
+      return;
+    }
 
-      QPermissionInheritance permissionInheritance = QPermissionInheritance.permissionInheritance;
-      SQLInsertClause insert =
-          new SQLInsertClause(connection, configuration, permissionInheritance);
-      insert
-          .set(permissionInheritance.parentResourceId, parentResourceId)
-          .set(permissionInheritance.childResourceId, childResourceId)
-          .execute();
+    Set<Long> authorizedResourceIds = new TreeSet<>();
+    for (PermissionRecord permission : permissions) {
+      authorizedResourceIds.add(permission.getAuthorizedResourceId());
+    }
 
-      permissionInheritanceCache.remove(childResourceId);
+    modify(() -> querydslSupport.execute((connection, configuration) -> {
+      Set<Long> existingResourceIds =
+          lockOnResources(connection, configuration, authorizedResourceIds);
+
+      for (Long authorizedResourceId : authorizedResourceIds) {
+        if (!existingResourceIds.contains(authorizedResourceId)) {
+          throw new IllegalArgumentException("Authorized resource does not exist with id "
+              + authorizedResourceId);
+        }
+      }
+
+      QPermission p = QPermission.permission;
+      SQLInsertClause insert = new SQLInsertClause(connection, configuration, p);
+      for (PermissionRecord permission : permissions) {
+        insert
+            .set(p.authorizedResourceId, permission.getAuthorizedResourceId())
+            .set(p.targetResourceId, permission.getTargetResourceId())
+            .set(p.action, permission.getAction())
+            .addBatch();
+      }
+      long startNanos = System.nanoTime();
+      insert.execute();
+      metricsListener.databaseOperationCompleted(DatabaseOperation.INSERT,
+          System.nanoTime() - startNanos);
+
+      evictPermissions(permissions);
       return null;
-    }));
+    }), () -> {
+      for (PermissionRecord permission : permissions) {
+        permissionCache.put(permission.getAuthorizedResourceId(),
+            permission.getTargetResourceId(), permission.getAction(), true);
+      }
+    }, permissions, Collections.emptyList());
+  }
+
+  /**
+   * Evicts the entries of the local caches that a modification on another node made stale.
+   */
+  private void applyCacheInvalidationEvent(final CacheInvalidationEvent event) {
+    if (nodeId.equals(event.getSourceNodeId())) {
+      return;
+    }
+
+    if (event.isClearAll()) {
+      clearLocalCaches();
+      return;
+    }
+
+    Set<Long> childResourceIds = new HashSet<>();
+    for (PermissionInheritanceRecord record : event.getPermissionInheritances()) {
+      childResourceIds.add(record.getChildResourceId());
+    }
+    long permissionStripes = 0;
+    for (PermissionRecord record : event.getPermissions()) {
+      permissionStripes |= CacheModificationGuard.stripeOf(record.getAuthorizedResourceId());
+    }
+    long permissionInheritanceStripes = CacheModificationGuard.stripesOf(childResourceIds);
+
+    // Concurrent reads that started before the event must not cache what they read
+    permissionModificationGuard.beginModification(permissionStripes);
+    permissionInheritanceModificationGuard.beginModification(permissionInheritanceStripes);
+    try {
+      if (!event.getPermissions().isEmpty()) {
+        evictPermissions(event.getPermissions());
+      }
+      if (!childResourceIds.isEmpty()) {
+        evictPermissionInheritances(childResourceIds);
+      }
+    } finally {
+      permissionInheritanceModificationGuard.endModification(permissionInheritanceStripes);
+      permissionModificationGuard.endModification(permissionStripes);
+    }
   }
 
   @Override
@@ -191,120 +624,513 @@ public class AuthorizationImpl
     Objects.requireNonNull(targetResourceId, "Parameter targetResourceId must not be null");
     validateActionsParameter(actions);
 
-    long[] authorizationScope = getAuthorizationScope(authorizedResourceId);
-
-    QPermission permission = QPermission.permission;
-
-    BooleanExpression authorizedResourceIdPredicate;
-    if (authorizationScope.length == 1) {
-      authorizedResourceIdPredicate = permission.authorizedResourceId.eq(authorizationScope[0]);
-    } else {
-      // More than one as the scope contains at least one value (other branch)
-      Long[] authorizationScopeLongArray = new Long[authorizationScope.length];
-      for (int i = 0, n = authorizationScope.length; i < n; i++) {
-        if (authorizationScope[i] == systemResourceId) {
-          return Expressions.TRUE;
-        }
-        authorizationScopeLongArray[i] = authorizationScope[i];
-      }
-
-      authorizedResourceIdPredicate =
-          permission.authorizedResourceId.in(authorizationScopeLongArray);
+    long[] authorizationScope = resolveAuthorizationScope(authorizedResourceId);
+    if (containsSystemResource(authorizationScope)) {
+      return Expressions.TRUE;
     }
 
-    BooleanExpression actionPredicate = null;
+    QPermission permission = QPermission.permission;
 
-    if (actions.length == 1) {
-      actionPredicate = permission.action.eq(actions[0]);
-    } else {
-      actionPredicate = permission.action.in(actions);
-    }
+    BooleanExpression authorizedResourceIdPredicate =
+        createAuthorizedResourceIdPredicate(permission, authorizedResourceId, authorizationScope);
+    BooleanExpression actionPredicate = createActionPredicate(permission, actions);
 
     return SQLExpressions
-        .select(permission.action, permission.authorizedResourceId, permission.targetResourceId)
+        .selectOne()
         .from(permission)
         .where(permission.targetResourceId.eq(targetResourceId)
             .and(actionPredicate.and(authorizedResourceIdPredicate)))
         .exists();
   }
 
-  @Override
-  public void clearCache() {
-    transactionPropagator.required(() -> {
-      permissionInheritanceCache.clear();
-      permissionCache.clear();
-      return null;
-    });
-
+  /**
+   * Stores the actions of a pair that were read by the warm-up if no modification touched the
+   * authorized resource since the stamps were taken.
+   */
+  private void cacheWarmedUpActions(final long authorizedResourceId, final long targetResourceId,
+      final List<String> actions, final long[] stamps) {
+    long stripes = CacheModificationGuard.stripeOf(authorizedResourceId);
+    permissionModificationGuard.cacheIfValid(actionSetPermissionCache, authorizedResourceId,
+        targetResourceId, actions, stripes, CacheModificationGuard.stampOf(stamps, stripes));
   }
 
-  private String generatePermissionKey(final long authorizedResourceId, final long targetResourceId,
-      final String action) {
-    return "{" + authorizedResourceId + "," + targetResourceId + "," + action + "}";
+  /**
+   * Stores the parents of a child that were read by the warm-up if no modification touched the
+   * child since the stamps were taken.
+   */
+  private void cacheWarmedUpParentResourceIds(final long childResourceId,
+      final List<Long> parentResourceIds, final long[] stamps) {
+    long stripes = CacheModificationGuard.stripeOf(childResourceId);
+    permissionInheritanceModificationGuard.cacheIfValid(permissionInheritanceCache,
+        childResourceId, AuthorizationImpl.convertCollectionToLongArray(parentResourceIds),
+        stripes, CacheModificationGuard.stampOf(stamps, stripes));
   }
 
   @Override
-  public long[] getAuthorizationScope(final long resourceId) {
-    Set<Long> authorizationScope = new LinkedHashSet<Long>();
-    authorizationScope.add(resourceId);
-    addParentsRecurseToScope(resourceId, authorizationScope);
+  public void clearCache() {
+    clearLocalCaches();
+    if (cacheInvalidationTransport != null) {
+      cacheInvalidationTransport.publish(CacheInvalidationEvent.clearAll(nodeId));
+    }
+  }
 
-    return AuthorizationImpl.convertCollectionToLongArray(authorizationScope);
+  /**
+   * Clears the caches of this instance. Concurrent reads that started before the clear must not
+   * cache what they read, so the clear runs as a modification.
+   */
+  private void clearLocalCaches() {
+    permissionModificationGuard.beginModification(CacheModificationGuard.ALL_STRIPES);
+    permissionInheritanceModificationGuard.beginModification(CacheModificationGuard.ALL_STRIPES);
+    try {
+      transactionPropagator.required(() -> {
+        permissionInheritanceCache.clear();
+        authorizationScopeCache.clear();
+        permissionCache.clear();
+        metricsListener.cacheCleared();
+        return null;
+      });
+    } finally {
+      permissionInheritanceModificationGuard.endModification(CacheModificationGuard.ALL_STRIPES);
+      permissionModificationGuard.endModification(CacheModificationGuard.ALL_STRIPES);
+    }
   }
 
-  @Override
-  public long getSystemResourceId() {
-    return systemResourceId;
+  /**
+   * Unregisters the component from the cache invalidation transport, cancels the cache warm-up
+   * that was started by the constructor and shuts down the default executor of the asynchronous
+   * permission checks. The synchronous methods can still be used, but the caches are not updated
+   * by the modifications of other nodes anymore and the asynchronous checks that miss the cache
+   * fail.
+   */
+  public void close() {
+    if (cacheInvalidationTransport != null) {
+      cacheInvalidationTransport.removeListener(cacheInvalidationListener);
+    }
+    if (cacheWarmUp != null) {
+      cacheWarmUp.cancel(false);
+    }
+    permissionCheckPipeline.close();
   }
 
-  @Override
-  public boolean hasPermission(final long authorizedResourceId, final long targetResourceId,
-      final String... actions) {
-    if (authorizedResourceId == systemResourceId) {
-      return true;
+  private boolean containsSystemResource(final long[] authorizationScope) {
+    for (long resourceIdFromScope : authorizationScope) {
+      if (resourceIdFromScope == systemResourceId) {
+        return true;
+      }
     }
+    return false;
+  }
 
-    validateActionsParameter(actions);
+  /**
+   * Creates a predicate on the authorized resource id of the permission table that matches the
+   * members of the authorization scope. The scope must not contain the system resource.
+   */
+  private BooleanExpression createAuthorizedResourceIdPredicate(final QPermission permission,
+      final long authorizedResourceId, final long[] authorizationScope) {
+    if (authorizationScope.length == 1) {
+      return permission.authorizedResourceId.eq(authorizationScope[0]);
+    }
+    // The IN list is used if the database does not support the recursive predicate
+    if ((recursiveScopePredicateThreshold > 0)
+        && (authorizationScope.length >= recursiveScopePredicateThreshold)
+        && isRecursiveScopePredicateSupported()) {
+      return createRecursiveAuthorizedResourceIdPredicate(permission, authorizedResourceId);
+    }
+    Long[] authorizationScopeLongArray = new Long[authorizationScope.length];
+    for (int i = 0, n = authorizationScope.length; i < n; i++) {
+      authorizationScopeLongArray[i] = authorizationScope[i];
+    }
+    return permission.authorizedResourceId.in(authorizationScopeLongArray);
+  }
 
-    long[] authorizationScope = getAuthorizationScope(authorizedResourceId);
-    boolean permissionFound = false;
+  /**
+   * Creates a lazy stream of ascending ids that are read page by page in separate transactions.
+   */
+  private LongStream createKeysetStream(final LongFunction<long[]> pageReader) {
+    KeysetPageIterator iterator = new KeysetPageIterator(reverseLookupPageSize,
+        lastId -> transactionPropagator.required(() -> pageReader.apply(lastId)));
+    return StreamSupport.longStream(Spliterators.spliteratorUnknownSize(iterator,
+        Spliterator.DISTINCT | Spliterator.NONNULL | Spliterator.ORDERED | Spliterator.SORTED),
+        false);
+  }
 
-    for (int j = 0, m = actions.length; !permissionFound && (j < m); j++) {
-      final String action = actions[j];
+  /**
+   * Removes the parents of the child resources and the authorization scopes that depend on them
+   * from the caches.
+   */
+  private void evictPermissionInheritances(final Set<Long> childResourceIds) {
+    for (Long childResourceId : childResourceIds) {
+      permissionInheritanceCache.remove(childResourceId);
+    }
+    metricsListener.cacheInvalidated(CacheType.PERMISSION_INHERITANCE, childResourceIds.size());
+    invalidateAuthorizationScopes(childResourceIds);
+  }
 
-      for (int i = 0, n = authorizationScope.length; !permissionFound && (i < n); i++) {
-        long resourceIdFromScope = authorizationScope[i];
+  private void evictPermissions(final Collection<PermissionRecord> permissions) {
+    for (PermissionRecord record : permissions) {
+      permissionCache.remove(record.getAuthorizedResourceId(), record.getTargetResourceId(),
+          record.getAction(), true);
+      permissionCache.remove(record.getAuthorizedResourceId(), record.getTargetResourceId(),
+          record.getAction(), false);
+    }
+    metricsListener.cacheInvalidated(CacheType.PERMISSION, permissions.size());
+  }
 
-        if (resourceIdFromScope == systemResourceId) {
-          return true;
-        }
+  /**
+   * Checks the permission of a resource on many target resources at once. The authorization scope
+   * is calculated only once and the permissions that are missing from the cache are read from the
+   * database with as few queries as possible.
+   *
+   * @param authorizedResourceId
+   *          the id of the resource whose permissions are checked.
+   * @param targetResourceIds
+   *          the ids of the target resources.
+   * @param actions
+   *          the actions. The authorized resource is permitted on a target if it has the
+   *          permission to run at least one of the actions.
+   * @return the ids of the permitted target resources in the order of the passed array.
+   * @throws NullPointerException
+   *           if the targetResourceIds or actions parameter or any of the actions is
+   *           <code>null</code>.
+   * @throws IllegalArgumentException
+   *           if no action is passed.
+   */
+  public long[] filterPermittedTargets(final long authorizedResourceId,
+      final long[] targetResourceIds, final String... actions) {
+    Objects.requireNonNull(targetResourceIds, "Parameter targetResourceIds must not be null");
+    if (authorizedResourceId == systemResourceId) {
+      return targetResourceIds.clone();
+    }
 
-        String permissionKey = generatePermissionKey(resourceIdFromScope, targetResourceId, action);
-        Boolean cachedPermission = permissionCache.get(permissionKey);
+    validateActionsParameter(actions);
 
-        if (cachedPermission == null) {
-          permissionFound = transactionPropagator.required(() -> {
-            boolean exists = lockOnResource(authorizedResourceId);
-            if (!exists && (resourceIdFromScope == authorizedResourceId)) {
-              return false;
-            }
-            boolean tmpHasPermission =
-                readPermissionFromDatabase(resourceIdFromScope, targetResourceId,
-                    action);
-            permissionCache.put(permissionKey, tmpHasPermission);
-            return tmpHasPermission;
-          });
-        } else {
-          permissionFound = cachedPermission;
-        }
+    long[] authorizationScope = resolveAuthorizationScope(authorizedResourceId);
+    boolean[] permitted = new boolean[targetResourceIds.length];
+    Set<Long> missingTargetResourceIds = new LinkedHashSet<>();
+
+    for (int i = 0; i < targetResourceIds.length; i++) {
+      Boolean cachedPermission =
+          findCachedPermission(authorizationScope, targetResourceIds[i], actions);
+      if (cachedPermission == null) {
+        metricsListener.cacheMiss(CacheType.PERMISSION);
+        missingTargetResourceIds.add(targetResourceIds[i]);
+      } else {
+        metricsListener.cacheHit(CacheType.PERMISSION);
+        permitted[i] = cachedPermission;
+      }
+    }
+
+    if (!missingTargetResourceIds.isEmpty()) {
+      long stripes = CacheModificationGuard.stripesOf(authorizationScope);
+      long stamp = permissionModificationGuard.startRead(stripes);
+      Set<Long> permittedTargetResourceIds = transactionPropagator.required(
+          () -> resolvePermissionCacheMisses(authorizationScope, missingTargetResourceIds,
+              stripes, stamp, actions));
+      for (int i = 0; i < targetResourceIds.length; i++) {
+        permitted[i] = permitted[i] || permittedTargetResourceIds.contains(targetResourceIds[i]);
+      }
+    }
 
+    int permittedCount = 0;
+    long[] result = new long[targetResourceIds.length];
+    for (int i = 0; i < targetResourceIds.length; i++) {
+      if (permitted[i]) {
+        result[permittedCount] = targetResourceIds[i];
+        permittedCount++;
       }
     }
-    return permissionFound;
+    return Arrays.copyOf(result, permittedCount);
   }
 
-  private void init(final PropertyManager propertyManager, final ResourceService resourceService) {
-    String systemResourceIdProperty = propertyManager.getProperty(PROP_SYSTEM_RESOURCE_ID);
+  /**
+   * Streams the ids of the resources that are permitted to run at least one of the actions on the
+   * target resource. These are the resources that have a permission record on the target, the
+   * system resource and all of their descendants in the permission inheritance graph. The
+   * descendants are selected by a recursive query that walks the inheritance records downwards.
+   *
+   * <p>
+   * The ids are read lazily in ascending order with keyset pagination like
+   * {@link #findPermittedTargets(long, String...)}, so only one page is held in memory. Every page
+   * is read with the recursive query in a separate transaction, so modifications during the
+   * iteration may or may not be visible in the later pages.
+   *
+   * @param targetResourceId
+   *          the id of the target resource.
+   * @param actions
+   *          the actions.
+   * @return the ids of the permitted resources.
+   * @throws NullPointerException
+   *           if the actions parameter or any of the actions is <code>null</code>.
+   * @throws IllegalArgumentException
+   *           if no action is passed.
+   */
+  public LongStream findAuthorizedResources(final long targetResourceId,
+      final String... actions) {
+    validateActionsParameter(actions);
+    String[] actionsCopy = actions.clone();
+    return createKeysetStream(lastAuthorizedResourceId -> readAuthorizedResourcePageFromDatabase(
+        targetResourceId, lastAuthorizedResourceId, actionsCopy));
+  }
+
+  /**
+   * Checks the permission based on the cache.
+   *
+   * @return {@link Boolean#TRUE} if the permission is found, {@link Boolean#FALSE} if all
+   *         combinations of the scope members and actions are cached without permission and
+   *         <code>null</code> if at least one of the combinations is missing from the cache.
+   */
+  private Boolean findCachedPermission(final long[] authorizationScope,
+      final long targetResourceId, final String... actions) {
+    boolean cacheMissFound = false;
+
+    for (int i = 0, n = authorizationScope.length; i < n; i++) {
+      long resourceIdFromScope = authorizationScope[i];
+
+      if (resourceIdFromScope == systemResourceId) {
+        return Boolean.TRUE;
+      }
+
+      if (actionSetPermissionCache != null) {
+        Boolean cachedPermission =
+            actionSetPermissionCache.getAny(resourceIdFromScope, targetResourceId, actions);
+        if (cachedPermission == null) {
+          cacheMissFound = true;
+        } else if (cachedPermission) {
+          return Boolean.TRUE;
+        }
+        continue;
+      }
+
+      for (int j = 0, m = actions.length; j < m; j++) {
+        Boolean cachedPermission =
+            permissionCache.get(resourceIdFromScope, targetResourceId, actions[j]);
+
+        if (cachedPermission == null) {
+          cacheMissFound = true;
+        } else if (cachedPermission) {
+          return Boolean.TRUE;
+        }
+      }
+    }
+
+    return cacheMissFound ? null : Boolean.FALSE;
+  }
+
+  /**
+   * Checks the permission based on the caches only, without resolving a missing authorization
+   * scope.
+   *
+   * @return the cached permission or <code>null</code> if the scope or any permission that is
+   *         needed for the decision is missing from the cache.
+   */
+  private Boolean findCachedPermissionWithCachedScope(final long authorizedResourceId,
+      final long targetResourceId, final String... actions) {
+    long[] authorizationScope = authorizationScopeCache.get(authorizedResourceId);
+    if (authorizationScope == null) {
+      return null;
+    }
+    Boolean cachedPermission = findCachedPermission(authorizationScope, targetResourceId, actions);
+    if (cachedPermission != null) {
+      metricsListener.cacheHit(CacheType.AUTHORIZATION_SCOPE);
+      metricsListener.cacheHit(CacheType.PERMISSION);
+    }
+    return cachedPermission;
+  }
+
+  /**
+   * Returns the parents of the resource from the cache, from the ancestors that were read by the
+   * same scope resolution or from the database.
+   */
+  private long[] findParentResourceIds(final long resourceId,
+      final Map<Long, long[]> loadedParentResourceIds) {
+    long[] parentResourceIds = permissionInheritanceCache.get(resourceId);
+    if (parentResourceIds != null) {
+      metricsListener.cacheHit(CacheType.PERMISSION_INHERITANCE);
+    } else {
+      metricsListener.cacheMiss(CacheType.PERMISSION_INHERITANCE);
+      parentResourceIds = loadedParentResourceIds.get(resourceId);
+    }
+    if (parentResourceIds == null) {
+      if (recursiveScopeResolution) {
+        // The ancestors are known only after the query, so every key is validated separately
+        long[] stamps = permissionInheritanceModificationGuard.startReadAll();
+        long stamp = CacheModificationGuard.stampOf(stamps, CacheModificationGuard.ALL_STRIPES);
+        loadedParentResourceIds.putAll(ancestorLoads.load(resourceId, stamp,
+            () -> transactionPropagator.required(() -> {
+              Map<Long, long[]> tmpParentResourceIds = readAncestorsFromDatabase(resourceId);
+              tmpParentResourceIds.forEach((key, value) -> {
+                long stripes = CacheModificationGuard.stripeOf(key);
+                permissionInheritanceModificationGuard.cacheIfValid(permissionInheritanceCache,
+                    key, value, stripes, CacheModificationGuard.stampOf(stamps, stripes));
+              });
+              return tmpParentResourceIds;
+            })));
+        parentResourceIds = loadedParentResourceIds.get(resourceId);
+      } else {
+        long stripes = CacheModificationGuard.stripeOf(resourceId);
+        long stamp = permissionInheritanceModificationGuard.startRead(stripes);
+        parentResourceIds = parentResourceIdLoads.load(resourceId, stamp,
+            () -> transactionPropagator.required(() -> {
+              long[] tmpParentResourceIds = readParentResourceIdsFromDatabase(resourceId);
+              permissionInheritanceModificationGuard.cacheIfValid(permissionInheritanceCache,
+                  resourceId, tmpParentResourceIds, stripes, stamp);
+              return tmpParentResourceIds;
+            }));
+      }
+    }
+    return parentResourceIds;
+  }
+
+  /**
+   * Streams the ids of the target resources that the authorized resource or any member of its
+   * authorization scope has the permission to run at least one of the actions on. If the scope
+   * contains the system resource, the ids of all resources are streamed.
+   *
+   * <p>
+   * The ids are read lazily in ascending order with keyset pagination, so listing millions of
+   * resources needs memory only for one page. The page size can be set by
+   * {@link AuthorizationConfiguration#reverseLookupPageSize(int)}. Every page is read in a separate
+   * transaction, so modifications during the iteration may or may not be visible in the later
+   * pages. The authorization scope is resolved when the stream is created.
+   *
+   * @param authorizedResourceId
+   *          the id of the authorized resource.
+   * @param actions
+   *          the actions.
+   * @return the ids of the permitted target resources.
+   * @throws NullPointerException
+   *           if the actions parameter or any of the actions is <code>null</code>.
+   * @throws IllegalArgumentException
+   *           if no action is passed.
+   */
+  public LongStream findPermittedTargets(final long authorizedResourceId,
+      final String... actions) {
+    validateActionsParameter(actions);
+    if (authorizedResourceId == systemResourceId) {
+      return createKeysetStream(this::readResourcePageFromDatabase);
+    }
+
+    String[] actionsCopy = actions.clone();
+    long[] authorizationScope = resolveAuthorizationScope(authorizedResourceId);
+    if (containsSystemResource(authorizationScope)) {
+      return createKeysetStream(this::readResourcePageFromDatabase);
+    }
+    return createKeysetStream(lastTargetResourceId -> readPermittedTargetPageFromDatabase(
+        authorizedResourceId, authorizationScope, lastTargetResourceId, actionsCopy));
+  }
+
+  @Override
+  public long[] getAuthorizationScope(final long resourceId) {
+    return resolveAuthorizationScope(resourceId).clone();
+  }
+
+  @Override
+  public long getSystemResourceId() {
+    return systemResourceId;
+  }
+
+  @Override
+  public boolean hasPermission(final long authorizedResourceId, final long targetResourceId,
+      final String... actions) {
+    if (authorizedResourceId == systemResourceId) {
+      return true;
+    }
+
+    validateActionsParameter(actions);
+
+    long[] authorizationScope = resolveAuthorizationScope(authorizedResourceId);
+
+    Boolean cachedPermission = findCachedPermission(authorizationScope, targetResourceId, actions);
+    if (cachedPermission != null) {
+      metricsListener.cacheHit(CacheType.PERMISSION);
+      return cachedPermission;
+    }
+    metricsListener.cacheMiss(CacheType.PERMISSION);
+
+    long stripes = CacheModificationGuard.stripesOf(authorizationScope);
+    long stamp = permissionModificationGuard.startRead(stripes);
+    // The scope is compared by identity, so a load with a scope that changed since is not shared
+    List<Object> key = Arrays.asList(authorizedResourceId, targetResourceId,
+        new TreeSet<>(Arrays.asList(actions)), authorizationScope);
+    return permissionLoads.load(key, stamp,
+        () -> transactionPropagator.required(() -> !resolvePermissionCacheMisses(
+            authorizationScope, Collections.singleton(targetResourceId), stripes, stamp,
+            actions).isEmpty()));
+  }
+
+  /**
+   * Checks the permission without blocking the caller on the database. If the authorization scope
+   * and the permission are cached, the returned future is already completed. Otherwise the check
+   * is queued and resolved on the executor that is set by
+   * {@link AuthorizationConfiguration#asyncExecutor(java.util.concurrent.Executor)}, in a separate
+   * transaction. The checks that are queued at the same time for the same authorized resource and
+   * actions are resolved together, with as few queries as
+   * {@link #filterPermittedTargets(long, long[], String...)} needs.
+   *
+   * @param authorizedResourceId
+   *          the id of the resource whose permission is checked.
+   * @param targetResourceId
+   *          the id of the target resource.
+   * @param actions
+   *          the actions. The permission is granted if the resource can run at least one of them.
+   * @return the future result of the check.
+   * @throws NullPointerException
+   *           if the actions parameter or any of the actions is <code>null</code>.
+   * @throws IllegalArgumentException
+   *           if no action is passed.
+   */
+  public CompletableFuture<Boolean> hasPermissionAsync(final long authorizedResourceId,
+      final long targetResourceId, final String... actions) {
+    if (authorizedResourceId == systemResourceId) {
+      return CompletableFuture.completedFuture(Boolean.TRUE);
+    }
+
+    validateActionsParameter(actions);
+
+    Boolean cachedPermission =
+        findCachedPermissionWithCachedScope(authorizedResourceId, targetResourceId, actions);
+    if (cachedPermission != null) {
+      return CompletableFuture.completedFuture(cachedPermission);
+    }
+    return permissionCheckPipeline.enqueue(authorizedResourceId, targetResourceId,
+        actions.clone());
+  }
+
+  /**
+   * Checks the permission of a resource on many target resources without blocking the caller on
+   * the database.
+   *
+   * @return the future results in the order of the target resource ids. The futures of the cached
+   *         permissions are already completed, the others are resolved together.
+   * @see #hasPermissionAsync(long, long, String...)
+   */
+  public List<CompletableFuture<Boolean>> hasPermissionsAsync(final long authorizedResourceId,
+      final long[] targetResourceIds, final String... actions) {
+    Objects.requireNonNull(targetResourceIds, "Parameter targetResourceIds must not be null");
+    List<CompletableFuture<Boolean>> result = new ArrayList<>(targetResourceIds.length);
+    if (authorizedResourceId == systemResourceId) {
+      for (int i = 0; i < targetResourceIds.length; i++) {
+        result.add(CompletableFuture.completedFuture(Boolean.TRUE));
+      }
+      return result;
+    }
+
+    validateActionsParameter(actions);
+
+    String[] actionsCopy = actions.clone();
+    for (long targetResourceId : targetResourceIds) {
+      Boolean cachedPermission =
+          findCachedPermissionWithCachedScope(authorizedResourceId, targetResourceId, actions);
+      result.add((cachedPermission != null)
+          ? CompletableFuture.completedFuture(cachedPermission)
+          : permissionCheckPipeline.enqueue(authorizedResourceId, targetResourceId,
+              actionsCopy));
+    }
+    return result;
+  }
+
+  private void init(final PropertyManager propertyManager, final ResourceService resourceService) {
+    String systemResourceIdProperty = propertyManager.getProperty(PROP_SYSTEM_RESOURCE_ID);
     if ((systemResourceIdProperty == null) || "".equals(systemResourceIdProperty)) {
       systemResourceId = resourceService.createResource();
       propertyManager.addProperty(PROP_SYSTEM_RESOURCE_ID, String.valueOf(systemResourceId));
@@ -313,100 +1139,1024 @@ public class AuthorizationImpl
     }
   }
 
-  private boolean lockOnResource(final Connection connection, final Configuration configuration,
-      final long resourceId) {
+  /**
+   * Removes the cached authorization scopes that contain any of the resources. The scope of a
+   * resource contains the resource itself and all of its ancestors, so these are the scopes of the
+   * resources and of all of their descendants. They are found with the reverse index of the cache,
+   * so the cost does not depend on the number of cached scopes.
+   *
+   * @param resourceIds
+   *          the ids of the resources whose parents changed.
+   */
+  private void invalidateAuthorizationScopes(final Collection<Long> resourceIds) {
+    int invalidatedCount = authorizationScopeCache.invalidate(
+        AuthorizationImpl.convertCollectionToLongArray(resourceIds));
+    metricsListener.cacheInvalidated(CacheType.AUTHORIZATION_SCOPE, invalidatedCount);
+  }
+
+  /**
+   * Checks whether the database accepts the recursive common table expression of the
+   * authorization predicate in a subquery. The result is probed once and remembered; concurrent
+   * first calls may probe more than once.
+   */
+  private boolean isRecursiveScopePredicateSupported() {
+    Boolean supported = recursiveScopePredicateSupported;
+    if (supported == null) {
+      supported = probeRecursiveScopePredicate();
+      recursiveScopePredicateSupported = supported;
+    }
+    return supported;
+  }
+
+  /**
+   * Checks whether the current thread has an active database transaction based on the auto-commit
+   * mode of its connection. If it cannot be determined, the transaction is considered active.
+   */
+  private boolean isTransactionActive() {
+    try {
+      return querydslSupport.execute((connection, configuration) -> {
+        try {
+          return !connection.getAutoCommit();
+        } catch (SQLException e) {
+          return true;
+        }
+      });
+    } catch (RuntimeException e) {
+      return true;
+    }
+  }
+
+  /**
+   * Locks the rows of the resources in ascending id order, so concurrent modifications that lock
+   * overlapping sets of resources cannot deadlock.
+   *
+   * @param resourceIds
+   *          the ids of the resources in ascending order.
+   * @return the ids of the resources that exist.
+   */
+  private Set<Long> lockOnResources(final Connection connection,
+      final Configuration configuration, final Set<Long> resourceIds) {
     QResource resource = QResource.resource;
-    List<Long> results = new SQLQuery<Long>(connection, configuration)
-        .select(resource.resourceId)
-        .from(resource)
-        .where(resource.resourceId.eq(resourceId))
-        .forUpdate()
-        .fetch();
-    return !(results.size() == 0);
+    List<Long> resourceIdList = new ArrayList<>(resourceIds);
+    Set<Long> existingResourceIds = new HashSet<>();
+    long startNanos = System.nanoTime();
+
+    for (int fromIndex = 0, n = resourceIdList.size(); fromIndex < n;
+        fromIndex += MAX_IN_LIST_SIZE) {
+      List<Long> resourceIdChunk =
+          resourceIdList.subList(fromIndex, Math.min(n, fromIndex + MAX_IN_LIST_SIZE));
+      BooleanExpression resourceIdPredicate = (resourceIdChunk.size() == 1)
+          ? resource.resourceId.eq(resourceIdChunk.get(0))
+          : resource.resourceId.in(resourceIdChunk);
+
+      existingResourceIds.addAll(new SQLQuery<Long>(connection, configuration)
+          .select(resource.resourceId)
+          .from(resource)
+          .where(resourceIdPredicate)
+          .orderBy(resource.resourceId.asc())
+          .forUpdate()
+          .fetch());
+    }
+    metricsListener.databaseOperationCompleted(DatabaseOperation.LOCK_RESOURCES,
+        System.nanoTime() - startNanos);
+    return existingResourceIds;
+  }
+
+  /**
+   * Runs a modification in the propagated transaction. The modification evicts the affected cache
+   * entries, so the modifying transaction reads its own changes from the database, and no other
+   * thread caches values of the same stripes until the transaction completes. A modification
+   * changes either permissions or permission inheritances, so only the guard of the changed
+   * records is used. The new values are stored in the caches and published to the other nodes
+   * only after the transaction committed.
+   *
+   * <p>
+   * If the completion callback cannot be registered, the propagated block must commit its own
+   * transaction, so the caches are updated when it returns. A modification that would join an
+   * enclosing transaction without a callback is rejected before the database is touched, because
+   * the component could not know when the enclosing transaction completes.
+   *
+   * @param databaseModification
+   *          modifies the database and evicts the affected cache entries.
+   * @param cacheUpdate
+   *          stores the new values in the caches after the commit, or <code>null</code>.
+   * @param permissions
+   *          the modified permissions that are published to the other nodes.
+   * @param permissionInheritances
+   *          the modified permission inheritances that are published to the other nodes.
+   * @throws IllegalStateException
+   *           if the modification is called within an enclosing transaction and the
+   *           {@link TransactionSynchronizer} cannot register a completion callback to it.
+   */
+  private void modify(final Runnable databaseModification, final Runnable cacheUpdate,
+      final Collection<PermissionRecord> permissions,
+      final Collection<PermissionInheritanceRecord> permissionInheritances) {
+    boolean enclosingTransaction = isTransactionActive();
+    if (enclosingTransaction && (transactionSynchronizer == null)) {
+      throw new IllegalStateException(ENCLOSING_TRANSACTION_WITHOUT_SYNCHRONIZER);
+    }
+
+    CacheModificationGuard guard;
+    long stripes = 0;
+    if (permissions.isEmpty()) {
+      guard = permissionInheritanceModificationGuard;
+      for (PermissionInheritanceRecord record : permissionInheritances) {
+        stripes |= CacheModificationGuard.stripeOf(record.getChildResourceId());
+      }
+    } else {
+      guard = permissionModificationGuard;
+      for (PermissionRecord record : permissions) {
+        stripes |= CacheModificationGuard.stripeOf(record.getAuthorizedResourceId());
+      }
+    }
+    long modifiedStripes = stripes;
+    boolean[] completionCallbackRegistered = new boolean[1];
+    boolean[] databaseModified = new boolean[1];
+    boolean succeeded = false;
+
+    guard.beginModification(modifiedStripes);
+    try {
+      transactionPropagator.required(() -> {
+        if (transactionSynchronizer != null) {
+          completionCallbackRegistered[0] =
+              transactionSynchronizer.registerCompletionCallback(committed -> {
+                try {
+                  if (committed) {
+                    // The caller may have caught the failure and committed the rest of its work
+                    if ((cacheUpdate != null) && databaseModified[0]) {
+                      cacheUpdate.run();
+                    }
+                    publishCacheInvalidation(permissions, permissionInheritances);
+                  }
+                } finally {
+                  guard.endModification(modifiedStripes);
+                }
+              });
+        }
+        if (enclosingTransaction && !completionCallbackRegistered[0]) {
+          throw new IllegalStateException(ENCLOSING_TRANSACTION_WITHOUT_SYNCHRONIZER);
+        }
+        databaseModification.run();
+        databaseModified[0] = true;
+        return null;
+      });
+      succeeded = true;
+    } finally {
+      if (!completionCallbackRegistered[0]) {
+        try {
+          if (succeeded) {
+            if (cacheUpdate != null) {
+              cacheUpdate.run();
+            }
+            publishCacheInvalidation(permissions, permissionInheritances);
+          }
+        } finally {
+          guard.endModification(modifiedStripes);
+        }
+      }
+    }
   }
 
-  private boolean lockOnResource(final long resourceId) {
+  /**
+   * Checks whether the database accepts the recursive common table expression of the
+   * authorization predicate in a subquery by running it once. The probe runs in a new transaction,
+   * so its failure does not affect an enclosing transaction.
+   */
+  private boolean probeRecursiveScopePredicate() {
+    try {
+      transactionPropagator.requiresNew(() -> querydslSupport.execute(
+          (connection, configuration) -> {
+            QPermission permission = QPermission.permission;
+            return new SQLQuery<Void>(connection, configuration)
+                .select(permission.authorizedResourceId)
+                .from(permission)
+                .where(createRecursiveAuthorizedResourceIdPredicate(permission, systemResourceId))
+                .fetchFirst();
+          }));
+      return true;
+    } catch (RuntimeException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Publishes the records that a modification added or removed, so the other nodes of the cluster
+   * can evict the affected cache entries. Must be called only after the transaction of the
+   * modification committed, otherwise the other nodes could cache the old rows again.
+   */
+  private void publishCacheInvalidation(final Collection<PermissionRecord> permissions,
+      final Collection<PermissionInheritanceRecord> permissionInheritances) {
+    if (cacheInvalidationTransport != null) {
+      cacheInvalidationTransport.publish(
+          new CacheInvalidationEvent(nodeId, permissions, permissionInheritances));
+    }
+  }
+
+  /**
+   * Reads the inheritance records of the resources and all of their ancestors, one level of the
+   * graph with each query.
+   *
+   * @return the parents of the resources and their ancestors by the id of the child. Every visited
+   *         resource is a key, even if it has no parents.
+   */
+  private Map<Long, Set<Long>> readAncestorInheritancesFromDatabase(final Connection connection,
+      final Configuration configuration, final Set<Long> resourceIds) {
+    QPermissionInheritance permissionInheritance = QPermissionInheritance.permissionInheritance;
+    Map<Long, Set<Long>> parentResourceIdsByChild = new HashMap<>();
+    Set<Long> levelResourceIds = new TreeSet<>(resourceIds);
+    while (!levelResourceIds.isEmpty()) {
+      for (Long resourceId : levelResourceIds) {
+        parentResourceIdsByChild.put(resourceId, new HashSet<>());
+      }
+      List<Long> levelResourceIdList = new ArrayList<>(levelResourceIds);
+      Set<Long> nextLevelResourceIds = new TreeSet<>();
+      for (int fromIndex = 0, n = levelResourceIdList.size(); fromIndex < n;
+          fromIndex += MAX_IN_LIST_SIZE) {
+        List<Long> resourceIdChunk =
+            levelResourceIdList.subList(fromIndex, Math.min(n, fromIndex + MAX_IN_LIST_SIZE));
+        long startNanos = System.nanoTime();
+        List<Tuple> result = new SQLQuery<Void>(connection, configuration)
+            .select(permissionInheritance.childResourceId, permissionInheritance.parentResourceId)
+            .from(permissionInheritance)
+            .where(permissionInheritance.childResourceId.in(resourceIdChunk))
+            .fetch();
+        metricsListener.databaseOperationCompleted(DatabaseOperation.READ_PARENTS,
+            System.nanoTime() - startNanos);
+        for (Tuple tuple : result) {
+          Long parentResourceId = tuple.get(permissionInheritance.parentResourceId);
+          parentResourceIdsByChild.get(tuple.get(permissionInheritance.childResourceId))
+              .add(parentResourceId);
+          if (!parentResourceIdsByChild.containsKey(parentResourceId)) {
+            nextLevelResourceIds.add(parentResourceId);
+          }
+        }
+      }
+      levelResourceIds = nextLevelResourceIds;
+    }
+    return parentResourceIdsByChild;
+  }
+
+  /**
+   * Reads the parents of the resource and of all of its ancestors with one recursive query. The
+   * recursion is limited by {@link #MAX_RECURSIVE_SCOPE_DEPTH}, as some databases do not remove
+   * the duplicates of a recursive UNION and would not stop on a cycle of the inheritance graph.
+   * The ancestors beyond the limit are read level by level.
+   *
+   * @return the parents of every visited resource, including the resources without parents.
+   */
+  private Map<Long, long[]> readAncestorsFromDatabase(final long resourceId) {
+    return querydslSupport.execute((connection, configuration) -> {
+      QPermissionInheritance permissionInheritance = new QPermissionInheritance("authr_anc_pi");
+      PathBuilder<Tuple> ancestor = new PathBuilder<>(Tuple.class, "authr_ancestor");
+      NumberPath<Long> ancestorChildResourceId =
+          ancestor.getNumber("child_resource_id", Long.class);
+      NumberPath<Long> ancestorParentResourceId =
+          ancestor.getNumber("parent_resource_id", Long.class);
+      NumberPath<Integer> ancestorDepth = ancestor.getNumber("scope_depth", Integer.class);
+
+      long startNanos = System.nanoTime();
+      List<Tuple> result = new SQLQuery<Void>(connection, configuration)
+          .withRecursive(ancestor, ancestorChildResourceId, ancestorParentResourceId,
+              ancestorDepth)
+          .as(SQLExpressions.unionAll(
+              SQLExpressions
+                  .select(permissionInheritance.childResourceId,
+                      permissionInheritance.parentResourceId,
+                      Expressions.numberTemplate(Integer.class, "1"))
+                  .from(permissionInheritance)
+                  .where(permissionInheritance.childResourceId.eq(resourceId)),
+              SQLExpressions
+                  .select(permissionInheritance.childResourceId,
+                      permissionInheritance.parentResourceId,
+                      Expressions.numberTemplate(Integer.class, "{0} + 1", ancestorDepth))
+                  .from(permissionInheritance)
+                  .innerJoin(ancestor)
+                  .on(permissionInheritance.childResourceId.eq(ancestorParentResourceId))
+                  .where(ancestorDepth.lt(MAX_RECURSIVE_SCOPE_DEPTH))))
+          .select(ancestorChildResourceId, ancestorParentResourceId, ancestorDepth)
+          .from(ancestor)
+          .fetch();
+      metricsListener.databaseOperationCompleted(DatabaseOperation.READ_ANCESTORS,
+          System.nanoTime() - startNanos);
+
+      Map<Long, Set<Long>> parentResourceIdsByChild = new LinkedHashMap<>();
+      parentResourceIdsByChild.put(resourceId, new LinkedHashSet<>());
+      Set<Long> readResourceIds = new HashSet<>();
+      readResourceIds.add(resourceId);
+      Set<Long> unreadResourceIds = new TreeSet<>();
+      for (Tuple tuple : result) {
+        Long parentResourceId = tuple.get(ancestorParentResourceId);
+        parentResourceIdsByChild
+            .computeIfAbsent(tuple.get(ancestorChildResourceId), key -> new LinkedHashSet<>())
+            .add(parentResourceId);
+        parentResourceIdsByChild.computeIfAbsent(parentResourceId, key -> new LinkedHashSet<>());
+        if (tuple.get(ancestorDepth) < MAX_RECURSIVE_SCOPE_DEPTH) {
+          readResourceIds.add(parentResourceId);
+        } else {
+          unreadResourceIds.add(parentResourceId);
+        }
+      }
+
+      unreadResourceIds.removeAll(readResourceIds);
+      if (!unreadResourceIds.isEmpty()) {
+        readAncestorInheritancesFromDatabase(connection, configuration, unreadResourceIds)
+            .forEach((key, value) -> parentResourceIdsByChild
+                .computeIfAbsent(key, k -> new LinkedHashSet<>()).addAll(value));
+      }
+
+      Map<Long, long[]> ancestors = new HashMap<>(parentResourceIdsByChild.size());
+      parentResourceIdsByChild.forEach((key, value) -> ancestors.put(key,
+          AuthorizationImpl.convertCollectionToLongArray(value)));
+      return ancestors;
+    });
+  }
+
+  /**
+   * Reads the next page of the resources that are permitted on the target resource.
+   *
+   * @see #findAuthorizedResources(long, String...)
+   */
+  private long[] readAuthorizedResourcePageFromDatabase(final long targetResourceId,
+      final long lastAuthorizedResourceId, final String... actions) {
     return querydslSupport.execute((connection, configuration) -> {
-      return lockOnResource(connection, configuration, resourceId);
+      QPermission permission = new QPermission("authr_subj_p");
+      QPermissionInheritance permissionInheritance = new QPermissionInheritance("authr_subj_pi");
+      QResource resource = new QResource("authr_subj_r");
+      PathBuilder<Long> subject = new PathBuilder<>(Long.class, "authr_subject");
+      NumberPath<Long> subjectResourceId = subject.getNumber("resource_id", Long.class);
+
+      long startNanos = System.nanoTime();
+      List<Long> result = new SQLQuery<Void>(connection, configuration)
+          .withRecursive(subject, new Path<?>[] { subjectResourceId })
+          .as(SQLExpressions.union(
+              SQLExpressions.select(permission.authorizedResourceId)
+                  .from(permission)
+                  .where(permission.targetResourceId.eq(targetResourceId)
+                      .and(createActionPredicate(permission, actions))),
+              SQLExpressions.select(resource.resourceId)
+                  .from(resource)
+                  .where(resource.resourceId.eq(systemResourceId)),
+              SQLExpressions.select(permissionInheritance.childResourceId)
+                  .from(permissionInheritance)
+                  .innerJoin(subject)
+                  .on(permissionInheritance.parentResourceId.eq(subjectResourceId))))
+          .select(subjectResourceId)
+          .from(subject)
+          .where(subjectResourceId.gt(lastAuthorizedResourceId))
+          .orderBy(subjectResourceId.asc())
+          .limit(reverseLookupPageSize)
+          .fetch();
+      metricsListener.databaseOperationCompleted(DatabaseOperation.READ_AUTHORIZED_RESOURCES,
+          System.nanoTime() - startNanos);
+      return AuthorizationImpl.convertCollectionToLongArray(result);
     });
   }
 
   private long[] readParentResourceIdsFromDatabase(final long resourceId) {
     return querydslSupport.execute((connection, configuration) -> {
       QPermissionInheritance permissioninheritance = QPermissionInheritance.permissionInheritance;
+      long startNanos = System.nanoTime();
       List<Long> result = new SQLQuery<Long>(connection, configuration)
           .select(permissioninheritance.parentResourceId)
           .from(permissioninheritance)
           .where(permissioninheritance.childResourceId.eq(resourceId))
           .fetch();
+      metricsListener.databaseOperationCompleted(DatabaseOperation.READ_PARENTS,
+          System.nanoTime() - startNanos);
       return AuthorizationImpl.convertCollectionToLongArray(result);
     });
   }
 
-  private boolean readPermissionFromDatabase(final long authorizedResourceId,
-      final long targetResourceId,
-      final String action) {
+  /**
+   * Reads the permissions of one chunk of the authorized resources on one chunk of the target
+   * resources into the passed map.
+   *
+   * @see #readPermittedActionsFromDatabase(Collection, Collection, Collection)
+   */
+  private void readPermittedActionChunkFromDatabase(final List<Long> authorizedResourceIdChunk,
+      final List<Long> targetResourceIdChunk, final Collection<String> actions,
+      final Map<Long, Map<Long, Set<String>>> permittedActions) {
+    querydslSupport.execute((connection, configuration) -> {
+      QPermission permission = QPermission.permission;
+      BooleanExpression authorizedResourceIdPredicate = (authorizedResourceIdChunk.size() == 1)
+          ? permission.authorizedResourceId.eq(authorizedResourceIdChunk.get(0))
+          : permission.authorizedResourceId.in(authorizedResourceIdChunk);
+      BooleanExpression targetResourceIdPredicate = (targetResourceIdChunk.size() == 1)
+          ? permission.targetResourceId.eq(targetResourceIdChunk.get(0))
+          : permission.targetResourceId.in(targetResourceIdChunk);
+      BooleanExpression predicate = targetResourceIdPredicate.and(authorizedResourceIdPredicate);
+      if (actions != null) {
+        predicate = predicate.and(permission.action.in(actions));
+      }
+
+      long startNanos = System.nanoTime();
+      List<Tuple> result = new SQLQuery<Tuple>(connection, configuration)
+          .select(permission.targetResourceId, permission.authorizedResourceId,
+              permission.action)
+          .from(permission)
+          .where(predicate)
+          .fetch();
+      metricsListener.databaseOperationCompleted(DatabaseOperation.READ_PERMISSIONS,
+          System.nanoTime() - startNanos);
+
+      for (Tuple tuple : result) {
+        permittedActions
+            .computeIfAbsent(tuple.get(permission.targetResourceId), key -> new HashMap<>())
+            .computeIfAbsent(tuple.get(permission.authorizedResourceId), key -> new HashSet<>())
+            .add(tuple.get(permission.action));
+      }
+      return null;
+    });
+  }
+
+  /**
+   * Reads the permissions of the authorized resources on the target resources. The authorized and
+   * the target resources are split into chunks, so the IN lists of the queries do not exceed
+   * {@value #MAX_IN_LIST_SIZE} elements.
+   *
+   * @param actions
+   *          the actions to read or <code>null</code> if all actions should be read.
+   * @return the permitted actions grouped by target resource id and authorized resource id.
+   */
+  private Map<Long, Map<Long, Set<String>>> readPermittedActionsFromDatabase(
+      final Collection<Long> authorizedResourceIds, final Collection<Long> targetResourceIds,
+      final Collection<String> actions) {
+
+    Map<Long, Map<Long, Set<String>>> permittedActions = new HashMap<>();
+    List<Long> authorizedResourceIdList = new ArrayList<>(authorizedResourceIds);
+    List<Long> targetResourceIdList = new ArrayList<>(targetResourceIds);
+
+    for (int authorizedFromIndex = 0, m = authorizedResourceIdList.size();
+        authorizedFromIndex < m; authorizedFromIndex += MAX_IN_LIST_SIZE) {
+      List<Long> authorizedResourceIdChunk = authorizedResourceIdList.subList(
+          authorizedFromIndex, Math.min(m, authorizedFromIndex + MAX_IN_LIST_SIZE));
+
+      for (int targetFromIndex = 0, n = targetResourceIdList.size(); targetFromIndex < n;
+          targetFromIndex += MAX_IN_LIST_SIZE) {
+        List<Long> targetResourceIdChunk = targetResourceIdList.subList(targetFromIndex,
+            Math.min(n, targetFromIndex + MAX_IN_LIST_SIZE));
+
+        readPermittedActionChunkFromDatabase(authorizedResourceIdChunk, targetResourceIdChunk,
+            actions, permittedActions);
+      }
+    }
+    return permittedActions;
+  }
+
+  /**
+   * Reads the next page of the target resources that the authorization scope is permitted on.
+   *
+   * @see #findPermittedTargets(long, String...)
+   */
+  private long[] readPermittedTargetPageFromDatabase(final long authorizedResourceId,
+      final long[] authorizationScope, final long lastTargetResourceId, final String... actions) {
     return querydslSupport.execute((connection, configuration) -> {
       QPermission permission = QPermission.permission;
-      long count = new SQLQuery<Boolean>(connection, configuration)
+
+      long startNanos = System.nanoTime();
+      List<Long> result = new SQLQuery<Void>(connection, configuration)
+          .select(permission.targetResourceId)
+          .distinct()
           .from(permission)
-          .where(permission.authorizedResourceId.eq(authorizedResourceId)
-              .and(permission.targetResourceId.eq(targetResourceId))
-              .and(permission.action.eq(action)))
-          .fetchCount();
-      return count > 0;
+          .where(createAuthorizedResourceIdPredicate(permission, authorizedResourceId,
+              authorizationScope)
+                  .and(createActionPredicate(permission, actions))
+                  .and(permission.targetResourceId.gt(lastTargetResourceId)))
+          .orderBy(permission.targetResourceId.asc())
+          .limit(reverseLookupPageSize)
+          .fetch();
+      metricsListener.databaseOperationCompleted(DatabaseOperation.READ_PERMITTED_TARGETS,
+          System.nanoTime() - startNanos);
+      return AuthorizationImpl.convertCollectionToLongArray(result);
     });
   }
 
+  /**
+   * Reads the next page of all resources for the reverse lookups of the system resource.
+   */
+  private long[] readResourcePageFromDatabase(final long lastResourceId) {
+    return querydslSupport.execute((connection, configuration) -> {
+      QResource resource = QResource.resource;
+
+      long startNanos = System.nanoTime();
+      List<Long> result = new SQLQuery<Void>(connection, configuration)
+          .select(resource.resourceId)
+          .from(resource)
+          .where(resource.resourceId.gt(lastResourceId))
+          .orderBy(resource.resourceId.asc())
+          .limit(reverseLookupPageSize)
+          .fetch();
+      metricsListener.databaseOperationCompleted(DatabaseOperation.READ_RESOURCES,
+          System.nanoTime() - startNanos);
+      return AuthorizationImpl.convertCollectionToLongArray(result);
+    });
+  }
+
+  /**
+   * Throws an exception if any of the inheritance records would make a resource its own ancestor,
+   * taking the earlier records of the same collection into account. The caller must hold the lock
+   * of the system resource, so the concurrent additions of inheritance records wait for this
+   * transaction and the ancestors can be read without locking them.
+   *
+   * @throws IllegalArgumentException
+   *           if a cycle would be created.
+   */
+  private void rejectInheritanceCycles(final Connection connection,
+      final Configuration configuration,
+      final Collection<PermissionInheritanceRecord> permissionInheritances) {
+    Set<Long> parentResourceIds = new TreeSet<>();
+    for (PermissionInheritanceRecord record : permissionInheritances) {
+      parentResourceIds.add(record.getParentResourceId());
+    }
+
+    Map<Long, Set<Long>> parentResourceIdsByChild =
+        readAncestorInheritancesFromDatabase(connection, configuration, parentResourceIds);
+
+    for (PermissionInheritanceRecord record : permissionInheritances) {
+      long parentResourceId = record.getParentResourceId();
+      long childResourceId = record.getChildResourceId();
+      if (AuthorizationImpl.isAncestor(childResourceId, parentResourceId,
+          parentResourceIdsByChild)) {
+        throw new IllegalArgumentException("Permission inheritance from " + parentResourceId
+            + " to " + childResourceId + " would create a cycle");
+      }
+      parentResourceIdsByChild.computeIfAbsent(childResourceId, key -> new HashSet<>())
+          .add(parentResourceId);
+    }
+  }
+
   @Override
   public void removePermission(final long authorizedResourceId, final long targetResourceId,
       final String action) {
     Objects.requireNonNull(action);
 
-    transactionPropagator.required(() -> querydslSupport.execute((connection, configuration) -> {
-      lockOnResource(connection, configuration, authorizedResourceId);
-      QPermission permission = QPermission.permission;
-      SQLDeleteClause sql = new SQLDeleteClause(connection, configuration, permission);
-
-      sql.where(
-          permission.authorizedResourceId.eq(authorizedResourceId)
-              .and(permission.targetResourceId.eq(targetResourceId))
-              .and(permission.action.eq(action)))
-          .execute();
-
-      String permissionKey = generatePermissionKey(authorizedResourceId, targetResourceId, action);
-      permissionCache.put(permissionKey, false);
-      return null;
-    }));
+    removePermissions(Collections.singletonList(
+        new PermissionRecord(authorizedResourceId, targetResourceId, action)));
   }
 
   @Override
   public void removePermissionInheritance(final long parentResourceId, final long childResourceId) {
-    transactionPropagator.required(() -> querydslSupport.execute((connection, configuration) -> {
-      lockOnResource(connection, configuration, childResourceId);
+    removePermissionInheritances(Collections.singletonList(
+        new PermissionInheritanceRecord(parentResourceId, childResourceId)));
+  }
+
+  /**
+   * Removes many permission inheritance records in one transaction. The child resources are locked
+   * once each in ascending id order, the records are deleted with one JDBC batch and the caches are
+   * invalidated in one pass.
+   *
+   * @param permissionInheritances
+   *          the records to remove.
+   * @throws NullPointerException
+   *           if the parameter or any of its elements is <code>null</code>.
+   * @throws IllegalStateException
+   *           if it is called within an enclosing transaction without a
+   *           {@link TransactionSynchronizer}.
+   */
+  public void removePermissionInheritances(
+      final Collection<PermissionInheritanceRecord> permissionInheritances) {
+    Objects.requireNonNull(permissionInheritances,
+        "Parameter permissionInheritances must not be null");
+    if (permissionInheritances.isEmpty()) {
+      return;
+    }
+
+    Set<Long> childResourceIds = new TreeSet<>();
+    for (PermissionInheritanceRecord record : permissionInheritances) {
+      childResourceIds.add(record.getChildResourceId());
+    }
+
+    modify(() -> querydslSupport.execute((connection, configuration) -> {
+      lockOnResources(connection, configuration, childResourceIds);
 
       QPermissionInheritance permissioninheritance = QPermissionInheritance.permissionInheritance;
       SQLDeleteClause sql = new SQLDeleteClause(connection, configuration, permissioninheritance);
+      for (PermissionInheritanceRecord record : permissionInheritances) {
+        sql.where(
+            permissioninheritance.parentResourceId.eq(record.getParentResourceId())
+                .and(permissioninheritance.childResourceId.eq(record.getChildResourceId())))
+            .addBatch();
+      }
+      long startNanos = System.nanoTime();
+      sql.execute();
+      metricsListener.databaseOperationCompleted(DatabaseOperation.DELETE,
+          System.nanoTime() - startNanos);
 
-      sql.where(
-          permissioninheritance.parentResourceId.eq(parentResourceId)
-              .and(permissioninheritance.childResourceId.eq(childResourceId)))
-          .execute();
+      evictPermissionInheritances(childResourceIds);
+      return null;
+    }), null, Collections.emptyList(), permissionInheritances);
+  }
 
-      permissionInheritanceCache.remove(childResourceId);
+  /**
+   * Removes many permissions in one transaction. The authorized resources are locked once each in
+   * ascending id order, the permissions are deleted with one JDBC batch and the cache is updated
+   * in one pass.
+   *
+   * @param permissions
+   *          the permissions to remove.
+   * @throws NullPointerException
+   *           if the parameter or any of its elements is <code>null</code>.
+   * @throws IllegalStateException
+   *           if it is called within an enclosing transaction without a
+   *           {@link TransactionSynchronizer}.
+   */
+  public void removePermissions(final Collection<PermissionRecord> permissions) {
+    Objects.requireNonNull(permissions, "Parameter permissions must not be null");
+    if (permissions.isEmpty()) {
+      return;
+    }
+
+    Set<Long> authorizedResourceIds = new TreeSet<>();
+    for (PermissionRecord permission : permissions) {
+      authorizedResourceIds.add(permission.getAuthorizedResourceId());
+    }
+
+    modify(() -> querydslSupport.execute((connection, configuration) -> {
+      lockOnResources(connection, configuration, authorizedResourceIds);
+
+      QPermission permission = QPermission.permission;
+      SQLDeleteClause sql = new SQLDeleteClause(connection, configuration, permission);
+      for (PermissionRecord record : permissions) {
+        sql.where(
+            permission.authorizedResourceId.eq(record.getAuthorizedResourceId())
+                .and(permission.targetResourceId.eq(record.getTargetResourceId()))
+                .and(permission.action.eq(record.getAction())))
+            .addBatch();
+      }
+      long startNanos = System.nanoTime();
+      sql.execute();
+      metricsListener.databaseOperationCompleted(DatabaseOperation.DELETE,
+          System.nanoTime() - startNanos);
+
+      evictPermissions(permissions);
       return null;
-    }));
+    }), () -> {
+      for (PermissionRecord record : permissions) {
+        permissionCache.put(record.getAuthorizedResourceId(), record.getTargetResourceId(),
+            record.getAction(), false);
+      }
+    }, permissions, Collections.emptyList());
   }
 
-  private void validateActionsParameter(final String... actions) {
-    Objects.requireNonNull(actions, "Parameter actions must not be null");
-    if (actions.length == 0) {
-      throw new IllegalArgumentException("Action collection must contain at least one value");
+  /**
+   * Returns the transitive authorization scope of the resource from the cache or calculates it if
+   * it is not cached yet. The returned array must not be modified.
+   */
+  private long[] resolveAuthorizationScope(final long resourceId) {
+    long[] authorizationScope = authorizationScopeCache.get(resourceId);
+    if (authorizationScope != null) {
+      metricsListener.cacheHit(CacheType.AUTHORIZATION_SCOPE);
+      return authorizationScope;
     }
-    for (String action : actions) {
-      Objects.requireNonNull(action,
-          "Null action was passed in actions parameter: " + Arrays.toString(actions));
+    metricsListener.cacheMiss(CacheType.AUTHORIZATION_SCOPE);
+
+    // The scope depends only on the parents of its members, so only their stripes are validated
+    long[] stamps = permissionInheritanceModificationGuard.startReadAll();
+    long stamp = CacheModificationGuard.stampOf(stamps, CacheModificationGuard.ALL_STRIPES);
+    return authorizationScopeLoads.load(resourceId, stamp, () -> {
+      Set<Long> authorizationScopeSet = new LinkedHashSet<Long>();
+      authorizationScopeSet.add(resourceId);
+      addAncestorsToScope(resourceId, authorizationScopeSet);
+
+      long[] loadedAuthorizationScope =
+          AuthorizationImpl.convertCollectionToLongArray(authorizationScopeSet);
+      metricsListener.authorizationScopeResolved(loadedAuthorizationScope.length);
+      long stripes = CacheModificationGuard.stripesOf(loadedAuthorizationScope);
+      permissionInheritanceModificationGuard.cacheIfValid(authorizationScopeCache, resourceId,
+          loadedAuthorizationScope, stripes, CacheModificationGuard.stampOf(stamps, stripes));
+      return loadedAuthorizationScope;
+    });
+  }
+
+  /**
+   * Resolves all (scope member, target, action) combinations that are missing from the permission
+   * cache with as few database queries as possible and stores the result of every combination in
+   * the cache, including the negative ones. If the permission cache is an
+   * {@link ActionSetPermissionCache}, all actions of the missing (scope member, target) pairs are
+   * read and cached, not only the requested ones. The database rows are not locked, the result is
+   * cached only if no modification happened since the stamp was taken.
+   *
+   * @return the ids of the target resources that are permitted.
+   */
+  private Set<Long> resolvePermissionCacheMisses(final long[] authorizationScope,
+      final Collection<Long> targetResourceIds, final long stripes, final long stamp,
+      final String... actions) {
+
+    Set<Long> permittedTargetResourceIds = new HashSet<>();
+    Set<Long> missingResourceIds = new LinkedHashSet<>();
+    Set<Long> missingTargetResourceIds = new LinkedHashSet<>();
+    Set<String> missingActions = new LinkedHashSet<>();
+
+    for (Long targetResourceId : targetResourceIds) {
+      Boolean cachedPermission = findCachedPermission(authorizationScope, targetResourceId,
+          actions);
+      if (cachedPermission == null) {
+        missingTargetResourceIds.add(targetResourceId);
+        for (long resourceIdFromScope : authorizationScope) {
+          if (actionSetPermissionCache != null) {
+            if (actionSetPermissionCache.getAny(resourceIdFromScope, targetResourceId,
+                actions) == null) {
+              missingResourceIds.add(resourceIdFromScope);
+            }
+            continue;
+          }
+          for (String action : actions) {
+            if (permissionCache.get(resourceIdFromScope, targetResourceId, action) == null) {
+              missingResourceIds.add(resourceIdFromScope);
+              missingActions.add(action);
+            }
+          }
+        }
+      } else if (cachedPermission) {
+        permittedTargetResourceIds.add(targetResourceId);
+      }
     }
+
+    if (missingTargetResourceIds.isEmpty()) {
+      return permittedTargetResourceIds;
+    }
+
+    Map<Long, Map<Long, Set<String>>> permittedActions = readPermittedActionsFromDatabase(
+        missingResourceIds, missingTargetResourceIds,
+        (actionSetPermissionCache != null) ? null : missingActions);
+
+    for (Long targetResourceId : missingTargetResourceIds) {
+      Map<Long, Set<String>> permittedActionsOnTarget =
+          permittedActions.getOrDefault(targetResourceId, Collections.emptyMap());
+
+      for (Long resourceId : missingResourceIds) {
+        Set<String> permittedActionsOfResource =
+            permittedActionsOnTarget.getOrDefault(resourceId, Collections.emptySet());
+
+        if (actionSetPermissionCache != null) {
+          permissionModificationGuard.cacheIfValid(actionSetPermissionCache, resourceId,
+              targetResourceId, permittedActionsOfResource, stripes, stamp);
+          for (String action : actions) {
+            if (permittedActionsOfResource.contains(action)) {
+              permittedTargetResourceIds.add(targetResourceId);
+            }
+          }
+          continue;
+        }
+
+        for (String action : missingActions) {
+          boolean tmpHasPermission = permittedActionsOfResource.contains(action);
+          permissionModificationGuard.cacheIfValid(permissionCache, resourceId,
+              targetResourceId, action, tmpHasPermission, stripes, stamp);
+          if (tmpHasPermission) {
+            permittedTargetResourceIds.add(targetResourceId);
+          }
+        }
+      }
+    }
+    return permittedTargetResourceIds;
   }
 
+  /**
+   * Streams the whole permission table into the permission cache if it is not larger than the
+   * configured maximum.
+   */
+  private long warmUpAllPermissions(final CacheWarmUpConfiguration warmUpConfiguration,
+      final BooleanSupplier cancelled) {
+    CacheWarmUpListener listener = warmUpConfiguration.getListener();
+    long[] stamps = permissionModificationGuard.startReadAll();
+    QPermission permission = QPermission.permission;
+
+    long permissionCount = transactionPropagator.required(() -> querydslSupport.execute(
+        (connection, configuration) -> new SQLQuery<Long>(connection, configuration)
+            .select(permission.count())
+            .from(permission)
+            .fetchOne()));
+    if (permissionCount > warmUpConfiguration.getMaximumPermissionCount()) {
+      listener.phaseCompleted(Phase.ALL_PERMISSIONS, 0, false);
+      return 0;
+    }
+
+    long loadedRecordCount =
+        warmUpPermissions(null, warmUpConfiguration, Phase.ALL_PERMISSIONS, 0, stamps, cancelled);
+    listener.phaseCompleted(Phase.ALL_PERMISSIONS, loadedRecordCount,
+        permissionModificationGuard.isValid(stamps));
+    return loadedRecordCount;
+  }
+
+  /**
+   * Streams the permissions of the authorization scopes of the configured resources into the
+   * permission cache.
+   */
+  private long warmUpAuthorizedResourcePermissions(
+      final CacheWarmUpConfiguration warmUpConfiguration, final BooleanSupplier cancelled) {
+    CacheWarmUpListener listener = warmUpConfiguration.getListener();
+    long[] stamps = permissionModificationGuard.startReadAll();
+    long loadedRecordCount = 0;
+
+    for (Long authorizedResourceId : warmUpConfiguration.getAuthorizedResourceIds()) {
+      AuthorizationImpl.throwIfWarmUpCancelled(cancelled);
+      List<Long> authorizationScope = new ArrayList<>();
+      for (long resourceIdFromScope : resolveAuthorizationScope(authorizedResourceId)) {
+        authorizationScope.add(resourceIdFromScope);
+      }
+
+      for (int fromIndex = 0, n = authorizationScope.size(); fromIndex < n;
+          fromIndex += MAX_IN_LIST_SIZE) {
+        List<Long> authorizationScopeChunk =
+            authorizationScope.subList(fromIndex, Math.min(n, fromIndex + MAX_IN_LIST_SIZE));
+        loadedRecordCount += warmUpPermissions(
+            QPermission.permission.authorizedResourceId.in(authorizationScopeChunk),
+            warmUpConfiguration, Phase.AUTHORIZED_RESOURCE_PERMISSIONS, loadedRecordCount, stamps,
+            cancelled);
+      }
+    }
+
+    listener.phaseCompleted(Phase.AUTHORIZED_RESOURCE_PERMISSIONS, loadedRecordCount,
+        permissionModificationGuard.isValid(stamps));
+    return loadedRecordCount;
+  }
+
+  /**
+   * Loads the permission inheritance records and a part of the permissions into the caches in the
+   * background, so the first permission checks after a restart do not have to wait for the
+   * database. The records are streamed with the configured fetch size. The permissions are cached
+   * only as permitted; the combinations that are not permitted are cached on demand.
+   *
+   * <p>
+   * The records of the keys that are modified during the warm-up are not cached, because they
+   * might be stale. The caches are filled on demand anyway. If the returned future is cancelled,
+   * the warm-up stops after the current batch of records.
+   *
+   * @param warmUpConfiguration
+   *          the settings of the warm-up.
+   * @return a future that is completed with the number of records that were read from the
+   *         database.
+   * @throws NullPointerException
+   *           if the parameter is <code>null</code>.
+   */
+  public CompletableFuture<Long> warmUpCaches(final CacheWarmUpConfiguration warmUpConfiguration) {
+    Objects.requireNonNull(warmUpConfiguration, "warmUpConfiguration cannot be null");
+    CacheWarmUpListener listener = warmUpConfiguration.getListener();
+
+    CompletableFuture<Long> result = new CompletableFuture<>();
+    BooleanSupplier cancelled = result::isCancelled;
+    try {
+      warmUpConfiguration.getExecutor().execute(() -> {
+        if (result.isDone()) {
+          return;
+        }
+        try {
+          long loadedRecordCount = 0;
+          if (warmUpConfiguration.isPermissionInheritances()) {
+            loadedRecordCount += warmUpPermissionInheritances(warmUpConfiguration, cancelled);
+          }
+          if (warmUpConfiguration.getMaximumPermissionCount() > 0) {
+            loadedRecordCount += warmUpAllPermissions(warmUpConfiguration, cancelled);
+          }
+          if (!warmUpConfiguration.getAuthorizedResourceIds().isEmpty()) {
+            loadedRecordCount +=
+                warmUpAuthorizedResourcePermissions(warmUpConfiguration, cancelled);
+          }
+          result.complete(loadedRecordCount);
+        } catch (RuntimeException | Error e) {
+          result.completeExceptionally(e);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      result.completeExceptionally(e);
+    }
+
+    result.whenComplete((loadedRecordCount, cause) -> {
+      if (cause != null) {
+        listener.warmUpFailed(cause);
+      }
+    });
+    return result;
+  }
+
+  /**
+   * Streams the whole permission inheritance table ordered by the child resource ids, so the
+   * parents of a child can be cached as soon as the next child is reached.
+   */
+  private long warmUpPermissionInheritances(final CacheWarmUpConfiguration warmUpConfiguration,
+      final BooleanSupplier cancelled) {
+    CacheWarmUpListener listener = warmUpConfiguration.getListener();
+    int fetchSize = warmUpConfiguration.getFetchSize();
+    long[] stamps = permissionInheritanceModificationGuard.startReadAll();
+
+    long loadedRecordCount = transactionPropagator.required(() -> querydslSupport.execute(
+        (connection, configuration) -> {
+          QPermissionInheritance permissionInheritance =
+              QPermissionInheritance.permissionInheritance;
+          SQLQuery<Tuple> query = new SQLQuery<Void>(connection, configuration)
+              .select(permissionInheritance.childResourceId,
+                  permissionInheritance.parentResourceId)
+              .from(permissionInheritance)
+              .orderBy(permissionInheritance.childResourceId.asc());
+          query.setStatementOptions(StatementOptions.builder().setFetchSize(fetchSize).build());
+
+          long count = 0;
+          Long currentChildResourceId = null;
+          List<Long> parentResourceIds = new ArrayList<>();
+          try (CloseableIterator<Tuple> iterator = query.iterate()) {
+            while (iterator.hasNext()) {
+              Tuple tuple = iterator.next();
+              Long childResourceId = tuple.get(permissionInheritance.childResourceId);
+              if (!childResourceId.equals(currentChildResourceId)) {
+                if (currentChildResourceId != null) {
+                  cacheWarmedUpParentResourceIds(currentChildResourceId, parentResourceIds,
+                      stamps);
+                }
+                currentChildResourceId = childResourceId;
+                parentResourceIds.clear();
+              }
+              parentResourceIds.add(tuple.get(permissionInheritance.parentResourceId));
+
+              count++;
+              if ((count % fetchSize) == 0) {
+                listener.progress(Phase.PERMISSION_INHERITANCES, count);
+                AuthorizationImpl.throwIfWarmUpCancelled(cancelled);
+              }
+            }
+            if (currentChildResourceId != null) {
+              cacheWarmedUpParentResourceIds(currentChildResourceId, parentResourceIds, stamps);
+            }
+          }
+          return count;
+        }));
+
+    listener.phaseCompleted(Phase.PERMISSION_INHERITANCES, loadedRecordCount,
+        permissionInheritanceModificationGuard.isValid(stamps));
+    return loadedRecordCount;
+  }
+
+  /**
+   * Streams the permissions that match the predicate into the permission cache as permitted.
+   *
+   * @param predicate
+   *          the condition of the permission records or <code>null</code> to read all of them.
+   * @param previousRecordCount
+   *          the number of records that were read before in the same phase.
+   * @return the number of records that were read.
+   */
+  private long warmUpPermissions(final BooleanExpression predicate,
+      final CacheWarmUpConfiguration warmUpConfiguration, final Phase phase,
+      final long previousRecordCount, final long[] stamps, final BooleanSupplier cancelled) {
+    CacheWarmUpListener listener = warmUpConfiguration.getListener();
+    int fetchSize = warmUpConfiguration.getFetchSize();
+    QPermission permission = QPermission.permission;
+
+    return transactionPropagator.required(() -> querydslSupport.execute(
+        (connection, configuration) -> {
+          SQLQuery<Tuple> query = new SQLQuery<Void>(connection, configuration)
+              .select(permission.authorizedResourceId, permission.targetResourceId,
+                  permission.action)
+              .from(permission);
+          if (predicate != null) {
+            query.where(predicate);
+          }
+          if (actionSetPermissionCache != null) {
+            // All actions of a pair must be read before the pair is cached
+            query.orderBy(permission.authorizedResourceId.asc(),
+                permission.targetResourceId.asc());
+          }
+          query.setStatementOptions(StatementOptions.builder().setFetchSize(fetchSize).build());
+
+          long count = 0;
+          long pairAuthorizedResourceId = 0;
+          long pairTargetResourceId = 0;
+          List<String> pairActions = new ArrayList<>();
+          try (CloseableIterator<Tuple> iterator = query.iterate()) {
+            while (iterator.hasNext()) {
+              Tuple tuple = iterator.next();
+              long authorizedResourceId = tuple.get(permission.authorizedResourceId);
+              long targetResourceId = tuple.get(permission.targetResourceId);
+              String action = tuple.get(permission.action);
+              if (actionSetPermissionCache == null) {
+                long stripes = CacheModificationGuard.stripeOf(authorizedResourceId);
+                permissionModificationGuard.cacheIfValid(permissionCache, authorizedResourceId,
+                    targetResourceId, action, true, stripes,
+                    CacheModificationGuard.stampOf(stamps, stripes));
+              } else {
+                if (!pairActions.isEmpty() && ((authorizedResourceId != pairAuthorizedResourceId)
+                    || (targetResourceId != pairTargetResourceId))) {
+                  cacheWarmedUpActions(pairAuthorizedResourceId, pairTargetResourceId,
+                      pairActions, stamps);
+                  pairActions.clear();
+                }
+                pairAuthorizedResourceId = authorizedResourceId;
+                pairTargetResourceId = targetResourceId;
+                pairActions.add(action);
+              }
+
+              count++;
+              if ((count % fetchSize) == 0) {
+                listener.progress(phase, previousRecordCount + count);
+                AuthorizationImpl.throwIfWarmUpCancelled(cancelled);
+              }
+            }
+          }
+          if (!pairActions.isEmpty()) {
+            cacheWarmedUpActions(pairAuthorizedResourceId, pairTargetResourceId, pairActions,
+                stamps);
+          }
+          return count;
+        }));
+  }
 }
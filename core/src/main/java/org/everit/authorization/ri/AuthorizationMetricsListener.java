@@ -0,0 +1,138 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri;
+
+/**
+ * Receives the events of {@link AuthorizationImpl} that are necessary to observe the efficiency of
+ * the caches and the database access. The methods are called on the hot path by many threads at
+ * the same time, so the implementations must be thread-safe, fast and must not throw exceptions.
+ */
+public interface AuthorizationMetricsListener {
+
+  /**
+   * The caches of the component.
+   */
+  enum CacheType {
+
+    /**
+     * The transitive authorization scopes of the resources.
+     */
+    AUTHORIZATION_SCOPE,
+
+    /**
+     * The permissions. One lookup is one permission check of a target resource that is answered
+     * from the cache for the whole authorization scope, or that needs the database.
+     */
+    PERMISSION,
+
+    /**
+     * The parents of the resources.
+     */
+    PERMISSION_INHERITANCE
+  }
+
+  /**
+   * The database operations of the component.
+   */
+  enum DatabaseOperation {
+
+    /**
+     * Deleting permission or permission inheritance records.
+     */
+    DELETE,
+
+    /**
+     * Inserting permission or permission inheritance records.
+     */
+    INSERT,
+
+    /**
+     * Locking the resource rows before a modification. The duration includes the time spent on
+     * waiting for the locks of concurrent transactions.
+     */
+    LOCK_RESOURCES,
+
+    /**
+     * Reading the ancestors of a resource with one recursive query.
+     */
+    READ_ANCESTORS,
+
+    /**
+     * Reading the resources that are permitted on a target resource with one recursive query.
+     */
+    READ_AUTHORIZED_RESOURCES,
+
+    /**
+     * Reading the parents of one resource, or of one level of ancestors when the inheritance
+     * cycles are rejected.
+     */
+    READ_PARENTS,
+
+    /**
+     * Reading the permissions of an authorization scope on target resources.
+     */
+    READ_PERMISSIONS,
+
+    /**
+     * Reading one page of the target resources that an authorization scope is permitted on.
+     */
+    READ_PERMITTED_TARGETS,
+
+    /**
+     * Reading one page of all resources for the reverse lookups of the system resource.
+     */
+    READ_RESOURCES
+  }
+
+  /**
+   * Called when an authorization scope that was missing from the cache is calculated.
+   *
+   * @param size
+   *          the number of resources in the scope, including the authorized resource.
+   */
+  void authorizationScopeResolved(int size);
+
+  /**
+   * Called when all caches are cleared.
+   */
+  void cacheCleared();
+
+  /**
+   * Called when a value is found in a cache.
+   */
+  void cacheHit(CacheType cache);
+
+  /**
+   * Called when a modification removes or overrides cached values.
+   *
+   * @param count
+   *          the number of affected keys.
+   */
+  void cacheInvalidated(CacheType cache, int count);
+
+  /**
+   * Called when a value is not found in a cache.
+   */
+  void cacheMiss(CacheType cache);
+
+  /**
+   * Called when a database operation finished successfully.
+   *
+   * @param durationNanos
+   *          the duration of the operation in nanoseconds.
+   */
+  void databaseOperationCompleted(DatabaseOperation operation, long durationNanos);
+}
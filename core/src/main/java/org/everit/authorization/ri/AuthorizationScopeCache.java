@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri;
+
+import java.util.Arrays;
+
+/**
+ * The transitive authorization scopes of the resources with a reverse index from every member of a
+ * scope to the resources whose scope contains it, so the scopes that contain a resource can be
+ * invalidated without visiting every cached scope.
+ *
+ * <p>
+ * The reverse index is bounded by the same configuration as the scopes. If an entry of the reverse
+ * index is evicted, the scopes that it refers to are evicted as well, so a cached scope is always
+ * reachable from all of its members. The reverse index may refer to scopes that are no longer
+ * cached; these references are dropped when the entry of the member grows.
+ */
+final class AuthorizationScopeCache {
+
+  /**
+   * The resource ids whose scope contains a member. The array is modified only while the segment
+   * of the member is locked and only until the entry is removed from the reverse index.
+   */
+  private static final class ScopeKeys {
+
+    long[] keys = new long[INITIAL_SCOPE_KEYS_CAPACITY];
+
+    int size;
+  }
+
+  private static final int INITIAL_SCOPE_KEYS_CAPACITY = 4;
+
+  private final ConcurrentLongObjectMap<ScopeKeys> scopeKeysByMember;
+
+  private final ConcurrentLongObjectMap<long[]> scopes;
+
+  /**
+   * Constructor.
+   *
+   * @param cacheConfiguration
+   *          the maximum size and the expiration of the scopes and of the reverse index.
+   */
+  AuthorizationScopeCache(final CacheConfiguration cacheConfiguration) {
+    scopes = new ConcurrentLongObjectMap<>(cacheConfiguration);
+    scopeKeysByMember = new ConcurrentLongObjectMap<>(cacheConfiguration,
+        (memberId, scopeKeys) -> {
+          for (int i = 0; i < scopeKeys.size; i++) {
+            scopes.remove(scopeKeys.keys[i]);
+          }
+        });
+  }
+
+  private void addScopeKey(final long memberId, final long resourceId) {
+    scopeKeysByMember.compute(memberId, currentScopeKeys -> {
+      ScopeKeys scopeKeys = (currentScopeKeys != null) ? currentScopeKeys : new ScopeKeys();
+      if (scopeKeys.size == scopeKeys.keys.length) {
+        removeUncachedScopeKeys(scopeKeys);
+        if (scopeKeys.size > (scopeKeys.keys.length >>> 1)) {
+          scopeKeys.keys = Arrays.copyOf(scopeKeys.keys, scopeKeys.keys.length << 1);
+        }
+      }
+      scopeKeys.keys[scopeKeys.size++] = resourceId;
+      return scopeKeys;
+    });
+  }
+
+  public void clear() {
+    scopeKeysByMember.clear();
+    scopes.clear();
+  }
+
+  /**
+   * Returns the cached scope of the resource or <code>null</code>.
+   */
+  public long[] get(final long resourceId) {
+    return scopes.get(resourceId);
+  }
+
+  /**
+   * Removes the scopes that contain any of the resources.
+   *
+   * @return the number of removed scopes.
+   */
+  public int invalidate(final long[] resourceIds) {
+    int invalidatedCount = 0;
+    for (long resourceId : resourceIds) {
+      ScopeKeys scopeKeys = scopeKeysByMember.remove(resourceId);
+      if (scopeKeys != null) {
+        for (int i = 0; i < scopeKeys.size; i++) {
+          if (scopes.remove(scopeKeys.keys[i]) != null) {
+            invalidatedCount++;
+          }
+        }
+      }
+    }
+    return invalidatedCount;
+  }
+
+  /**
+   * Stores the scope of the resource if no scope is cached for it yet. The scope is stored before
+   * it is added to the reverse index, so a concurrent invalidation that does not find it in the
+   * reverse index must be detected by the caller after this method returns.
+   *
+   * @param authorizationScope
+   *          the scope that contains the resource and all of its ancestors.
+   * @return whether the scope was stored.
+   */
+  public boolean putIfAbsent(final long resourceId, final long[] authorizationScope) {
+    if (scopes.putIfAbsent(resourceId, authorizationScope) != null) {
+      return false;
+    }
+    for (long memberId : authorizationScope) {
+      addScopeKey(memberId, resourceId);
+    }
+    return true;
+  }
+
+  /**
+   * Removes the scope of the resource if it is the same as the passed one.
+   */
+  public void remove(final long resourceId, final long[] authorizationScope) {
+    scopes.remove(resourceId, authorizationScope);
+  }
+
+  /**
+   * Drops the keys whose scope is no longer cached and the duplicates.
+   */
+  private void removeUncachedScopeKeys(final ScopeKeys scopeKeys) {
+    long[] keys = scopeKeys.keys;
+    Arrays.sort(keys, 0, scopeKeys.size);
+    int size = 0;
+    for (int i = 0; i < scopeKeys.size; i++) {
+      long key = keys[i];
+      if (((size == 0) || (keys[size - 1] != key)) && scopes.containsKey(key)) {
+        keys[size++] = key;
+      }
+    }
+    scopeKeys.size = size;
+  }
+
+  /**
+   * The number of cached scopes, including the expired ones that are not removed yet.
+   */
+  public int size() {
+    return scopes.size();
+  }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Size and expiration policy of the built-in caches. All limits are disabled by default. If a
+ * cache reaches its maximum size, it evicts entries that were not used recently.
+ */
+public class CacheConfiguration {
+
+  private static long requireNotNegative(final long value, final String name) {
+    if (value < 0) {
+      throw new IllegalArgumentException(name + " cannot be negative: " + value);
+    }
+    return value;
+  }
+
+  private long expireAfterWriteNanos;
+
+  private long maximumNegativeSize;
+
+  private long maximumSize;
+
+  /**
+   * Sets how long an entry can be used after it was stored in the cache.
+   *
+   * @param duration
+   *          the duration or zero if the entries never expire.
+   * @param unit
+   *          the unit of the duration.
+   * @return this instance.
+   */
+  public CacheConfiguration expireAfterWrite(final long duration, final TimeUnit unit) {
+    Objects.requireNonNull(unit, "unit cannot be null");
+    this.expireAfterWriteNanos = unit.toNanos(requireNotNegative(duration, "duration"));
+    return this;
+  }
+
+  public long getExpireAfterWriteNanos() {
+    return expireAfterWriteNanos;
+  }
+
+  public long getMaximumNegativeSize() {
+    return maximumNegativeSize;
+  }
+
+  public long getMaximumSize() {
+    return maximumSize;
+  }
+
+  /**
+   * Sets the maximum number of entries that store a missing permission. The limit is applied only
+   * by caches that distinguish negative entries, like {@link CompactPermissionCache}.
+   *
+   * @param maximumNegativeSize
+   *          the maximum number of negative entries or zero if only the maximum size applies.
+   * @return this instance.
+   */
+  public CacheConfiguration maximumNegativeSize(final long maximumNegativeSize) {
+    this.maximumNegativeSize = requireNotNegative(maximumNegativeSize, "maximumNegativeSize");
+    return this;
+  }
+
+  /**
+   * Sets the maximum number of entries in the cache.
+   *
+   * @param maximumSize
+   *          the maximum number of entries or zero if the cache is unbounded.
+   * @return this instance.
+   */
+  public CacheConfiguration maximumSize(final long maximumSize) {
+    this.maximumSize = requireNotNegative(maximumSize, "maximumSize");
+    return this;
+  }
+}
@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Describes the cache entries that became stale because of a modification on one node of a
+ * cluster. The other nodes evict only these entries instead of clearing their whole caches.
+ */
+public final class CacheInvalidationEvent implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * Creates an event that makes every node clear all of its caches.
+   *
+   * @param sourceNodeId
+   *          the id of the node that publishes the event.
+   * @return the event.
+   */
+  public static CacheInvalidationEvent clearAll(final String sourceNodeId) {
+    return new CacheInvalidationEvent(sourceNodeId, true, Collections.emptyList(),
+        Collections.emptyList());
+  }
+
+  private final boolean clearAll;
+
+  private final List<PermissionInheritanceRecord> permissionInheritances;
+
+  private final List<PermissionRecord> permissions;
+
+  private final String sourceNodeId;
+
+  /**
+   * Creates an event about added or removed records.
+   *
+   * @param sourceNodeId
+   *          the id of the node that publishes the event.
+   * @param permissions
+   *          the permissions that were added or removed.
+   * @param permissionInheritances
+   *          the permission inheritance records that were added or removed.
+   *
+   * @throws NullPointerException
+   *           if one of the parameters is <code>null</code>.
+   */
+  public CacheInvalidationEvent(final String sourceNodeId,
+      final Collection<PermissionRecord> permissions,
+      final Collection<PermissionInheritanceRecord> permissionInheritances) {
+    this(sourceNodeId, false, permissions, permissionInheritances);
+  }
+
+  private CacheInvalidationEvent(final String sourceNodeId, final boolean clearAll,
+      final Collection<PermissionRecord> permissions,
+      final Collection<PermissionInheritanceRecord> permissionInheritances) {
+    this.sourceNodeId = Objects.requireNonNull(sourceNodeId, "sourceNodeId cannot be null");
+    this.clearAll = clearAll;
+    this.permissions = Collections.unmodifiableList(
+        new ArrayList<>(Objects.requireNonNull(permissions, "permissions cannot be null")));
+    this.permissionInheritances = Collections.unmodifiableList(new ArrayList<>(
+        Objects.requireNonNull(permissionInheritances, "permissionInheritances cannot be null")));
+  }
+
+  /**
+   * The permission inheritance records that were added or removed. The authorization scope of the
+   * child resources and of all of their descendants are stale.
+   */
+  public List<PermissionInheritanceRecord> getPermissionInheritances() {
+    return permissionInheritances;
+  }
+
+  /**
+   * The permissions that were added or removed.
+   */
+  public List<PermissionRecord> getPermissions() {
+    return permissions;
+  }
+
+  public String getSourceNodeId() {
+    return sourceNodeId;
+  }
+
+  /**
+   * Whether all caches must be cleared.
+   */
+  public boolean isClearAll() {
+    return clearAll;
+  }
+
+  @Override
+  public String toString() {
+    return "CacheInvalidationEvent [sourceNodeId=" + sourceNodeId + ", clearAll=" + clearAll
+        + ", permissions=" + permissions + ", permissionInheritances=" + permissionInheritances
+        + "]";
+  }
+}
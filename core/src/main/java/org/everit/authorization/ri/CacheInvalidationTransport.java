@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri;
+
+import java.util.function.Consumer;
+
+/**
+ * Delivers {@link CacheInvalidationEvent}s between the nodes of a cluster, for example via a
+ * message broker or a distributed topic. An event that is published on a node must be delivered
+ * to the listeners of every node, including the publisher node itself; {@link AuthorizationImpl}
+ * ignores its own events.
+ *
+ * <p>
+ * The events are published only after the transaction of the modification committed, and the
+ * events of rolled back modifications are never published, so the methods must not throw
+ * exceptions. Delivery can be asynchronous; until an event arrives, the other nodes may serve the
+ * stale entries.
+ */
+public interface CacheInvalidationTransport {
+
+  /**
+   * Registers a listener that receives the events of all nodes.
+   */
+  void addListener(Consumer<CacheInvalidationEvent> listener);
+
+  /**
+   * Sends the event to the listeners of all nodes.
+   */
+  void publish(CacheInvalidationEvent event);
+
+  /**
+   * Unregisters a listener that was registered by {@link #addListener(Consumer)}.
+   */
+  void removeListener(Consumer<CacheInvalidationEvent> listener);
+}
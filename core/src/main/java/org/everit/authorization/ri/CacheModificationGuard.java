@@ -0,0 +1,293 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri;
+
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Keeps the caches consistent with concurrent modifications without locking the database rows on
+ * the read path. The keys of the cache entries are spread over stripes, and every modification
+ * increments the version numbers of the stripes that it touches when it starts and when it ends.
+ * A reader takes a stamp of the stripes that it reads before reading the database and stores the
+ * result into the cache only if no modification was running or started on those stripes in the
+ * meantime. A modification therefore disables caching only for the keys of its own stripes.
+ */
+final class CacheModificationGuard {
+
+  /**
+   * The stripes of a reader that depends on every key, or of a modification that touches all of
+   * them.
+   */
+  static final long ALL_STRIPES = -1L;
+
+  /**
+   * Stamp that is returned if a modification is running, so the read result must not be cached.
+   */
+  static final long NO_CACHING = -1;
+
+  private static final int STRIPE_BITS = 6;
+
+  private static final int STRIPE_COUNT = 1 << STRIPE_BITS;
+
+  /**
+   * Returns the stripe of a key as a bit mask.
+   */
+  static long stripeOf(final long key) {
+    return 1L << (int) (ConcurrentLongObjectMap.hash(key) >>> (Long.SIZE - STRIPE_BITS));
+  }
+
+  /**
+   * Returns the stripes of all keys as a bit mask.
+   */
+  static long stripesOf(final Collection<Long> keys) {
+    long stripes = 0;
+    for (Long key : keys) {
+      stripes |= stripeOf(key);
+    }
+    return stripes;
+  }
+
+  /**
+   * Returns the stamp of the stripes from the stamps that were taken by {@link #startReadAll()}.
+   *
+   * @param stamps
+   *          the stamps of every stripe.
+   * @param stripes
+   *          the stripes of the keys that a read result depends on.
+   * @return the stamp that {@link #startRead(long)} would have returned when the stamps were taken
+   *         or {@link #NO_CACHING} if a modification was running on the stripes.
+   */
+  static long stampOf(final long[] stamps, final long stripes) {
+    long stamp = 0;
+    for (long remaining = stripes; remaining != 0; remaining &= remaining - 1) {
+      long stampOfStripe = stamps[Long.numberOfTrailingZeros(remaining)];
+      if (stampOfStripe == NO_CACHING) {
+        return NO_CACHING;
+      }
+      stamp += stampOfStripe;
+    }
+    return stamp;
+  }
+
+  /**
+   * Returns the stripes of all keys as a bit mask.
+   */
+  static long stripesOf(final long[] keys) {
+    long stripes = 0;
+    for (long key : keys) {
+      stripes |= stripeOf(key);
+    }
+    return stripes;
+  }
+
+  private final AtomicIntegerArray runningModifications = new AtomicIntegerArray(STRIPE_COUNT);
+
+  private final AtomicLongArray versions = new AtomicLongArray(STRIPE_COUNT);
+
+  /**
+   * Must be called before a modification touches the database or the caches.
+   *
+   * @param stripes
+   *          the stripes of the keys that the modification touches.
+   */
+  public void beginModification(final long stripes) {
+    for (long remaining = stripes; remaining != 0; remaining &= remaining - 1) {
+      int stripe = Long.numberOfTrailingZeros(remaining);
+      runningModifications.incrementAndGet(stripe);
+      versions.incrementAndGet(stripe);
+    }
+  }
+
+  /**
+   * Stores the value into the cache if it is still valid based on the stamp. Values that were put
+   * by modifications are never overridden.
+   *
+   * @param cache
+   *          the cache to store the value in.
+   * @param key
+   *          the key of the value.
+   * @param value
+   *          the value that was read from the database.
+   * @param stripes
+   *          the stripes that were passed to {@link #startRead(long)}.
+   * @param stamp
+   *          the stamp that was returned by {@link #startRead(long)} before reading the database.
+   */
+  public <V> void cacheIfValid(final ConcurrentLongObjectMap<V> cache, final long key,
+      final V value, final long stripes, final long stamp) {
+    if (!isValid(stripes, stamp)) {
+      return;
+    }
+    if ((cache.putIfAbsent(key, value) == null) && !isValid(stripes, stamp)) {
+      cache.remove(key, value);
+    }
+  }
+
+  /**
+   * Stores the authorization scope of the resource into the cache if it is still valid based on
+   * the stamp.
+   *
+   * @see #cacheIfValid(ConcurrentLongObjectMap, long, Object, long, long)
+   */
+  public void cacheIfValid(final AuthorizationScopeCache cache, final long resourceId,
+      final long[] authorizationScope, final long stripes, final long stamp) {
+    if (!isValid(stripes, stamp)) {
+      return;
+    }
+    if (cache.putIfAbsent(resourceId, authorizationScope) && !isValid(stripes, stamp)) {
+      cache.remove(resourceId, authorizationScope);
+    }
+  }
+
+  /**
+   * Stores all permitted actions of a pair into the cache if they are still valid based on the
+   * stamp.
+   *
+   * @see #cacheIfValid(ConcurrentLongObjectMap, long, Object, long, long)
+   */
+  public void cacheIfValid(final ActionSetPermissionCache cache, final long authorizedResourceId,
+      final long targetResourceId, final Collection<String> permittedActions, final long stripes,
+      final long stamp) {
+    if (!isValid(stripes, stamp)) {
+      return;
+    }
+    if (cache.putActionsIfAbsent(authorizedResourceId, targetResourceId, permittedActions)
+        && !isValid(stripes, stamp)) {
+      cache.remove(authorizedResourceId, targetResourceId);
+    }
+  }
+
+  /**
+   * Stores the permission into the cache if it is still valid based on the stamp.
+   *
+   * @see #cacheIfValid(ConcurrentLongObjectMap, long, Object, long, long)
+   */
+  public void cacheIfValid(final PermissionCache cache, final long authorizedResourceId,
+      final long targetResourceId, final String action, final boolean permitted,
+      final long stripes, final long stamp) {
+    if (!isValid(stripes, stamp)) {
+      return;
+    }
+    if (cache.putIfAbsent(authorizedResourceId, targetResourceId, action, permitted)
+        && !isValid(stripes, stamp)) {
+      cache.remove(authorizedResourceId, targetResourceId, action, permitted);
+    }
+  }
+
+  /**
+   * Stores the parents of the resource into the cache if they are still valid based on the stamp.
+   *
+   * @see #cacheIfValid(ConcurrentLongObjectMap, long, Object, long, long)
+   */
+  public void cacheIfValid(final PermissionInheritanceCache cache, final long resourceId,
+      final long[] parentResourceIds, final long stripes, final long stamp) {
+    if (!isValid(stripes, stamp)) {
+      return;
+    }
+    if (cache.putIfAbsent(resourceId, parentResourceIds) && !isValid(stripes, stamp)) {
+      cache.remove(resourceId, parentResourceIds);
+    }
+  }
+
+  /**
+   * Must be called after a modification finished, even if it failed.
+   *
+   * @param stripes
+   *          the stripes that were passed to {@link #beginModification(long)}.
+   */
+  public void endModification(final long stripes) {
+    for (long remaining = stripes; remaining != 0; remaining &= remaining - 1) {
+      int stripe = Long.numberOfTrailingZeros(remaining);
+      versions.incrementAndGet(stripe);
+      runningModifications.decrementAndGet(stripe);
+    }
+  }
+
+  /**
+   * Checks whether no modification started on the stripes since the stamp was taken.
+   *
+   * @param stripes
+   *          the stripes that were passed to {@link #startRead(long)}.
+   * @param stamp
+   *          the stamp that was returned by {@link #startRead(long)}.
+   * @return <code>true</code> if a value that was read after taking the stamp can be cached.
+   */
+  public boolean isValid(final long stripes, final long stamp) {
+    return (stamp != NO_CACHING) && (sumOfVersions(stripes) == stamp);
+  }
+
+  /**
+   * Checks whether no modification was running or started on any of the stripes since the stamps
+   * were taken.
+   *
+   * @param stamps
+   *          the stamps that were returned by {@link #startReadAll()}.
+   * @return <code>true</code> if every value that was read after taking the stamps can be cached.
+   */
+  public boolean isValid(final long[] stamps) {
+    return isValid(ALL_STRIPES, stampOf(stamps, ALL_STRIPES));
+  }
+
+  /**
+   * Takes a stamp that should be validated after reading the database.
+   *
+   * @param stripes
+   *          the stripes of the keys that the read result depends on.
+   * @return the stamp or {@link #NO_CACHING} if there is a running modification on the stripes.
+   */
+  public long startRead(final long stripes) {
+    long stamp = sumOfVersions(stripes);
+    for (long remaining = stripes; remaining != 0; remaining &= remaining - 1) {
+      if (runningModifications.get(Long.numberOfTrailingZeros(remaining)) > 0) {
+        return NO_CACHING;
+      }
+    }
+    return stamp;
+  }
+
+  /**
+   * Takes a stamp of every stripe separately for readers that learn the keys of their result only
+   * from the database. A modification on one stripe therefore does not prevent caching the keys of
+   * the other stripes. The stamp of the keys can be calculated with
+   * {@link #stampOf(long[], long)}.
+   *
+   * @return the stamps of the stripes, {@link #NO_CACHING} for the stripes that have a running
+   *         modification.
+   */
+  public long[] startReadAll() {
+    long[] stamps = new long[STRIPE_COUNT];
+    for (int stripe = 0; stripe < STRIPE_COUNT; stripe++) {
+      stamps[stripe] = versions.get(stripe);
+      if (runningModifications.get(stripe) > 0) {
+        stamps[stripe] = NO_CACHING;
+      }
+    }
+    return stamps;
+  }
+
+  /**
+   * The versions only grow, so the sum changes if any of the versions changes.
+   */
+  private long sumOfVersions(final long stripes) {
+    long sum = 0;
+    for (long remaining = stripes; remaining != 0; remaining &= remaining - 1) {
+      sum += versions.get(Long.numberOfTrailingZeros(remaining));
+    }
+    return sum;
+  }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.Executor;
+
+/**
+ * Settings of a cache warm-up. By default only the permission inheritance records are loaded.
+ */
+public class CacheWarmUpConfiguration {
+
+  private static final int DEFAULT_FETCH_SIZE = 1000;
+
+  private static final CacheWarmUpListener NO_OP_LISTENER = new CacheWarmUpListener() {
+
+    @Override
+    public void phaseCompleted(final Phase phase, final long loadedRecordCount,
+        final boolean complete) {
+      // Ignored
+    }
+
+    @Override
+    public void progress(final Phase phase, final long loadedRecordCount) {
+      // Ignored
+    }
+
+    @Override
+    public void warmUpFailed(final Throwable cause) {
+      // Ignored
+    }
+  };
+
+  private static void startDaemonThread(final Runnable command) {
+    Thread thread = new Thread(command, "authorization-cache-warm-up");
+    thread.setDaemon(true);
+    thread.start();
+  }
+
+  private List<Long> authorizedResourceIds = Collections.emptyList();
+
+  private Executor executor = CacheWarmUpConfiguration::startDaemonThread;
+
+  private int fetchSize = DEFAULT_FETCH_SIZE;
+
+  private CacheWarmUpListener listener = NO_OP_LISTENER;
+
+  private long maximumPermissionCount;
+
+  private boolean permissionInheritances = true;
+
+  /**
+   * Sets the resources whose authorization scope and permissions are loaded, for example the
+   * recently active users of the application.
+   *
+   * @param authorizedResourceIds
+   *          the ids of the resources.
+   * @return this instance.
+   */
+  public CacheWarmUpConfiguration authorizedResourceIds(
+      final Collection<Long> authorizedResourceIds) {
+    this.authorizedResourceIds = Collections.unmodifiableList(new ArrayList<>(
+        Objects.requireNonNull(authorizedResourceIds, "authorizedResourceIds cannot be null")));
+    return this;
+  }
+
+  /**
+   * Sets the executor that runs the warm-up. By default a new daemon thread is started.
+   *
+   * @param executor
+   *          the executor.
+   * @return this instance.
+   */
+  public CacheWarmUpConfiguration executor(final Executor executor) {
+    this.executor = Objects.requireNonNull(executor, "executor cannot be null");
+    return this;
+  }
+
+  /**
+   * Sets the number of rows that the JDBC driver fetches from the database in one round trip. The
+   * progress is reported after every batch of this size.
+   *
+   * @param fetchSize
+   *          the fetch size.
+   * @return this instance.
+   */
+  public CacheWarmUpConfiguration fetchSize(final int fetchSize) {
+    if (fetchSize <= 0) {
+      throw new IllegalArgumentException("fetchSize must be positive: " + fetchSize);
+    }
+    this.fetchSize = fetchSize;
+    return this;
+  }
+
+  public List<Long> getAuthorizedResourceIds() {
+    return authorizedResourceIds;
+  }
+
+  public Executor getExecutor() {
+    return executor;
+  }
+
+  public int getFetchSize() {
+    return fetchSize;
+  }
+
+  public CacheWarmUpListener getListener() {
+    return listener;
+  }
+
+  public long getMaximumPermissionCount() {
+    return maximumPermissionCount;
+  }
+
+  public boolean isPermissionInheritances() {
+    return permissionInheritances;
+  }
+
+  /**
+   * Sets the listener that receives the progress of the warm-up.
+   *
+   * @param listener
+   *          the listener.
+   * @return this instance.
+   */
+  public CacheWarmUpConfiguration listener(final CacheWarmUpListener listener) {
+    this.listener = Objects.requireNonNull(listener, "listener cannot be null");
+    return this;
+  }
+
+  /**
+   * Sets the size up to which the whole <code>authr_permission</code> table is loaded into the
+   * permission cache.
+   *
+   * @param maximumPermissionCount
+   *          the maximum number of rows or zero if the table is never loaded completely.
+   * @return this instance.
+   */
+  public CacheWarmUpConfiguration maximumPermissionCount(final long maximumPermissionCount) {
+    if (maximumPermissionCount < 0) {
+      throw new IllegalArgumentException("maximumPermissionCount cannot be negative: "
+          + maximumPermissionCount);
+    }
+    this.maximumPermissionCount = maximumPermissionCount;
+    return this;
+  }
+
+  /**
+   * Sets whether the whole <code>authr_permission_inheritance</code> table is loaded into the
+   * permission inheritance cache.
+   *
+   * @param permissionInheritances
+   *          <code>true</code> to load the table.
+   * @return this instance.
+   */
+  public CacheWarmUpConfiguration permissionInheritances(final boolean permissionInheritances) {
+    this.permissionInheritances = permissionInheritances;
+    return this;
+  }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri;
+
+/**
+ * Receives the progress of a cache warm-up that was started by
+ * {@link AuthorizationImpl#warmUpCaches(CacheWarmUpConfiguration)}. The methods are called on the
+ * thread of the warm-up.
+ */
+public interface CacheWarmUpListener {
+
+  /**
+   * The phases of the warm-up in the order of execution.
+   */
+  enum Phase {
+
+    /**
+     * Streaming the whole <code>authr_permission_inheritance</code> table into the permission
+     * inheritance cache.
+     */
+    PERMISSION_INHERITANCES,
+
+    /**
+     * Streaming the whole <code>authr_permission</code> table into the permission cache.
+     */
+    ALL_PERMISSIONS,
+
+    /**
+     * Resolving the authorization scopes of the selected resources and streaming their
+     * permissions into the permission cache.
+     */
+    AUTHORIZED_RESOURCE_PERMISSIONS
+  }
+
+  /**
+   * Called when a phase finished.
+   *
+   * @param loadedRecordCount
+   *          the number of database records that were read in the phase.
+   * @param complete
+   *          <code>false</code> if a concurrent modification made a part of the read records
+   *          unsafe to cache or if the phase was skipped.
+   */
+  void phaseCompleted(Phase phase, long loadedRecordCount, boolean complete);
+
+  /**
+   * Called after every fetched batch of records.
+   *
+   * @param loadedRecordCount
+   *          the number of database records that were read in the phase so far.
+   */
+  void progress(Phase phase, long loadedRecordCount);
+
+  /**
+   * Called if the warm-up failed with an exception. If the warm-up was cancelled, the cause is a
+   * {@link java.util.concurrent.CancellationException}.
+   */
+  void warmUpFailed(Throwable cause);
+}
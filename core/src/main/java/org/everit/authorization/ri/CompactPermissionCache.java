@@ -0,0 +1,456 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.IntPredicate;
+
+/**
+ * {@link PermissionCache} that stores the permissions in segmented open addressing tables of
+ * primitive arrays. The key of an entry is the two resource ids and the id of the action in an
+ * {@link ActionDictionary}, so looking up a cached permission does not allocate any object.
+ *
+ * <p>
+ * The cache can be bounded by a {@link CacheConfiguration}. If a segment is full, an entry is
+ * evicted with the CLOCK algorithm. New entries are evicted first unless they are read again, so a
+ * flood of one-time lookups does not push out the permissions of the active users. Negative
+ * entries can have their own, lower limit.
+ *
+ * <p>
+ * The actions of the permitted entries are always added to the dictionary, the actions of the
+ * negative entries only until the dictionary reaches its maximum size. The negative entries of the
+ * actions that do not fit into the dictionary are stored with String keys in a separate, small
+ * overflow map, so checking arbitrary actions can neither grow the dictionary without bounds nor
+ * hit the database on every check.
+ */
+public class CompactPermissionCache implements PermissionCache {
+
+  /**
+   * One open addressing table with linear probing.
+   */
+  private static final class Segment extends OpenAddressingSegment {
+
+    private int[] actionIds;
+
+    private long[] authorizedResourceIds;
+
+    private final int maximumNegativeSize;
+
+    private final IntPredicate negativeEntry = index -> this.states[index] == STATE_NOT_PERMITTED;
+
+    private int negativeSize;
+
+    private byte[] states;
+
+    private long[] targetResourceIds;
+
+    Segment(final long expireAfterWriteNanos, final int maximumSize,
+        final int maximumNegativeSize) {
+      super(expireAfterWriteNanos, maximumSize);
+      this.maximumNegativeSize = maximumNegativeSize;
+      reset();
+    }
+
+    @Override
+    void allocateEntries(final int capacity) {
+      actionIds = new int[capacity];
+      authorizedResourceIds = new long[capacity];
+      states = new byte[capacity];
+      targetResourceIds = new long[capacity];
+    }
+
+    byte find(final long authorizedResourceId, final long targetResourceId, final int actionId,
+        final long hash, final long now) {
+      int[] tmpActionIds = actionIds;
+      long[] tmpAuthorizedResourceIds = authorizedResourceIds;
+      long[] tmpExpirationTimes = expirationTimes;
+      byte[] tmpReferenced = referenced;
+      byte[] tmpStates = states;
+      long[] tmpTargetResourceIds = targetResourceIds;
+      int length = tmpStates.length;
+      if ((tmpActionIds.length != length) || (tmpAuthorizedResourceIds.length != length)
+          || (tmpReferenced.length != length) || (tmpTargetResourceIds.length != length)
+          || ((tmpExpirationTimes != null) && (tmpExpirationTimes.length != length))) {
+        // Inconsistent state during an optimistic read
+        return STATE_EMPTY;
+      }
+      int mask = length - 1;
+      int index = (int) hash & mask;
+      for (int i = 0; i < length; i++) {
+        byte state = tmpStates[index];
+        if (state == STATE_EMPTY) {
+          return STATE_EMPTY;
+        }
+        if ((tmpAuthorizedResourceIds[index] == authorizedResourceId)
+            && (tmpTargetResourceIds[index] == targetResourceId)
+            && (tmpActionIds[index] == actionId)) {
+          if ((tmpExpirationTimes != null) && ((tmpExpirationTimes[index] - now) < 0)) {
+            return STATE_EMPTY;
+          }
+          if (tmpReferenced[index] == 0) {
+            tmpReferenced[index] = 1;
+          }
+          return state;
+        }
+        index = (index + 1) & mask;
+      }
+      return STATE_EMPTY;
+    }
+
+    @Override
+    long hashAt(final int index) {
+      return hash(authorizedResourceIds[index], targetResourceIds[index], actionIds[index]);
+    }
+
+    int indexOf(final long authorizedResourceId, final long targetResourceId, final int actionId,
+        final long hash) {
+      int mask = states.length - 1;
+      int index = (int) hash & mask;
+      while (states[index] != STATE_EMPTY) {
+        if ((authorizedResourceIds[index] == authorizedResourceId)
+            && (targetResourceIds[index] == targetResourceId)
+            && (actionIds[index] == actionId)) {
+          return index;
+        }
+        index = (index + 1) & mask;
+      }
+      return -1 - index;
+    }
+
+    void insert(final long authorizedResourceId, final long targetResourceId, final int actionId,
+        final long hash, final byte state, final long now) {
+      if ((state == STATE_NOT_PERMITTED) && (maximumNegativeSize > 0)
+          && (negativeSize >= maximumNegativeSize)) {
+        evictOne(now, negativeEntry);
+      }
+      evictIfFull(now);
+      int freeIndex = -1 - indexOf(authorizedResourceId, targetResourceId, actionId, hash);
+      authorizedResourceIds[freeIndex] = authorizedResourceId;
+      targetResourceIds[freeIndex] = targetResourceId;
+      actionIds[freeIndex] = actionId;
+      setState(freeIndex, state);
+      inserted(freeIndex, now);
+    }
+
+    @Override
+    boolean isOccupied(final int index) {
+      return states[index] != STATE_EMPTY;
+    }
+
+    @Override
+    void moveEntry(final int fromIndex, final int toIndex) {
+      authorizedResourceIds[toIndex] = authorizedResourceIds[fromIndex];
+      targetResourceIds[toIndex] = targetResourceIds[fromIndex];
+      actionIds[toIndex] = actionIds[fromIndex];
+      states[toIndex] = states[fromIndex];
+      states[fromIndex] = STATE_EMPTY;
+    }
+
+    @Override
+    void relocateEntries(final int capacity, final int[] newIndexes) {
+      int[] oldActionIds = actionIds;
+      long[] oldAuthorizedResourceIds = authorizedResourceIds;
+      byte[] oldStates = states;
+      long[] oldTargetResourceIds = targetResourceIds;
+      allocateEntries(capacity);
+      for (int i = 0; i < newIndexes.length; i++) {
+        int index = newIndexes[i];
+        if (index >= 0) {
+          authorizedResourceIds[index] = oldAuthorizedResourceIds[i];
+          targetResourceIds[index] = oldTargetResourceIds[i];
+          actionIds[index] = oldActionIds[i];
+          states[index] = oldStates[i];
+        }
+      }
+    }
+
+    @Override
+    void removeEntry(final int index) {
+      setState(index, STATE_EMPTY);
+    }
+
+    @Override
+    void reset() {
+      super.reset();
+      negativeSize = 0;
+    }
+
+    /**
+     * Changes the state of an entry and maintains the number of negative entries.
+     */
+    void setState(final int index, final byte state) {
+      if (states[index] == STATE_NOT_PERMITTED) {
+        negativeSize--;
+      }
+      if (state == STATE_NOT_PERMITTED) {
+        negativeSize++;
+      }
+      states[index] = state;
+    }
+  }
+
+  /**
+   * The maximum number of negative entries in the overflow map. The map is cleared when it is
+   * full.
+   */
+  private static final int MAXIMUM_OVERFLOW_SIZE = 4096;
+
+  private static final byte STATE_EMPTY = 0;
+
+  private static final byte STATE_NOT_PERMITTED = 1;
+
+  private static final byte STATE_PERMITTED = 2;
+
+  static long hash(final long authorizedResourceId, final long targetResourceId,
+      final int actionId) {
+    long hash = (authorizedResourceId * 0x9E3779B97F4A7C15L) + targetResourceId;
+    hash = (hash * 0xC2B2AE3D27D4EB4FL) + actionId;
+    return hash ^ (hash >>> 29);
+  }
+
+  private static String overflowKey(final long authorizedResourceId,
+      final long targetResourceId, final String action) {
+    return "{" + authorizedResourceId + "," + targetResourceId + "," + action + "}";
+  }
+
+  private static byte toState(final boolean permitted) {
+    return permitted ? STATE_PERMITTED : STATE_NOT_PERMITTED;
+  }
+
+  private final ActionDictionary actionDictionary;
+
+  private final long expireAfterWriteNanos;
+
+  private final int maximumOverflowSize;
+
+  /**
+   * The negative entries of the actions that are not in the full dictionary, with the expiration
+   * times as values, or zero if the entries do not expire.
+   */
+  private final ConcurrentMap<String, Long> overflowNegatives = new ConcurrentHashMap<>();
+
+  private final Segment[] segments;
+
+  /**
+   * Creates an unbounded cache.
+   */
+  public CompactPermissionCache() {
+    this(new CacheConfiguration());
+  }
+
+  /**
+   * Creates a cache that applies the limits of the configuration.
+   *
+   * @param cacheConfiguration
+   *          the size and expiration policy of the cache.
+   *
+   * @throws NullPointerException
+   *           if the parameter is <code>null</code>.
+   */
+  public CompactPermissionCache(final CacheConfiguration cacheConfiguration) {
+    this(cacheConfiguration, new ActionDictionary());
+  }
+
+  /**
+   * Creates a cache that applies the limits of the configuration and takes the ids of the actions
+   * from a dictionary that can be shared with other caches.
+   *
+   * @param cacheConfiguration
+   *          the size and expiration policy of the cache.
+   * @param actionDictionary
+   *          the dictionary of the actions.
+   *
+   * @throws NullPointerException
+   *           if one of the parameters is <code>null</code>.
+   */
+  public CompactPermissionCache(final CacheConfiguration cacheConfiguration,
+      final ActionDictionary actionDictionary) {
+    Objects.requireNonNull(cacheConfiguration, "cacheConfiguration cannot be null");
+    this.actionDictionary =
+        Objects.requireNonNull(actionDictionary, "actionDictionary cannot be null");
+    this.expireAfterWriteNanos = cacheConfiguration.getExpireAfterWriteNanos();
+    long maximumNegativeSize = cacheConfiguration.getMaximumNegativeSize();
+    this.maximumOverflowSize = (int) (((maximumNegativeSize > 0)
+        && (maximumNegativeSize < MAXIMUM_OVERFLOW_SIZE))
+            ? maximumNegativeSize
+            : MAXIMUM_OVERFLOW_SIZE);
+    int maximumSegmentSize =
+        OpenAddressingSegment.toSegmentSize(cacheConfiguration.getMaximumSize());
+    int maximumNegativeSegmentSize =
+        OpenAddressingSegment.toSegmentSize(cacheConfiguration.getMaximumNegativeSize());
+
+    segments = new Segment[OpenAddressingSegment.SEGMENT_COUNT];
+    for (int i = 0; i < segments.length; i++) {
+      segments[i] =
+          new Segment(expireAfterWriteNanos, maximumSegmentSize, maximumNegativeSegmentSize);
+    }
+  }
+
+  @Override
+  public void clear() {
+    OpenAddressingSegment.clear(segments);
+    overflowNegatives.clear();
+  }
+
+  @Override
+  public Boolean get(final long authorizedResourceId, final long targetResourceId,
+      final String action) {
+    int actionId = actionDictionary.getActionId(action);
+    if (actionId == ActionDictionary.UNKNOWN_ACTION_ID) {
+      return overflowNegatives.isEmpty()
+          ? null
+          : getOverflowNegative(authorizedResourceId, targetResourceId, action);
+    }
+
+    long hash = hash(authorizedResourceId, targetResourceId, actionId);
+    Segment segment = segmentFor(hash);
+    StampedLock lock = segment.lock;
+    long now = segment.now();
+
+    byte state = STATE_EMPTY;
+    long stamp = lock.tryOptimisticRead();
+    if (stamp != 0) {
+      state = segment.find(authorizedResourceId, targetResourceId, actionId, hash, now);
+    }
+    if ((stamp == 0) || !lock.validate(stamp)) {
+      stamp = lock.readLock();
+      try {
+        state = segment.find(authorizedResourceId, targetResourceId, actionId, hash, now);
+      } finally {
+        lock.unlockRead(stamp);
+      }
+    }
+
+    if (state == STATE_EMPTY) {
+      return null;
+    }
+    return state == STATE_PERMITTED ? Boolean.TRUE : Boolean.FALSE;
+  }
+
+  private Boolean getOverflowNegative(final long authorizedResourceId,
+      final long targetResourceId, final String action) {
+    String key = overflowKey(authorizedResourceId, targetResourceId, action);
+    Long expirationTime = overflowNegatives.get(key);
+    if (expirationTime == null) {
+      return null;
+    }
+    if ((expireAfterWriteNanos > 0) && ((expirationTime - System.nanoTime()) < 0)) {
+      overflowNegatives.remove(key, expirationTime);
+      return null;
+    }
+    return Boolean.FALSE;
+  }
+
+  @Override
+  public void put(final long authorizedResourceId, final long targetResourceId,
+      final String action, final boolean permitted) {
+    put(authorizedResourceId, targetResourceId, action, permitted, false);
+  }
+
+  private boolean put(final long authorizedResourceId, final long targetResourceId,
+      final String action, final boolean permitted, final boolean onlyIfAbsent) {
+    int actionId =
+        permitted ? actionDictionary.intern(action) : actionDictionary.tryIntern(action);
+    if (actionId == ActionDictionary.UNKNOWN_ACTION_ID) {
+      return putOverflowNegative(authorizedResourceId, targetResourceId, action, onlyIfAbsent);
+    }
+    if (permitted && !overflowNegatives.isEmpty()) {
+      // The action was added to the dictionary after the negative entry was stored
+      overflowNegatives.remove(overflowKey(authorizedResourceId, targetResourceId, action));
+    }
+    long hash = hash(authorizedResourceId, targetResourceId, actionId);
+    Segment segment = segmentFor(hash);
+    long now = segment.now();
+    long stamp = segment.lock.writeLock();
+    try {
+      int index = segment.indexOf(authorizedResourceId, targetResourceId, actionId, hash);
+      if (index < 0) {
+        segment.insert(authorizedResourceId, targetResourceId, actionId, hash,
+            toState(permitted), now);
+        return true;
+      }
+      if (onlyIfAbsent && !segment.isExpired(index, now)) {
+        return false;
+      }
+      segment.setState(index, toState(permitted));
+      segment.renew(index, now);
+      return true;
+    } finally {
+      segment.lock.unlockWrite(stamp);
+    }
+  }
+
+  private boolean putOverflowNegative(final long authorizedResourceId,
+      final long targetResourceId, final String action, final boolean onlyIfAbsent) {
+    String key = overflowKey(authorizedResourceId, targetResourceId, action);
+    if (onlyIfAbsent && (getOverflowNegative(authorizedResourceId, targetResourceId,
+        action) != null)) {
+      return false;
+    }
+    if (overflowNegatives.size() >= maximumOverflowSize) {
+      overflowNegatives.clear();
+    }
+    long expirationTime =
+        (expireAfterWriteNanos > 0) ? System.nanoTime() + expireAfterWriteNanos : 0;
+    overflowNegatives.put(key, expirationTime);
+    return true;
+  }
+
+  @Override
+  public boolean putIfAbsent(final long authorizedResourceId, final long targetResourceId,
+      final String action, final boolean permitted) {
+    return put(authorizedResourceId, targetResourceId, action, permitted, true);
+  }
+
+  @Override
+  public boolean remove(final long authorizedResourceId, final long targetResourceId,
+      final String action, final boolean permitted) {
+    boolean removed = !permitted && !overflowNegatives.isEmpty()
+        && (overflowNegatives.remove(overflowKey(authorizedResourceId, targetResourceId,
+            action)) != null);
+    int actionId = actionDictionary.getActionId(action);
+    if (actionId == ActionDictionary.UNKNOWN_ACTION_ID) {
+      return removed;
+    }
+    long hash = hash(authorizedResourceId, targetResourceId, actionId);
+    Segment segment = segmentFor(hash);
+    long stamp = segment.lock.writeLock();
+    try {
+      int index = segment.indexOf(authorizedResourceId, targetResourceId, actionId, hash);
+      if ((index < 0) || (segment.states[index] != toState(permitted))) {
+        return removed;
+      }
+      segment.removeAt(index);
+      return true;
+    } finally {
+      segment.lock.unlockWrite(stamp);
+    }
+  }
+
+  private Segment segmentFor(final long hash) {
+    return segments[OpenAddressingSegment.segmentIndex(hash)];
+  }
+
+  /**
+   * The number of cached permissions, including the expired ones that are not removed yet.
+   */
+  public int size() {
+    return OpenAddressingSegment.size(segments) + overflowNegatives.size();
+  }
+}
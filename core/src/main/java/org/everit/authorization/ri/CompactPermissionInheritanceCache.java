@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri;
+
+import java.util.Objects;
+
+/**
+ * {@link PermissionInheritanceCache} that stores the parents of the resources in a map with
+ * primitive <code>long</code> keys, so looking up the parents of a resource does not allocate any
+ * object. The cache can be bounded by a {@link CacheConfiguration}.
+ */
+public class CompactPermissionInheritanceCache implements PermissionInheritanceCache {
+
+  private final ConcurrentLongObjectMap<long[]> parentResourceIdsByResourceId;
+
+  /**
+   * Creates an unbounded cache.
+   */
+  public CompactPermissionInheritanceCache() {
+    this(new CacheConfiguration());
+  }
+
+  /**
+   * Creates a cache that applies the maximum size and the expiration of the configuration.
+   *
+   * @param cacheConfiguration
+   *          the size and expiration policy of the cache.
+   *
+   * @throws NullPointerException
+   *           if the parameter is <code>null</code>.
+   */
+  public CompactPermissionInheritanceCache(final CacheConfiguration cacheConfiguration) {
+    Objects.requireNonNull(cacheConfiguration, "cacheConfiguration cannot be null");
+    parentResourceIdsByResourceId = new ConcurrentLongObjectMap<>(cacheConfiguration);
+  }
+
+  @Override
+  public void clear() {
+    parentResourceIdsByResourceId.clear();
+  }
+
+  @Override
+  public long[] get(final long resourceId) {
+    return parentResourceIdsByResourceId.get(resourceId);
+  }
+
+  @Override
+  public void put(final long resourceId, final long[] parentResourceIds) {
+    Objects.requireNonNull(parentResourceIds, "parentResourceIds cannot be null");
+    parentResourceIdsByResourceId.put(resourceId, parentResourceIds);
+  }
+
+  @Override
+  public boolean putIfAbsent(final long resourceId, final long[] parentResourceIds) {
+    Objects.requireNonNull(parentResourceIds, "parentResourceIds cannot be null");
+    return parentResourceIdsByResourceId.putIfAbsent(resourceId, parentResourceIds) == null;
+  }
+
+  @Override
+  public void remove(final long resourceId) {
+    parentResourceIdsByResourceId.remove(resourceId);
+  }
+
+  @Override
+  public boolean remove(final long resourceId, final long[] parentResourceIds) {
+    Objects.requireNonNull(parentResourceIds, "parentResourceIds cannot be null");
+    return parentResourceIdsByResourceId.remove(resourceId, parentResourceIds) != null;
+  }
+
+  /**
+   * The number of cached entries.
+   */
+  public int size() {
+    return parentResourceIdsByResourceId.size();
+  }
+}
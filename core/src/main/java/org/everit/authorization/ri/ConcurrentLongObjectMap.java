@@ -0,0 +1,433 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri;
+
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.Predicate;
+import java.util.function.UnaryOperator;
+
+/**
+ * Thread-safe map with primitive <code>long</code> keys. The entries are stored in segmented open
+ * addressing tables. Reading the map does not allocate any object and does not block as long as
+ * there is no concurrent modification in the same segment.
+ *
+ * <p>
+ * The map can be bounded by a {@link CacheConfiguration}. If a segment is full, an entry is evicted
+ * with the CLOCK algorithm: entries that were read since the clock hand passed them last time get a
+ * second chance. An {@link EvictionListener} is notified about the evicted and the removed expired
+ * entries.
+ *
+ * @param <V>
+ *          the type of the values.
+ */
+final class ConcurrentLongObjectMap<V> {
+
+  /**
+   * Notified about the entries that are evicted from the map. The listener is called while the
+   * segment of the entry is locked, so it must not access the same map.
+   *
+   * @param <V>
+   *          the type of the values.
+   */
+  @FunctionalInterface
+  interface EvictionListener<V> {
+
+    void evicted(long key, V value);
+  }
+
+  /**
+   * One open addressing table with linear probing.
+   */
+  private static final class Segment extends OpenAddressingSegment {
+
+    private final EvictionListener<Object> evictionListener;
+
+    private long[] keys;
+
+    /**
+     * The values of the entries. A <code>null</code> element means an empty slot.
+     */
+    private Object[] values;
+
+    Segment(final long expireAfterWriteNanos, final int maximumSize,
+        final EvictionListener<Object> evictionListener) {
+      super(expireAfterWriteNanos, maximumSize);
+      this.evictionListener = evictionListener;
+      reset();
+    }
+
+    @Override
+    void allocateEntries(final int capacity) {
+      keys = new long[capacity];
+      values = new Object[capacity];
+    }
+
+    @Override
+    void evicting(final int index) {
+      if (evictionListener != null) {
+        evictionListener.evicted(keys[index], values[index]);
+      }
+    }
+
+    /**
+     * Returns the value of the key or <code>null</code> if it is missing or expired.
+     *
+     * @param touch
+     *          whether the entry should be marked as read for the eviction.
+     */
+    Object find(final long key, final long hash, final long now, final boolean touch) {
+      long[] tmpExpirationTimes = expirationTimes;
+      long[] tmpKeys = keys;
+      byte[] tmpReferenced = referenced;
+      Object[] tmpValues = values;
+      int length = tmpKeys.length;
+      if ((length != tmpValues.length) || (length != tmpReferenced.length)
+          || ((tmpExpirationTimes != null) && (length != tmpExpirationTimes.length))) {
+        // Inconsistent state during an optimistic read
+        return null;
+      }
+      int mask = length - 1;
+      int index = (int) hash & mask;
+      for (int i = 0; i < length; i++) {
+        Object value = tmpValues[index];
+        if (value == null) {
+          return null;
+        }
+        if (tmpKeys[index] == key) {
+          if ((tmpExpirationTimes != null) && ((tmpExpirationTimes[index] - now) < 0)) {
+            return null;
+          }
+          if (touch && (tmpReferenced[index] == 0)) {
+            tmpReferenced[index] = 1;
+          }
+          return value;
+        }
+        index = (index + 1) & mask;
+      }
+      return null;
+    }
+
+    @Override
+    long hashAt(final int index) {
+      return hash(keys[index]);
+    }
+
+    int indexOf(final long key, final long hash) {
+      int mask = keys.length - 1;
+      int index = (int) hash & mask;
+      while (values[index] != null) {
+        if (keys[index] == key) {
+          return index;
+        }
+        index = (index + 1) & mask;
+      }
+      return -1 - index;
+    }
+
+    void insert(final long key, final long hash, final Object value, final long now) {
+      evictIfFull(now);
+      int freeIndex = -1 - indexOf(key, hash);
+      keys[freeIndex] = key;
+      values[freeIndex] = value;
+      inserted(freeIndex, now);
+    }
+
+    @Override
+    boolean isOccupied(final int index) {
+      return values[index] != null;
+    }
+
+    @Override
+    void moveEntry(final int fromIndex, final int toIndex) {
+      keys[toIndex] = keys[fromIndex];
+      values[toIndex] = values[fromIndex];
+      values[fromIndex] = null;
+    }
+
+    @Override
+    void relocateEntries(final int capacity, final int[] newIndexes) {
+      long[] oldKeys = keys;
+      Object[] oldValues = values;
+      allocateEntries(capacity);
+      for (int i = 0; i < newIndexes.length; i++) {
+        int index = newIndexes[i];
+        if (index >= 0) {
+          keys[index] = oldKeys[i];
+          values[index] = oldValues[i];
+        }
+      }
+    }
+
+    @Override
+    void removeEntry(final int index) {
+      values[index] = null;
+    }
+  }
+
+  static long hash(final long key) {
+    long hash = key * 0x9E3779B97F4A7C15L;
+    return hash ^ (hash >>> 29);
+  }
+
+  private final Segment[] segments;
+
+  /**
+   * Creates an unbounded map.
+   */
+  ConcurrentLongObjectMap() {
+    this(new CacheConfiguration());
+  }
+
+  /**
+   * Creates a map that applies the maximum size and the expiration of the configuration.
+   */
+  ConcurrentLongObjectMap(final CacheConfiguration cacheConfiguration) {
+    this(cacheConfiguration, null);
+  }
+
+  /**
+   * Creates a map that applies the maximum size and the expiration of the configuration and
+   * notifies the listener about the evicted entries.
+   *
+   * @param evictionListener
+   *          the listener or <code>null</code>.
+   */
+  @SuppressWarnings("unchecked")
+  ConcurrentLongObjectMap(final CacheConfiguration cacheConfiguration,
+      final EvictionListener<? super V> evictionListener) {
+    long expireAfterWriteNanos = cacheConfiguration.getExpireAfterWriteNanos();
+    int maximumSegmentSize =
+        OpenAddressingSegment.toSegmentSize(cacheConfiguration.getMaximumSize());
+
+    segments = new Segment[OpenAddressingSegment.SEGMENT_COUNT];
+    for (int i = 0; i < segments.length; i++) {
+      segments[i] = new Segment(expireAfterWriteNanos, maximumSegmentSize,
+          (EvictionListener<Object>) evictionListener);
+    }
+  }
+
+  public void clear() {
+    OpenAddressingSegment.clear(segments);
+  }
+
+  /**
+   * Replaces the value of the key with the result of the function while the segment of the key is
+   * locked. The function must not access the same map.
+   *
+   * @param remappingFunction
+   *          receives the current value or <code>null</code> if there is no value for the key and
+   *          returns the new value or <code>null</code> if the entry should be removed.
+   * @return the new value.
+   */
+  @SuppressWarnings("unchecked")
+  public V compute(final long key, final UnaryOperator<V> remappingFunction) {
+    long hash = hash(key);
+    Segment segment = segmentFor(hash);
+    long now = segment.now();
+    long stamp = segment.lock.writeLock();
+    try {
+      int index = segment.indexOf(key, hash);
+      V currentValue = ((index < 0) || segment.isExpired(index, now))
+          ? null
+          : (V) segment.values[index];
+      V newValue = remappingFunction.apply(currentValue);
+      if (newValue == null) {
+        if (index >= 0) {
+          segment.removeAt(index);
+        }
+      } else if (index < 0) {
+        segment.insert(key, hash, newValue, now);
+      } else {
+        segment.values[index] = newValue;
+        segment.renew(index, now);
+      }
+      return newValue;
+    } finally {
+      segment.lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * Checks whether there is a value for the key without marking the entry as read for the
+   * eviction.
+   */
+  public boolean containsKey(final long key) {
+    long hash = hash(key);
+    Segment segment = segmentFor(hash);
+    StampedLock lock = segment.lock;
+    long now = segment.now();
+
+    long stamp = lock.tryOptimisticRead();
+    if (stamp != 0) {
+      Object value = segment.find(key, hash, now, false);
+      if (lock.validate(stamp)) {
+        return value != null;
+      }
+    }
+
+    stamp = lock.readLock();
+    try {
+      return segment.find(key, hash, now, false) != null;
+    } finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  /**
+   * Returns the value that belongs to the key.
+   *
+   * @param key
+   *          the key.
+   * @return the value or <code>null</code> if there is no value for the key.
+   */
+  @SuppressWarnings("unchecked")
+  public V get(final long key) {
+    long hash = hash(key);
+    Segment segment = segmentFor(hash);
+    StampedLock lock = segment.lock;
+    long now = segment.now();
+
+    long stamp = lock.tryOptimisticRead();
+    if (stamp != 0) {
+      Object value = segment.find(key, hash, now, true);
+      if (lock.validate(stamp)) {
+        return (V) value;
+      }
+    }
+
+    stamp = lock.readLock();
+    try {
+      return (V) segment.find(key, hash, now, true);
+    } finally {
+      lock.unlockRead(stamp);
+    }
+  }
+
+  /**
+   * Associates the value with the key.
+   *
+   * @return the previous value or <code>null</code> if there was no value for the key.
+   */
+  public V put(final long key, final V value) {
+    return put(key, value, false);
+  }
+
+  @SuppressWarnings("unchecked")
+  private V put(final long key, final V value, final boolean onlyIfAbsent) {
+    if (value == null) {
+      throw new NullPointerException("Null values are not supported");
+    }
+    long hash = hash(key);
+    Segment segment = segmentFor(hash);
+    long now = segment.now();
+    long stamp = segment.lock.writeLock();
+    try {
+      int index = segment.indexOf(key, hash);
+      if (index < 0) {
+        segment.insert(key, hash, value, now);
+        return null;
+      }
+      boolean expired = segment.isExpired(index, now);
+      Object previousValue = expired ? null : segment.values[index];
+      if (!onlyIfAbsent || expired) {
+        segment.values[index] = value;
+        segment.renew(index, now);
+      }
+      return (V) previousValue;
+    } finally {
+      segment.lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * Associates the value with the key if there is no value for the key yet.
+   *
+   * @return the current value or <code>null</code> if the value was stored.
+   */
+  public V putIfAbsent(final long key, final V value) {
+    return put(key, value, true);
+  }
+
+  /**
+   * Removes the value of the key.
+   *
+   * @return the removed value or <code>null</code> if there was no value for the key.
+   */
+  public V remove(final long key) {
+    return remove(key, null);
+  }
+
+  /**
+   * Removes the value of the key if it is the same as the expected value.
+   *
+   * @param expectedValue
+   *          the expected value or <code>null</code> if any value should be removed.
+   * @return the removed value or <code>null</code> if nothing was removed.
+   */
+  @SuppressWarnings("unchecked")
+  public V remove(final long key, final V expectedValue) {
+    long hash = hash(key);
+    Segment segment = segmentFor(hash);
+    long stamp = segment.lock.writeLock();
+    try {
+      int index = segment.indexOf(key, hash);
+      if (index < 0) {
+        return null;
+      }
+      Object value = segment.values[index];
+      if ((expectedValue != null) && (value != expectedValue)) {
+        return null;
+      }
+      segment.removeAt(index);
+      return (V) value;
+    } finally {
+      segment.lock.unlockWrite(stamp);
+    }
+  }
+
+  /**
+   * Removes the entries whose value matches the predicate. The segments are locked one by one, so
+   * the entries that are stored concurrently in an already visited segment are not checked.
+   *
+   * @param predicate
+   *          the condition of the removal.
+   * @return the number of removed entries.
+   */
+  @SuppressWarnings("unchecked")
+  public int removeValuesIf(final Predicate<? super V> predicate) {
+    int removedCount = 0;
+    for (Segment segment : segments) {
+      long stamp = segment.lock.writeLock();
+      try {
+        removedCount += segment.removeIf(index -> predicate.test((V) segment.values[index]));
+      } finally {
+        segment.lock.unlockWrite(stamp);
+      }
+    }
+    return removedCount;
+  }
+
+  private Segment segmentFor(final long hash) {
+    return segments[OpenAddressingSegment.segmentIndex(hash)];
+  }
+
+  /**
+   * The number of entries in the map, including the expired ones that are not removed yet.
+   */
+  public int size() {
+    return OpenAddressingSegment.size(segments);
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * {@link PermissionCache} that stores the permissions in a {@link ConcurrentMap} with
+ * <code>{authorizedResourceId,targetResourceId,action}</code> String keys. Every access generates
+ * a new key, so prefer {@link CompactPermissionCache} if the map does not have to be shared with
+ * other components.
+ */
+public class ConcurrentMapPermissionCache implements PermissionCache {
+
+  private static String generatePermissionKey(final long authorizedResourceId,
+      final long targetResourceId, final String action) {
+    return "{" + authorizedResourceId + "," + targetResourceId + "," + action + "}";
+  }
+
+  private final ConcurrentMap<String, Boolean> permissionCache;
+
+  /**
+   * Constructor.
+   *
+   * @param permissionCache
+   *          the {@link ConcurrentMap} that stores the permission records.
+   *
+   * @throws NullPointerException
+   *           if the parameter is <code>null</code>.
+   */
+  public ConcurrentMapPermissionCache(final ConcurrentMap<String, Boolean> permissionCache) {
+    this.permissionCache =
+        Objects.requireNonNull(permissionCache, "permissionCache cannot be null");
+  }
+
+  @Override
+  public void clear() {
+    permissionCache.clear();
+  }
+
+  @Override
+  public Boolean get(final long authorizedResourceId, final long targetResourceId,
+      final String action) {
+    return permissionCache.get(generatePermissionKey(authorizedResourceId, targetResourceId,
+        action));
+  }
+
+  @Override
+  public void put(final long authorizedResourceId, final long targetResourceId,
+      final String action, final boolean permitted) {
+    permissionCache.put(generatePermissionKey(authorizedResourceId, targetResourceId, action),
+        permitted);
+  }
+
+  @Override
+  public boolean putIfAbsent(final long authorizedResourceId, final long targetResourceId,
+      final String action, final boolean permitted) {
+    return permissionCache.putIfAbsent(
+        generatePermissionKey(authorizedResourceId, targetResourceId, action), permitted) == null;
+  }
+
+  @Override
+  public boolean remove(final long authorizedResourceId, final long targetResourceId,
+      final String action, final boolean permitted) {
+    return permissionCache.remove(
+        generatePermissionKey(authorizedResourceId, targetResourceId, action), permitted);
+  }
+
+}
@@ -0,0 +1,74 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri;
+
+import java.util.Objects;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * {@link PermissionInheritanceCache} that stores the parents of the resources in a
+ * {@link ConcurrentMap}.
+ */
+public class ConcurrentMapPermissionInheritanceCache implements PermissionInheritanceCache {
+
+  private final ConcurrentMap<Long, long[]> permissionInheritanceCache;
+
+  /**
+   * Constructor.
+   *
+   * @param permissionInheritanceCache
+   *          the {@link ConcurrentMap} that stores the permission inheritance records.
+   *
+   * @throws NullPointerException
+   *           if the parameter is <code>null</code>.
+   */
+  public ConcurrentMapPermissionInheritanceCache(
+      final ConcurrentMap<Long, long[]> permissionInheritanceCache) {
+    this.permissionInheritanceCache = Objects.requireNonNull(permissionInheritanceCache,
+        "permissionInheritanceCache cannot be null");
+  }
+
+  @Override
+  public void clear() {
+    permissionInheritanceCache.clear();
+  }
+
+  @Override
+  public long[] get(final long resourceId) {
+    return permissionInheritanceCache.get(resourceId);
+  }
+
+  @Override
+  public void put(final long resourceId, final long[] parentResourceIds) {
+    permissionInheritanceCache.put(resourceId, parentResourceIds);
+  }
+
+  @Override
+  public boolean putIfAbsent(final long resourceId, final long[] parentResourceIds) {
+    return permissionInheritanceCache.putIfAbsent(resourceId, parentResourceIds) == null;
+  }
+
+  @Override
+  public void remove(final long resourceId) {
+    permissionInheritanceCache.remove(resourceId);
+  }
+
+  @Override
+  public boolean remove(final long resourceId, final long[] parentResourceIds) {
+    return permissionInheritanceCache.remove(resourceId, parentResourceIds);
+  }
+
+}
@@ -0,0 +1,491 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+
+import org.everit.authorization.AuthorizationManager;
+import org.everit.authorization.PermissionChecker;
+import org.everit.authorization.ri.schema.qdsl.QPermission;
+import org.everit.authorization.ri.schema.qdsl.QPermissionInheritance;
+import org.everit.persistence.querydsl.support.QuerydslSupport;
+import org.everit.props.PropertyManager;
+import org.everit.resource.ResourceService;
+import org.everit.transaction.propagator.TransactionPropagator;
+
+import com.mysema.commons.lang.CloseableIterator;
+import com.querydsl.core.Tuple;
+import com.querydsl.core.types.dsl.BooleanExpression;
+import com.querydsl.sql.SQLQuery;
+import com.querydsl.sql.StatementOptions;
+
+/**
+ * {@link PermissionChecker} that keeps all permission and permission inheritance records in
+ * memory, so the permission checks never access the database. The records are loaded from a
+ * snapshot of the database when the instance is created.
+ *
+ * <p>
+ * The modifications are delegated to an {@link AuthorizationImpl} instance that writes the
+ * database. The {@link CacheInvalidationEvent}s that the modifications publish after the
+ * transaction committed only mark the records of the affected resources stale. The stale records
+ * are reloaded from the database by the next permission check, so the transport never waits for
+ * the database. If the configuration does not have a {@link CacheInvalidationTransport}, a
+ * {@link LoopbackCacheInvalidationTransport} is used, so the modifications of this instance are
+ * visible to the checks that follow them. With a cluster-wide transport the modifications of all
+ * nodes are applied.
+ *
+ * <p>
+ * The instance needs memory for all records, so it should be used if the permission tables fit
+ * into the heap. The memory usage and the latency of the checks are measured by the benchmarks of
+ * the <code>benchmark</code> module.
+ */
+public class InMemoryAuthorizationImpl implements AuthorizationManager, PermissionChecker {
+
+  /**
+   * The maximum number of elements in the IN lists of the refresh queries.
+   */
+  private static final int MAX_IN_LIST_SIZE = 1000;
+
+  /**
+   * The fetch size of the queries that load the snapshot.
+   */
+  private static final int SNAPSHOT_FETCH_SIZE = 1000;
+
+  /**
+   * The number of events whose stale records were reloaded.
+   */
+  private volatile long appliedEventCount;
+
+  private final AuthorizationImpl authorization;
+
+  private final Consumer<CacheInvalidationEvent> cacheInvalidationListener =
+      this::applyCacheInvalidationEvent;
+
+  private final CacheInvalidationTransport cacheInvalidationTransport;
+
+  private volatile PermissionGraph permissionGraph;
+
+  private final QuerydslSupport querydslSupport;
+
+  /**
+   * The number of received events. Guarded by the instance.
+   */
+  private volatile long receivedEventCount;
+
+  /**
+   * Serializes the reloads of the stale records.
+   */
+  private final Object refreshLock = new Object();
+
+  /**
+   * The ids of the authorized resources whose permissions are stale. Guarded by the instance.
+   */
+  private final Set<Long> staleAuthorizedResourceIds = new TreeSet<>();
+
+  /**
+   * The ids of the child resources whose parents are stale. Guarded by the instance.
+   */
+  private final Set<Long> staleChildResourceIds = new TreeSet<>();
+
+  /**
+   * Whether the whole snapshot is stale. Guarded by the instance.
+   */
+  private boolean staleSnapshot;
+
+  private final long systemResourceId;
+
+  private final TransactionPropagator transactionPropagator;
+
+  /**
+   * Constructor that loads all records into the memory.
+   *
+   * @param propertyManager
+   *          the {@link PropertyManager} instance.
+   * @param resourceService
+   *          the {@link ResourceService} instance.
+   * @param transactionPropagator
+   *          the {@link TransactionPropagator} instance.
+   * @param querydslSupport
+   *          the {@link QuerydslSupport} instance.
+   * @param configuration
+   *          the settings of the {@link AuthorizationImpl} that makes the modifications. The cache
+   *          settings are not used, as the delegate does not check permissions.
+   *
+   * @throws NullPointerException
+   *           if one of the parameter is <code>null</code>.
+   */
+  public InMemoryAuthorizationImpl(final PropertyManager propertyManager,
+      final ResourceService resourceService, final TransactionPropagator transactionPropagator,
+      final QuerydslSupport querydslSupport, final AuthorizationConfiguration configuration) {
+    this.transactionPropagator =
+        Objects.requireNonNull(transactionPropagator, "transactionPropagator cannot be null");
+    this.querydslSupport =
+        Objects.requireNonNull(querydslSupport, "querydslSupport cannot be null");
+    Objects.requireNonNull(configuration, "configuration cannot be null");
+    // The settings of the caller are not modified
+    AuthorizationConfiguration delegateConfiguration = configuration.copy();
+    if (delegateConfiguration.getCacheInvalidationTransport() == null) {
+      delegateConfiguration.cacheInvalidationTransport(new LoopbackCacheInvalidationTransport());
+    }
+    this.cacheInvalidationTransport = delegateConfiguration.getCacheInvalidationTransport();
+    // The delegate neither checks permissions nor generates predicates, so it reads nothing ahead
+    delegateConfiguration.clearCacheWarmUp();
+    delegateConfiguration.recursiveScopePredicateThreshold(0);
+
+    // The delegate only writes the database, so its caches are kept as small as possible
+    CacheConfiguration delegateCacheConfiguration = new CacheConfiguration().maximumSize(1);
+    this.authorization = new AuthorizationImpl(propertyManager, resourceService,
+        transactionPropagator, querydslSupport,
+        new CompactPermissionCache(delegateCacheConfiguration),
+        new CompactPermissionInheritanceCache(delegateCacheConfiguration),
+        delegateConfiguration);
+    this.systemResourceId = authorization.getSystemResourceId();
+
+    // The events that arrive during the load are reloaded by the first check
+    cacheInvalidationTransport.addListener(cacheInvalidationListener);
+    permissionGraph = loadSnapshot();
+  }
+
+  @Override
+  public void addPermission(final long authorizedResourceId, final long targetResourceId,
+      final String action) {
+    authorization.addPermission(authorizedResourceId, targetResourceId, action);
+  }
+
+  @Override
+  public void addPermissionInheritance(final long parentResourceId, final long childResourceId) {
+    authorization.addPermissionInheritance(parentResourceId, childResourceId);
+  }
+
+  /**
+   * Adds permission inheritance records.
+   *
+   * @see AuthorizationImpl#addPermissionInheritances(Collection)
+   */
+  public void addPermissionInheritances(
+      final Collection<PermissionInheritanceRecord> permissionInheritances) {
+    authorization.addPermissionInheritances(permissionInheritances);
+  }
+
+  /**
+   * Adds permission records.
+   *
+   * @see AuthorizationImpl#addPermissions(Collection)
+   */
+  public void addPermissions(final Collection<PermissionRecord> permissions) {
+    authorization.addPermissions(permissions);
+  }
+
+  /**
+   * Marks the records of the resources that the event refers to stale or the whole snapshot if the
+   * event clears the caches. The records are reloaded by {@link #refreshStaleRecords()}.
+   */
+  private synchronized void applyCacheInvalidationEvent(final CacheInvalidationEvent event) {
+    if (event.isClearAll()) {
+      staleSnapshot = true;
+      staleAuthorizedResourceIds.clear();
+      staleChildResourceIds.clear();
+    } else if (!staleSnapshot) {
+      for (PermissionRecord record : event.getPermissions()) {
+        staleAuthorizedResourceIds.add(record.getAuthorizedResourceId());
+      }
+      for (PermissionInheritanceRecord record : event.getPermissionInheritances()) {
+        staleChildResourceIds.add(record.getChildResourceId());
+      }
+    }
+    receivedEventCount++;
+  }
+
+  /**
+   * Reloads all records from the database on every node.
+   */
+  @Override
+  public void clearCache() {
+    authorization.clearCache();
+  }
+
+  /**
+   * Unregisters the instance from the cache invalidation transport. The in-memory records are not
+   * updated anymore.
+   */
+  public void close() {
+    cacheInvalidationTransport.removeListener(cacheInvalidationListener);
+    authorization.close();
+  }
+
+  private void forEachChunk(final Set<Long> resourceIds, final Consumer<List<Long>> action) {
+    List<Long> resourceIdList = new ArrayList<>(resourceIds);
+    for (int fromIndex = 0, n = resourceIdList.size(); fromIndex < n;
+        fromIndex += MAX_IN_LIST_SIZE) {
+      action.accept(resourceIdList.subList(fromIndex, Math.min(n, fromIndex + MAX_IN_LIST_SIZE)));
+    }
+  }
+
+  @Override
+  public long[] getAuthorizationScope(final long resourceId) {
+    refreshStaleRecords();
+    return permissionGraph.getAuthorizationScope(resourceId);
+  }
+
+  @Override
+  public long getSystemResourceId() {
+    return systemResourceId;
+  }
+
+  @Override
+  public boolean hasPermission(final long authorizedResourceId, final long targetResourceId,
+      final String... actions) {
+    if (authorizedResourceId == systemResourceId) {
+      return true;
+    }
+    AuthorizationImpl.validateActionsParameter(actions);
+    refreshStaleRecords();
+    return permissionGraph.hasPermission(authorizedResourceId, targetResourceId,
+        systemResourceId, actions);
+  }
+
+  /**
+   * Reads all records in a new transaction, so only committed records are loaded even if the
+   * caller has an enclosing transaction.
+   */
+  private PermissionGraph loadSnapshot() {
+    PermissionGraph graph = new PermissionGraph();
+    transactionPropagator.requiresNew(() -> {
+      readPermissions(graph, null, null);
+      readPermissionInheritances(graph, null, null);
+      return null;
+    });
+    return graph;
+  }
+
+  /**
+   * Reads the parents of the child resources into the graph, ordered by the child resource id.
+   *
+   * @param childResourceIds
+   *          the ids of the children whose parents are replaced, including the ones that have no
+   *          parents anymore, or <code>null</code> if the whole table is read.
+   */
+  private void readPermissionInheritances(final PermissionGraph graph,
+      final Collection<Long> childResourceIds, final BooleanExpression predicate) {
+    querydslSupport.execute((connection, configuration) -> {
+      QPermissionInheritance permissionInheritance = QPermissionInheritance.permissionInheritance;
+      SQLQuery<Tuple> query = new SQLQuery<Void>(connection, configuration)
+          .select(permissionInheritance.childResourceId, permissionInheritance.parentResourceId)
+          .from(permissionInheritance);
+      if (predicate != null) {
+        query.where(predicate);
+      }
+      query.orderBy(permissionInheritance.childResourceId.asc());
+      query.setStatementOptions(
+          StatementOptions.builder().setFetchSize(SNAPSHOT_FETCH_SIZE).build());
+
+      Set<Long> remainingChildResourceIds =
+          (childResourceIds != null) ? new TreeSet<>(childResourceIds) : new TreeSet<>();
+      long currentChildResourceId = 0;
+      List<Long> parentResourceIds = new ArrayList<>();
+      try (CloseableIterator<Tuple> iterator = query.iterate()) {
+        while (iterator.hasNext()) {
+          Tuple tuple = iterator.next();
+          long childResourceId = tuple.get(permissionInheritance.childResourceId);
+          if (!parentResourceIds.isEmpty() && (childResourceId != currentChildResourceId)) {
+            setParentResourceIds(graph, currentChildResourceId, parentResourceIds);
+            remainingChildResourceIds.remove(currentChildResourceId);
+            parentResourceIds.clear();
+          }
+          currentChildResourceId = childResourceId;
+          parentResourceIds.add(tuple.get(permissionInheritance.parentResourceId));
+        }
+      }
+      if (!parentResourceIds.isEmpty()) {
+        setParentResourceIds(graph, currentChildResourceId, parentResourceIds);
+        remainingChildResourceIds.remove(currentChildResourceId);
+      }
+      for (Long childResourceId : remainingChildResourceIds) {
+        graph.setParentResourceIds(childResourceId, new long[0]);
+      }
+      return null;
+    });
+  }
+
+  /**
+   * Reads the permissions of the authorized resources into the graph, ordered by the authorized
+   * resource id.
+   *
+   * @param authorizedResourceIds
+   *          the ids of the authorized resources whose permissions are replaced, including the ones
+   *          that have no permissions anymore, or <code>null</code> if the whole table is read.
+   */
+  private void readPermissions(final PermissionGraph graph,
+      final Collection<Long> authorizedResourceIds, final BooleanExpression predicate) {
+    querydslSupport.execute((connection, configuration) -> {
+      QPermission permission = QPermission.permission;
+      SQLQuery<Tuple> query = new SQLQuery<Void>(connection, configuration)
+          .select(permission.authorizedResourceId, permission.targetResourceId,
+              permission.action)
+          .from(permission);
+      if (predicate != null) {
+        query.where(predicate);
+      }
+      query.orderBy(permission.authorizedResourceId.asc());
+      query.setStatementOptions(
+          StatementOptions.builder().setFetchSize(SNAPSHOT_FETCH_SIZE).build());
+
+      Set<Long> remainingAuthorizedResourceIds = (authorizedResourceIds != null)
+          ? new TreeSet<>(authorizedResourceIds)
+          : new TreeSet<>();
+      long currentAuthorizedResourceId = 0;
+      List<Long> targetResourceIds = new ArrayList<>();
+      List<String> actions = new ArrayList<>();
+      try (CloseableIterator<Tuple> iterator = query.iterate()) {
+        while (iterator.hasNext()) {
+          Tuple tuple = iterator.next();
+          long authorizedResourceId = tuple.get(permission.authorizedResourceId);
+          if (!targetResourceIds.isEmpty()
+              && (authorizedResourceId != currentAuthorizedResourceId)) {
+            graph.setPermissions(currentAuthorizedResourceId, targetResourceIds, actions);
+            remainingAuthorizedResourceIds.remove(currentAuthorizedResourceId);
+            targetResourceIds.clear();
+            actions.clear();
+          }
+          currentAuthorizedResourceId = authorizedResourceId;
+          targetResourceIds.add(tuple.get(permission.targetResourceId));
+          actions.add(tuple.get(permission.action));
+        }
+      }
+      if (!targetResourceIds.isEmpty()) {
+        graph.setPermissions(currentAuthorizedResourceId, targetResourceIds, actions);
+        remainingAuthorizedResourceIds.remove(currentAuthorizedResourceId);
+      }
+      for (Long authorizedResourceId : remainingAuthorizedResourceIds) {
+        graph.setPermissions(authorizedResourceId, Collections.emptyList(),
+            Collections.emptyList());
+      }
+      return null;
+    });
+  }
+
+  /**
+   * Reads the records of the resources in a new transaction, so the uncommitted modifications of
+   * an enclosing transaction of the caller are never loaded into the shared graph.
+   */
+  private void refreshRecords(final Set<Long> authorizedResourceIds,
+      final Set<Long> childResourceIds) {
+    PermissionGraph graph = permissionGraph;
+    transactionPropagator.requiresNew(() -> {
+      forEachChunk(authorizedResourceIds, chunk -> {
+        QPermission permission = QPermission.permission;
+        readPermissions(graph, chunk, permission.authorizedResourceId.in(chunk));
+      });
+      forEachChunk(childResourceIds, chunk -> {
+        QPermissionInheritance permissionInheritance =
+            QPermissionInheritance.permissionInheritance;
+        readPermissionInheritances(graph, chunk,
+            permissionInheritance.childResourceId.in(chunk));
+      });
+      return null;
+    });
+  }
+
+  /**
+   * Reloads the stale records from the database if an event arrived since the last reload. The
+   * checks that run concurrently with the reload wait for it, so no check returns a record that an
+   * already received event made stale.
+   */
+  private void refreshStaleRecords() {
+    if (appliedEventCount == receivedEventCount) {
+      return;
+    }
+    synchronized (refreshLock) {
+      long eventCount;
+      boolean snapshot;
+      Set<Long> authorizedResourceIds;
+      Set<Long> childResourceIds;
+      synchronized (this) {
+        eventCount = receivedEventCount;
+        if (appliedEventCount == eventCount) {
+          return;
+        }
+        snapshot = staleSnapshot;
+        authorizedResourceIds = new TreeSet<>(staleAuthorizedResourceIds);
+        childResourceIds = new TreeSet<>(staleChildResourceIds);
+        staleSnapshot = false;
+        staleAuthorizedResourceIds.clear();
+        staleChildResourceIds.clear();
+      }
+      try {
+        if (snapshot) {
+          permissionGraph = loadSnapshot();
+        } else {
+          refreshRecords(authorizedResourceIds, childResourceIds);
+        }
+      } catch (RuntimeException e) {
+        synchronized (this) {
+          staleSnapshot |= snapshot;
+          staleAuthorizedResourceIds.addAll(authorizedResourceIds);
+          staleChildResourceIds.addAll(childResourceIds);
+        }
+        throw e;
+      }
+      appliedEventCount = eventCount;
+    }
+  }
+
+  @Override
+  public void removePermission(final long authorizedResourceId, final long targetResourceId,
+      final String action) {
+    authorization.removePermission(authorizedResourceId, targetResourceId, action);
+  }
+
+  @Override
+  public void removePermissionInheritance(final long parentResourceId, final long childResourceId) {
+    authorization.removePermissionInheritance(parentResourceId, childResourceId);
+  }
+
+  /**
+   * Removes permission inheritance records.
+   *
+   * @see AuthorizationImpl#removePermissionInheritances(Collection)
+   */
+  public void removePermissionInheritances(
+      final Collection<PermissionInheritanceRecord> permissionInheritances) {
+    authorization.removePermissionInheritances(permissionInheritances);
+  }
+
+  /**
+   * Removes permission records.
+   *
+   * @see AuthorizationImpl#removePermissions(Collection)
+   */
+  public void removePermissions(final Collection<PermissionRecord> permissions) {
+    authorization.removePermissions(permissions);
+  }
+
+  private void setParentResourceIds(final PermissionGraph graph, final long childResourceId,
+      final List<Long> parentResourceIds) {
+    long[] parents = new long[parentResourceIds.size()];
+    for (int i = 0; i < parents.length; i++) {
+      parents[i] = parentResourceIds.get(i);
+    }
+    graph.setParentResourceIds(childResourceId, parents);
+  }
+}
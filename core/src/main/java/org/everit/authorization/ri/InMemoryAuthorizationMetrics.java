@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * {@link AuthorizationMetricsListener} that counts the events in memory. The counters are
+ * {@link LongAdder}s, so concurrent threads do not contend on updating them. It is meant for
+ * tests, benchmarks and for exposing the values via a monitoring system that polls the getters.
+ */
+public class InMemoryAuthorizationMetrics implements AuthorizationMetricsListener {
+
+  private static LongAdder[] createAdders(final int length) {
+    LongAdder[] adders = new LongAdder[length];
+    for (int i = 0; i < length; i++) {
+      adders[i] = new LongAdder();
+    }
+    return adders;
+  }
+
+  private final LongAdder authorizationScopeCount = new LongAdder();
+
+  private final LongAdder authorizationScopeSizeSum = new LongAdder();
+
+  private final LongAdder cacheClearCount = new LongAdder();
+
+  private final LongAdder[] cacheHitCounts = createAdders(CacheType.values().length);
+
+  private final LongAdder[] cacheInvalidationCounts = createAdders(CacheType.values().length);
+
+  private final LongAdder[] cacheMissCounts = createAdders(CacheType.values().length);
+
+  private final LongAdder[] databaseOperationCounts =
+      createAdders(DatabaseOperation.values().length);
+
+  private final LongAdder[] databaseOperationNanos =
+      createAdders(DatabaseOperation.values().length);
+
+  private final LongAccumulator maximumAuthorizationScopeSize = new LongAccumulator(Math::max, 0);
+
+  @Override
+  public void authorizationScopeResolved(final int size) {
+    authorizationScopeCount.increment();
+    authorizationScopeSizeSum.add(size);
+    maximumAuthorizationScopeSize.accumulate(size);
+  }
+
+  @Override
+  public void cacheCleared() {
+    cacheClearCount.increment();
+  }
+
+  @Override
+  public void cacheHit(final CacheType cache) {
+    cacheHitCounts[cache.ordinal()].increment();
+  }
+
+  @Override
+  public void cacheInvalidated(final CacheType cache, final int count) {
+    cacheInvalidationCounts[cache.ordinal()].add(count);
+  }
+
+  @Override
+  public void cacheMiss(final CacheType cache) {
+    cacheMissCounts[cache.ordinal()].increment();
+  }
+
+  @Override
+  public void databaseOperationCompleted(final DatabaseOperation operation,
+      final long durationNanos) {
+    databaseOperationCounts[operation.ordinal()].increment();
+    databaseOperationNanos[operation.ordinal()].add(durationNanos);
+  }
+
+  /**
+   * The average size of the authorization scopes that were calculated.
+   *
+   * @return the average size or zero if no scope was calculated.
+   */
+  public double getAverageAuthorizationScopeSize() {
+    long count = authorizationScopeCount.sum();
+    return (count == 0) ? 0 : ((double) authorizationScopeSizeSum.sum() / count);
+  }
+
+  public long getCacheClearCount() {
+    return cacheClearCount.sum();
+  }
+
+  public long getCacheHitCount(final CacheType cache) {
+    return cacheHitCounts[cache.ordinal()].sum();
+  }
+
+  /**
+   * The ratio of the lookups that were answered by the cache.
+   *
+   * @return the hit ratio between zero and one or {@link Double#NaN} if there was no lookup.
+   */
+  public double getCacheHitRatio(final CacheType cache) {
+    long hitCount = getCacheHitCount(cache);
+    long lookupCount = hitCount + getCacheMissCount(cache);
+    return (lookupCount == 0) ? Double.NaN : ((double) hitCount / lookupCount);
+  }
+
+  public long getCacheInvalidationCount(final CacheType cache) {
+    return cacheInvalidationCounts[cache.ordinal()].sum();
+  }
+
+  public long getCacheMissCount(final CacheType cache) {
+    return cacheMissCounts[cache.ordinal()].sum();
+  }
+
+  public long getDatabaseOperationCount(final DatabaseOperation operation) {
+    return databaseOperationCounts[operation.ordinal()].sum();
+  }
+
+  public long getDatabaseOperationNanos(final DatabaseOperation operation) {
+    return databaseOperationNanos[operation.ordinal()].sum();
+  }
+
+  public long getMaximumAuthorizationScopeSize() {
+    return maximumAuthorizationScopeSize.get();
+  }
+
+  public long getResolvedAuthorizationScopeCount() {
+    return authorizationScopeCount.sum();
+  }
+
+  /**
+   * Sets all counters to zero. Events that are recorded concurrently may be lost or counted
+   * partially.
+   */
+  public void reset() {
+    authorizationScopeCount.reset();
+    authorizationScopeSizeSum.reset();
+    cacheClearCount.reset();
+    for (CacheType cache : CacheType.values()) {
+      cacheHitCounts[cache.ordinal()].reset();
+      cacheInvalidationCounts[cache.ordinal()].reset();
+      cacheMissCounts[cache.ordinal()].reset();
+    }
+    for (DatabaseOperation operation : DatabaseOperation.values()) {
+      databaseOperationCounts[operation.ordinal()].reset();
+      databaseOperationNanos[operation.ordinal()].reset();
+    }
+    maximumAuthorizationScopeSize.reset();
+  }
+}
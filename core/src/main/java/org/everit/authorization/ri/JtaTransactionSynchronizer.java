@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri;
+
+import java.util.Objects;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+import javax.transaction.TransactionSynchronizationRegistry;
+
+/**
+ * {@link TransactionSynchronizer} that registers the callbacks as interposed synchronizations of
+ * the JTA transaction.
+ */
+public class JtaTransactionSynchronizer implements TransactionSynchronizer {
+
+  private final TransactionSynchronizationRegistry transactionSynchronizationRegistry;
+
+  /**
+   * Constructor.
+   *
+   * @param transactionSynchronizationRegistry
+   *          the registry of the transaction manager that the transaction propagator uses.
+   *
+   * @throws NullPointerException
+   *           if the parameter is <code>null</code>.
+   */
+  public JtaTransactionSynchronizer(
+      final TransactionSynchronizationRegistry transactionSynchronizationRegistry) {
+    this.transactionSynchronizationRegistry =
+        Objects.requireNonNull(transactionSynchronizationRegistry,
+            "transactionSynchronizationRegistry cannot be null");
+  }
+
+  @Override
+  public boolean registerCompletionCallback(final CompletionCallback callback) {
+    Objects.requireNonNull(callback, "callback cannot be null");
+    if ((transactionSynchronizationRegistry.getTransactionKey() == null)
+        || (transactionSynchronizationRegistry.getTransactionStatus() != Status.STATUS_ACTIVE)) {
+      return false;
+    }
+
+    transactionSynchronizationRegistry.registerInterposedSynchronization(new Synchronization() {
+
+      @Override
+      public void afterCompletion(final int status) {
+        callback.afterCompletion(status == Status.STATUS_COMMITTED);
+      }
+
+      @Override
+      public void beforeCompletion() {
+        // Nothing to do before the commit
+      }
+    });
+    return true;
+  }
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri;
+
+import java.util.NoSuchElementException;
+import java.util.PrimitiveIterator;
+import java.util.function.LongFunction;
+
+/**
+ * Iterates over ascending ids that are read from the database page by page. The next page is read
+ * when the previous one is consumed, with the last id of the previous page as the lower bound of
+ * the query, so the iteration needs memory only for one page.
+ */
+final class KeysetPageIterator implements PrimitiveIterator.OfLong {
+
+  /**
+   * The lower bound that is passed to the page reader for the first page.
+   */
+  static final long FIRST_PAGE = Long.MIN_VALUE;
+
+  private int index;
+
+  private long[] page;
+
+  private final LongFunction<long[]> pageReader;
+
+  private final int pageSize;
+
+  /**
+   * Constructor.
+   *
+   * @param pageSize
+   *          the maximum number of ids that the page reader returns.
+   * @param pageReader
+   *          reads the ids that are greater than the passed one in ascending order. It returns
+   *          fewer than pageSize ids only on the last page.
+   */
+  KeysetPageIterator(final int pageSize, final LongFunction<long[]> pageReader) {
+    this.pageSize = pageSize;
+    this.pageReader = pageReader;
+  }
+
+  @Override
+  public boolean hasNext() {
+    if (page == null) {
+      page = pageReader.apply(FIRST_PAGE);
+      index = 0;
+    } else if ((index == page.length) && (page.length == pageSize)) {
+      page = pageReader.apply(page[page.length - 1]);
+      index = 0;
+    }
+    return index < page.length;
+  }
+
+  @Override
+  public long nextLong() {
+    if (!hasNext()) {
+      throw new NoSuchElementException();
+    }
+    return page[index++];
+  }
+}
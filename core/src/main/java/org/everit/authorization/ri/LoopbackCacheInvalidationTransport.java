@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri;
+
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * {@link CacheInvalidationTransport} that delivers the events to the listeners of the same JVM on
+ * the publishing thread. Several {@link AuthorizationImpl} instances that share this transport
+ * behave like the nodes of a cluster, so it can be used to test the cache invalidation locally.
+ */
+public class LoopbackCacheInvalidationTransport implements CacheInvalidationTransport {
+
+  private final List<Consumer<CacheInvalidationEvent>> listeners = new CopyOnWriteArrayList<>();
+
+  @Override
+  public void addListener(final Consumer<CacheInvalidationEvent> listener) {
+    listeners.add(Objects.requireNonNull(listener, "listener cannot be null"));
+  }
+
+  @Override
+  public void publish(final CacheInvalidationEvent event) {
+    Objects.requireNonNull(event, "event cannot be null");
+    for (Consumer<CacheInvalidationEvent> listener : listeners) {
+      listener.accept(event);
+    }
+  }
+
+  @Override
+  public void removeListener(final Consumer<CacheInvalidationEvent> listener) {
+    listeners.remove(listener);
+  }
+}
@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri;
+
+/**
+ * {@link AuthorizationMetricsListener} that ignores all events. The empty methods are inlined by
+ * the JIT compiler, so the instrumentation of the component does not cost anything if metrics
+ * are not collected.
+ */
+public final class NoOpAuthorizationMetricsListener implements AuthorizationMetricsListener {
+
+  public static final NoOpAuthorizationMetricsListener INSTANCE =
+      new NoOpAuthorizationMetricsListener();
+
+  private NoOpAuthorizationMetricsListener() {
+  }
+
+  @Override
+  public void authorizationScopeResolved(final int size) {
+    // Ignored
+  }
+
+  @Override
+  public void cacheCleared() {
+    // Ignored
+  }
+
+  @Override
+  public void cacheHit(final CacheType cache) {
+    // Ignored
+  }
+
+  @Override
+  public void cacheInvalidated(final CacheType cache, final int count) {
+    // Ignored
+  }
+
+  @Override
+  public void cacheMiss(final CacheType cache) {
+    // Ignored
+  }
+
+  @Override
+  public void databaseOperationCompleted(final DatabaseOperation operation,
+      final long durationNanos) {
+    // Ignored
+  }
+}
@@ -0,0 +1,475 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.util.Objects;
+
+/**
+ * {@link PermissionInheritanceCache} that stores the inheritance graph outside of the Java heap.
+ * Every segment has an open addressing index from the resource id to a position and a length, and
+ * an edge buffer that holds the parent ids of all resources of the segment one after another, like
+ * the adjacency array of a compressed sparse row graph. The buffers are direct {@link ByteBuffer}s,
+ * so the heap holds a few objects per segment, independently of the number of cached resources,
+ * and the garbage collector does not have to trace the graph.
+ *
+ * <p>
+ * The parents that are replaced or removed stay in the edge buffer until it is full; then the live
+ * edges are copied into a new buffer. {@link #get(long)} returns a new array on every call.
+ *
+ * <p>
+ * The cache can be bounded by a {@link CacheConfiguration}. If a segment is full, an entry is
+ * evicted with the CLOCK algorithm. Without a maximum size, the direct memory that the cache can
+ * use is limited only by the <code>-XX:MaxDirectMemorySize</code> option of the JVM.
+ *
+ * <p>
+ * The index keeps the identity hash code of the array that an entry was stored with, so
+ * {@link #remove(long, long[])} removes the entry only if it was stored with the passed instance,
+ * like the caches that keep the arrays on the heap. The copies that {@link #get(long)} returns are
+ * never the stored instance.
+ */
+public class OffHeapPermissionInheritanceCache implements PermissionInheritanceCache {
+
+  /**
+   * One index and edge buffer pair.
+   */
+  private static final class Segment extends OpenAddressingSegment {
+
+    private int edgeCount;
+
+    private LongBuffer edges;
+
+    private int garbageEdgeCount;
+
+    /**
+     * The identity hash codes of the arrays that the entries were stored with.
+     */
+    private IntBuffer identityHashCodes;
+
+    private LongBuffer keys;
+
+    /**
+     * The position of the parents in the edge buffer in the upper 32 bits and the number of the
+     * parents plus one in the lower 32 bits. Zero marks an empty slot.
+     */
+    private LongBuffer references;
+
+    Segment(final long expireAfterWriteNanos, final int maximumSize) {
+      super(expireAfterWriteNanos, maximumSize);
+      reset();
+    }
+
+    @Override
+    void allocateEntries(final int capacity) {
+      identityHashCodes = ByteBuffer.allocateDirect(capacity * Integer.BYTES)
+          .order(ByteOrder.nativeOrder()).asIntBuffer();
+      keys = allocateLongBuffer(capacity);
+      references = allocateLongBuffer(capacity);
+    }
+
+    private int append(final long[] parentResourceIds) {
+      if ((edges.capacity() - edgeCount) < parentResourceIds.length) {
+        compactEdges(parentResourceIds.length);
+      }
+      int position = edgeCount;
+      for (int i = 0; i < parentResourceIds.length; i++) {
+        edges.put(position + i, parentResourceIds[i]);
+      }
+      edgeCount += parentResourceIds.length;
+      return position;
+    }
+
+    /**
+     * Copies the live edges into a new buffer that has room for the additional edges.
+     */
+    private void compactEdges(final int additionalEdgeCount) {
+      long requiredEdgeCount = ((long) edgeCount - garbageEdgeCount) + additionalEdgeCount;
+      if (requiredEdgeCount > MAXIMUM_BUFFER_CAPACITY) {
+        throw new IllegalStateException(
+            "The permission inheritance cache cannot store more than " + MAXIMUM_BUFFER_CAPACITY
+                + " parents of the resources in one segment");
+      }
+      int capacity = (int) Math.min(MAXIMUM_BUFFER_CAPACITY,
+          Math.max(INITIAL_EDGE_CAPACITY, requiredEdgeCount << 1));
+
+      LongBuffer oldEdges = edges;
+      LongBuffer newEdges = allocateLongBuffer(capacity);
+      int position = 0;
+      for (int i = 0, n = references.capacity(); i < n; i++) {
+        long reference = references.get(i);
+        if (reference != 0) {
+          int oldPosition = position(reference);
+          int length = length(reference);
+          for (int j = 0; j < length; j++) {
+            newEdges.put(position + j, oldEdges.get(oldPosition + j));
+          }
+          references.put(i, reference(position, length));
+          position += length;
+        }
+      }
+      edges = newEdges;
+      edgeCount = position;
+      garbageEdgeCount = 0;
+    }
+
+    long[] find(final long key, final long hash, final long now) {
+      LongBuffer tmpKeys = keys;
+      LongBuffer tmpReferences = references;
+      LongBuffer tmpEdges = edges;
+      long[] tmpExpirationTimes = expirationTimes;
+      byte[] tmpReferenced = referenced;
+      int capacity = tmpKeys.capacity();
+      if ((capacity != tmpReferences.capacity()) || (capacity != tmpReferenced.length)
+          || ((tmpExpirationTimes != null) && (capacity != tmpExpirationTimes.length))) {
+        // Inconsistent state during an optimistic read
+        return null;
+      }
+      int mask = capacity - 1;
+      int index = (int) hash & mask;
+      for (int i = 0; i < capacity; i++) {
+        long reference = tmpReferences.get(index);
+        if (reference == 0) {
+          return null;
+        }
+        if (tmpKeys.get(index) == key) {
+          if ((tmpExpirationTimes != null) && ((tmpExpirationTimes[index] - now) < 0)) {
+            return null;
+          }
+          if (tmpReferenced[index] == 0) {
+            tmpReferenced[index] = 1;
+          }
+          int position = position(reference);
+          int length = length(reference);
+          if (length == 0) {
+            return NO_RESOURCE_IDS;
+          }
+          if ((length < 0) || (position < 0) || (length > (tmpEdges.capacity() - position))) {
+            // Inconsistent state during an optimistic read
+            return null;
+          }
+          long[] parentResourceIds = new long[length];
+          for (int j = 0; j < length; j++) {
+            parentResourceIds[j] = tmpEdges.get(position + j);
+          }
+          return parentResourceIds;
+        }
+        index = (index + 1) & mask;
+      }
+      return null;
+    }
+
+    long[] findLocked(final long key, final long hash, final long now) {
+      long stamp = lock.tryOptimisticRead();
+      if (stamp != 0) {
+        long[] parentResourceIds = find(key, hash, now);
+        if (lock.validate(stamp)) {
+          return parentResourceIds;
+        }
+      }
+
+      stamp = lock.readLock();
+      try {
+        return find(key, hash, now);
+      } finally {
+        lock.unlockRead(stamp);
+      }
+    }
+
+    @Override
+    long hashAt(final int index) {
+      return ConcurrentLongObjectMap.hash(keys.get(index));
+    }
+
+    int indexOf(final long key, final long hash) {
+      int mask = keys.capacity() - 1;
+      int index = (int) hash & mask;
+      while (references.get(index) != 0) {
+        if (keys.get(index) == key) {
+          return index;
+        }
+        index = (index + 1) & mask;
+      }
+      return -1 - index;
+    }
+
+    @Override
+    boolean isOccupied(final int index) {
+      return references.get(index) != 0;
+    }
+
+    /**
+     * Checks whether an entry was stored with the passed array. The content is compared too, as
+     * different arrays can have the same identity hash code.
+     */
+    boolean isStoredWith(final int index, final long[] parentResourceIds) {
+      long reference = references.get(index);
+      int length = length(reference);
+      if ((identityHashCodes.get(index) != System.identityHashCode(parentResourceIds))
+          || (length != parentResourceIds.length)) {
+        return false;
+      }
+      int position = position(reference);
+      for (int i = 0; i < length; i++) {
+        if (edges.get(position + i) != parentResourceIds[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    @Override
+    void moveEntry(final int fromIndex, final int toIndex) {
+      identityHashCodes.put(toIndex, identityHashCodes.get(fromIndex));
+      keys.put(toIndex, keys.get(fromIndex));
+      references.put(toIndex, references.get(fromIndex));
+      references.put(fromIndex, 0);
+    }
+
+    void put(final long key, final long hash, final long[] parentResourceIds,
+        final long now) {
+      int index = indexOf(key, hash);
+      if (index < 0) {
+        evictIfFull(now);
+        // The eviction can shift the probe sequence of the key back
+        index = indexOf(key, hash);
+        if (size >= MAXIMUM_SEGMENT_SIZE) {
+          throw new IllegalStateException("The permission inheritance cache cannot store more than "
+              + MAXIMUM_SEGMENT_SIZE + " resources in one segment");
+        }
+      }
+      // The replaced parents are still referenced while the new ones are appended
+      long reference = reference(append(parentResourceIds), parentResourceIds.length);
+      int identityHashCode = System.identityHashCode(parentResourceIds);
+      if (index >= 0) {
+        garbageEdgeCount += length(references.get(index));
+        references.put(index, reference);
+        identityHashCodes.put(index, identityHashCode);
+        renew(index, now);
+        return;
+      }
+
+      int freeIndex = -1 - index;
+      keys.put(freeIndex, key);
+      references.put(freeIndex, reference);
+      identityHashCodes.put(freeIndex, identityHashCode);
+      inserted(freeIndex, now);
+    }
+
+    @Override
+    void relocateEntries(final int capacity, final int[] newIndexes) {
+      IntBuffer oldIdentityHashCodes = identityHashCodes;
+      LongBuffer oldKeys = keys;
+      LongBuffer oldReferences = references;
+      allocateEntries(capacity);
+      for (int i = 0; i < newIndexes.length; i++) {
+        int index = newIndexes[i];
+        if (index >= 0) {
+          identityHashCodes.put(index, oldIdentityHashCodes.get(i));
+          keys.put(index, oldKeys.get(i));
+          references.put(index, oldReferences.get(i));
+        }
+      }
+    }
+
+    @Override
+    void removeEntry(final int index) {
+      garbageEdgeCount += length(references.get(index));
+      references.put(index, 0);
+    }
+
+    @Override
+    void reset() {
+      super.reset();
+      edges = allocateLongBuffer(INITIAL_EDGE_CAPACITY);
+      edgeCount = 0;
+      garbageEdgeCount = 0;
+    }
+  }
+
+  private static final int INITIAL_EDGE_CAPACITY = 64;
+
+  /**
+   * The maximum number of <code>long</code> values in a direct buffer.
+   */
+  private static final int MAXIMUM_BUFFER_CAPACITY = Integer.MAX_VALUE / Long.BYTES;
+
+  /**
+   * The capacity of the index of a segment is a power of two and the index grows before it is
+   * more than three quarters full, so half of the largest power of two capacity is a safe limit.
+   */
+  private static final int MAXIMUM_SEGMENT_SIZE = Integer.highestOneBit(MAXIMUM_BUFFER_CAPACITY)
+      >>> 1;
+
+  private static final long[] NO_RESOURCE_IDS = new long[0];
+
+  private static LongBuffer allocateLongBuffer(final int capacity) {
+    return ByteBuffer.allocateDirect(capacity * Long.BYTES).order(ByteOrder.nativeOrder())
+        .asLongBuffer();
+  }
+
+  private static int length(final long reference) {
+    return (int) reference - 1;
+  }
+
+  private static int position(final long reference) {
+    return (int) (reference >>> Integer.SIZE);
+  }
+
+  private static long reference(final int position, final int length) {
+    return ((long) position << Integer.SIZE) | (length + 1);
+  }
+
+  private final Segment[] segments;
+
+  /**
+   * Creates an unbounded cache.
+   */
+  public OffHeapPermissionInheritanceCache() {
+    this(new CacheConfiguration());
+  }
+
+  /**
+   * Creates a cache that applies the maximum size and the expiration of the configuration. The
+   * second chance flags and the expiration times of the entries are kept on the heap, in one
+   * primitive array per segment.
+   *
+   * @param cacheConfiguration
+   *          the size and expiration policy of the cache.
+   *
+   * @throws NullPointerException
+   *           if the parameter is <code>null</code>.
+   */
+  public OffHeapPermissionInheritanceCache(final CacheConfiguration cacheConfiguration) {
+    Objects.requireNonNull(cacheConfiguration, "cacheConfiguration cannot be null");
+    long expireAfterWriteNanos = cacheConfiguration.getExpireAfterWriteNanos();
+    int maximumSegmentSize =
+        OpenAddressingSegment.toSegmentSize(cacheConfiguration.getMaximumSize());
+
+    segments = new Segment[OpenAddressingSegment.SEGMENT_COUNT];
+    for (int i = 0; i < segments.length; i++) {
+      segments[i] = new Segment(expireAfterWriteNanos, maximumSegmentSize);
+    }
+  }
+
+  @Override
+  public void clear() {
+    OpenAddressingSegment.clear(segments);
+  }
+
+  @Override
+  public long[] get(final long resourceId) {
+    long hash = ConcurrentLongObjectMap.hash(resourceId);
+    Segment segment = segmentFor(hash);
+    return segment.findLocked(resourceId, hash, segment.now());
+  }
+
+  /**
+   * The number of bytes that the buffers of the cache occupy outside of the heap, including the
+   * free space of the buffers and the replaced parents that are not compacted yet.
+   */
+  public long getAllocatedBytes() {
+    long allocatedBytes = 0;
+    for (Segment segment : segments) {
+      long stamp = segment.lock.readLock();
+      try {
+        allocatedBytes += ((long) segment.keys.capacity() + segment.references.capacity()
+            + segment.edges.capacity()) * Long.BYTES
+            + ((long) segment.identityHashCodes.capacity() * Integer.BYTES);
+      } finally {
+        segment.lock.unlockRead(stamp);
+      }
+    }
+    return allocatedBytes;
+  }
+
+  @Override
+  public void put(final long resourceId, final long[] parentResourceIds) {
+    put(resourceId, parentResourceIds, false);
+  }
+
+  private boolean put(final long resourceId, final long[] parentResourceIds,
+      final boolean onlyIfAbsent) {
+    Objects.requireNonNull(parentResourceIds, "parentResourceIds cannot be null");
+    long hash = ConcurrentLongObjectMap.hash(resourceId);
+    Segment segment = segmentFor(hash);
+    long now = segment.now();
+    long stamp = segment.lock.writeLock();
+    try {
+      if (onlyIfAbsent) {
+        int index = segment.indexOf(resourceId, hash);
+        if ((index >= 0) && !segment.isExpired(index, now)) {
+          return false;
+        }
+      }
+      segment.put(resourceId, hash, parentResourceIds, now);
+      return true;
+    } finally {
+      segment.lock.unlockWrite(stamp);
+    }
+  }
+
+  @Override
+  public boolean putIfAbsent(final long resourceId, final long[] parentResourceIds) {
+    return put(resourceId, parentResourceIds, true);
+  }
+
+  @Override
+  public void remove(final long resourceId) {
+    long hash = ConcurrentLongObjectMap.hash(resourceId);
+    Segment segment = segmentFor(hash);
+    long stamp = segment.lock.writeLock();
+    try {
+      int index = segment.indexOf(resourceId, hash);
+      if (index >= 0) {
+        segment.removeAt(index);
+      }
+    } finally {
+      segment.lock.unlockWrite(stamp);
+    }
+  }
+
+  @Override
+  public boolean remove(final long resourceId, final long[] parentResourceIds) {
+    Objects.requireNonNull(parentResourceIds, "parentResourceIds cannot be null");
+    long hash = ConcurrentLongObjectMap.hash(resourceId);
+    Segment segment = segmentFor(hash);
+    long stamp = segment.lock.writeLock();
+    try {
+      int index = segment.indexOf(resourceId, hash);
+      if ((index < 0) || !segment.isStoredWith(index, parentResourceIds)) {
+        return false;
+      }
+      segment.removeAt(index);
+      return true;
+    } finally {
+      segment.lock.unlockWrite(stamp);
+    }
+  }
+
+  private Segment segmentFor(final long hash) {
+    return segments[OpenAddressingSegment.segmentIndex(hash)];
+  }
+
+  /**
+   * The number of cached entries.
+   */
+  public int size() {
+    return OpenAddressingSegment.size(segments);
+  }
+}
@@ -0,0 +1,342 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri;
+
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.IntPredicate;
+
+/**
+ * One open addressing table with linear probing of a segmented cache. The subclasses keep the keys
+ * and the values of the entries in columns of their own; this class keeps the columns that every
+ * table has, evicts entries with the CLOCK algorithm, removes the expired entries and moves the
+ * entries when an entry is removed or the table grows.
+ *
+ * <p>
+ * The methods must be called while the write lock of the segment is held. The subclasses read
+ * their columns under an optimistic read lock, so their lookups must check that all columns have
+ * the same length: a resize replaces the columns one by one.
+ */
+abstract class OpenAddressingSegment {
+
+  /**
+   * Eviction candidate filter that accepts every entry.
+   */
+  static final IntPredicate ANY_ENTRY = index -> true;
+
+  static final int INITIAL_CAPACITY = 16;
+
+  static final int SEGMENT_BITS = 4;
+
+  static final int SEGMENT_COUNT = 1 << SEGMENT_BITS;
+
+  /**
+   * Removes all entries of the segments. The segments are locked one by one.
+   */
+  static void clear(final OpenAddressingSegment[] segments) {
+    for (OpenAddressingSegment segment : segments) {
+      long stamp = segment.lock.writeLock();
+      try {
+        segment.reset();
+      } finally {
+        segment.lock.unlockWrite(stamp);
+      }
+    }
+  }
+
+  /**
+   * Returns the index of the segment that stores the keys with the hash. The upper bits are used,
+   * as the lower bits select the slot within the segment.
+   */
+  static int segmentIndex(final long hash) {
+    return (int) (hash >>> (Long.SIZE - SEGMENT_BITS));
+  }
+
+  /**
+   * The number of entries in the segments, including the expired ones that are not removed yet.
+   */
+  static int size(final OpenAddressingSegment[] segments) {
+    int size = 0;
+    for (OpenAddressingSegment segment : segments) {
+      long stamp = segment.lock.readLock();
+      try {
+        size += segment.size;
+      } finally {
+        segment.lock.unlockRead(stamp);
+      }
+    }
+    return size;
+  }
+
+  /**
+   * Splits a limit of the whole cache evenly between the segments.
+   */
+  static int toSegmentSize(final long size) {
+    return (int) Math.min(Integer.MAX_VALUE >>> 2, (size + SEGMENT_COUNT - 1) / SEGMENT_COUNT);
+  }
+
+  private int clockHand;
+
+  /**
+   * The time when the entries expire or <code>null</code> if the entries never expire.
+   */
+  long[] expirationTimes;
+
+  private final long expireAfterWriteNanos;
+
+  final StampedLock lock = new StampedLock();
+
+  private final int maximumSize;
+
+  /**
+   * The second chance flags of the CLOCK algorithm, set by the lookups.
+   */
+  byte[] referenced;
+
+  int size;
+
+  /**
+   * Constructor. The subclasses must call {@link #reset()} to allocate the table.
+   *
+   * @param expireAfterWriteNanos
+   *          how long an entry can be used after it was stored or zero if the entries never expire.
+   * @param maximumSize
+   *          the maximum number of entries in the segment or zero if the segment is unbounded.
+   */
+  OpenAddressingSegment(final long expireAfterWriteNanos, final int maximumSize) {
+    this.expireAfterWriteNanos = expireAfterWriteNanos;
+    this.maximumSize = maximumSize;
+  }
+
+  private void allocate(final int capacity) {
+    allocateEntries(capacity);
+    expirationTimes = (expireAfterWriteNanos > 0) ? new long[capacity] : null;
+    referenced = new byte[capacity];
+    clockHand = 0;
+  }
+
+  /**
+   * Replaces the key and value columns with empty ones.
+   */
+  abstract void allocateEntries(int capacity);
+
+  int capacity() {
+    return referenced.length;
+  }
+
+  /**
+   * Evicts an entry if the segment is full.
+   */
+  void evictIfFull(final long now) {
+    if ((maximumSize > 0) && (size >= maximumSize)) {
+      evictOne(now, ANY_ENTRY);
+    }
+  }
+
+  /**
+   * Evicts one of the entries that match the filter with the CLOCK algorithm: entries that were
+   * read since the clock hand passed them last time get a second chance. Expired entries are
+   * evicted first.
+   */
+  void evictOne(final long now, final IntPredicate candidate) {
+    int mask = capacity() - 1;
+    for (int i = 0, n = capacity() << 1; i < n; i++) {
+      int index = clockHand;
+      clockHand = (clockHand + 1) & mask;
+      if (isOccupied(index) && candidate.test(index)) {
+        if ((referenced[index] == 0) || isExpired(index, now)) {
+          evicting(index);
+          removeAt(index);
+          return;
+        }
+        referenced[index] = 0;
+      }
+    }
+  }
+
+  /**
+   * Called before an entry is evicted because the segment is full or the entry expired. The
+   * default implementation does nothing.
+   */
+  void evicting(final int index) {
+    // Nothing to do by default
+  }
+
+  /**
+   * Returns the hash of the key of an occupied slot.
+   */
+  abstract long hashAt(int index);
+
+  /**
+   * Initializes the common columns of an entry whose key and value were stored in a free slot and
+   * grows the table if needed. The index of the entry is not valid after the call.
+   */
+  void inserted(final int index, final long now) {
+    referenced[index] = 0;
+    renew(index, now);
+    size++;
+    int capacity = capacity();
+    if (size > (capacity - (capacity >>> 2))) {
+      if (expirationTimes != null) {
+        removeExpired(now);
+      }
+      if (size > (capacity >>> 1)) {
+        resize(capacity << 1);
+      }
+    }
+  }
+
+  boolean isExpired(final int index, final long now) {
+    return (expirationTimes != null) && ((expirationTimes[index] - now) < 0);
+  }
+
+  abstract boolean isOccupied(int index);
+
+  /**
+   * Moves the key and the value of an entry to a free slot and marks the original slot free.
+   */
+  abstract void moveEntry(int fromIndex, int toIndex);
+
+  /**
+   * The current time for the expiration of the entries, without calling {@link System#nanoTime()}
+   * if the entries never expire.
+   */
+  long now() {
+    return (expireAfterWriteNanos > 0) ? System.nanoTime() : 0;
+  }
+
+  /**
+   * Moves the key and value columns into new columns with the passed capacity.
+   *
+   * @param newIndexes
+   *          the new index of the entry of every old slot or <code>-1</code> if the slot is free.
+   */
+  abstract void relocateEntries(int capacity, int[] newIndexes);
+
+  /**
+   * Removes an entry and shifts the following entries of the probe sequence back, so the table
+   * does not need tombstones.
+   */
+  void removeAt(final int index) {
+    int mask = capacity() - 1;
+    int freeIndex = index;
+    removeEntry(freeIndex);
+    size--;
+
+    int currentIndex = freeIndex;
+    while (true) {
+      currentIndex = (currentIndex + 1) & mask;
+      if (!isOccupied(currentIndex)) {
+        return;
+      }
+      int homeIndex = (int) hashAt(currentIndex) & mask;
+      boolean stayInPlace = (freeIndex <= currentIndex)
+          ? ((freeIndex < homeIndex) && (homeIndex <= currentIndex))
+          : ((freeIndex < homeIndex) || (homeIndex <= currentIndex));
+      if (!stayInPlace) {
+        moveEntry(currentIndex, freeIndex);
+        referenced[freeIndex] = referenced[currentIndex];
+        if (expirationTimes != null) {
+          expirationTimes[freeIndex] = expirationTimes[currentIndex];
+        }
+        freeIndex = currentIndex;
+      }
+    }
+  }
+
+  /**
+   * Marks the slot of an entry free.
+   */
+  abstract void removeEntry(int index);
+
+  void removeExpired(final long now) {
+    for (int i = 0; i < capacity(); i++) {
+      // Removal shifts the following entries back, so the same index is checked again
+      while (isOccupied(i) && isExpired(i, now)) {
+        evicting(i);
+        removeAt(i);
+      }
+    }
+  }
+
+  /**
+   * Removes the entries that match the predicate.
+   *
+   * @return the number of removed entries.
+   */
+  int removeIf(final IntPredicate predicate) {
+    int removedCount = 0;
+    for (int i = 0; i < capacity(); i++) {
+      // Removal shifts the following entries back, so the same index is checked again
+      while (isOccupied(i) && predicate.test(i)) {
+        removeAt(i);
+        removedCount++;
+      }
+    }
+    return removedCount;
+  }
+
+  /**
+   * Restarts the expiration of an entry.
+   */
+  void renew(final int index, final long now) {
+    if (expirationTimes != null) {
+      expirationTimes[index] = now + expireAfterWriteNanos;
+    }
+  }
+
+  /**
+   * Replaces the table with an empty one.
+   */
+  void reset() {
+    allocate(INITIAL_CAPACITY);
+    size = 0;
+  }
+
+  private void resize(final int capacity) {
+    int oldCapacity = capacity();
+    long[] oldExpirationTimes = expirationTimes;
+    byte[] oldReferenced = referenced;
+
+    int[] newIndexes = new int[oldCapacity];
+    boolean[] occupied = new boolean[capacity];
+    int mask = capacity - 1;
+    for (int i = 0; i < oldCapacity; i++) {
+      int index = -1;
+      if (isOccupied(i)) {
+        index = (int) hashAt(i) & mask;
+        while (occupied[index]) {
+          index = (index + 1) & mask;
+        }
+        occupied[index] = true;
+      }
+      newIndexes[i] = index;
+    }
+
+    relocateEntries(capacity, newIndexes);
+    expirationTimes = (oldExpirationTimes != null) ? new long[capacity] : null;
+    referenced = new byte[capacity];
+    clockHand = 0;
+    for (int i = 0; i < oldCapacity; i++) {
+      int index = newIndexes[i];
+      if (index >= 0) {
+        referenced[index] = oldReferenced[i];
+        if (oldExpirationTimes != null) {
+          expirationTimes[index] = oldExpirationTimes[i];
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri;
+
+/**
+ * Cache of the permission records that is used by {@link AuthorizationImpl}. An entry tells whether
+ * the authorized resource has the permission to run the action on the target resource. The
+ * implementations must be thread-safe.
+ */
+public interface PermissionCache {
+
+  /**
+   * Removes all entries from the cache.
+   */
+  void clear();
+
+  /**
+   * Returns the cached permission.
+   *
+   * @param authorizedResourceId
+   *          the id of the authorized resource.
+   * @param targetResourceId
+   *          the id of the target resource.
+   * @param action
+   *          the action.
+   * @return {@link Boolean#TRUE} or {@link Boolean#FALSE} if the permission is cached,
+   *         <code>null</code> otherwise.
+   */
+  Boolean get(long authorizedResourceId, long targetResourceId, String action);
+
+  /**
+   * Stores the permission in the cache, overriding the previous value.
+   *
+   * @param authorizedResourceId
+   *          the id of the authorized resource.
+   * @param targetResourceId
+   *          the id of the target resource.
+   * @param action
+   *          the action.
+   * @param permitted
+   *          whether the authorized resource has the permission.
+   */
+  void put(long authorizedResourceId, long targetResourceId, String action, boolean permitted);
+
+  /**
+   * Stores the permission in the cache if there is no cached value for it yet.
+   *
+   * @param authorizedResourceId
+   *          the id of the authorized resource.
+   * @param targetResourceId
+   *          the id of the target resource.
+   * @param action
+   *          the action.
+   * @param permitted
+   *          whether the authorized resource has the permission.
+   * @return <code>true</code> if the value was stored.
+   */
+  boolean putIfAbsent(long authorizedResourceId, long targetResourceId, String action,
+      boolean permitted);
+
+  /**
+   * Removes the cached permission if its value is the same as the passed one.
+   *
+   * @param authorizedResourceId
+   *          the id of the authorized resource.
+   * @param targetResourceId
+   *          the id of the target resource.
+   * @param action
+   *          the action.
+   * @param permitted
+   *          the expected value of the cached permission.
+   * @return <code>true</code> if the entry was removed.
+   */
+  boolean remove(long authorizedResourceId, long targetResourceId, String action,
+      boolean permitted);
+}
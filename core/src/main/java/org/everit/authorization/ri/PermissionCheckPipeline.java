@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Resolves the asynchronous permission checks that missed the cache. The checks are queued and
+ * grouped by the authorized resource and the actions. Every group is resolved by a separate task on
+ * the executor with one {@link AuthorizationImpl#filterPermittedTargets(long, long[], String...)}
+ * call, and at most a limited number of groups are resolved at the same time, so the checks that
+ * arrive while the loads are running are merged into the next groups instead of waiting for a
+ * thread each. If the resolution of a group fails or its task is rejected by the executor, only the
+ * checks of that group fail.
+ */
+final class PermissionCheckPipeline implements AutoCloseable {
+
+  /**
+   * Resolves the permissions of an authorized resource on many targets.
+   */
+  @FunctionalInterface
+  interface BatchPermissionResolver {
+
+    long[] filterPermittedTargets(long authorizedResourceId, long[] targetResourceIds,
+        String... actions);
+  }
+
+  /**
+   * A queued check.
+   */
+  private static final class PendingCheck {
+
+    final String[] actions;
+
+    final long authorizedResourceId;
+
+    final CompletableFuture<Boolean> future = new CompletableFuture<>();
+
+    final long targetResourceId;
+
+    PendingCheck(final long authorizedResourceId, final long targetResourceId,
+        final String[] actions) {
+      this.authorizedResourceId = authorizedResourceId;
+      this.targetResourceId = targetResourceId;
+      this.actions = actions;
+    }
+
+    boolean isSameGroup(final PendingCheck other) {
+      return (authorizedResourceId == other.authorizedResourceId)
+          && Arrays.equals(actions, other.actions);
+    }
+  }
+
+  /**
+   * Creates an executor that starts a virtual thread for every task if the runtime supports
+   * virtual threads, otherwise a cached pool of daemon threads.
+   */
+  static ExecutorService createDefaultExecutor() {
+    try {
+      return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor")
+          .invoke(null);
+    } catch (ReflectiveOperationException e) {
+      AtomicInteger threadSequence = new AtomicInteger();
+      return Executors.newCachedThreadPool(command -> {
+        Thread thread = new Thread(command,
+            "authorization-async-" + threadSequence.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+  }
+
+  private static void fail(final List<PendingCheck> group, final Throwable cause) {
+    for (PendingCheck check : group) {
+      check.future.completeExceptionally(cause);
+    }
+  }
+
+  private final AtomicInteger activeLoads = new AtomicInteger();
+
+  private volatile boolean closed;
+
+  private volatile Executor executor;
+
+  private final int maximumConcurrentLoads;
+
+  /**
+   * The executor that was created by this pipeline and is shut down when the pipeline is closed.
+   */
+  private ExecutorService ownedExecutor;
+
+  private final Queue<PendingCheck> queue = new ConcurrentLinkedQueue<>();
+
+  private final BatchPermissionResolver resolver;
+
+  /**
+   * Constructor.
+   *
+   * @param executor
+   *          the executor of the loads or <code>null</code> if the default executor should be
+   *          created on the first load.
+   * @param maximumConcurrentLoads
+   *          the maximum number of loads that run at the same time.
+   * @param resolver
+   *          resolves the permissions on the executor.
+   */
+  PermissionCheckPipeline(final Executor executor, final int maximumConcurrentLoads,
+      final BatchPermissionResolver resolver) {
+    this.executor = executor;
+    this.maximumConcurrentLoads = maximumConcurrentLoads;
+    this.resolver = resolver;
+  }
+
+  /**
+   * Shuts down the default executor if it was created by this pipeline. An executor that was
+   * passed to the constructor is not shut down. The checks that are dispatched later fail with a
+   * {@link RejectedExecutionException}.
+   */
+  @Override
+  public void close() {
+    ExecutorService executorToShutDown;
+    synchronized (this) {
+      closed = true;
+      executorToShutDown = ownedExecutor;
+    }
+    if (executorToShutDown != null) {
+      executorToShutDown.shutdown();
+    }
+  }
+
+  /**
+   * Starts loads for the queued groups until the maximum number of loads is reached.
+   */
+  private void dispatch() {
+    while (!queue.isEmpty() && tryAcquireLoad()) {
+      List<PendingCheck> group = pollGroup();
+      if (group.isEmpty()) {
+        activeLoads.decrementAndGet();
+      } else {
+        startLoad(group);
+      }
+    }
+  }
+
+  /**
+   * Queues a check and starts a load if the maximum number of loads is not reached.
+   *
+   * @return the future that is completed when the check is resolved.
+   */
+  public CompletableFuture<Boolean> enqueue(final long authorizedResourceId,
+      final long targetResourceId, final String[] actions) {
+    PendingCheck check = new PendingCheck(authorizedResourceId, targetResourceId, actions);
+    queue.add(check);
+    dispatch();
+    return check.future;
+  }
+
+  private Executor getExecutor() {
+    if (closed) {
+      throw new RejectedExecutionException("The permission check pipeline is closed");
+    }
+    Executor result = executor;
+    if (result == null) {
+      synchronized (this) {
+        if (closed) {
+          throw new RejectedExecutionException("The permission check pipeline is closed");
+        }
+        result = executor;
+        if (result == null) {
+          ownedExecutor = createDefaultExecutor();
+          result = ownedExecutor;
+          executor = result;
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Removes the first queued check and the queued checks of the same group from the queue.
+   *
+   * @return the checks or an empty list if the queue is empty.
+   */
+  private List<PendingCheck> pollGroup() {
+    List<PendingCheck> group = new ArrayList<>();
+    PendingCheck firstCheck = queue.poll();
+    if (firstCheck == null) {
+      return group;
+    }
+    group.add(firstCheck);
+    for (PendingCheck check : queue) {
+      // Only the thread that removes a check successfully takes it over
+      if (firstCheck.isSameGroup(check) && queue.remove(check)) {
+        group.add(check);
+      }
+    }
+    return group;
+  }
+
+  private void resolve(final List<PendingCheck> group) {
+    PendingCheck firstCheck = group.get(0);
+    Set<Long> targetResourceIds = new LinkedHashSet<>();
+    for (PendingCheck check : group) {
+      targetResourceIds.add(check.targetResourceId);
+    }
+    long[] targetResourceIdArray = new long[targetResourceIds.size()];
+    int i = 0;
+    for (Long targetResourceId : targetResourceIds) {
+      targetResourceIdArray[i++] = targetResourceId;
+    }
+
+    try {
+      long[] permittedTargetResourceIds = resolver.filterPermittedTargets(
+          firstCheck.authorizedResourceId, targetResourceIdArray, firstCheck.actions);
+      Set<Long> permittedTargetResourceIdSet = new HashSet<>();
+      for (long permittedTargetResourceId : permittedTargetResourceIds) {
+        permittedTargetResourceIdSet.add(permittedTargetResourceId);
+      }
+      for (PendingCheck check : group) {
+        check.future.complete(permittedTargetResourceIdSet.contains(check.targetResourceId));
+      }
+    } catch (RuntimeException | Error e) {
+      PermissionCheckPipeline.fail(group, e);
+    }
+  }
+
+  /**
+   * Resolves the group on the executor. When the load is finished, the next queued group is
+   * dispatched. If the executor rejects the task, only the checks of the group fail.
+   */
+  private void startLoad(final List<PendingCheck> group) {
+    try {
+      getExecutor().execute(() -> {
+        try {
+          resolve(group);
+        } finally {
+          activeLoads.decrementAndGet();
+          dispatch();
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      activeLoads.decrementAndGet();
+      PermissionCheckPipeline.fail(group, e);
+    }
+  }
+
+  private boolean tryAcquireLoad() {
+    int currentLoads = activeLoads.get();
+    while (currentLoads < maximumConcurrentLoads) {
+      if (activeLoads.compareAndSet(currentLoads, currentLoads + 1)) {
+        return true;
+      }
+      currentLoads = activeLoads.get();
+    }
+    return false;
+  }
+}
@@ -0,0 +1,278 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.LongPredicate;
+
+/**
+ * The permission and permission inheritance records in compact primitive structures. The parents
+ * of a resource are stored in one array, the permissions of an authorized resource in two parallel
+ * arrays that are sorted by the target resource id and the id of the action in an
+ * {@link ActionDictionary}. The arrays are never modified, an update replaces all arrays of a
+ * resource, so the graph can be read without locking.
+ */
+final class PermissionGraph {
+
+  /**
+   * The permissions of one authorized resource.
+   */
+  private static final class Grants {
+
+    final int[] actionIds;
+
+    final long[] targetResourceIds;
+
+    Grants(final long[] targetResourceIds, final int[] actionIds) {
+      this.targetResourceIds = targetResourceIds;
+      this.actionIds = actionIds;
+    }
+
+    boolean permits(final long targetResourceId, final int[] requestedActionIds) {
+      int index = Arrays.binarySearch(targetResourceIds, targetResourceId);
+      if (index < 0) {
+        return false;
+      }
+      while ((index > 0) && (targetResourceIds[index - 1] == targetResourceId)) {
+        index--;
+      }
+      for (int n = targetResourceIds.length;
+          (index < n) && (targetResourceIds[index] == targetResourceId); index++) {
+        for (int requestedActionId : requestedActionIds) {
+          if (actionIds[index] == requestedActionId) {
+            return true;
+          }
+        }
+      }
+      return false;
+    }
+  }
+
+  /**
+   * Scopes up to this size are deduplicated by scanning the array instead of a hash set.
+   */
+  private static final int LINEAR_SCOPE_SIZE = 32;
+
+  private static final long[] NO_RESOURCE_IDS = new long[0];
+
+  private static int compare(final long[] targetResourceIds, final int[] actionIds,
+      final int left, final int right) {
+    int result = Long.compare(targetResourceIds[left], targetResourceIds[right]);
+    return (result != 0) ? result : Integer.compare(actionIds[left], actionIds[right]);
+  }
+
+  private static void siftDown(final long[] targetResourceIds, final int[] actionIds,
+      final int fromIndex, final int size) {
+    int index = fromIndex;
+    int childIndex = (index << 1) + 1;
+    while (childIndex < size) {
+      if ((childIndex + 1 < size)
+          && (compare(targetResourceIds, actionIds, childIndex, childIndex + 1) < 0)) {
+        childIndex++;
+      }
+      if (compare(targetResourceIds, actionIds, index, childIndex) >= 0) {
+        return;
+      }
+      swap(targetResourceIds, actionIds, index, childIndex);
+      index = childIndex;
+      childIndex = (index << 1) + 1;
+    }
+  }
+
+  /**
+   * Sorts the parallel arrays by the target resource id and the action id in place with heap sort,
+   * so the rows are not boxed.
+   */
+  private static void sort(final long[] targetResourceIds, final int[] actionIds) {
+    int size = targetResourceIds.length;
+    for (int i = (size >> 1) - 1; i >= 0; i--) {
+      siftDown(targetResourceIds, actionIds, i, size);
+    }
+    for (int end = size - 1; end > 0; end--) {
+      swap(targetResourceIds, actionIds, 0, end);
+      siftDown(targetResourceIds, actionIds, 0, end);
+    }
+  }
+
+  private static void swap(final long[] targetResourceIds, final int[] actionIds, final int left,
+      final int right) {
+    long targetResourceId = targetResourceIds[left];
+    targetResourceIds[left] = targetResourceIds[right];
+    targetResourceIds[right] = targetResourceId;
+    int actionId = actionIds[left];
+    actionIds[left] = actionIds[right];
+    actionIds[right] = actionId;
+  }
+
+  private final ActionDictionary actionDictionary = new ActionDictionary();
+
+  private final ConcurrentLongObjectMap<Grants> grants = new ConcurrentLongObjectMap<>();
+
+  private final ConcurrentLongObjectMap<long[]> parentResourceIds =
+      new ConcurrentLongObjectMap<>();
+
+  /**
+   * Removes all records.
+   */
+  public void clear() {
+    grants.clear();
+    parentResourceIds.clear();
+  }
+
+  /**
+   * Returns the resource and all of its ancestors. The resource is the first element.
+   */
+  public long[] getAuthorizationScope(final long resourceId) {
+    long[][] scopeHolder = new long[1][];
+    int size = traverseScope(resourceId, null, scopeHolder);
+    return Arrays.copyOf(scopeHolder[0], size);
+  }
+
+  /**
+   * The number of authorized resources that have at least one permission.
+   */
+  public int getAuthorizedResourceCount() {
+    return grants.size();
+  }
+
+  /**
+   * Checks whether the resource or any of its ancestors has the permission to run at least one of
+   * the actions on the target resource. The ancestors are visited only until the permission is
+   * found.
+   */
+  public boolean hasPermission(final long authorizedResourceId, final long targetResourceId,
+      final long systemResourceId, final String... actions) {
+    int[] requestedActionIds = new int[actions.length];
+    int actionCount = 0;
+    for (String action : actions) {
+      int actionId = actionDictionary.getActionId(action);
+      if (actionId != ActionDictionary.UNKNOWN_ACTION_ID) {
+        requestedActionIds[actionCount] = actionId;
+        actionCount++;
+      }
+    }
+    int[] knownActionIds = Arrays.copyOf(requestedActionIds, actionCount);
+
+    return traverseScope(authorizedResourceId, resourceIdFromScope -> {
+      if (resourceIdFromScope == systemResourceId) {
+        return true;
+      }
+      Grants grantsOfResource = grants.get(resourceIdFromScope);
+      return (grantsOfResource != null) && (knownActionIds.length > 0)
+          && grantsOfResource.permits(targetResourceId, knownActionIds);
+    }, null) < 0;
+  }
+
+  /**
+   * Replaces the parents of the resource.
+   */
+  public void setParentResourceIds(final long childResourceId, final long[] parents) {
+    if (parents.length == 0) {
+      parentResourceIds.remove(childResourceId);
+    } else {
+      parentResourceIds.put(childResourceId, parents);
+    }
+  }
+
+  /**
+   * Replaces all permissions of the authorized resource.
+   *
+   * @param authorizedResourceId
+   *          the id of the authorized resource.
+   * @param targetResourceIds
+   *          the ids of the target resources of the permissions.
+   * @param actions
+   *          the actions of the permissions in the same order as the target resource ids.
+   */
+  public void setPermissions(final long authorizedResourceId, final List<Long> targetResourceIds,
+      final List<String> actions) {
+    int size = targetResourceIds.size();
+    if (size == 0) {
+      grants.remove(authorizedResourceId);
+      return;
+    }
+
+    long[] sortedTargetResourceIds = new long[size];
+    int[] sortedActionIds = new int[size];
+    for (int i = 0; i < size; i++) {
+      sortedTargetResourceIds[i] = targetResourceIds.get(i);
+      sortedActionIds[i] = actionDictionary.intern(actions.get(i));
+    }
+    sort(sortedTargetResourceIds, sortedActionIds);
+    grants.put(authorizedResourceId, new Grants(sortedTargetResourceIds, sortedActionIds));
+  }
+
+  /**
+   * Visits the resource and its ancestors in breadth-first order. Every resource is visited once,
+   * even if the inheritance graph contains a cycle.
+   *
+   * @param visitor
+   *          called for every visited resource or <code>null</code>. The traversal stops if it
+   *          returns <code>true</code>.
+   * @param scopeHolder
+   *          an array that receives the visited resource ids as its first element or
+   *          <code>null</code>.
+   * @return the number of visited resources or -1 if the visitor stopped the traversal.
+   */
+  private int traverseScope(final long resourceId, final LongPredicate visitor,
+      final long[][] scopeHolder) {
+    long[] scope = new long[8];
+    Set<Long> scopeSet = null;
+    int size = 0;
+    scope[size++] = resourceId;
+
+    for (int i = 0; i < size; i++) {
+      long resourceIdFromScope = scope[i];
+      if ((visitor != null) && visitor.test(resourceIdFromScope)) {
+        return -1;
+      }
+      long[] parents = parentResourceIds.get(resourceIdFromScope);
+      if (parents == null) {
+        parents = NO_RESOURCE_IDS;
+      }
+      for (long parentResourceId : parents) {
+        boolean visited;
+        if (scopeSet != null) {
+          visited = !scopeSet.add(parentResourceId);
+        } else {
+          visited = false;
+          for (int j = 0; (j < size) && !visited; j++) {
+            visited = scope[j] == parentResourceId;
+          }
+        }
+        if (!visited) {
+          if (size == scope.length) {
+            scope = Arrays.copyOf(scope, size << 1);
+          }
+          scope[size++] = parentResourceId;
+          if ((scopeSet == null) && (size > LINEAR_SCOPE_SIZE)) {
+            scopeSet = new HashSet<>();
+            for (int j = 0; j < size; j++) {
+              scopeSet.add(scope[j]);
+            }
+          }
+        }
+      }
+    }
+    if (scopeHolder != null) {
+      scopeHolder[0] = scope;
+    }
+    return size;
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri;
+
+/**
+ * Cache of the permission inheritance records that is used by {@link AuthorizationImpl}. An entry
+ * holds the ids of the direct parents of a resource. The implementations must be thread-safe.
+ */
+public interface PermissionInheritanceCache {
+
+  /**
+   * Removes all entries from the cache.
+   */
+  void clear();
+
+  /**
+   * Returns the cached parents of a resource.
+   *
+   * @param resourceId
+   *          the id of the child resource.
+   * @return the ids of the parent resources or <code>null</code> if they are not cached. The
+   *         returned array must not be modified.
+   */
+  long[] get(long resourceId);
+
+  /**
+   * Stores the parents of a resource in the cache, overriding the previous value.
+   *
+   * @param resourceId
+   *          the id of the child resource.
+   * @param parentResourceIds
+   *          the ids of the parent resources.
+   */
+  void put(long resourceId, long[] parentResourceIds);
+
+  /**
+   * Stores the parents of a resource in the cache if there is no cached value for it yet.
+   *
+   * @param resourceId
+   *          the id of the child resource.
+   * @param parentResourceIds
+   *          the ids of the parent resources.
+   * @return <code>true</code> if the value was stored.
+   */
+  boolean putIfAbsent(long resourceId, long[] parentResourceIds);
+
+  /**
+   * Removes the cached parents of a resource.
+   *
+   * @param resourceId
+   *          the id of the child resource.
+   */
+  void remove(long resourceId);
+
+  /**
+   * Removes the cached parents of a resource if the cached array is the same instance as the passed
+   * one, so an entry that was replaced in the meantime is kept. The implementations that store
+   * copies compare the instance that the entry was stored with, so the arrays that their
+   * {@link #get(long)} returns do not match.
+   *
+   * @param resourceId
+   *          the id of the child resource.
+   * @param parentResourceIds
+   *          the expected array instance.
+   * @return <code>true</code> if the entry was removed.
+   */
+  boolean remove(long resourceId, long[] parentResourceIds);
+}
@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri;
+
+import java.io.Serializable;
+
+/**
+ * An inheritance edge: the child resource inherits the permissions of the parent resource.
+ */
+public final class PermissionInheritanceRecord implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  private final long childResourceId;
+
+  private final long parentResourceId;
+
+  /**
+   * Constructor.
+   *
+   * @param parentResourceId
+   *          the id of the parent resource.
+   * @param childResourceId
+   *          the id of the child resource.
+   */
+  public PermissionInheritanceRecord(final long parentResourceId, final long childResourceId) {
+    this.parentResourceId = parentResourceId;
+    this.childResourceId = childResourceId;
+  }
+
+  @Override
+  public boolean equals(final Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof PermissionInheritanceRecord)) {
+      return false;
+    }
+    PermissionInheritanceRecord other = (PermissionInheritanceRecord) obj;
+    return (parentResourceId == other.parentResourceId)
+        && (childResourceId == other.childResourceId);
+  }
+
+  public long getChildResourceId() {
+    return childResourceId;
+  }
+
+  public long getParentResourceId() {
+    return parentResourceId;
+  }
+
+  @Override
+  public int hashCode() {
+    return (31 * Long.hashCode(parentResourceId)) + Long.hashCode(childResourceId);
+  }
+
+  @Override
+  public String toString() {
+    return "PermissionInheritanceRecord [parentResourceId=" + parentResourceId
+        + ", childResourceId=" + childResourceId + "]";
+  }
+}
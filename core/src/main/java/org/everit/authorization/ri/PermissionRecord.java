@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * A permission of an authorized resource to run an action on a target resource.
+ */
+public final class PermissionRecord implements Serializable {
+
+  private static final long serialVersionUID = 1L;
+
+  private final String action;
+
+  private final long authorizedResourceId;
+
+  private final long targetResourceId;
+
+  /**
+   * Constructor.
+   *
+   * @param authorizedResourceId
+   *          the id of the authorized resource.
+   * @param targetResourceId
+   *          the id of the target resource.
+   * @param action
+   *          the action.
+   *
+   * @throws NullPointerException
+   *           if the action is <code>null</code>.
+   */
+  public PermissionRecord(final long authorizedResourceId, final long targetResourceId,
+      final String action) {
+    this.authorizedResourceId = authorizedResourceId;
+    this.targetResourceId = targetResourceId;
+    this.action = Objects.requireNonNull(action, "action cannot be null");
+  }
+
+  @Override
+  public boolean equals(final Object obj) {
+    if (this == obj) {
+      return true;
+    }
+    if (!(obj instanceof PermissionRecord)) {
+      return false;
+    }
+    PermissionRecord other = (PermissionRecord) obj;
+    return (authorizedResourceId == other.authorizedResourceId)
+        && (targetResourceId == other.targetResourceId) && action.equals(other.action);
+  }
+
+  public String getAction() {
+    return action;
+  }
+
+  public long getAuthorizedResourceId() {
+    return authorizedResourceId;
+  }
+
+  public long getTargetResourceId() {
+    return targetResourceId;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(authorizedResourceId, targetResourceId, action);
+  }
+
+  @Override
+  public String toString() {
+    return "PermissionRecord [authorizedResourceId=" + authorizedResourceId
+        + ", targetResourceId=" + targetResourceId + ", action=" + action + "]";
+  }
+}
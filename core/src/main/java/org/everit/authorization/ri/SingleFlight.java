@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent loads of the same key. The first thread that misses a key loads the value,
+ * the threads that miss the same key in the meantime wait for the result instead of querying the
+ * database again.
+ *
+ * <p>
+ * A load is shared only between threads that took the same stamp from the
+ * {@link CacheModificationGuard}, so a thread never gets a value that was read before a
+ * modification that the thread already observed.
+ *
+ * @param <K>
+ *          the type of the keys.
+ * @param <V>
+ *          the type of the values. The values are shared between threads, so they must not be
+ *          modified.
+ */
+final class SingleFlight<K, V> {
+
+  /**
+   * A running load.
+   */
+  private static final class Flight<V> {
+
+    final CompletableFuture<V> future = new CompletableFuture<>();
+
+    final long stamp;
+
+    Flight(final long stamp) {
+      this.stamp = stamp;
+    }
+  }
+
+  private final ConcurrentMap<K, Flight<V>> flights = new ConcurrentHashMap<>();
+
+  private V join(final CompletableFuture<V> future) {
+    try {
+      return future.join();
+    } catch (CompletionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Loads the value of the key or waits for the load of another thread that runs with the same
+   * stamp.
+   *
+   * @param key
+   *          the key.
+   * @param stamp
+   *          the stamp that the caller took before checking the cache.
+   * @param loader
+   *          loads the value from the database.
+   * @return the loaded value.
+   */
+  public V load(final K key, final long stamp, final Supplier<V> loader) {
+    if (stamp == CacheModificationGuard.NO_CACHING) {
+      // A modification is running, possibly in the transaction of the caller
+      return loader.get();
+    }
+
+    Flight<V> flight = new Flight<>(stamp);
+    Flight<V> runningFlight = flights.putIfAbsent(key, flight);
+    if (runningFlight != null) {
+      if (runningFlight.stamp == stamp) {
+        return join(runningFlight.future);
+      }
+      return loader.get();
+    }
+
+    try {
+      V value = loader.get();
+      flight.future.complete(value);
+      return value;
+    } catch (RuntimeException | Error e) {
+      flight.future.completeExceptionally(e);
+      throw e;
+    } finally {
+      flights.remove(key, flight);
+    }
+  }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri;
+
+/**
+ * Notifies {@link AuthorizationImpl} about the completion of the transaction that a modification
+ * runs in, so the caches are updated only with committed data.
+ */
+public interface TransactionSynchronizer {
+
+  /**
+   * Called when a transaction completed.
+   */
+  @FunctionalInterface
+  interface CompletionCallback {
+
+    /**
+     * Called after the transaction completed.
+     *
+     * @param committed
+     *          <code>true</code> if the transaction was committed, <code>false</code> if it was
+     *          rolled back.
+     */
+    void afterCompletion(boolean committed);
+  }
+
+  /**
+   * Registers a callback to the transaction that is associated with the current thread.
+   *
+   * @param callback
+   *          the callback.
+   * @return <code>true</code> if the callback was registered, <code>false</code> if there is no
+   *         active transaction.
+   */
+  boolean registerCompletionCallback(CompletionCallback callback);
+}
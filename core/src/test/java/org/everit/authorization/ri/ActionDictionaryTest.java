@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri;
+
+import java.util.Collections;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ActionDictionaryTest {
+
+  @Test
+  public void testActionSetCacheInternsOnlyPermittedActions() {
+    ActionDictionary actionDictionary = new ActionDictionary();
+    ActionSetPermissionCache cache =
+        new ActionSetPermissionCache(new CacheConfiguration(), actionDictionary);
+    cache.putActionsIfAbsent(1, 2, Collections.emptyList());
+
+    cache.put(1, 2, "unknown", false);
+    Assert.assertEquals(0, actionDictionary.size());
+    Assert.assertEquals(Boolean.FALSE, cache.get(1, 2, "unknown"));
+
+    cache.put(1, 2, "read", true);
+    Assert.assertEquals(1, actionDictionary.size());
+    Assert.assertEquals(Boolean.TRUE, cache.get(1, 2, "read"));
+  }
+
+  @Test
+  public void testCompactCacheBoundsTheActionsOfNegativeEntries() {
+    ActionDictionary actionDictionary = new ActionDictionary(1);
+    CompactPermissionCache cache =
+        new CompactPermissionCache(new CacheConfiguration(), actionDictionary);
+
+    cache.put(1, 2, "checked", false);
+    Assert.assertEquals(1, actionDictionary.size());
+    Assert.assertEquals(Boolean.FALSE, cache.get(1, 2, "checked"));
+
+    // The dictionary is full, so the negative entry goes to the overflow map
+    Assert.assertTrue(cache.putIfAbsent(1, 2, "unknown", false));
+    Assert.assertFalse(cache.putIfAbsent(1, 2, "unknown", false));
+    Assert.assertEquals(1, actionDictionary.size());
+    Assert.assertEquals(ActionDictionary.UNKNOWN_ACTION_ID,
+        actionDictionary.getActionId("unknown"));
+    Assert.assertEquals(Boolean.FALSE, cache.get(1, 2, "unknown"));
+    Assert.assertNull(cache.get(2, 1, "unknown"));
+    Assert.assertTrue(cache.remove(1, 2, "unknown", false));
+    Assert.assertNull(cache.get(1, 2, "unknown"));
+
+    // The actions of the permitted entries are always interned
+    cache.put(1, 2, "unknown", false);
+    cache.put(1, 2, "unknown", true);
+    Assert.assertEquals(2, actionDictionary.size());
+    Assert.assertEquals(Boolean.TRUE, cache.get(1, 2, "unknown"));
+    Assert.assertEquals(2, cache.size());
+  }
+
+  @Test
+  public void testInternReturnsTheSameId() {
+    ActionDictionary actionDictionary = new ActionDictionary();
+    int actionId = actionDictionary.intern("read");
+
+    Assert.assertEquals(actionId, actionDictionary.intern("read"));
+    Assert.assertEquals(actionId, actionDictionary.getActionId("read"));
+    Assert.assertEquals("read", actionDictionary.getAction(actionId));
+    Assert.assertNotEquals(actionId, actionDictionary.intern("write"));
+    Assert.assertEquals(2, actionDictionary.size());
+  }
+
+  @Test
+  public void testTryInternStopsAtTheMaximumSize() {
+    ActionDictionary actionDictionary = new ActionDictionary(1);
+    int actionId = actionDictionary.tryIntern("read");
+
+    Assert.assertEquals(actionId, actionDictionary.tryIntern("read"));
+    Assert.assertEquals(ActionDictionary.UNKNOWN_ACTION_ID, actionDictionary.tryIntern("write"));
+    Assert.assertEquals(1, actionDictionary.size());
+    Assert.assertNotEquals(ActionDictionary.UNKNOWN_ACTION_ID, actionDictionary.intern("write"));
+    Assert.assertEquals(2, actionDictionary.size());
+  }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ActionSetPermissionCacheTest {
+
+  private static final int SLOT_MASK = OpenAddressingSegment.INITIAL_CAPACITY - 1;
+
+  private static final int THREAD_COUNT = 8;
+
+  /**
+   * Returns target resource ids whose entries with the authorized resource 1 are stored in the
+   * same segment and start probing at the last slot of the initial table.
+   */
+  private static long[] targetsOfLastSlot(final int count) {
+    long[] targetResourceIds = new long[count];
+    int found = 0;
+    for (long targetResourceId = 0; found < count; targetResourceId++) {
+      long hash = ActionSetPermissionCache.hash(1, targetResourceId);
+      if ((OpenAddressingSegment.segmentIndex(hash) == 0)
+          && (((int) hash & SLOT_MASK) == SLOT_MASK)) {
+        targetResourceIds[found++] = targetResourceId;
+      }
+    }
+    return targetResourceIds;
+  }
+
+  @Test
+  public void testConcurrentModifications() {
+    ActionSetPermissionCache cache = new ActionSetPermissionCache();
+    ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+    try {
+      List<CompletableFuture<Void>> futures = new ArrayList<>();
+      for (int i = 0; i < THREAD_COUNT; i++) {
+        long authorizedResourceId = i;
+        futures.add(CompletableFuture.runAsync(() -> {
+          for (int round = 0; round < 10; round++) {
+            for (long targetResourceId = 0; targetResourceId < 1000; targetResourceId++) {
+              Assert.assertTrue(cache.putActionsIfAbsent(authorizedResourceId, targetResourceId,
+                  Collections.singleton("read")));
+            }
+            for (long targetResourceId = 0; targetResourceId < 1000; targetResourceId++) {
+              Assert.assertEquals(Boolean.TRUE,
+                  cache.get(authorizedResourceId, targetResourceId, "read"));
+              Assert.assertTrue(cache.remove(authorizedResourceId, targetResourceId));
+              Assert.assertNull(cache.get(authorizedResourceId, targetResourceId, "read"));
+            }
+          }
+        }, executor));
+      }
+      for (CompletableFuture<Void> future : futures) {
+        future.join();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    Assert.assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testEvictionKeepsReferencedEntries() {
+    ActionSetPermissionCache cache = new ActionSetPermissionCache(
+        new CacheConfiguration().maximumSize(OpenAddressingSegment.SEGMENT_COUNT * 2),
+        new ActionDictionary());
+    long[] targetResourceIds = targetsOfLastSlot(3);
+    cache.putActionsIfAbsent(1, targetResourceIds[0], Collections.singleton("read"));
+    cache.putActionsIfAbsent(1, targetResourceIds[1], Collections.singleton("read"));
+    Assert.assertEquals(Boolean.TRUE, cache.get(1, targetResourceIds[0], "read"));
+
+    cache.putActionsIfAbsent(1, targetResourceIds[2], Collections.singleton("read"));
+
+    Assert.assertEquals(2, cache.size());
+    Assert.assertEquals(Boolean.TRUE, cache.get(1, targetResourceIds[0], "read"));
+    Assert.assertNull(cache.get(1, targetResourceIds[1], "read"));
+    Assert.assertEquals(Boolean.TRUE, cache.get(1, targetResourceIds[2], "read"));
+  }
+
+  @Test
+  public void testMaximumSizeIsNotExceeded() {
+    int maximumSize = OpenAddressingSegment.SEGMENT_COUNT * 4;
+    ActionSetPermissionCache cache = new ActionSetPermissionCache(
+        new CacheConfiguration().maximumSize(maximumSize), new ActionDictionary());
+    for (long targetResourceId = 0; targetResourceId < 10000; targetResourceId++) {
+      cache.putActionsIfAbsent(1, targetResourceId, Collections.singleton("read"));
+      Assert.assertTrue(cache.size() <= maximumSize);
+    }
+    Assert.assertEquals(Boolean.TRUE, cache.get(1, 9999, "read"));
+  }
+
+  @Test
+  public void testRemovalWrapsAroundTheEndOfTheTable() {
+    ActionSetPermissionCache cache = new ActionSetPermissionCache();
+    long[] targetResourceIds = targetsOfLastSlot(4);
+    for (long targetResourceId : targetResourceIds) {
+      cache.putActionsIfAbsent(1, targetResourceId, Collections.singleton("read"));
+    }
+
+    Assert.assertTrue(cache.remove(1, targetResourceIds[0]));
+    Assert.assertNull(cache.get(1, targetResourceIds[0], "read"));
+    for (int i = 1; i < targetResourceIds.length; i++) {
+      Assert.assertEquals(Boolean.TRUE, cache.get(1, targetResourceIds[i], "read"));
+    }
+
+    Assert.assertTrue(cache.remove(1, targetResourceIds[2]));
+    Assert.assertEquals(Boolean.TRUE, cache.get(1, targetResourceIds[1], "read"));
+    Assert.assertEquals(Boolean.TRUE, cache.get(1, targetResourceIds[3], "read"));
+    Assert.assertEquals(2, cache.size());
+  }
+
+  @Test
+  public void testSingleActionsUpdateOnlyExistingEntries() {
+    ActionSetPermissionCache cache = new ActionSetPermissionCache();
+    cache.put(1, 2, "read", true);
+    Assert.assertNull(cache.get(1, 2, "read"));
+
+    cache.putActionsIfAbsent(1, 2, Collections.singleton("read"));
+    cache.put(1, 2, "write", true);
+    Assert.assertEquals(Boolean.TRUE, cache.getAny(1, 2, "delete", "write"));
+    Assert.assertTrue(cache.remove(1, 2, "read", true));
+    Assert.assertNull(cache.get(1, 2, "write"));
+  }
+}
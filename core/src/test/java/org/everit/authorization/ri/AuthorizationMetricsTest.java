@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri;
+
+import org.everit.authorization.ri.AuthorizationMetricsListener.CacheType;
+import org.everit.authorization.ri.AuthorizationMetricsListener.DatabaseOperation;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The cache lookups, the resolved authorization scopes, the database operations and the cache
+ * invalidations must be reported to the metrics listener.
+ */
+public class AuthorizationMetricsTest {
+
+  private static final String ACTION = "read";
+
+  private AuthorizationImpl authorization;
+
+  private TestEnvironment environment;
+
+  private long groupResourceId;
+
+  private InMemoryAuthorizationMetrics metrics;
+
+  private long targetResourceId;
+
+  private long userResourceId;
+
+  @Before
+  public void setUp() {
+    environment = new TestEnvironment();
+    metrics = new InMemoryAuthorizationMetrics();
+    authorization = new AuthorizationImpl(environment.getPropertyManager(),
+        environment.getResourceService(), environment.getTransactionPropagator(),
+        environment.getQuerydslSupport(), new CompactPermissionCache(),
+        new CompactPermissionInheritanceCache(),
+        new AuthorizationConfiguration().metricsListener(metrics));
+
+    long[] resourceIds = environment.createResources(3);
+    userResourceId = resourceIds[0];
+    groupResourceId = resourceIds[1];
+    targetResourceId = resourceIds[2];
+    authorization.addPermissionInheritance(groupResourceId, userResourceId);
+    authorization.addPermission(groupResourceId, targetResourceId, ACTION);
+    authorization.clearCache();
+    metrics.reset();
+  }
+
+  @After
+  public void tearDown() {
+    environment.close();
+  }
+
+  @Test
+  public void testCacheLookupsAreCounted() {
+    Assert.assertTrue(authorization.hasPermission(userResourceId, targetResourceId, ACTION));
+
+    Assert.assertEquals(1, metrics.getCacheMissCount(CacheType.AUTHORIZATION_SCOPE));
+    Assert.assertEquals(0, metrics.getCacheHitCount(CacheType.AUTHORIZATION_SCOPE));
+    Assert.assertTrue(metrics.getCacheMissCount(CacheType.PERMISSION_INHERITANCE) > 0);
+    Assert.assertTrue(metrics.getCacheMissCount(CacheType.PERMISSION) > 0);
+    Assert.assertEquals(1, metrics.getResolvedAuthorizationScopeCount());
+    Assert.assertEquals(2, metrics.getMaximumAuthorizationScopeSize());
+    Assert.assertEquals(2.0, metrics.getAverageAuthorizationScopeSize(), 0.0);
+    Assert.assertEquals(1, metrics.getDatabaseOperationCount(DatabaseOperation.READ_PERMISSIONS));
+    Assert.assertTrue(metrics.getDatabaseOperationNanos(DatabaseOperation.READ_PERMISSIONS) > 0);
+
+    long permissionMissCount = metrics.getCacheMissCount(CacheType.PERMISSION);
+    Assert.assertTrue(authorization.hasPermission(userResourceId, targetResourceId, ACTION));
+
+    Assert.assertEquals(1, metrics.getCacheHitCount(CacheType.AUTHORIZATION_SCOPE));
+    Assert.assertEquals(0.5, metrics.getCacheHitRatio(CacheType.AUTHORIZATION_SCOPE), 0.0);
+    Assert.assertTrue(metrics.getCacheHitCount(CacheType.PERMISSION) > 0);
+    Assert.assertEquals(permissionMissCount, metrics.getCacheMissCount(CacheType.PERMISSION));
+    Assert.assertEquals(1, metrics.getResolvedAuthorizationScopeCount());
+    Assert.assertEquals(1, metrics.getDatabaseOperationCount(DatabaseOperation.READ_PERMISSIONS));
+  }
+
+  @Test
+  public void testDefaultListenerIsNoOp() {
+    Assert.assertSame(NoOpAuthorizationMetricsListener.INSTANCE,
+        new AuthorizationConfiguration().getMetricsListener());
+  }
+
+  @Test
+  public void testInvalidationsAreCounted() {
+    Assert.assertArrayEquals(new long[] { userResourceId, groupResourceId },
+        authorization.getAuthorizationScope(userResourceId));
+
+    authorization.removePermission(groupResourceId, targetResourceId, ACTION);
+    Assert.assertEquals(1, metrics.getCacheInvalidationCount(CacheType.PERMISSION));
+    Assert.assertEquals(1, metrics.getDatabaseOperationCount(DatabaseOperation.DELETE));
+
+    authorization.removePermissionInheritance(groupResourceId, userResourceId);
+    Assert.assertEquals(1, metrics.getCacheInvalidationCount(CacheType.PERMISSION_INHERITANCE));
+    Assert.assertEquals(1, metrics.getCacheInvalidationCount(CacheType.AUTHORIZATION_SCOPE));
+
+    authorization.clearCache();
+    Assert.assertEquals(1, metrics.getCacheClearCount());
+
+    metrics.reset();
+    Assert.assertEquals(0, metrics.getCacheClearCount());
+    Assert.assertEquals(0, metrics.getCacheInvalidationCount(CacheType.PERMISSION));
+    Assert.assertEquals(0, metrics.getDatabaseOperationCount(DatabaseOperation.DELETE));
+    Assert.assertTrue(Double.isNaN(metrics.getCacheHitRatio(CacheType.AUTHORIZATION_SCOPE)));
+  }
+}
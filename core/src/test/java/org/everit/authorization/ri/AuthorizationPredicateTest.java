@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.everit.persistence.querydsl.support.QuerydslSupport;
+import org.everit.resource.ri.schema.qdsl.QResource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.querydsl.core.types.dsl.BooleanExpression;
+import com.querydsl.sql.SQLQuery;
+
+/**
+ * The recursive authorization predicate must select the same resources as the IN list on the
+ * database, and the IN list must be used if the database rejects the recursive predicate.
+ */
+public class AuthorizationPredicateTest {
+
+  private static final String ACTION = "read";
+
+  private TestEnvironment environment;
+
+  private AuthorizationImpl createAuthorization(final QuerydslSupport querydslSupport,
+      final int recursiveScopePredicateThreshold) {
+    return new AuthorizationImpl(environment.getPropertyManager(),
+        environment.getResourceService(), environment.getTransactionPropagator(),
+        querydslSupport, new CompactPermissionCache(), new CompactPermissionInheritanceCache(),
+        new AuthorizationConfiguration()
+            .recursiveScopePredicateThreshold(recursiveScopePredicateThreshold));
+  }
+
+  private List<Long> findPermittedResources(final AuthorizationImpl authorization,
+      final long authorizedResourceId) {
+    return environment.getQuerydslSupport().execute((connection, configuration) -> {
+      QResource resource = QResource.resource;
+      return new SQLQuery<Long>(connection, configuration)
+          .select(resource.resourceId)
+          .from(resource)
+          .where(authorization.authorizationPredicate(authorizedResourceId, resource.resourceId,
+              ACTION))
+          .orderBy(resource.resourceId.asc())
+          .fetch();
+    });
+  }
+
+  @Before
+  public void setUp() {
+    environment = new TestEnvironment();
+  }
+
+  @After
+  public void tearDown() {
+    environment.close();
+  }
+
+  @Test
+  public void testInListIsUsedIfRecursivePredicateFails() {
+    QuerydslSupport delegate = environment.getQuerydslSupport();
+    AtomicBoolean failing = new AtomicBoolean(false);
+    AtomicInteger callCount = new AtomicInteger();
+    QuerydslSupport failingQuerydslSupport = (QuerydslSupport) Proxy.newProxyInstance(
+        QuerydslSupport.class.getClassLoader(), new Class<?>[] { QuerydslSupport.class },
+        (proxy, method, args) -> {
+          callCount.incrementAndGet();
+          if (failing.get()) {
+            throw new IllegalStateException("WITH RECURSIVE is not supported");
+          }
+          try {
+            return method.invoke(delegate, args);
+          } catch (InvocationTargetException e) {
+            throw e.getCause();
+          }
+        });
+    AuthorizationImpl authorization = createAuthorization(failingQuerydslSupport, 1);
+    // The recursive predicate is probed on the first use, not when the component is created
+    Assert.assertEquals(0, callCount.get());
+
+    long[] resourceIds = environment.createResources(3);
+    authorization.addPermissionInheritance(resourceIds[1], resourceIds[0]);
+    authorization.addPermission(resourceIds[1], resourceIds[2], ACTION);
+    Assert.assertEquals(2, authorization.getAuthorizationScope(resourceIds[0]).length);
+
+    failing.set(true);
+    BooleanExpression predicate = authorization.authorizationPredicate(resourceIds[0],
+        QResource.resource.resourceId, ACTION);
+    failing.set(false);
+
+    String sql = toSql(predicate);
+    Assert.assertFalse(sql, sql.contains("authr_scope"));
+    Assert.assertEquals(1, findPermittedResources(authorization, resourceIds[0]).size());
+    sql = toSql(authorization.authorizationPredicate(resourceIds[0],
+        QResource.resource.resourceId, ACTION));
+    Assert.assertFalse(sql, sql.contains("authr_scope"));
+  }
+
+  @Test
+  public void testRecursivePredicateSelectsTheSameResources() {
+    AuthorizationImpl inListAuthorization =
+        createAuthorization(environment.getQuerydslSupport(), 0);
+    AuthorizationImpl recursiveAuthorization =
+        createAuthorization(environment.getQuerydslSupport(), 1);
+
+    // A chain of groups, where every group has a permission on its own target
+    int groupCount = 50;
+    long[] groupResourceIds = environment.createResources(groupCount);
+    long[] targetResourceIds = environment.createResources(groupCount + 1);
+    for (int i = 0; i < groupCount; i++) {
+      if (i > 0) {
+        inListAuthorization.addPermissionInheritance(groupResourceIds[i],
+            groupResourceIds[i - 1]);
+      }
+      inListAuthorization.addPermission(groupResourceIds[i], targetResourceIds[i], ACTION);
+    }
+
+    String sql = toSql(recursiveAuthorization.authorizationPredicate(groupResourceIds[0],
+        QResource.resource.resourceId, ACTION));
+    Assert.assertTrue(sql, sql.contains("authr_scope"));
+    for (int i : new int[] { 0, 1, groupCount - 1 }) {
+      List<Long> expected = findPermittedResources(inListAuthorization, groupResourceIds[i]);
+      Assert.assertEquals(groupCount - i, expected.size());
+      Assert.assertEquals(expected,
+          findPermittedResources(recursiveAuthorization, groupResourceIds[i]));
+    }
+  }
+
+  private String toSql(final BooleanExpression predicate) {
+    QResource resource = QResource.resource;
+    return new SQLQuery<Void>(environment.getConfiguration())
+        .select(resource.resourceId)
+        .from(resource)
+        .where(predicate)
+        .getSQL()
+        .getSQL();
+  }
+}
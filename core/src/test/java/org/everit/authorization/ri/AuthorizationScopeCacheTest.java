@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class AuthorizationScopeCacheTest {
+
+  private static final long MEMBER_OFFSET = 1000000;
+
+  @Test
+  public void testEvictedReverseIndexEntriesEvictTheirScopes() {
+    AuthorizationScopeCache cache = new AuthorizationScopeCache(
+        new CacheConfiguration().maximumSize(OpenAddressingSegment.SEGMENT_COUNT * 4));
+    for (long resourceId = 0; resourceId < 10000; resourceId++) {
+      cache.putIfAbsent(resourceId, new long[] { resourceId, MEMBER_OFFSET + resourceId });
+    }
+    Assert.assertTrue(cache.size() > 0);
+
+    for (long resourceId = 0; resourceId < 10000; resourceId++) {
+      if (cache.get(resourceId) != null) {
+        Assert.assertEquals(1, cache.invalidate(new long[] { MEMBER_OFFSET + resourceId }));
+        Assert.assertNull(cache.get(resourceId));
+      }
+    }
+    Assert.assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testInvalidateRemovesTheScopesThatContainTheResource() {
+    AuthorizationScopeCache cache = new AuthorizationScopeCache(new CacheConfiguration());
+    cache.putIfAbsent(1, new long[] { 1, 10 });
+    cache.putIfAbsent(2, new long[] { 2, 1, 10 });
+    cache.putIfAbsent(3, new long[] { 3, 20 });
+
+    Assert.assertEquals(2, cache.invalidate(new long[] { 1 }));
+
+    Assert.assertNull(cache.get(1));
+    Assert.assertNull(cache.get(2));
+    Assert.assertArrayEquals(new long[] { 3, 20 }, cache.get(3));
+    Assert.assertEquals(0, cache.invalidate(new long[] { 10 }));
+  }
+
+  @Test
+  public void testReverseIndexDropsTheKeysOfUncachedScopes() {
+    AuthorizationScopeCache cache = new AuthorizationScopeCache(new CacheConfiguration());
+    long[] scope = new long[] { 0, MEMBER_OFFSET };
+    for (int round = 0; round < 1000; round++) {
+      Assert.assertTrue(cache.putIfAbsent(0, scope));
+      cache.remove(0, scope);
+    }
+    Assert.assertTrue(cache.putIfAbsent(0, scope));
+
+    Assert.assertEquals(1, cache.invalidate(new long[] { MEMBER_OFFSET }));
+    Assert.assertEquals(0, cache.size());
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.everit.authorization.ri.AuthorizationMetricsListener.DatabaseOperation;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The batch modifications must lock the resources and write all records with one statement and
+ * keep the caches up to date.
+ */
+public class BatchModificationTest {
+
+  private static final String ACTION = "read";
+
+  private static final int RECORD_COUNT = 100;
+
+  private AuthorizationImpl authorization;
+
+  private TestEnvironment environment;
+
+  private InMemoryAuthorizationMetrics metrics;
+
+  @Before
+  public void setUp() {
+    environment = new TestEnvironment();
+    metrics = new InMemoryAuthorizationMetrics();
+    authorization = new AuthorizationImpl(environment.getPropertyManager(),
+        environment.getResourceService(), environment.getTransactionPropagator(),
+        environment.getQuerydslSupport(), new CompactPermissionCache(),
+        new CompactPermissionInheritanceCache(),
+        new AuthorizationConfiguration().metricsListener(metrics));
+  }
+
+  @After
+  public void tearDown() {
+    environment.close();
+  }
+
+  @Test
+  public void testPermissionInheritancesAreWrittenInBatch() {
+    long[] resourceIds = environment.createResources(4);
+    long userResourceId = resourceIds[0];
+    Assert.assertArrayEquals(new long[] { userResourceId },
+        authorization.getAuthorizationScope(userResourceId));
+    List<PermissionInheritanceRecord> records = Arrays.asList(
+        new PermissionInheritanceRecord(resourceIds[1], userResourceId),
+        new PermissionInheritanceRecord(resourceIds[2], userResourceId),
+        new PermissionInheritanceRecord(resourceIds[3], resourceIds[1]));
+    metrics.reset();
+
+    authorization.addPermissionInheritances(records);
+
+    Assert.assertEquals(1, metrics.getDatabaseOperationCount(DatabaseOperation.LOCK_RESOURCES));
+    Assert.assertEquals(1, metrics.getDatabaseOperationCount(DatabaseOperation.INSERT));
+    long[] scope = authorization.getAuthorizationScope(userResourceId);
+    Arrays.sort(scope);
+    Assert.assertArrayEquals(resourceIds, scope);
+
+    metrics.reset();
+    authorization.removePermissionInheritances(records.subList(1, 3));
+
+    Assert.assertEquals(1, metrics.getDatabaseOperationCount(DatabaseOperation.LOCK_RESOURCES));
+    Assert.assertEquals(1, metrics.getDatabaseOperationCount(DatabaseOperation.DELETE));
+    Assert.assertArrayEquals(new long[] { userResourceId, resourceIds[1] },
+        authorization.getAuthorizationScope(userResourceId));
+  }
+
+  @Test
+  public void testPermissionsAreWrittenInBatch() {
+    long[] authorizedResourceIds = environment.createResources(2);
+    long[] targetResourceIds = environment.createResources(RECORD_COUNT);
+    List<PermissionRecord> permissions = new ArrayList<>();
+    for (int i = 0; i < RECORD_COUNT; i++) {
+      permissions.add(new PermissionRecord(authorizedResourceIds[i % 2], targetResourceIds[i],
+          ACTION));
+    }
+    metrics.reset();
+
+    authorization.addPermissions(permissions);
+
+    Assert.assertEquals(1, metrics.getDatabaseOperationCount(DatabaseOperation.LOCK_RESOURCES));
+    Assert.assertEquals(1, metrics.getDatabaseOperationCount(DatabaseOperation.INSERT));
+    metrics.reset();
+    for (PermissionRecord permission : permissions) {
+      Assert.assertTrue(authorization.hasPermission(permission.getAuthorizedResourceId(),
+          permission.getTargetResourceId(), ACTION));
+    }
+    Assert.assertEquals(0, metrics.getDatabaseOperationCount(DatabaseOperation.READ_PERMISSIONS));
+
+    List<PermissionRecord> removedPermissions = permissions.subList(0, RECORD_COUNT / 2);
+    metrics.reset();
+    authorization.removePermissions(removedPermissions);
+
+    Assert.assertEquals(1, metrics.getDatabaseOperationCount(DatabaseOperation.LOCK_RESOURCES));
+    Assert.assertEquals(1, metrics.getDatabaseOperationCount(DatabaseOperation.DELETE));
+    metrics.reset();
+    for (int i = 0; i < RECORD_COUNT; i++) {
+      PermissionRecord permission = permissions.get(i);
+      Assert.assertEquals(i >= RECORD_COUNT / 2, authorization.hasPermission(
+          permission.getAuthorizedResourceId(), permission.getTargetResourceId(), ACTION));
+    }
+    Assert.assertEquals(0, metrics.getDatabaseOperationCount(DatabaseOperation.READ_PERMISSIONS));
+  }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri;
+
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The cache invalidation events must be published only after the transaction of the modification
+ * committed, so the other nodes cannot cache the rows of an uncommitted or rolled back transaction
+ * after the eviction.
+ */
+public class CacheInvalidationTest {
+
+  /**
+   * Rolls back the enclosing transaction of the test.
+   */
+  private static class RollbackException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+  }
+
+  private static final String ACTION = "read";
+
+  private TestEnvironment environment;
+
+  /**
+   * Whether the modified permission was visible to a new transaction when the events arrived.
+   */
+  private List<Boolean> permittedWhenPublished;
+
+  private long[] resourceIds;
+
+  private LoopbackCacheInvalidationTransport transport;
+
+  private AuthorizationImpl createAuthorization() {
+    return new AuthorizationImpl(environment.getPropertyManager(),
+        environment.getResourceService(), environment.getTransactionPropagator(),
+        environment.getQuerydslSupport(), new CompactPermissionCache(),
+        new CompactPermissionInheritanceCache(), new AuthorizationConfiguration()
+            .cacheInvalidationTransport(transport)
+            .transactionSynchronizer(environment.getTransactionSynchronizer()));
+  }
+
+  /**
+   * Checks the permission on another thread with a new instance that has an empty cache.
+   */
+  private boolean hasPermissionInDatabase() {
+    return CompletableFuture
+        .supplyAsync(() -> new AuthorizationImpl(environment.getPropertyManager(),
+            environment.getResourceService(), environment.getTransactionPropagator(),
+            environment.getQuerydslSupport(), new ConcurrentHashMap<>(),
+            new ConcurrentHashMap<>()).hasPermission(resourceIds[0], resourceIds[1], ACTION))
+        .join();
+  }
+
+  @Before
+  public void setUp() {
+    environment = new TestEnvironment();
+    resourceIds = environment.createResources(2);
+    transport = new LoopbackCacheInvalidationTransport();
+    permittedWhenPublished = new CopyOnWriteArrayList<>();
+    transport.addListener(event -> permittedWhenPublished.add(hasPermissionInDatabase()));
+  }
+
+  @After
+  public void tearDown() {
+    environment.close();
+  }
+
+  @Test
+  public void testEventIsPublishedAfterCommit() {
+    AuthorizationImpl authorization = createAuthorization();
+    AuthorizationImpl otherNodeAuthorization = createAuthorization();
+    Assert.assertFalse(otherNodeAuthorization.hasPermission(resourceIds[0], resourceIds[1],
+        ACTION));
+
+    environment.getTransactionPropagator().required(() -> {
+      authorization.addPermission(resourceIds[0], resourceIds[1], ACTION);
+      Assert.assertTrue(permittedWhenPublished.isEmpty());
+      return null;
+    });
+
+    Assert.assertEquals(1, permittedWhenPublished.size());
+    Assert.assertTrue(permittedWhenPublished.get(0));
+    Assert.assertTrue(otherNodeAuthorization.hasPermission(resourceIds[0], resourceIds[1],
+        ACTION));
+  }
+
+  @Test
+  public void testEventIsPublishedAfterOwnTransactionCommitted() {
+    AuthorizationImpl authorization = new AuthorizationImpl(environment.getPropertyManager(),
+        environment.getResourceService(), environment.getTransactionPropagator(),
+        environment.getQuerydslSupport(), new CompactPermissionCache(),
+        new CompactPermissionInheritanceCache(),
+        new AuthorizationConfiguration().cacheInvalidationTransport(transport));
+
+    authorization.addPermission(resourceIds[0], resourceIds[1], ACTION);
+
+    Assert.assertEquals(1, permittedWhenPublished.size());
+    Assert.assertTrue(permittedWhenPublished.get(0));
+  }
+
+  @Test
+  public void testEventOfRolledBackModificationIsNotPublished() {
+    AuthorizationImpl authorization = createAuthorization();
+    AuthorizationImpl otherNodeAuthorization = createAuthorization();
+    Assert.assertFalse(otherNodeAuthorization.hasPermission(resourceIds[0], resourceIds[1],
+        ACTION));
+
+    try {
+      environment.getTransactionPropagator().required(() -> {
+        authorization.addPermission(resourceIds[0], resourceIds[1], ACTION);
+        throw new RollbackException();
+      });
+      Assert.fail("The transaction should have been rolled back");
+    } catch (RollbackException e) {
+      // Expected
+    }
+
+    Assert.assertTrue(permittedWhenPublished.isEmpty());
+    Assert.assertFalse(otherNodeAuthorization.hasPermission(resourceIds[0], resourceIds[1],
+        ACTION));
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CacheModificationGuardTest {
+
+  /**
+   * Returns a key whose stripe is different from the stripe of the passed key.
+   */
+  private static long keyOfOtherStripe(final long key) {
+    long otherKey = key + 1;
+    while (CacheModificationGuard.stripeOf(otherKey) == CacheModificationGuard.stripeOf(key)) {
+      otherKey++;
+    }
+    return otherKey;
+  }
+
+  @Test
+  public void testModificationDisablesCachingOnlyOnItsStripes() {
+    CacheModificationGuard guard = new CacheModificationGuard();
+    long modifiedStripes = CacheModificationGuard.stripeOf(1);
+    long otherStripes = CacheModificationGuard.stripeOf(keyOfOtherStripe(1));
+
+    long otherStamp = guard.startRead(otherStripes);
+    guard.beginModification(modifiedStripes);
+
+    Assert.assertEquals(CacheModificationGuard.NO_CACHING, guard.startRead(modifiedStripes));
+    Assert.assertEquals(CacheModificationGuard.NO_CACHING,
+        guard.startRead(CacheModificationGuard.ALL_STRIPES));
+    Assert.assertTrue(guard.isValid(otherStripes, otherStamp));
+    Assert.assertTrue(guard.isValid(otherStripes, guard.startRead(otherStripes)));
+
+    guard.endModification(modifiedStripes);
+    Assert.assertTrue(guard.isValid(otherStripes, otherStamp));
+    long stamp = guard.startRead(modifiedStripes);
+    Assert.assertNotEquals(CacheModificationGuard.NO_CACHING, stamp);
+    Assert.assertTrue(guard.isValid(modifiedStripes, stamp));
+  }
+
+  @Test
+  public void testModificationInvalidatesEarlierStamps() {
+    CacheModificationGuard guard = new CacheModificationGuard();
+    long stripes = CacheModificationGuard.stripeOf(1);
+    long stamp = guard.startRead(CacheModificationGuard.ALL_STRIPES);
+
+    guard.beginModification(stripes);
+    guard.endModification(stripes);
+
+    Assert.assertFalse(guard.isValid(CacheModificationGuard.ALL_STRIPES, stamp));
+    Assert.assertFalse(guard.isValid(stripes, CacheModificationGuard.NO_CACHING));
+  }
+
+  @Test
+  public void testRejectedValueIsNotCached() {
+    CacheModificationGuard guard = new CacheModificationGuard();
+    ConcurrentLongObjectMap<String> cache = new ConcurrentLongObjectMap<>();
+    long stripes = CacheModificationGuard.stripeOf(1);
+
+    long stamp = guard.startRead(stripes);
+    guard.beginModification(stripes);
+    guard.cacheIfValid(cache, 1, "stale", stripes, stamp);
+    guard.endModification(stripes);
+    guard.cacheIfValid(cache, 1, "stale", stripes, stamp);
+    Assert.assertNull(cache.get(1));
+
+    stamp = guard.startRead(stripes);
+    guard.cacheIfValid(cache, 1, "fresh", stripes, stamp);
+    Assert.assertEquals("fresh", cache.get(1));
+  }
+
+  @Test
+  public void testStampsOfAllStripesAreValidatedSeparately() {
+    CacheModificationGuard guard = new CacheModificationGuard();
+    long runningStripes = CacheModificationGuard.stripeOf(1);
+    long modifiedStripes = CacheModificationGuard.stripeOf(keyOfOtherStripe(1));
+    long otherStripes = CacheModificationGuard.ALL_STRIPES & ~(runningStripes | modifiedStripes);
+
+    guard.beginModification(runningStripes);
+    long[] stamps = guard.startReadAll();
+    guard.beginModification(modifiedStripes);
+    guard.endModification(modifiedStripes);
+
+    Assert.assertEquals(CacheModificationGuard.NO_CACHING,
+        CacheModificationGuard.stampOf(stamps, runningStripes));
+    Assert.assertFalse(guard.isValid(modifiedStripes,
+        CacheModificationGuard.stampOf(stamps, modifiedStripes)));
+    Assert.assertTrue(guard.isValid(otherStripes,
+        CacheModificationGuard.stampOf(stamps, otherStripes)));
+    Assert.assertFalse(guard.isValid(stamps));
+
+    guard.endModification(runningStripes);
+    Assert.assertTrue(guard.isValid(guard.startReadAll()));
+  }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.everit.persistence.querydsl.support.QuerydslSupport;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The cache warm-up must report its failures and must stop when it is cancelled.
+ */
+public class CacheWarmUpTest {
+
+  /**
+   * Records the calls of the listener.
+   */
+  private static class RecordingListener implements CacheWarmUpListener {
+
+    final List<Phase> completedPhases = new ArrayList<>();
+
+    final List<Throwable> failures = new ArrayList<>();
+
+    @Override
+    public void phaseCompleted(final Phase phase, final long loadedRecordCount,
+        final boolean complete) {
+      completedPhases.add(phase);
+    }
+
+    @Override
+    public void progress(final Phase phase, final long loadedRecordCount) {
+      // Not recorded
+    }
+
+    @Override
+    public void warmUpFailed(final Throwable cause) {
+      failures.add(cause);
+    }
+  }
+
+  private static final Logger LOGGER = Logger.getLogger(AuthorizationImpl.class.getName());
+
+  private TestEnvironment environment;
+
+  private final Handler logHandler = new Handler() {
+
+    @Override
+    public void close() {
+      // Nothing to close
+    }
+
+    @Override
+    public void flush() {
+      // Nothing to flush
+    }
+
+    @Override
+    public void publish(final LogRecord record) {
+      logRecords.add(record);
+    }
+  };
+
+  private final List<LogRecord> logRecords = new ArrayList<>();
+
+  private AuthorizationImpl createAuthorization(final QuerydslSupport querydslSupport,
+      final CacheWarmUpConfiguration warmUpConfiguration) {
+    AuthorizationConfiguration configuration = new AuthorizationConfiguration();
+    if (warmUpConfiguration != null) {
+      configuration.cacheWarmUp(warmUpConfiguration);
+    }
+    return new AuthorizationImpl(environment.getPropertyManager(),
+        environment.getResourceService(), environment.getTransactionPropagator(),
+        querydslSupport, new CompactPermissionCache(), new CompactPermissionInheritanceCache(),
+        configuration);
+  }
+
+  @Before
+  public void setUp() {
+    environment = new TestEnvironment();
+    LOGGER.addHandler(logHandler);
+    LOGGER.setUseParentHandlers(false);
+  }
+
+  @After
+  public void tearDown() {
+    LOGGER.setUseParentHandlers(true);
+    LOGGER.removeHandler(logHandler);
+    environment.close();
+  }
+
+  @Test
+  public void testCancelledWarmUpStopsAfterTheCurrentBatch() {
+    long[] resourceIds = environment.createResources(4);
+    AuthorizationImpl authorization = createAuthorization(environment.getQuerydslSupport(), null);
+    for (int i = 1; i < resourceIds.length; i++) {
+      authorization.addPermissionInheritance(resourceIds[i - 1], resourceIds[i]);
+    }
+
+    AtomicReference<CompletableFuture<Long>> warmUp = new AtomicReference<>();
+    List<Long> progress = new ArrayList<>();
+    RecordingListener listener = new RecordingListener() {
+
+      @Override
+      public void progress(final Phase phase, final long loadedRecordCount) {
+        progress.add(loadedRecordCount);
+        warmUp.get().cancel(false);
+      }
+    };
+    List<Runnable> tasks = new ArrayList<>();
+    warmUp.set(authorization.warmUpCaches(new CacheWarmUpConfiguration().fetchSize(1)
+        .executor(tasks::add).listener(listener)));
+    tasks.forEach(Runnable::run);
+
+    Assert.assertTrue(warmUp.get().isCancelled());
+    Assert.assertEquals(1, progress.size());
+    Assert.assertTrue(listener.completedPhases.isEmpty());
+    Assert.assertEquals(1, listener.failures.size());
+    Assert.assertTrue(listener.failures.get(0) instanceof CancellationException);
+  }
+
+  @Test
+  public void testCloseCancelsTheWarmUpOfTheConstructor() {
+    List<Runnable> tasks = new ArrayList<>();
+    RecordingListener listener = new RecordingListener();
+    AuthorizationImpl authorization = createAuthorization(environment.getQuerydslSupport(),
+        new CacheWarmUpConfiguration().executor(tasks::add).listener(listener));
+
+    authorization.close();
+    tasks.forEach(Runnable::run);
+
+    Assert.assertTrue(listener.completedPhases.isEmpty());
+    Assert.assertEquals(1, listener.failures.size());
+    Assert.assertTrue(listener.failures.get(0) instanceof CancellationException);
+    Assert.assertTrue(logRecords.isEmpty());
+  }
+
+  @Test
+  public void testFailureOfTheWarmUpOfTheConstructorIsLogged() {
+    QuerydslSupport failingQuerydslSupport = (QuerydslSupport) Proxy.newProxyInstance(
+        QuerydslSupport.class.getClassLoader(), new Class<?>[] { QuerydslSupport.class },
+        (proxy, method, args) -> {
+          throw new IllegalStateException("Database failure");
+        });
+    RecordingListener listener = new RecordingListener();
+    createAuthorization(failingQuerydslSupport,
+        new CacheWarmUpConfiguration().executor(Runnable::run).listener(listener));
+
+    Assert.assertEquals(1, listener.failures.size());
+    Assert.assertEquals(1, logRecords.size());
+    Assert.assertEquals(Level.WARNING, logRecords.get(0).getLevel());
+    Assert.assertTrue(logRecords.get(0).getThrown() instanceof IllegalStateException);
+  }
+}
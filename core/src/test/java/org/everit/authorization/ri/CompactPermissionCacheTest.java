@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CompactPermissionCacheTest {
+
+  private static final int SLOT_MASK = OpenAddressingSegment.INITIAL_CAPACITY - 1;
+
+  private static final int THREAD_COUNT = 8;
+
+  /**
+   * Returns target resource ids whose entries with the authorized resource 1 and the action are
+   * stored in the same segment and start probing at the last slot of the initial table.
+   */
+  private static long[] targetsOfLastSlot(final int actionId, final int count) {
+    long[] targetResourceIds = new long[count];
+    int found = 0;
+    for (long targetResourceId = 0; found < count; targetResourceId++) {
+      long hash = CompactPermissionCache.hash(1, targetResourceId, actionId);
+      if ((OpenAddressingSegment.segmentIndex(hash) == 0)
+          && (((int) hash & SLOT_MASK) == SLOT_MASK)) {
+        targetResourceIds[found++] = targetResourceId;
+      }
+    }
+    return targetResourceIds;
+  }
+
+  @Test
+  public void testConcurrentModifications() {
+    CompactPermissionCache cache = new CompactPermissionCache();
+    ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+    try {
+      List<CompletableFuture<Void>> futures = new ArrayList<>();
+      for (int i = 0; i < THREAD_COUNT; i++) {
+        long authorizedResourceId = i;
+        futures.add(CompletableFuture.runAsync(() -> {
+          for (int round = 0; round < 10; round++) {
+            for (long targetResourceId = 0; targetResourceId < 1000; targetResourceId++) {
+              cache.put(authorizedResourceId, targetResourceId, "read", true);
+            }
+            for (long targetResourceId = 0; targetResourceId < 1000; targetResourceId++) {
+              Assert.assertEquals(Boolean.TRUE,
+                  cache.get(authorizedResourceId, targetResourceId, "read"));
+              Assert.assertTrue(cache.remove(authorizedResourceId, targetResourceId, "read", true));
+              Assert.assertNull(cache.get(authorizedResourceId, targetResourceId, "read"));
+            }
+          }
+        }, executor));
+      }
+      for (CompletableFuture<Void> future : futures) {
+        future.join();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    Assert.assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testNegativeEntriesHaveTheirOwnLimit() {
+    ActionDictionary actionDictionary = new ActionDictionary();
+    int actionId = actionDictionary.intern("read");
+    CompactPermissionCache cache = new CompactPermissionCache(
+        new CacheConfiguration().maximumNegativeSize(OpenAddressingSegment.SEGMENT_COUNT),
+        actionDictionary);
+    long[] targetResourceIds = targetsOfLastSlot(actionId, 3);
+    cache.put(1, targetResourceIds[0], "read", true);
+    cache.put(1, targetResourceIds[1], "read", false);
+
+    cache.put(1, targetResourceIds[2], "read", false);
+
+    Assert.assertEquals(Boolean.TRUE, cache.get(1, targetResourceIds[0], "read"));
+    Assert.assertNull(cache.get(1, targetResourceIds[1], "read"));
+    Assert.assertEquals(Boolean.FALSE, cache.get(1, targetResourceIds[2], "read"));
+    Assert.assertEquals(2, cache.size());
+  }
+
+  @Test
+  public void testPutIfAbsentKeepsTheCachedPermission() {
+    CompactPermissionCache cache = new CompactPermissionCache();
+    Assert.assertTrue(cache.putIfAbsent(1, 2, "read", true));
+    Assert.assertFalse(cache.putIfAbsent(1, 2, "read", false));
+    Assert.assertEquals(Boolean.TRUE, cache.get(1, 2, "read"));
+    Assert.assertNull(cache.get(1, 2, "write"));
+    Assert.assertNull(cache.get(2, 1, "read"));
+
+    cache.put(1, 2, "read", false);
+    Assert.assertEquals(Boolean.FALSE, cache.get(1, 2, "read"));
+  }
+
+  @Test
+  public void testRemovalWrapsAroundTheEndOfTheTable() {
+    ActionDictionary actionDictionary = new ActionDictionary();
+    int actionId = actionDictionary.intern("read");
+    CompactPermissionCache cache =
+        new CompactPermissionCache(new CacheConfiguration(), actionDictionary);
+    long[] targetResourceIds = targetsOfLastSlot(actionId, 4);
+    for (long targetResourceId : targetResourceIds) {
+      cache.put(1, targetResourceId, "read", true);
+    }
+
+    Assert.assertTrue(cache.remove(1, targetResourceIds[0], "read", true));
+    Assert.assertNull(cache.get(1, targetResourceIds[0], "read"));
+    for (int i = 1; i < targetResourceIds.length; i++) {
+      Assert.assertEquals(Boolean.TRUE, cache.get(1, targetResourceIds[i], "read"));
+    }
+
+    Assert.assertTrue(cache.remove(1, targetResourceIds[2], "read", true));
+    Assert.assertEquals(Boolean.TRUE, cache.get(1, targetResourceIds[1], "read"));
+    Assert.assertEquals(Boolean.TRUE, cache.get(1, targetResourceIds[3], "read"));
+    Assert.assertEquals(2, cache.size());
+  }
+
+  @Test
+  public void testRemoveChecksThePermission() {
+    CompactPermissionCache cache = new CompactPermissionCache();
+    cache.put(1, 2, "read", true);
+    Assert.assertFalse(cache.remove(1, 2, "read", false));
+    Assert.assertEquals(Boolean.TRUE, cache.get(1, 2, "read"));
+    Assert.assertTrue(cache.remove(1, 2, "read", true));
+    Assert.assertNull(cache.get(1, 2, "read"));
+    Assert.assertFalse(cache.remove(1, 2, "unknown", true));
+  }
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ConcurrentLongObjectMapTest {
+
+  private static final int SLOT_MASK = OpenAddressingSegment.INITIAL_CAPACITY - 1;
+
+  private static final int THREAD_COUNT = 8;
+
+  /**
+   * Returns keys that are stored in the same segment and start probing at the last slot of the
+   * initial table.
+   */
+  private static long[] keysOfLastSlot(final int count) {
+    long[] keys = new long[count];
+    int found = 0;
+    for (long key = 0; found < count; key++) {
+      long hash = ConcurrentLongObjectMap.hash(key);
+      if ((OpenAddressingSegment.segmentIndex(hash) == 0)
+          && (((int) hash & SLOT_MASK) == SLOT_MASK)) {
+        keys[found++] = key;
+      }
+    }
+    return keys;
+  }
+
+  private static void sleep(final long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @Test
+  public void testCompute() {
+    ConcurrentLongObjectMap<String> map = new ConcurrentLongObjectMap<>();
+    Assert.assertEquals("a", map.compute(1, value -> (value == null) ? "a" : value + "a"));
+    Assert.assertEquals("aa", map.compute(1, value -> (value == null) ? "a" : value + "a"));
+    Assert.assertEquals("aa", map.get(1));
+
+    Assert.assertNull(map.compute(1, value -> null));
+    Assert.assertFalse(map.containsKey(1));
+    Assert.assertEquals(0, map.size());
+  }
+
+  @Test
+  public void testConcurrentModifications() {
+    ConcurrentLongObjectMap<String> map = new ConcurrentLongObjectMap<>();
+    ExecutorService executor = Executors.newFixedThreadPool(THREAD_COUNT);
+    try {
+      List<CompletableFuture<Void>> futures = new ArrayList<>();
+      for (int i = 0; i < THREAD_COUNT; i++) {
+        long firstKey = i * 1000L;
+        String value = "value" + i;
+        futures.add(CompletableFuture.runAsync(() -> {
+          for (int round = 0; round < 10; round++) {
+            for (long key = firstKey; key < (firstKey + 1000); key++) {
+              Assert.assertNull(map.putIfAbsent(key, value));
+            }
+            for (long key = firstKey; key < (firstKey + 1000); key++) {
+              Assert.assertSame(value, map.get(key));
+              Assert.assertSame(value, map.remove(key));
+              Assert.assertNull(map.get(key));
+            }
+          }
+        }, executor));
+      }
+      for (CompletableFuture<Void> future : futures) {
+        future.join();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    Assert.assertEquals(0, map.size());
+  }
+
+  @Test
+  public void testConditionalRemovalComparesIdentity() {
+    ConcurrentLongObjectMap<long[]> map = new ConcurrentLongObjectMap<>();
+    long[] value = new long[] { 1 };
+    map.put(1, value);
+
+    Assert.assertNull(map.remove(1, new long[] { 1 }));
+    Assert.assertSame(value, map.get(1));
+    Assert.assertSame(value, map.remove(1, value));
+    Assert.assertNull(map.get(1));
+  }
+
+  @Test
+  public void testEvictionKeepsReferencedEntries() {
+    ConcurrentLongObjectMap<String> map = new ConcurrentLongObjectMap<>(
+        new CacheConfiguration().maximumSize(OpenAddressingSegment.SEGMENT_COUNT * 2));
+    long[] keys = keysOfLastSlot(3);
+    map.put(keys[0], "first");
+    map.put(keys[1], "second");
+    Assert.assertEquals("first", map.get(keys[0]));
+
+    map.put(keys[2], "third");
+
+    Assert.assertEquals(2, map.size());
+    Assert.assertEquals("first", map.get(keys[0]));
+    Assert.assertNull(map.get(keys[1]));
+    Assert.assertEquals("third", map.get(keys[2]));
+  }
+
+  @Test
+  public void testEvictionListenerIsNotified() {
+    List<Long> evictedKeys = new ArrayList<>();
+    ConcurrentLongObjectMap<String> map = new ConcurrentLongObjectMap<>(
+        new CacheConfiguration().maximumSize(OpenAddressingSegment.SEGMENT_COUNT * 2),
+        (key, value) -> evictedKeys.add(key));
+    long[] keys = keysOfLastSlot(3);
+    map.put(keys[0], "first");
+    map.put(keys[1], "second");
+    map.remove(keys[0]);
+    Assert.assertTrue(evictedKeys.isEmpty());
+
+    map.put(keys[0], "first");
+    map.put(keys[2], "third");
+
+    Assert.assertEquals(1, evictedKeys.size());
+    Assert.assertFalse(map.containsKey(evictedKeys.get(0)));
+  }
+
+  @Test
+  public void testExpiredEntriesAreReplaced() {
+    ConcurrentLongObjectMap<String> map = new ConcurrentLongObjectMap<>(
+        new CacheConfiguration().expireAfterWrite(10, TimeUnit.MILLISECONDS));
+    map.put(1, "old");
+    Assert.assertEquals("old", map.get(1));
+
+    sleep(50);
+
+    Assert.assertNull(map.get(1));
+    Assert.assertNull(map.putIfAbsent(1, "new"));
+    Assert.assertEquals("new", map.get(1));
+  }
+
+  @Test
+  public void testMaximumSizeIsNotExceeded() {
+    int maximumSize = OpenAddressingSegment.SEGMENT_COUNT * 4;
+    ConcurrentLongObjectMap<String> map =
+        new ConcurrentLongObjectMap<>(new CacheConfiguration().maximumSize(maximumSize));
+    for (long key = 0; key < 10000; key++) {
+      map.put(key, "value");
+      Assert.assertTrue(map.size() <= maximumSize);
+    }
+    Assert.assertEquals("value", map.get(9999));
+  }
+
+  @Test
+  public void testRemovalWrapsAroundTheEndOfTheTable() {
+    ConcurrentLongObjectMap<Long> map = new ConcurrentLongObjectMap<>();
+    long[] keys = keysOfLastSlot(4);
+    for (long key : keys) {
+      map.put(key, key);
+    }
+
+    Assert.assertEquals(Long.valueOf(keys[0]), map.remove(keys[0]));
+    Assert.assertNull(map.get(keys[0]));
+    for (int i = 1; i < keys.length; i++) {
+      Assert.assertEquals(Long.valueOf(keys[i]), map.get(keys[i]));
+    }
+
+    Assert.assertEquals(Long.valueOf(keys[2]), map.remove(keys[2]));
+    Assert.assertEquals(Long.valueOf(keys[1]), map.get(keys[1]));
+    Assert.assertEquals(Long.valueOf(keys[3]), map.get(keys[3]));
+    Assert.assertEquals(2, map.size());
+  }
+
+  @Test
+  public void testRemoveValuesIf() {
+    ConcurrentLongObjectMap<Long> map = new ConcurrentLongObjectMap<>();
+    for (long key = 0; key < 1000; key++) {
+      map.put(key, key);
+    }
+
+    Assert.assertEquals(500, map.removeValuesIf(value -> (value % 2) == 0));
+
+    Assert.assertEquals(500, map.size());
+    for (long key = 0; key < 1000; key++) {
+      Assert.assertEquals(((key % 2) == 0) ? null : Long.valueOf(key), map.get(key));
+    }
+  }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.LongStream;
+
+import org.everit.authorization.ri.AuthorizationMetricsListener.DatabaseOperation;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Filtering many targets must resolve the scope once and read the missing permissions of all
+ * targets with one query per IN list chunk.
+ */
+public class FilterPermittedTargetsTest {
+
+  private static final String ACTION = "read";
+
+  private static final int TARGET_COUNT = 1000;
+
+  private AuthorizationImpl authorization;
+
+  private TestEnvironment environment;
+
+  private InMemoryAuthorizationMetrics metrics;
+
+  private AuthorizationImpl createAuthorization() {
+    return new AuthorizationImpl(environment.getPropertyManager(),
+        environment.getResourceService(), environment.getTransactionPropagator(),
+        environment.getQuerydslSupport(), new CompactPermissionCache(),
+        new CompactPermissionInheritanceCache(),
+        new AuthorizationConfiguration().metricsListener(metrics));
+  }
+
+  @Before
+  public void setUp() {
+    environment = new TestEnvironment();
+    metrics = new InMemoryAuthorizationMetrics();
+    authorization = createAuthorization();
+  }
+
+  @After
+  public void tearDown() {
+    environment.close();
+  }
+
+  @Test
+  public void testManyTargetsAreFilteredWithOneQuery() {
+    long[] resourceIds = environment.createResources(2);
+    long userResourceId = resourceIds[0];
+    long groupResourceId = resourceIds[1];
+    authorization.addPermissionInheritance(groupResourceId, userResourceId);
+    long[] targetResourceIds = environment.createResources(TARGET_COUNT);
+    List<PermissionRecord> permissions = new ArrayList<>();
+    for (int i = 0; i < TARGET_COUNT; i += 3) {
+      permissions.add(new PermissionRecord((i % 2 == 0) ? userResourceId : groupResourceId,
+          targetResourceIds[i], ACTION));
+    }
+    authorization.addPermissions(permissions);
+    long[] expected = permissions.stream()
+        .mapToLong(PermissionRecord::getTargetResourceId)
+        .toArray();
+
+    AuthorizationImpl otherAuthorization = createAuthorization();
+    metrics.reset();
+    Assert.assertArrayEquals(expected,
+        otherAuthorization.filterPermittedTargets(userResourceId, targetResourceIds, ACTION));
+    Assert.assertEquals(1, metrics.getDatabaseOperationCount(DatabaseOperation.READ_PERMISSIONS));
+
+    // The negative results are cached as well
+    metrics.reset();
+    Assert.assertArrayEquals(expected,
+        otherAuthorization.filterPermittedTargets(userResourceId, targetResourceIds, ACTION));
+    Assert.assertEquals(0, metrics.getDatabaseOperationCount(DatabaseOperation.READ_PERMISSIONS));
+  }
+
+  @Test
+  public void testSystemResourceIsPermittedOnAllTargets() {
+    long[] targetResourceIds = environment.createResources(10);
+    long[] reversedTargetResourceIds = LongStream.of(targetResourceIds)
+        .map(targetResourceId -> -targetResourceId)
+        .sorted()
+        .map(targetResourceId -> -targetResourceId)
+        .toArray();
+    metrics.reset();
+
+    Assert.assertArrayEquals(reversedTargetResourceIds, authorization.filterPermittedTargets(
+        authorization.getSystemResourceId(), reversedTargetResourceIds, ACTION));
+    Assert.assertEquals(0, metrics.getDatabaseOperationCount(DatabaseOperation.READ_PERMISSIONS));
+  }
+
+  @Test
+  public void testTargetsWithoutPermissionAreFilteredOut() {
+    long[] resourceIds = environment.createResources(4);
+    authorization.addPermission(resourceIds[0], resourceIds[2], ACTION);
+    authorization.addPermission(resourceIds[0], resourceIds[3], "write");
+
+    Assert.assertArrayEquals(new long[] { resourceIds[2] },
+        authorization.filterPermittedTargets(resourceIds[0],
+            Arrays.copyOfRange(resourceIds, 1, 4), ACTION));
+    Assert.assertArrayEquals(new long[] { resourceIds[3], resourceIds[2] },
+        authorization.filterPermittedTargets(resourceIds[0],
+            new long[] { resourceIds[3], resourceIds[1], resourceIds[2] }, ACTION, "write"));
+    Assert.assertArrayEquals(new long[0],
+        authorization.filterPermittedTargets(resourceIds[0], new long[0], ACTION));
+  }
+}
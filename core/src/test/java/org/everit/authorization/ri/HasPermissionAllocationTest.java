@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri;
+
+import java.lang.management.ManagementFactory;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * A permission check that is answered from the primitive caches must not allocate once the JIT
+ * compiled it. The allocations of the thread are measured in rounds, and the best round must stay
+ * below one byte per check, so the allocations of the compilation are not counted.
+ */
+public class HasPermissionAllocationTest {
+
+  private static final String[] ACTIONS = { "read" };
+
+  private static final int CHECKS_PER_ROUND = 100000;
+
+  private static final int ROUND_COUNT = 10;
+
+  private TestEnvironment environment;
+
+  private com.sun.management.ThreadMXBean threadMXBean;
+
+  private void assertCachedCheckDoesNotAllocate(final PermissionCache permissionCache) {
+    AuthorizationImpl authorization = new AuthorizationImpl(environment.getPropertyManager(),
+        environment.getResourceService(), environment.getTransactionPropagator(),
+        environment.getQuerydslSupport(), permissionCache,
+        new CompactPermissionInheritanceCache(), new AuthorizationConfiguration());
+    long[] resourceIds = environment.createResources(4);
+    authorization.addPermissionInheritance(resourceIds[1], resourceIds[0]);
+    authorization.addPermissionInheritance(resourceIds[2], resourceIds[1]);
+    authorization.addPermission(resourceIds[2], resourceIds[3], ACTIONS[0]);
+
+    long threadId = Thread.currentThread().getId();
+    double minimumBytesPerCheck = Double.MAX_VALUE;
+    for (int round = 0; round < ROUND_COUNT; round++) {
+      long allocatedBytesBefore = threadMXBean.getThreadAllocatedBytes(threadId);
+      boolean permitted = true;
+      for (int i = 0; i < CHECKS_PER_ROUND; i++) {
+        permitted &= authorization.hasPermission(resourceIds[0], resourceIds[3], ACTIONS);
+      }
+      long allocatedBytes = threadMXBean.getThreadAllocatedBytes(threadId) - allocatedBytesBefore;
+      Assert.assertTrue(permitted);
+      minimumBytesPerCheck =
+          Math.min(minimumBytesPerCheck, (double) allocatedBytes / CHECKS_PER_ROUND);
+    }
+    Assert.assertTrue("Bytes allocated per check: " + minimumBytesPerCheck,
+        minimumBytesPerCheck < 1);
+  }
+
+  @Before
+  public void setUp() {
+    Assume.assumeTrue(
+        ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean);
+    threadMXBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    Assume.assumeTrue(threadMXBean.isThreadAllocatedMemorySupported());
+    threadMXBean.setThreadAllocatedMemoryEnabled(true);
+    environment = new TestEnvironment();
+  }
+
+  @After
+  public void tearDown() {
+    if (environment != null) {
+      environment.close();
+    }
+  }
+
+  @Test
+  public void testActionSetCacheDoesNotAllocate() {
+    assertCachedCheckDoesNotAllocate(new ActionSetPermissionCache());
+  }
+
+  @Test
+  public void testCompactCacheDoesNotAllocate() {
+    assertCachedCheckDoesNotAllocate(new CompactPermissionCache());
+  }
+}
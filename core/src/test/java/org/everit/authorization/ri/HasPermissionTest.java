@@ -0,0 +1,148 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.everit.authorization.ri.AuthorizationMetricsListener.DatabaseOperation;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The permission checks of {@link AuthorizationImpl} against the database and the caches.
+ */
+public class HasPermissionTest {
+
+  private static final int GROUP_COUNT = 15;
+
+  /**
+   * A scope that does not fit into one IN list of 1000 elements.
+   */
+  private static final int LARGE_SCOPE_SIZE = 1200;
+
+  private TestEnvironment environment;
+
+  private InMemoryAuthorizationMetrics metrics;
+
+  private void assertNeverGrantedActionIsCached(final PermissionCache permissionCache) {
+    AuthorizationImpl authorization = createAuthorization(permissionCache);
+    long[] resourceIds = environment.createResources(2);
+    authorization.addPermission(resourceIds[0], resourceIds[1], "read");
+
+    Assert.assertFalse(authorization.hasPermission(resourceIds[0], resourceIds[1], "delete"));
+    metrics.reset();
+    Assert.assertFalse(authorization.hasPermission(resourceIds[0], resourceIds[1], "delete"));
+    Assert.assertEquals(0, metrics.getDatabaseOperationCount(DatabaseOperation.READ_PERMISSIONS));
+
+    authorization.addPermission(resourceIds[0], resourceIds[1], "delete");
+    Assert.assertTrue(authorization.hasPermission(resourceIds[0], resourceIds[1], "delete"));
+  }
+
+  private AuthorizationImpl createAuthorization(final PermissionCache permissionCache) {
+    return new AuthorizationImpl(environment.getPropertyManager(),
+        environment.getResourceService(), environment.getTransactionPropagator(),
+        environment.getQuerydslSupport(), permissionCache,
+        new CompactPermissionInheritanceCache(),
+        new AuthorizationConfiguration().metricsListener(metrics));
+  }
+
+  @Test
+  public void testColdCheckReadsTheWholeScopeWithOneQuery() {
+    AuthorizationImpl authorization = createAuthorization(new CompactPermissionCache());
+    long[] resourceIds = environment.createResources(GROUP_COUNT + 2);
+    long targetResourceId = resourceIds[0];
+    long userResourceId = resourceIds[1];
+    List<PermissionInheritanceRecord> memberships = new ArrayList<>();
+    for (int i = 2; i < resourceIds.length; i++) {
+      memberships.add(new PermissionInheritanceRecord(resourceIds[i], userResourceId));
+    }
+    authorization.addPermissionInheritances(memberships);
+    authorization.addPermission(resourceIds[resourceIds.length - 1], targetResourceId, "write");
+
+    AuthorizationImpl otherAuthorization = createAuthorization(new CompactPermissionCache());
+    Assert.assertEquals(GROUP_COUNT + 1,
+        otherAuthorization.getAuthorizationScope(userResourceId).length);
+    metrics.reset();
+
+    // One query per check, independent of the scope size and the number of actions
+    Assert.assertFalse(otherAuthorization.hasPermission(userResourceId, targetResourceId, "read",
+        "delete", "admin"));
+    Assert.assertEquals(1, metrics.getDatabaseOperationCount(DatabaseOperation.READ_PERMISSIONS));
+    Assert.assertTrue(otherAuthorization.hasPermission(userResourceId, targetResourceId, "read",
+        "write"));
+    Assert.assertEquals(2, metrics.getDatabaseOperationCount(DatabaseOperation.READ_PERMISSIONS));
+    Assert.assertEquals(0, metrics.getDatabaseOperationCount(DatabaseOperation.LOCK_RESOURCES));
+
+    // The negative results of every scope member are cached
+    metrics.reset();
+    Assert.assertFalse(otherAuthorization.hasPermission(userResourceId, targetResourceId,
+        "delete"));
+    Assert.assertEquals(0, metrics.getDatabaseOperationCount(DatabaseOperation.READ_PERMISSIONS));
+  }
+
+  @Test
+  public void testLargeScopeIsReadInChunks() {
+    AuthorizationImpl authorization = createAuthorization(new CompactPermissionCache());
+    long[] resourceIds = environment.createResources(LARGE_SCOPE_SIZE + 1);
+    long targetResourceId = resourceIds[0];
+    long childResourceId = resourceIds[1];
+    List<PermissionInheritanceRecord> memberships = new ArrayList<>();
+    for (int i = 2; i < resourceIds.length; i++) {
+      memberships.add(new PermissionInheritanceRecord(resourceIds[i], childResourceId));
+    }
+    authorization.addPermissionInheritances(memberships);
+    authorization.addPermission(resourceIds[resourceIds.length - 1], targetResourceId, "read");
+    // An instance with empty caches
+    AuthorizationImpl otherAuthorization = createAuthorization(new CompactPermissionCache());
+    Assert.assertEquals(LARGE_SCOPE_SIZE,
+        otherAuthorization.getAuthorizationScope(childResourceId).length);
+    metrics.reset();
+
+    Assert.assertTrue(otherAuthorization.hasPermission(childResourceId, targetResourceId,
+        "read"));
+    Assert.assertEquals(2, metrics.getDatabaseOperationCount(DatabaseOperation.READ_PERMISSIONS));
+  }
+
+  @Before
+  public void setUp() {
+    environment = new TestEnvironment();
+    metrics = new InMemoryAuthorizationMetrics();
+  }
+
+  @After
+  public void tearDown() {
+    environment.close();
+  }
+
+  @Test
+  public void testNeverGrantedActionIsCachedByActionSetCache() {
+    assertNeverGrantedActionIsCached(new ActionSetPermissionCache());
+  }
+
+  @Test
+  public void testNeverGrantedActionIsCachedByCompactCache() {
+    assertNeverGrantedActionIsCached(new CompactPermissionCache());
+  }
+
+  @Test
+  public void testNeverGrantedActionIsCachedWhenTheDictionaryIsFull() {
+    assertNeverGrantedActionIsCached(
+        new CompactPermissionCache(new CacheConfiguration(), new ActionDictionary(0)));
+  }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.everit.persistence.querydsl.support.QuerydslSupport;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The cache invalidation events must only mark the in-memory records stale, and the next check
+ * must see the committed modifications.
+ */
+public class InMemoryAuthorizationTest {
+
+  private static final String READ = "read";
+
+  private static final String WRITE = "write";
+
+  private TestEnvironment environment;
+
+  private final AtomicInteger queryCount = new AtomicInteger();
+
+  private QuerydslSupport querydslSupport;
+
+  private InMemoryAuthorizationImpl createAuthorization(
+      final AuthorizationConfiguration configuration) {
+    return new InMemoryAuthorizationImpl(environment.getPropertyManager(),
+        environment.getResourceService(), environment.getTransactionPropagator(),
+        querydslSupport, configuration);
+  }
+
+  @Before
+  public void setUp() {
+    environment = new TestEnvironment();
+    QuerydslSupport delegate = environment.getQuerydslSupport();
+    querydslSupport = (QuerydslSupport) Proxy.newProxyInstance(
+        QuerydslSupport.class.getClassLoader(), new Class<?>[] { QuerydslSupport.class },
+        (proxy, method, args) -> {
+          queryCount.incrementAndGet();
+          try {
+            return method.invoke(delegate, args);
+          } catch (InvocationTargetException e) {
+            throw e.getCause();
+          }
+        });
+  }
+
+  @After
+  public void tearDown() {
+    environment.close();
+  }
+
+  @Test
+  public void testConfigurationIsNotModified() {
+    AuthorizationConfiguration configuration = new AuthorizationConfiguration();
+    InMemoryAuthorizationImpl authorization = createAuthorization(configuration);
+    try {
+      Assert.assertNull(configuration.getCacheInvalidationTransport());
+    } finally {
+      authorization.close();
+    }
+  }
+
+  @Test
+  public void testDelegateDoesNotReadTheDatabaseInAdvance() {
+    queryCount.set(0);
+    createAuthorization(new AuthorizationConfiguration()).close();
+    int snapshotQueryCount = queryCount.get();
+
+    queryCount.set(0);
+    createAuthorization(new AuthorizationConfiguration()
+        .cacheWarmUp(new CacheWarmUpConfiguration().executor(Runnable::run))
+        .recursiveScopePredicateThreshold(1)).close();
+    Assert.assertEquals(snapshotQueryCount, queryCount.get());
+  }
+
+  @Test
+  public void testEventsDoNotReadTheDatabase() {
+    long[] resourceIds = environment.createResources(2);
+    LoopbackCacheInvalidationTransport transport = new LoopbackCacheInvalidationTransport();
+    InMemoryAuthorizationImpl authorization = createAuthorization(
+        new AuthorizationConfiguration().cacheInvalidationTransport(transport));
+    try {
+      queryCount.set(0);
+      transport.publish(new CacheInvalidationEvent("other",
+          Collections.singletonList(new PermissionRecord(resourceIds[0], resourceIds[1], READ)),
+          Collections.singletonList(
+              new PermissionInheritanceRecord(resourceIds[1], resourceIds[0]))));
+      transport.publish(CacheInvalidationEvent.clearAll("other"));
+      Assert.assertEquals(0, queryCount.get());
+
+      Assert.assertFalse(authorization.hasPermission(resourceIds[0], resourceIds[1], READ));
+      int reloadQueryCount = queryCount.get();
+      Assert.assertTrue(reloadQueryCount > 0);
+      Assert.assertFalse(authorization.hasPermission(resourceIds[0], resourceIds[1], READ));
+      Assert.assertEquals(reloadQueryCount, queryCount.get());
+    } finally {
+      authorization.close();
+    }
+  }
+
+  @Test
+  public void testModificationsAreVisibleToTheNextCheck() {
+    long[] resourceIds = environment.createResources(5);
+    long userResourceId = resourceIds[0];
+    long groupResourceId = resourceIds[1];
+    InMemoryAuthorizationImpl authorization =
+        createAuthorization(new AuthorizationConfiguration());
+    try {
+      // The permissions are added in descending target order to exercise the sort of the graph
+      for (int i = resourceIds.length - 1; i > 1; i--) {
+        authorization.addPermission(groupResourceId, resourceIds[i], (i % 2 == 0) ? READ : WRITE);
+      }
+      Assert.assertFalse(authorization.hasPermission(userResourceId, resourceIds[2], READ));
+
+      authorization.addPermissionInheritance(groupResourceId, userResourceId);
+      for (int i = 2; i < resourceIds.length; i++) {
+        String action = (i % 2 == 0) ? READ : WRITE;
+        String otherAction = (i % 2 == 0) ? WRITE : READ;
+        Assert.assertTrue(authorization.hasPermission(userResourceId, resourceIds[i], action));
+        Assert.assertFalse(
+            authorization.hasPermission(userResourceId, resourceIds[i], otherAction));
+      }
+
+      authorization.removePermission(groupResourceId, resourceIds[2], READ);
+      Assert.assertFalse(authorization.hasPermission(userResourceId, resourceIds[2], READ));
+      Assert.assertTrue(authorization.hasPermission(userResourceId, resourceIds[4], READ));
+
+      authorization.removePermissionInheritance(groupResourceId, userResourceId);
+      Assert.assertFalse(authorization.hasPermission(userResourceId, resourceIds[4], READ));
+    } finally {
+      authorization.close();
+    }
+  }
+
+  @Test
+  public void testUncommittedRecordsAreNotLoaded() {
+    long[] resourceIds = environment.createResources(2);
+    LoopbackCacheInvalidationTransport transport = new LoopbackCacheInvalidationTransport();
+    InMemoryAuthorizationImpl authorization =
+        createAuthorization(new AuthorizationConfiguration().cacheInvalidationTransport(transport)
+            .transactionSynchronizer(environment.getTransactionSynchronizer()));
+    try {
+      try {
+        environment.getTransactionPropagator().required(() -> {
+          authorization.addPermission(resourceIds[0], resourceIds[1], READ);
+          // An event of another node makes the same records stale before the commit
+          transport.publish(new CacheInvalidationEvent("other",
+              Collections.singletonList(
+                  new PermissionRecord(resourceIds[0], resourceIds[1], WRITE)),
+              Collections.emptyList()));
+          Assert.assertFalse(authorization.hasPermission(resourceIds[0], resourceIds[1], READ));
+          throw new IllegalStateException("rollback");
+        });
+        Assert.fail("The transaction should have been rolled back");
+      } catch (IllegalStateException e) {
+        Assert.assertEquals("rollback", e.getMessage());
+      }
+      Assert.assertFalse(authorization.hasPermission(resourceIds[0], resourceIds[1], READ));
+    } finally {
+      authorization.close();
+    }
+  }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri;
+
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.everit.authorization.ri.schema.qdsl.QPermission;
+import org.everit.authorization.ri.schema.qdsl.QPermissionInheritance;
+import org.everit.resource.ri.schema.qdsl.QResource;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.querydsl.sql.Configuration;
+import com.querydsl.sql.H2Templates;
+import com.querydsl.sql.SQLQuery;
+
+/**
+ * The query plans of the lookups by child resource and by target resource must use the secondary
+ * indexes of the changelog instead of scanning the tables. The correlated subquery of the
+ * authorization predicate may also use the primary key, as the scope bounds its authorized
+ * resource ids, but it must not scan the permission table.
+ */
+public class IndexUsageTest {
+
+  private static final String ACTION = "read";
+
+  private static final int RESOURCE_COUNT = 200;
+
+  private AuthorizationImpl authorization;
+
+  private TestEnvironment environment;
+
+  private long[] resourceIds;
+
+  private String explain(final SQLQuery<?> query) {
+    String sql = query.getSQL().getSQL();
+    return environment.getQuerydslSupport().execute((connection, configuration) -> {
+      try (Statement statement = connection.createStatement();
+          ResultSet resultSet = statement.executeQuery("EXPLAIN " + sql)) {
+        StringBuilder plan = new StringBuilder();
+        while (resultSet.next()) {
+          plan.append(resultSet.getString(1)).append('\n');
+        }
+        return plan.toString().toUpperCase();
+      }
+    });
+  }
+
+  /**
+   * Creates a configuration that renders the parameters as literals, so the statement can be
+   * explained without binding them.
+   */
+  private Configuration literalConfiguration() {
+    Configuration configuration = new Configuration(new H2Templates());
+    configuration.setUseLiterals(true);
+    return configuration;
+  }
+
+  @Before
+  public void setUp() {
+    environment = new TestEnvironment();
+    authorization = new AuthorizationImpl(environment.getPropertyManager(),
+        environment.getResourceService(), environment.getTransactionPropagator(),
+        environment.getQuerydslSupport(), new CompactPermissionCache(),
+        new CompactPermissionInheritanceCache(), new AuthorizationConfiguration());
+
+    resourceIds = environment.createResources(RESOURCE_COUNT);
+    List<PermissionInheritanceRecord> permissionInheritances = new ArrayList<>();
+    List<PermissionRecord> permissions = new ArrayList<>();
+    for (int i = 1; i < RESOURCE_COUNT; i++) {
+      permissionInheritances.add(new PermissionInheritanceRecord(resourceIds[i - 1],
+          resourceIds[i]));
+      permissions.add(new PermissionRecord(resourceIds[i], resourceIds[i - 1], ACTION));
+    }
+    authorization.addPermissionInheritances(permissionInheritances);
+    authorization.addPermissions(permissions);
+  }
+
+  @After
+  public void tearDown() {
+    environment.close();
+  }
+
+  @Test
+  public void testAuthorizationPredicateDoesNotScanPermissions() {
+    QResource resource = QResource.resource;
+    String plan = explain(new SQLQuery<Void>(literalConfiguration())
+        .select(resource.resourceId)
+        .from(resource)
+        .where(authorization.authorizationPredicate(resourceIds[RESOURCE_COUNT / 2],
+            resource.resourceId, ACTION)));
+    Assert.assertTrue(plan, plan.contains("TARGET_RESOURCE_ID = RES_RESOURCE.RESOURCE_ID"));
+    Assert.assertFalse(plan, plan.contains("AUTHR_PERMISSION.TABLESCAN"));
+  }
+
+  @Test
+  public void testParentLookupUsesChildIndex() {
+    QPermissionInheritance permissionInheritance = QPermissionInheritance.permissionInheritance;
+    String plan = explain(new SQLQuery<Void>(literalConfiguration())
+        .select(permissionInheritance.parentResourceId)
+        .from(permissionInheritance)
+        .where(permissionInheritance.childResourceId.eq(resourceIds[RESOURCE_COUNT / 2])));
+    Assert.assertTrue(plan, plan.contains("IX_AUTHR_PERM_INH_CHILD"));
+  }
+
+  @Test
+  public void testPermissionLookupByTargetUsesTargetIndex() {
+    QPermission permission = QPermission.permission;
+    String plan = explain(new SQLQuery<Void>(literalConfiguration())
+        .select(permission.authorizedResourceId)
+        .from(permission)
+        .where(permission.targetResourceId.eq(resourceIds[RESOURCE_COUNT / 2])
+            .and(permission.action.eq(ACTION))));
+    Assert.assertTrue(plan, plan.contains("IX_AUTHR_PERM_TARGET"));
+  }
+}
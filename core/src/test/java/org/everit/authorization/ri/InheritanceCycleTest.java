@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri;
+
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.everit.authorization.ri.AuthorizationMetricsListener.DatabaseOperation;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The inheritance records that would create a cycle must be rejected based on the committed
+ * records, even if they are added concurrently or by another node.
+ */
+public class InheritanceCycleTest {
+
+  private static void assertRejected(final Runnable modification) {
+    try {
+      modification.run();
+      Assert.fail("The cycle should have been rejected");
+    } catch (IllegalArgumentException e) {
+      Assert.assertTrue(e.getMessage(), e.getMessage().endsWith("would create a cycle"));
+    }
+  }
+
+  private static void await(final CountDownLatch latch) {
+    try {
+      Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private TestEnvironment environment;
+
+  private InMemoryAuthorizationMetrics metrics;
+
+  private AuthorizationImpl createAuthorization() {
+    return new AuthorizationImpl(environment.getPropertyManager(),
+        environment.getResourceService(), environment.getTransactionPropagator(),
+        environment.getQuerydslSupport(), new CompactPermissionCache(),
+        new CompactPermissionInheritanceCache(),
+        new AuthorizationConfiguration().rejectInheritanceCycles(true)
+            .transactionSynchronizer(environment.getTransactionSynchronizer())
+            .metricsListener(metrics));
+  }
+
+  @Before
+  public void setUp() {
+    environment = new TestEnvironment();
+    metrics = new InMemoryAuthorizationMetrics();
+  }
+
+  @After
+  public void tearDown() {
+    environment.close();
+  }
+
+  @Test
+  public void testConcurrentRecordsClosingCycleAreSerialized() throws Exception {
+    long[] resourceIds = environment.createResources(4);
+    long a = resourceIds[0];
+    long b = resourceIds[1];
+    long c = resourceIds[2];
+    long d = resourceIds[3];
+    AuthorizationImpl authorization = createAuthorization();
+    authorization.addPermissionInheritance(a, b);
+    authorization.addPermissionInheritance(c, d);
+
+    CountDownLatch firstAdded = new CountDownLatch(1);
+    CountDownLatch releaseFirst = new CountDownLatch(1);
+    CompletableFuture<Void> first = CompletableFuture.runAsync(
+        () -> environment.getTransactionPropagator().required(() -> {
+          authorization.addPermissionInheritance(b, c);
+          firstAdded.countDown();
+          await(releaseFirst);
+          return null;
+        }));
+    await(firstAdded);
+
+    // The records lock disjoint resources, but the ancestor of b is locked by the first one
+    CompletableFuture<Void> second =
+        CompletableFuture.runAsync(() -> authorization.addPermissionInheritance(d, a));
+    try {
+      second.get(500, TimeUnit.MILLISECONDS);
+      Assert.fail("The second record should wait for the first transaction");
+    } catch (TimeoutException e) {
+      // Expected
+    }
+    releaseFirst.countDown();
+    first.join();
+
+    try {
+      second.join();
+      Assert.fail("The cycle should have been rejected");
+    } catch (CompletionException e) {
+      Assert.assertTrue(String.valueOf(e.getCause()),
+          e.getCause() instanceof IllegalArgumentException);
+    }
+    Assert.assertArrayEquals(new long[] { c, b, a }, authorization.getAuthorizationScope(c));
+  }
+
+  @Test
+  public void testAncestorsAreNotLockedOneByOne() {
+    long[] resourceIds = environment.createResources(10);
+    AuthorizationImpl authorization = createAuthorization();
+    for (int i = 1; i < resourceIds.length - 1; i++) {
+      authorization.addPermissionInheritance(resourceIds[i - 1], resourceIds[i]);
+    }
+    metrics.reset();
+
+    authorization.addPermissionInheritance(resourceIds[resourceIds.length - 2],
+        resourceIds[resourceIds.length - 1]);
+
+    Assert.assertEquals(1, metrics.getDatabaseOperationCount(DatabaseOperation.LOCK_RESOURCES));
+  }
+
+  @Test
+  public void testCycleIsRejected() {
+    long[] resourceIds = environment.createResources(3);
+    AuthorizationImpl authorization = createAuthorization();
+    authorization.addPermissionInheritance(resourceIds[0], resourceIds[1]);
+    authorization.addPermissionInheritance(resourceIds[1], resourceIds[2]);
+
+    assertRejected(
+        () -> authorization.addPermissionInheritance(resourceIds[2], resourceIds[0]));
+    assertRejected(
+        () -> authorization.addPermissionInheritance(resourceIds[1], resourceIds[1]));
+    assertRejected(() -> authorization.addPermissionInheritances(Arrays.asList(
+        new PermissionInheritanceRecord(resourceIds[0], resourceIds[2]),
+        new PermissionInheritanceRecord(resourceIds[2], resourceIds[0]))));
+  }
+
+  @Test
+  public void testCycleThroughRecordsOfOtherNodeIsRejected() {
+    long[] resourceIds = environment.createResources(3);
+    AuthorizationImpl authorization = createAuthorization();
+    AuthorizationImpl otherNodeAuthorization = createAuthorization();
+    authorization.addPermissionInheritance(resourceIds[0], resourceIds[1]);
+    // The other node caches the scope before the next record is added
+    Assert.assertArrayEquals(new long[] { resourceIds[0] },
+        otherNodeAuthorization.getAuthorizationScope(resourceIds[0]));
+    authorization.addPermissionInheritance(resourceIds[2], resourceIds[0]);
+
+    assertRejected(
+        () -> otherNodeAuthorization.addPermissionInheritance(resourceIds[1], resourceIds[2]));
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class OffHeapPermissionInheritanceCacheTest {
+
+  private static final int SLOT_MASK = OpenAddressingSegment.INITIAL_CAPACITY - 1;
+
+  /**
+   * Returns resource ids that are stored in the same segment and start probing at the last slot of
+   * the initial index.
+   */
+  private static long[] resourceIdsOfLastSlot(final int count) {
+    long[] resourceIds = new long[count];
+    int found = 0;
+    for (long resourceId = 0; found < count; resourceId++) {
+      long hash = ConcurrentLongObjectMap.hash(resourceId);
+      if ((OpenAddressingSegment.segmentIndex(hash) == 0)
+          && (((int) hash & SLOT_MASK) == SLOT_MASK)) {
+        resourceIds[found++] = resourceId;
+      }
+    }
+    return resourceIds;
+  }
+
+  private static void sleep(final long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @Test
+  public void testConditionalRemovalComparesTheStoredInstance() {
+    OffHeapPermissionInheritanceCache cache = new OffHeapPermissionInheritanceCache();
+    long[] parentResourceIds = new long[] { 2, 3 };
+    cache.put(1, parentResourceIds);
+
+    Assert.assertFalse(cache.remove(1, new long[] { 2, 3 }));
+    Assert.assertFalse(cache.remove(1, cache.get(1)));
+    Assert.assertTrue(cache.remove(1, parentResourceIds));
+    Assert.assertNull(cache.get(1));
+
+    cache.put(1, parentResourceIds);
+    cache.put(1, new long[] { 2, 3 });
+    Assert.assertFalse(cache.remove(1, parentResourceIds));
+    Assert.assertArrayEquals(new long[] { 2, 3 }, cache.get(1));
+  }
+
+  @Test
+  public void testEvictionKeepsReferencedEntries() {
+    OffHeapPermissionInheritanceCache cache = new OffHeapPermissionInheritanceCache(
+        new CacheConfiguration().maximumSize(OpenAddressingSegment.SEGMENT_COUNT * 2));
+    long[] resourceIds = resourceIdsOfLastSlot(3);
+    cache.put(resourceIds[0], new long[] { 10 });
+    cache.put(resourceIds[1], new long[] { 11 });
+    Assert.assertArrayEquals(new long[] { 10 }, cache.get(resourceIds[0]));
+
+    cache.put(resourceIds[2], new long[] { 12 });
+
+    Assert.assertEquals(2, cache.size());
+    Assert.assertArrayEquals(new long[] { 10 }, cache.get(resourceIds[0]));
+    Assert.assertNull(cache.get(resourceIds[1]));
+    Assert.assertArrayEquals(new long[] { 12 }, cache.get(resourceIds[2]));
+  }
+
+  @Test
+  public void testExpiredEntriesAreReplaced() {
+    OffHeapPermissionInheritanceCache cache = new OffHeapPermissionInheritanceCache(
+        new CacheConfiguration().expireAfterWrite(10, TimeUnit.MILLISECONDS));
+    cache.put(1, new long[] { 2 });
+
+    sleep(50);
+
+    Assert.assertNull(cache.get(1));
+    Assert.assertTrue(cache.putIfAbsent(1, new long[] { 3 }));
+    Assert.assertArrayEquals(new long[] { 3 }, cache.get(1));
+    Assert.assertFalse(cache.putIfAbsent(1, new long[] { 4 }));
+  }
+
+  @Test
+  public void testMaximumSizeIsNotExceeded() {
+    int maximumSize = OpenAddressingSegment.SEGMENT_COUNT * 4;
+    OffHeapPermissionInheritanceCache cache =
+        new OffHeapPermissionInheritanceCache(new CacheConfiguration().maximumSize(maximumSize));
+    for (long resourceId = 0; resourceId < 10000; resourceId++) {
+      cache.put(resourceId, new long[] { resourceId + 1, resourceId + 2 });
+      Assert.assertTrue(cache.size() <= maximumSize);
+    }
+    Assert.assertArrayEquals(new long[] { 10000, 10001 }, cache.get(9999));
+  }
+
+  @Test
+  public void testRemovalWrapsAroundTheEndOfTheIndex() {
+    OffHeapPermissionInheritanceCache cache = new OffHeapPermissionInheritanceCache();
+    long[] resourceIds = resourceIdsOfLastSlot(4);
+    for (long resourceId : resourceIds) {
+      cache.put(resourceId, new long[] { resourceId });
+    }
+
+    cache.remove(resourceIds[0]);
+    Assert.assertNull(cache.get(resourceIds[0]));
+    for (int i = 1; i < resourceIds.length; i++) {
+      Assert.assertArrayEquals(new long[] { resourceIds[i] }, cache.get(resourceIds[i]));
+    }
+
+    cache.remove(resourceIds[2]);
+    Assert.assertArrayEquals(new long[] { resourceIds[1] }, cache.get(resourceIds[1]));
+    Assert.assertArrayEquals(new long[] { resourceIds[3] }, cache.get(resourceIds[3]));
+    Assert.assertEquals(2, cache.size());
+  }
+
+  @Test
+  public void testReplacedParentsAreCompacted() {
+    OffHeapPermissionInheritanceCache cache = new OffHeapPermissionInheritanceCache();
+    for (int round = 0; round < 100; round++) {
+      for (long resourceId = 0; resourceId < 100; resourceId++) {
+        cache.put(resourceId, new long[] { resourceId, round });
+      }
+    }
+    for (long resourceId = 0; resourceId < 100; resourceId++) {
+      Assert.assertArrayEquals(new long[] { resourceId, 99 }, cache.get(resourceId));
+    }
+    Assert.assertNull(cache.get(1000));
+    Assert.assertTrue(cache.getAllocatedBytes() < (100L * 100 * 2 * Long.BYTES));
+  }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class PermissionCheckPipelineTest {
+
+  /**
+   * Holds the submitted tasks until they are run by the test and rejects the tasks of the given
+   * submission numbers.
+   */
+  private static final class ManualExecutor implements Executor {
+
+    private final List<Integer> rejectedSubmissions;
+
+    private int submissionCount;
+
+    private final List<Runnable> tasks = new ArrayList<>();
+
+    ManualExecutor(final Integer... rejectedSubmissions) {
+      this.rejectedSubmissions = Arrays.asList(rejectedSubmissions);
+    }
+
+    @Override
+    public void execute(final Runnable command) {
+      submissionCount++;
+      if (rejectedSubmissions.contains(submissionCount)) {
+        throw new RejectedExecutionException("Rejected submission " + submissionCount);
+      }
+      tasks.add(command);
+    }
+
+    void runAll() {
+      while (!tasks.isEmpty()) {
+        tasks.remove(0).run();
+      }
+    }
+  }
+
+  private static final String[] ACTIONS = new String[] { "read" };
+
+  private static Throwable failureOf(final CompletableFuture<Boolean> future) {
+    try {
+      future.join();
+    } catch (CompletionException e) {
+      return e.getCause();
+    }
+    throw new AssertionError("The check did not fail");
+  }
+
+  @Test
+  public void testCloseShutsDownOnlyTheOwnedExecutor() {
+    PermissionCheckPipeline pipeline = new PermissionCheckPipeline(null, 1,
+        (authorizedResourceId, targetResourceIds, actions) -> targetResourceIds);
+    Assert.assertTrue(pipeline.enqueue(1, 10, ACTIONS).join());
+    pipeline.close();
+    Assert.assertTrue(failureOf(pipeline.enqueue(1, 10, ACTIONS))
+        instanceof RejectedExecutionException);
+
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      PermissionCheckPipeline pipelineWithExecutor = new PermissionCheckPipeline(executor, 1,
+          (authorizedResourceId, targetResourceIds, actions) -> targetResourceIds);
+      Assert.assertTrue(pipelineWithExecutor.enqueue(1, 10, ACTIONS).join());
+      pipelineWithExecutor.close();
+      Assert.assertFalse(executor.isShutdown());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testFailedGroupFailsOnlyItsChecks() {
+    ManualExecutor executor = new ManualExecutor();
+    List<long[]> resolvedTargets = new ArrayList<>();
+    PermissionCheckPipeline pipeline = new PermissionCheckPipeline(executor, 1,
+        (authorizedResourceId, targetResourceIds, actions) -> {
+          resolvedTargets.add(targetResourceIds);
+          if (authorizedResourceId == 1) {
+            throw new IllegalStateException("Database failure");
+          }
+          return new long[] { 20 };
+        });
+
+    CompletableFuture<Boolean> failingCheck = pipeline.enqueue(1, 10, ACTIONS);
+    CompletableFuture<Boolean> permittedCheck = pipeline.enqueue(2, 20, ACTIONS);
+    CompletableFuture<Boolean> deniedCheck = pipeline.enqueue(2, 21, ACTIONS);
+    executor.runAll();
+
+    Assert.assertTrue(failureOf(failingCheck) instanceof IllegalStateException);
+    Assert.assertTrue(permittedCheck.join());
+    Assert.assertFalse(deniedCheck.join());
+    Assert.assertEquals(2, resolvedTargets.size());
+    Assert.assertArrayEquals(new long[] { 20, 21 }, resolvedTargets.get(1));
+  }
+
+  @Test
+  public void testRejectedGroupFailsOnlyItsChecks() {
+    ManualExecutor executor = new ManualExecutor(2);
+    PermissionCheckPipeline pipeline = new PermissionCheckPipeline(executor, 1,
+        (authorizedResourceId, targetResourceIds, actions) -> targetResourceIds);
+
+    CompletableFuture<Boolean> firstCheck = pipeline.enqueue(1, 10, ACTIONS);
+    CompletableFuture<Boolean> rejectedCheck = pipeline.enqueue(2, 20, ACTIONS);
+    CompletableFuture<Boolean> lastCheck = pipeline.enqueue(3, 30, ACTIONS);
+    executor.runAll();
+
+    Assert.assertTrue(firstCheck.join());
+    Assert.assertTrue(failureOf(rejectedCheck) instanceof RejectedExecutionException);
+    Assert.assertTrue(lastCheck.join());
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri;
+
+import java.util.Arrays;
+
+import org.everit.authorization.ri.AuthorizationMetricsListener.DatabaseOperation;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * A cold authorization scope must be resolved with one recursive query, even if the inheritance
+ * graph contains a cycle.
+ */
+public class RecursiveScopeResolutionTest {
+
+  private static final int CHAIN_LENGTH = 30;
+
+  private static final int DEEP_CHAIN_LENGTH = 100;
+
+  private TestEnvironment environment;
+
+  private InMemoryAuthorizationMetrics metrics;
+
+  private AuthorizationImpl createAuthorization() {
+    return new AuthorizationImpl(environment.getPropertyManager(),
+        environment.getResourceService(), environment.getTransactionPropagator(),
+        environment.getQuerydslSupport(), new CompactPermissionCache(),
+        new CompactPermissionInheritanceCache(),
+        new AuthorizationConfiguration().recursiveScopeResolution(true).metricsListener(metrics));
+  }
+
+  private long[] createChain(final int length) {
+    long[] resourceIds = environment.createResources(length);
+    AuthorizationImpl authorization = createAuthorization();
+    for (int i = 1; i < length; i++) {
+      authorization.addPermissionInheritance(resourceIds[i], resourceIds[i - 1]);
+    }
+    return resourceIds;
+  }
+
+  @Before
+  public void setUp() {
+    environment = new TestEnvironment();
+    metrics = new InMemoryAuthorizationMetrics();
+  }
+
+  @After
+  public void tearDown() {
+    environment.close();
+  }
+
+  @Test
+  public void testChainIsReadWithOneQuery() {
+    long[] resourceIds = createChain(CHAIN_LENGTH);
+
+    AuthorizationImpl otherAuthorization = createAuthorization();
+    metrics.reset();
+    Assert.assertArrayEquals(resourceIds, otherAuthorization.getAuthorizationScope(resourceIds[0]));
+    Assert.assertEquals(1, metrics.getDatabaseOperationCount(DatabaseOperation.READ_ANCESTORS));
+    Assert.assertEquals(0, metrics.getDatabaseOperationCount(DatabaseOperation.READ_PARENTS));
+
+    // The parents of every ancestor were cached by the same query
+    metrics.reset();
+    int middleIndex = CHAIN_LENGTH / 2;
+    Assert.assertArrayEquals(Arrays.copyOfRange(resourceIds, middleIndex, CHAIN_LENGTH),
+        otherAuthorization.getAuthorizationScope(resourceIds[middleIndex]));
+    Assert.assertEquals(0, metrics.getDatabaseOperationCount(DatabaseOperation.READ_ANCESTORS));
+    Assert.assertEquals(0, metrics.getDatabaseOperationCount(DatabaseOperation.READ_PARENTS));
+  }
+
+  @Test
+  public void testChainDeeperThanRecursionLimitIsResolved() {
+    long[] resourceIds = createChain(DEEP_CHAIN_LENGTH);
+
+    AuthorizationImpl otherAuthorization = createAuthorization();
+    metrics.reset();
+    Assert.assertArrayEquals(resourceIds, otherAuthorization.getAuthorizationScope(resourceIds[0]));
+    Assert.assertEquals(1, metrics.getDatabaseOperationCount(DatabaseOperation.READ_ANCESTORS));
+  }
+
+  @Test
+  public void testCycleIsResolved() {
+    long[] resourceIds = environment.createResources(3);
+    AuthorizationImpl authorization = createAuthorization();
+    authorization.addPermissionInheritance(resourceIds[1], resourceIds[0]);
+    authorization.addPermissionInheritance(resourceIds[2], resourceIds[1]);
+    authorization.addPermissionInheritance(resourceIds[0], resourceIds[2]);
+
+    AuthorizationImpl otherAuthorization = createAuthorization();
+    metrics.reset();
+    Assert.assertArrayEquals(resourceIds, otherAuthorization.getAuthorizationScope(resourceIds[0]));
+    Assert.assertEquals(1, metrics.getDatabaseOperationCount(DatabaseOperation.READ_ANCESTORS));
+  }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.LongStream;
+
+import org.everit.authorization.ri.AuthorizationMetricsListener.DatabaseOperation;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * The reverse lookups must return every result once and in ascending order, reading one page per
+ * query.
+ */
+public class ReverseLookupTest {
+
+  private static final String ACTION = "read";
+
+  private static final int MEMBER_COUNT = 50;
+
+  private static final int PAGE_SIZE = 7;
+
+  private AuthorizationImpl authorization;
+
+  private TestEnvironment environment;
+
+  private InMemoryAuthorizationMetrics metrics;
+
+  @Before
+  public void setUp() {
+    environment = new TestEnvironment();
+    metrics = new InMemoryAuthorizationMetrics();
+    authorization = new AuthorizationImpl(environment.getPropertyManager(),
+        environment.getResourceService(), environment.getTransactionPropagator(),
+        environment.getQuerydslSupport(), new CompactPermissionCache(),
+        new CompactPermissionInheritanceCache(),
+        new AuthorizationConfiguration().reverseLookupPageSize(PAGE_SIZE)
+            .metricsListener(metrics));
+  }
+
+  @After
+  public void tearDown() {
+    environment.close();
+  }
+
+  @Test
+  public void testAuthorizedResourcesAreReadPageByPage() {
+    long[] resourceIds = environment.createResources(MEMBER_COUNT + 2);
+    long targetResourceId = resourceIds[0];
+    long groupResourceId = resourceIds[1];
+    long[] memberResourceIds = Arrays.copyOfRange(resourceIds, 2, resourceIds.length);
+    List<PermissionInheritanceRecord> memberships = new ArrayList<>();
+    for (long memberResourceId : memberResourceIds) {
+      memberships.add(new PermissionInheritanceRecord(groupResourceId, memberResourceId));
+    }
+    authorization.addPermissionInheritances(memberships);
+    authorization.addPermission(groupResourceId, targetResourceId, ACTION);
+    metrics.reset();
+
+    LongStream authorizedResources = authorization.findAuthorizedResources(targetResourceId,
+        ACTION);
+    Assert.assertEquals(0,
+        metrics.getDatabaseOperationCount(DatabaseOperation.READ_AUTHORIZED_RESOURCES));
+
+    long[] expected = LongStream.concat(
+        LongStream.of(groupResourceId, authorization.getSystemResourceId()),
+        LongStream.of(memberResourceIds)).sorted().toArray();
+    Assert.assertArrayEquals(expected, authorizedResources.toArray());
+    Assert.assertEquals((expected.length / PAGE_SIZE) + 1,
+        metrics.getDatabaseOperationCount(DatabaseOperation.READ_AUTHORIZED_RESOURCES));
+
+    metrics.reset();
+    Assert.assertArrayEquals(Arrays.copyOf(expected, PAGE_SIZE),
+        authorization.findAuthorizedResources(targetResourceId, ACTION).limit(PAGE_SIZE)
+            .toArray());
+    Assert.assertEquals(1,
+        metrics.getDatabaseOperationCount(DatabaseOperation.READ_AUTHORIZED_RESOURCES));
+  }
+
+  @Test
+  public void testPermittedTargetsAreReadPageByPage() {
+    long[] resourceIds = environment.createResources(MEMBER_COUNT + 1);
+    long authorizedResourceId = resourceIds[0];
+    long[] targetResourceIds = Arrays.copyOfRange(resourceIds, 1, resourceIds.length);
+    for (long targetResourceId : targetResourceIds) {
+      authorization.addPermission(authorizedResourceId, targetResourceId, ACTION);
+    }
+    metrics.reset();
+
+    Assert.assertArrayEquals(targetResourceIds,
+        authorization.findPermittedTargets(authorizedResourceId, ACTION).toArray());
+    Assert.assertEquals((MEMBER_COUNT / PAGE_SIZE) + 1,
+        metrics.getDatabaseOperationCount(DatabaseOperation.READ_PERMITTED_TARGETS));
+    Assert.assertEquals(0, metrics.getDatabaseOperationCount(DatabaseOperation.READ_RESOURCES));
+  }
+
+  @Test
+  public void testSystemResourceReadsAllResources() {
+    environment.createResources(MEMBER_COUNT);
+    metrics.reset();
+
+    long[] permittedTargets =
+        authorization.findPermittedTargets(authorization.getSystemResourceId(), ACTION).toArray();
+
+    Assert.assertTrue(permittedTargets.length >= MEMBER_COUNT);
+    Assert.assertArrayEquals(LongStream.of(permittedTargets).sorted().distinct().toArray(),
+        permittedTargets);
+    Assert.assertEquals(0,
+        metrics.getDatabaseOperationCount(DatabaseOperation.READ_PERMITTED_TARGETS));
+    Assert.assertEquals((permittedTargets.length / PAGE_SIZE) + 1,
+        metrics.getDatabaseOperationCount(DatabaseOperation.READ_RESOURCES));
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SingleFlightTest {
+
+  private static final int THREAD_COUNT = 8;
+
+  private static void await(final CountDownLatch latch) {
+    try {
+      Assert.assertTrue(latch.await(10, TimeUnit.SECONDS));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Starts the loads of the threads while the first load is blocked, and returns the number of
+   * loader calls.
+   */
+  private static int loadConcurrently(final SingleFlight<Long, String> singleFlight,
+      final long[] stamps) {
+    AtomicInteger loadCount = new AtomicInteger();
+    CountDownLatch firstLoadStarted = new CountDownLatch(1);
+    CountDownLatch releaseFirstLoad = new CountDownLatch(1);
+    ExecutorService executor = Executors.newFixedThreadPool(stamps.length);
+    try {
+      CompletableFuture<String> firstLoad = CompletableFuture.supplyAsync(
+          () -> singleFlight.load(1L, stamps[0], () -> {
+            loadCount.incrementAndGet();
+            firstLoadStarted.countDown();
+            await(releaseFirstLoad);
+            return "value";
+          }), executor);
+      await(firstLoadStarted);
+
+      List<CompletableFuture<String>> otherLoads = new ArrayList<>();
+      for (int i = 1; i < stamps.length; i++) {
+        long stamp = stamps[i];
+        otherLoads.add(CompletableFuture.supplyAsync(() -> singleFlight.load(1L, stamp, () -> {
+          loadCount.incrementAndGet();
+          return "value";
+        }), executor));
+      }
+      // The joining threads wait for the first load, the others return on their own
+      for (CompletableFuture<String> load : otherLoads) {
+        try {
+          load.get(100, TimeUnit.MILLISECONDS);
+        } catch (Exception e) {
+          // Still waiting for the first load
+        }
+      }
+      releaseFirstLoad.countDown();
+
+      Assert.assertEquals("value", firstLoad.join());
+      for (CompletableFuture<String> load : otherLoads) {
+        Assert.assertEquals("value", load.join());
+      }
+      return loadCount.get();
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testFailureIsPropagatedToTheWaitingThreads() {
+    SingleFlight<Long, String> singleFlight = new SingleFlight<>();
+    try {
+      singleFlight.load(1L, 0, () -> {
+        throw new IllegalStateException("load failed");
+      });
+      Assert.fail("The failure of the load should have been thrown");
+    } catch (IllegalStateException e) {
+      Assert.assertEquals("load failed", e.getMessage());
+    }
+    Assert.assertEquals("value", singleFlight.load(1L, 0, () -> "value"));
+  }
+
+  @Test
+  public void testLoadsWithDifferentStampsAreNotShared() {
+    long[] stamps = new long[THREAD_COUNT];
+    for (int i = 0; i < stamps.length; i++) {
+      stamps[i] = i;
+    }
+    Assert.assertEquals(THREAD_COUNT, loadConcurrently(new SingleFlight<>(), stamps));
+  }
+
+  @Test
+  public void testLoadsWithoutCachingAreNotShared() {
+    long[] stamps = new long[THREAD_COUNT];
+    for (int i = 0; i < stamps.length; i++) {
+      stamps[i] = CacheModificationGuard.NO_CACHING;
+    }
+    Assert.assertEquals(THREAD_COUNT, loadConcurrently(new SingleFlight<>(), stamps));
+  }
+
+  @Test
+  public void testLoadsWithSameStampAreShared() {
+    Assert.assertEquals(1, loadConcurrently(new SingleFlight<>(), new long[THREAD_COUNT]));
+  }
+}
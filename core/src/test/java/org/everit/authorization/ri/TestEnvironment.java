@@ -0,0 +1,457 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.StringJoiner;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+import javax.xml.parsers.ParserConfigurationException;
+
+import org.everit.authorization.ri.TransactionSynchronizer.CompletionCallback;
+import org.everit.persistence.querydsl.support.QuerydslSupport;
+import org.everit.props.PropertyManager;
+import org.everit.resource.ResourceService;
+import org.everit.transaction.propagator.TransactionPropagator;
+import org.h2.jdbcx.JdbcConnectionPool;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.SAXException;
+
+import com.querydsl.sql.Configuration;
+import com.querydsl.sql.H2Templates;
+
+/**
+ * Embedded H2 database with the Authorization RI schema and minimal implementations of the
+ * services that {@link org.everit.authorization.ri.AuthorizationImpl} depends on.
+ *
+ * <p>
+ * The tables and indexes of this component are created from the change sets of the Liquibase
+ * changelog. The changelog includes the changelogs of other components as OSGi capabilities that
+ * cannot be resolved outside of an OSGi container, so the referenced resource table is created
+ * with plain DDL. {@link TransactionPropagator} runs every propagated block that starts a
+ * transaction on one pooled connection and commits or rolls it back at the end of the block, so the
+ * row locks are held until the end of the transaction like with a transaction manager. The
+ * statements of {@link QuerydslSupport} run on the connection of the current transaction, or on a
+ * pooled connection in auto-commit mode outside of a transaction.
+ */
+public final class TestEnvironment implements AutoCloseable {
+
+  /**
+   * Handles the calls of a service interface method.
+   */
+  @FunctionalInterface
+  private interface ServiceMethodHandler {
+    Object handle(Method method, Object[] args) throws Exception;
+  }
+
+  /**
+   * A transaction of the test environment that runs on one connection.
+   */
+  private static final class Transaction {
+
+    private final List<CompletionCallback> completionCallbacks = new ArrayList<>();
+
+    private final Connection connection;
+
+    Transaction(final Connection connection) {
+      this.connection = connection;
+    }
+  }
+
+  private static final AtomicInteger DATABASE_COUNTER = new AtomicInteger();
+
+  private static final String CHANGELOG_RESOURCE =
+      "META-INF/liquibase/org.everit.authorization.ri.changelog.xml";
+
+  /**
+   * The table of the included resource changelog that the changelog of this component refers to.
+   */
+  private static final String RESOURCE_TABLE_DDL =
+      "CREATE TABLE res_resource (resource_id BIGINT NOT NULL,"
+          + " CONSTRAINT pk_res_resource PRIMARY KEY (resource_id))";
+
+  private static String addPrimaryKeyDdl(final Element change) {
+    return "ALTER TABLE " + change.getAttribute("tableName") + " ADD CONSTRAINT "
+        + change.getAttribute("constraintName") + " PRIMARY KEY ("
+        + change.getAttribute("columnNames") + ")";
+  }
+
+  /**
+   * Translates the changes of the changelog of this component to DDL statements in the order of
+   * the change sets.
+   */
+  private static List<String> changelogDdl() {
+    Document changelog;
+    try (InputStream inputStream =
+        TestEnvironment.class.getClassLoader().getResourceAsStream(CHANGELOG_RESOURCE)) {
+      if (inputStream == null) {
+        throw new IllegalStateException("Changelog not found on the classpath: "
+            + CHANGELOG_RESOURCE);
+      }
+      changelog = DocumentBuilderFactory.newInstance().newDocumentBuilder().parse(inputStream);
+    } catch (IOException | ParserConfigurationException | SAXException e) {
+      throw new IllegalStateException("Cannot read the changelog: " + CHANGELOG_RESOURCE, e);
+    }
+
+    List<String> ddl = new ArrayList<>();
+    for (Element changeSet : childElements(changelog.getDocumentElement(), "changeSet")) {
+      for (Element change : childElements(changeSet, null)) {
+        switch (change.getTagName()) {
+          case "createTable":
+            ddl.add(createTableDdl(change));
+            break;
+          case "addPrimaryKey":
+            ddl.add(addPrimaryKeyDdl(change));
+            break;
+          case "createIndex":
+            ddl.add(createIndexDdl(change));
+            break;
+          default:
+            throw new IllegalStateException("Change is not supported by the test environment: "
+                + change.getTagName());
+        }
+      }
+    }
+    return ddl;
+  }
+
+  /**
+   * Returns the child elements with the tag name or all child elements if the tag name is
+   * <code>null</code>.
+   */
+  private static List<Element> childElements(final Element parent, final String tagName) {
+    List<Element> result = new ArrayList<>();
+    NodeList children = parent.getChildNodes();
+    for (int i = 0, n = children.getLength(); i < n; i++) {
+      Node child = children.item(i);
+      if ((child instanceof Element)
+          && ((tagName == null) || tagName.equals(((Element) child).getTagName()))) {
+        result.add((Element) child);
+      }
+    }
+    return result;
+  }
+
+  private static String createIndexDdl(final Element change) {
+    StringJoiner columns = new StringJoiner(", ", " (", ")");
+    for (Element column : childElements(change, "column")) {
+      columns.add(column.getAttribute("name"));
+    }
+    return "CREATE INDEX " + change.getAttribute("indexName") + " ON "
+        + change.getAttribute("tableName") + columns;
+  }
+
+  private static String createTableDdl(final Element change) {
+    StringJoiner definitions = new StringJoiner(", ", " (", ")");
+    List<String> foreignKeys = new ArrayList<>();
+    for (Element column : childElements(change, "column")) {
+      String name = column.getAttribute("name");
+      StringBuilder definition = new StringBuilder(name).append(' ')
+          .append(column.getAttribute("type").toUpperCase(Locale.ENGLISH));
+      for (Element constraints : childElements(column, "constraints")) {
+        if ("false".equals(constraints.getAttribute("nullable"))) {
+          definition.append(" NOT NULL");
+        }
+        if (constraints.hasAttribute("foreignKeyName")) {
+          foreignKeys.add("CONSTRAINT " + constraints.getAttribute("foreignKeyName")
+              + " FOREIGN KEY (" + name + ") REFERENCES "
+              + constraints.getAttribute("referencedTableName") + " ("
+              + constraints.getAttribute("referencedColumnNames") + ")");
+        }
+      }
+      definitions.add(definition);
+    }
+    foreignKeys.forEach(definitions::add);
+    return "CREATE TABLE " + change.getAttribute("tableName") + definitions;
+  }
+
+
+  /**
+   * Calls the single abstract method of a functional interface instance like a lambda expression
+   * that was passed to one of the service methods.
+   */
+  private static Object invokeFunction(final Object function, final Object... args) {
+    for (Class<?> functionInterface : function.getClass().getInterfaces()) {
+      for (Method method : functionInterface.getMethods()) {
+        if (Modifier.isAbstract(method.getModifiers())
+            && (method.getParameterCount() == args.length)) {
+          try {
+            return method.invoke(function, args);
+          } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+          } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+              throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+              throw (Error) cause;
+            }
+            throw new IllegalStateException(cause);
+          }
+        }
+      }
+    }
+    throw new IllegalArgumentException("Not a functional interface instance: " + function);
+  }
+
+  private static <T> T unsupportedMethod(final Method method) {
+    throw new UnsupportedOperationException(method.getName() + " is not supported by the"
+        + " test environment");
+  }
+
+  private final Configuration configuration = new Configuration(new H2Templates());
+
+  private final JdbcConnectionPool dataSource;
+
+  private final PropertyManager propertyManager;
+
+  private final QuerydslSupport querydslSupport;
+
+  private final AtomicLong resourceIdSequence = new AtomicLong();
+
+  private final ResourceService resourceService;
+
+  private final TransactionPropagator transactionPropagator;
+
+  /**
+   * The transactions of the current thread. The first element is the current transaction, the
+   * others are suspended by a propagated block that requires a new transaction.
+   */
+  private final ThreadLocal<Deque<Transaction>> transactions =
+      ThreadLocal.withInitial(ArrayDeque::new);
+
+  private final TransactionSynchronizer transactionSynchronizer;
+
+  /**
+   * Creates a new in-memory database and the schema.
+   */
+  public TestEnvironment() {
+    dataSource = JdbcConnectionPool.create(
+        "jdbc:h2:mem:authr_test_" + DATABASE_COUNTER.incrementAndGet()
+            + ";DB_CLOSE_DELAY=-1;LOCK_TIMEOUT=10000",
+        "sa", "");
+    dataSource.setMaxConnections(Math.max(16, Runtime.getRuntime().availableProcessors() * 2));
+
+    try (Connection connection = dataSource.getConnection();
+        Statement statement = connection.createStatement()) {
+      statement.execute(RESOURCE_TABLE_DDL);
+      for (String sql : changelogDdl()) {
+        statement.execute(sql);
+      }
+    } catch (SQLException e) {
+      throw new IllegalStateException("Cannot create the test schema", e);
+    }
+
+    querydslSupport = createProxy(QuerydslSupport.class, (method, args) -> {
+      if (!"execute".equals(method.getName())) {
+        return unsupportedMethod(method);
+      }
+      Transaction transaction = transactions.get().peek();
+      if (transaction != null) {
+        return invokeFunction(args[0], transaction.connection, configuration);
+      }
+      try (Connection connection = dataSource.getConnection()) {
+        return invokeFunction(args[0], connection, configuration);
+      }
+    });
+
+    transactionPropagator = createProxy(TransactionPropagator.class, (method, args) -> {
+      boolean active = transactions.get().peek() != null;
+      switch (method.getName()) {
+        case "required":
+          return active ? invokeFunction(args[0]) : runInNewTransaction(args[0]);
+        case "requiresNew":
+          return runInNewTransaction(args[0]);
+        case "mandatory":
+          if (!active) {
+            throw new IllegalStateException("There is no active transaction");
+          }
+          return invokeFunction(args[0]);
+        case "supports":
+          return invokeFunction(args[0]);
+        default:
+          return unsupportedMethod(method);
+      }
+    });
+
+    transactionSynchronizer = callback -> {
+      Transaction transaction = transactions.get().peek();
+      if (transaction == null) {
+        return false;
+      }
+      transaction.completionCallbacks.add(callback);
+      return true;
+    };
+
+    Map<String, String> properties = new ConcurrentHashMap<>();
+    propertyManager = createProxy(PropertyManager.class, (method, args) -> {
+      switch (method.getName()) {
+        case "getProperty":
+          return properties.get(args[0]);
+        case "addProperty":
+        case "updateProperty":
+          return properties.put((String) args[0], (String) args[1]);
+        case "removeProperty":
+          return properties.remove(args[0]);
+        default:
+          return unsupportedMethod(method);
+      }
+    });
+
+    resourceService = createProxy(ResourceService.class, (method, args) -> {
+      if (!"createResource".equals(method.getName())) {
+        return unsupportedMethod(method);
+      }
+      return createResources(1)[0];
+    });
+  }
+
+  @Override
+  public void close() {
+    try (Connection connection = dataSource.getConnection();
+        Statement statement = connection.createStatement()) {
+      statement.execute("SHUTDOWN");
+    } catch (SQLException e) {
+      throw new IllegalStateException(e);
+    } finally {
+      dataSource.dispose();
+    }
+  }
+
+  private <T> T createProxy(final Class<T> serviceInterface,
+      final ServiceMethodHandler handler) {
+    return serviceInterface.cast(Proxy.newProxyInstance(serviceInterface.getClassLoader(),
+        new Class<?>[] { serviceInterface }, (proxy, method, args) -> {
+          if (method.getDeclaringClass() == Object.class) {
+            switch (method.getName()) {
+              case "equals":
+                return proxy == args[0];
+              case "hashCode":
+                return System.identityHashCode(proxy);
+              default:
+                return serviceInterface.getSimpleName() + "@test";
+            }
+          }
+          return handler.handle(method, args);
+        }));
+  }
+
+  /**
+   * Inserts new resources with one batch statement.
+   *
+   * @param count
+   *          the number of resources.
+   * @return the identifiers of the new resources.
+   */
+  public long[] createResources(final int count) {
+    long[] resourceIds = new long[count];
+    try (Connection connection = dataSource.getConnection();
+        PreparedStatement statement =
+            connection.prepareStatement("INSERT INTO res_resource (resource_id) VALUES (?)")) {
+      for (int i = 0; i < count; i++) {
+        resourceIds[i] = resourceIdSequence.incrementAndGet();
+        statement.setLong(1, resourceIds[i]);
+        statement.addBatch();
+      }
+      statement.executeBatch();
+    } catch (SQLException e) {
+      throw new IllegalStateException("Cannot create resources", e);
+    }
+    return resourceIds;
+  }
+
+  public Configuration getConfiguration() {
+    return configuration;
+  }
+
+  public PropertyManager getPropertyManager() {
+    return propertyManager;
+  }
+
+  public QuerydslSupport getQuerydslSupport() {
+    return querydslSupport;
+  }
+
+  public ResourceService getResourceService() {
+    return resourceService;
+  }
+
+  public TransactionPropagator getTransactionPropagator() {
+    return transactionPropagator;
+  }
+
+  /**
+   * The {@link TransactionSynchronizer} that registers the callbacks to the transactions of
+   * {@link #getTransactionPropagator()}.
+   */
+  public TransactionSynchronizer getTransactionSynchronizer() {
+    return transactionSynchronizer;
+  }
+
+  /**
+   * Runs the action in a new transaction that is committed if the action returns normally and
+   * rolled back if it throws an exception. The current transaction of the thread is suspended
+   * until the end of the new one.
+   */
+  private Object runInNewTransaction(final Object action) throws SQLException {
+    Deque<Transaction> threadTransactions = transactions.get();
+    Transaction transaction = new Transaction(dataSource.getConnection());
+    threadTransactions.push(transaction);
+    boolean committed = false;
+    try {
+      transaction.connection.setAutoCommit(false);
+      Object result = invokeFunction(action);
+      transaction.connection.commit();
+      committed = true;
+      return result;
+    } finally {
+      threadTransactions.pop();
+      try {
+        if (!committed) {
+          transaction.connection.rollback();
+        }
+        transaction.connection.setAutoCommit(true);
+      } finally {
+        transaction.connection.close();
+        for (CompletionCallback callback : transaction.completionCallbacks) {
+          callback.afterCompletion(committed);
+        }
+      }
+    }
+  }
+}
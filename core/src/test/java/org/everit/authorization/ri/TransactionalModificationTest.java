@@ -0,0 +1,230 @@
+/*
+ * Copyright (C) 2011 Everit Kft. (http://www.everit.biz)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.everit.authorization.ri;
+
+import java.util.concurrent.CompletableFuture;
+
+import org.everit.authorization.ri.AuthorizationMetricsListener.CacheType;
+import org.everit.authorization.ri.AuthorizationMetricsListener.DatabaseOperation;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Modifications that run within an enclosing transaction must not leave uncommitted or rolled back
+ * permissions in the cache, and caching must continue after the transaction completed. Without a
+ * transaction synchronizer the modifications must not join an enclosing transaction at all.
+ */
+public class TransactionalModificationTest {
+
+  /**
+   * Rolls back the enclosing transaction of the test.
+   */
+  private static class RollbackException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+  }
+
+  private static final String ACTION = "read";
+
+  /**
+   * Returns a resource whose cache stripe is different from the stripe of the passed resource.
+   */
+  private static long resourceOfOtherStripe(final long[] resourceIds, final long resourceId) {
+    for (long otherResourceId : resourceIds) {
+      if (CacheModificationGuard.stripeOf(otherResourceId) != CacheModificationGuard
+          .stripeOf(resourceId)) {
+        return otherResourceId;
+      }
+    }
+    throw new IllegalArgumentException("All resources are in the same stripe");
+  }
+
+  private TestEnvironment environment;
+
+  private InMemoryAuthorizationMetrics metrics;
+
+  private AuthorizationImpl createAuthorization(final AuthorizationConfiguration configuration) {
+    return new AuthorizationImpl(environment.getPropertyManager(),
+        environment.getResourceService(), environment.getTransactionPropagator(),
+        environment.getQuerydslSupport(), new CompactPermissionCache(),
+        new CompactPermissionInheritanceCache(), configuration.metricsListener(metrics));
+  }
+
+  private AuthorizationImpl createAuthorizationWithSynchronizer() {
+    return createAuthorization(new AuthorizationConfiguration()
+        .transactionSynchronizer(environment.getTransactionSynchronizer()));
+  }
+
+  /**
+   * Checks the permission outside of the transaction of the current thread.
+   */
+  private boolean hasPermissionInOtherThread(final AuthorizationImpl authorization,
+      final long authorizedResourceId, final long targetResourceId) {
+    return CompletableFuture
+        .supplyAsync(() -> authorization.hasPermission(authorizedResourceId, targetResourceId,
+            ACTION))
+        .join();
+  }
+
+  @Before
+  public void setUp() {
+    environment = new TestEnvironment();
+    metrics = new InMemoryAuthorizationMetrics();
+  }
+
+  @After
+  public void tearDown() {
+    environment.close();
+  }
+
+  @Test
+  public void testCachingContinuesAfterCommit() {
+    AuthorizationImpl authorization = createAuthorizationWithSynchronizer();
+    long[] resourceIds = environment.createResources(2);
+
+    environment.getTransactionPropagator().required(() -> {
+      authorization.addPermission(resourceIds[0], resourceIds[1], ACTION);
+      return null;
+    });
+
+    Assert.assertTrue(authorization.hasPermission(resourceIds[0], resourceIds[1], ACTION));
+    metrics.reset();
+    Assert.assertTrue(authorization.hasPermission(resourceIds[0], resourceIds[1], ACTION));
+    Assert.assertEquals(0, metrics.getDatabaseOperationCount(DatabaseOperation.READ_PERMISSIONS));
+    Assert.assertEquals(0, metrics.getCacheMissCount(CacheType.PERMISSION));
+  }
+
+  @Test
+  public void testCachingContinuesAfterRollback() {
+    AuthorizationImpl authorization = createAuthorizationWithSynchronizer();
+    long[] resourceIds = environment.createResources(2);
+
+    try {
+      environment.getTransactionPropagator().required(() -> {
+        authorization.addPermissionInheritance(resourceIds[1], resourceIds[0]);
+        throw new RollbackException();
+      });
+      Assert.fail("The transaction should have been rolled back");
+    } catch (RollbackException e) {
+      // Expected
+    }
+
+    Assert.assertArrayEquals(new long[] { resourceIds[0] },
+        authorization.getAuthorizationScope(resourceIds[0]));
+    metrics.reset();
+    authorization.getAuthorizationScope(resourceIds[0]);
+    Assert.assertEquals(1, metrics.getCacheHitCount(CacheType.AUTHORIZATION_SCOPE));
+    Assert.assertEquals(0, metrics.getCacheMissCount(CacheType.AUTHORIZATION_SCOPE));
+  }
+
+  @Test
+  public void testCommitWithSynchronizer() {
+    AuthorizationImpl authorization = createAuthorizationWithSynchronizer();
+    long[] resourceIds = environment.createResources(2);
+
+    environment.getTransactionPropagator().required(() -> {
+      authorization.addPermission(resourceIds[0], resourceIds[1], ACTION);
+      Assert.assertFalse(hasPermissionInOtherThread(authorization, resourceIds[0],
+          resourceIds[1]));
+      return null;
+    });
+
+    Assert.assertTrue(authorization.hasPermission(resourceIds[0], resourceIds[1], ACTION));
+    Assert.assertTrue(hasPermissionInOtherThread(authorization, resourceIds[0], resourceIds[1]));
+  }
+
+  @Test
+  public void testEnclosingTransactionWithoutSynchronizerIsRejected() {
+    AuthorizationImpl authorization = createAuthorization(new AuthorizationConfiguration());
+    long[] resourceIds = environment.createResources(2);
+
+    environment.getTransactionPropagator().required(() -> {
+      try {
+        authorization.addPermission(resourceIds[0], resourceIds[1], ACTION);
+        Assert.fail("The modification should have been rejected");
+      } catch (IllegalStateException e) {
+        // Expected
+      }
+      return null;
+    });
+
+    Assert.assertEquals(0, metrics.getDatabaseOperationCount(DatabaseOperation.INSERT));
+    Assert.assertFalse(authorization.hasPermission(resourceIds[0], resourceIds[1], ACTION));
+  }
+
+  @Test
+  public void testModificationWithoutSynchronizer() {
+    AuthorizationImpl authorization = createAuthorization(new AuthorizationConfiguration());
+    long[] resourceIds = environment.createResources(2);
+
+    Assert.assertFalse(authorization.hasPermission(resourceIds[0], resourceIds[1], ACTION));
+    authorization.addPermission(resourceIds[0], resourceIds[1], ACTION);
+
+    Assert.assertTrue(hasPermissionInOtherThread(authorization, resourceIds[0], resourceIds[1]));
+    metrics.reset();
+    Assert.assertTrue(authorization.hasPermission(resourceIds[0], resourceIds[1], ACTION));
+    Assert.assertEquals(0, metrics.getDatabaseOperationCount(DatabaseOperation.READ_PERMISSIONS));
+  }
+
+  @Test
+  public void testRollbackWithSynchronizer() {
+    AuthorizationImpl authorization = createAuthorizationWithSynchronizer();
+    long[] resourceIds = environment.createResources(2);
+
+    try {
+      environment.getTransactionPropagator().required(() -> {
+        authorization.addPermission(resourceIds[0], resourceIds[1], ACTION);
+        Assert.assertTrue(authorization.hasPermission(resourceIds[0], resourceIds[1], ACTION));
+        Assert.assertFalse(hasPermissionInOtherThread(authorization, resourceIds[0],
+            resourceIds[1]));
+        throw new RollbackException();
+      });
+      Assert.fail("The transaction should have been rolled back");
+    } catch (RollbackException e) {
+      // Expected
+    }
+
+    Assert.assertFalse(authorization.hasPermission(resourceIds[0], resourceIds[1], ACTION));
+    Assert.assertFalse(hasPermissionInOtherThread(authorization, resourceIds[0], resourceIds[1]));
+  }
+
+  @Test
+  public void testRunningModificationDisablesCachingOnlyOnItsStripes() {
+    AuthorizationImpl authorization = createAuthorizationWithSynchronizer();
+    long[] resourceIds = environment.createResources(8);
+    long modifiedResourceId = resourceIds[0];
+    long otherResourceId = resourceOfOtherStripe(resourceIds, modifiedResourceId);
+
+    environment.getTransactionPropagator().required(() -> {
+      authorization.addPermissionInheritance(resourceIds[1], modifiedResourceId);
+      CompletableFuture.runAsync(() -> {
+        authorization.getAuthorizationScope(otherResourceId);
+        authorization.getAuthorizationScope(modifiedResourceId);
+        metrics.reset();
+        authorization.getAuthorizationScope(otherResourceId);
+        authorization.getAuthorizationScope(modifiedResourceId);
+      }).join();
+      Assert.assertEquals(1, metrics.getCacheHitCount(CacheType.AUTHORIZATION_SCOPE));
+      Assert.assertEquals(1, metrics.getCacheMissCount(CacheType.AUTHORIZATION_SCOPE));
+      return null;
+    });
+
+    Assert.assertArrayEquals(new long[] { modifiedResourceId, resourceIds[1] },
+        authorization.getAuthorizationScope(modifiedResourceId));
+  }
+}